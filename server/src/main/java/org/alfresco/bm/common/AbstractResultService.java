@@ -27,13 +27,11 @@ package org.alfresco.bm.common;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -48,21 +46,25 @@ public abstract class AbstractResultService implements ResultService
     
     /**
      * {@inheritDoc}
+     * <p/>
+     * Records each result in turn; implementations should override this if there is a more efficient way.
      */
     @Override
-    public void getResults(
-            ResultHandler handler,
-            long startTime,
-            long windowSize,
-            long reportPeriod,
-            boolean chartOnly)
+    public void recordResults(List<EventRecord> results)
+    {
+        for (EventRecord result : results)
+        {
+            recordResult(result);
+        }
+    }
+    
+    /**
+     * Check the arguments given to {@link #getResults(ResultHandler, long, long, long, boolean)}
+     * 
+     * @throws IllegalArgumentException     if the handler is missing or the window does not fit the report period
+     */
+    protected static void checkResultsArguments(ResultHandler handler, long windowSize, long reportPeriod)
     {
-        /*
-         * Keep track of all events' statistics.
-         * It is possible to report more frequently than the window size.
-         * For each report period in the reporting window, the statistics for the events need to be maintained.
-         */
-        
         if (handler == null)
         {
             throw new IllegalArgumentException("A result handler must be supplied.");
@@ -83,14 +85,35 @@ public abstract class AbstractResultService implements ResultService
         {
             throw new IllegalArgumentException("'windowSize' must be a multiple of 'reportPeriod'.");
         }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void getResults(
+            ResultHandler handler,
+            long startTime,
+            long windowSize,
+            long reportPeriod,
+            boolean chartOnly)
+    {
+        /*
+         * Keep track of all events' statistics.
+         * It is possible to report more frequently than the window size.
+         * For each report period in the reporting window, the statistics for the events need to be maintained.
+         */
+        
+        checkResultsArguments(handler, windowSize, reportPeriod);
         
         // We have to keep statistics for each reporting period
         int windowMultiple = (int) (windowSize / reportPeriod);
         
         // Build stats for reporting back
-        // Each LinkedList will have 'windowMultiple' entries.
-        // The newest statistics will be the last in the linked list; results will be reported from the first entry each time.
-        Map<String, LinkedList<DescriptiveStatistics>> statsByEventName = new HashMap<String, LinkedList<DescriptiveStatistics>>(13);
+        // Each LinkedList will have up to 'windowMultiple' entries, one for each report period in the window.
+        // Results are only recorded against the newest, last entry; the entries are merged when reporting.
+        Map<String, LinkedList<LatencyHistogram>> statsByEventName = new HashMap<String, LinkedList<LatencyHistogram>>(13);
+        Map<String, LinkedList<LatencyHistogram>> intendedStatsByEventName = new HashMap<String, LinkedList<LatencyHistogram>>(13);
         Map<String, LinkedList<AtomicInteger>> failuresByEventName = new HashMap<String, LinkedList<AtomicInteger>>(13);
         
         // Our even queries use separate windows
@@ -116,19 +139,19 @@ public abstract class AbstractResultService implements ResultService
         }
         long queryWindowEndTime = queryWindowStartTime + queryWindowSize;
 
-        // Rebase the aggregation window to encompasse the first event
-        long currentWindowEndTime = (long) Math.floor((firstResultStartTime + reportPeriod) / reportPeriod) * reportPeriod;
-        long currentWindowStartTime = currentWindowEndTime - windowSize;
+        // The aggregation window is based on the first result read
+        long currentWindowEndTime = -1L;
+        long currentWindowStartTime = -1L;
         
-        // Iterate over the results
-        int skip = 0;
+        // Iterate over the results, each page continuing after the last result read
+        EventRecord lastRead = null;
         int limit = 10000;
         boolean stop = false;
         boolean unreportedResults = false;
 breakStop:
         while (!stop)
         {
-            List<EventRecord> results = getResults(queryWindowStartTime, queryWindowEndTime, chartOnly, skip, limit);
+            List<EventRecord> results = getResultsAfter(queryWindowStartTime, queryWindowEndTime, chartOnly, lastRead, limit);
             if (results.size() == 0)
             {
                 if (queryWindowEndTime > lastResultStartTime)
@@ -137,7 +160,7 @@ breakStop:
                     if (unreportedResults)
                     {
                         // The query window ends in the future, so we are done
-                        reportAndCycleStats(statsByEventName, failuresByEventName, currentWindowStartTime, currentWindowEndTime, windowMultiple, handler);
+                        reportAndCycleStats(statsByEventName, intendedStatsByEventName, failuresByEventName, currentWindowStartTime, currentWindowEndTime, windowMultiple, handler);
                         unreportedResults = false;
                     }
                     stop = true;
@@ -147,8 +170,8 @@ breakStop:
                     // Move the query window up
                     queryWindowStartTime = queryWindowEndTime;
                     queryWindowEndTime+= queryWindowSize;
-                    // Reset the skip count as we are in a new query window
-                    skip = 0;
+                    // Start at the beginning of the new query window
+                    lastRead = null;
                 }
                 // We continue
                 continue;
@@ -159,50 +182,74 @@ breakStop:
                 String eventRecordName = eventRecord.getEvent().getName();
                 long eventRecordStartTime = eventRecord.getStartTime();
                 long eventRecordTime = eventRecord.getTime();
+                long eventRecordIntendedTime = eventRecord.getIntendedTime();
                 boolean eventRecordSuccess = eventRecord.isSuccess();
                 
-                // If the current event is past the reporting period, then report
-                if (eventRecordStartTime >= currentWindowEndTime)
-                {
-                    // Report the current stats
-                    stop = reportAndCycleStats(statsByEventName, failuresByEventName, currentWindowStartTime, currentWindowEndTime, windowMultiple, handler);
-                    unreportedResults = false;
-                    // Shift the window up by one report period
-                    currentWindowStartTime += reportPeriod;
-                    currentWindowEndTime += reportPeriod;
-                    // Check for stop
-                    if (stop)
-                    {
-                        break breakStop;
-                    }
-                }
-                // Increase the skip with each window result
-                skip++;
+                // The next page continues after this result
+                lastRead = eventRecord;
                 
                 // Ignore results we don't wish to chart
                 if (chartOnly && !eventRecord.isChart())
                 {
                     continue;
                 }
+                
+                if (currentWindowEndTime < 0L)
+                {
+                    // Rebase the aggregation window to encompass the first event
+                    currentWindowEndTime = (eventRecordStartTime / reportPeriod) * reportPeriod + reportPeriod;
+                    currentWindowStartTime = currentWindowEndTime - windowSize;
+                }
+                else if (eventRecordStartTime >= currentWindowEndTime)
+                {
+                    // Report the current stats and then any empty report periods that follow while they are still in the window
+                    for (int i = 0; i < windowMultiple && eventRecordStartTime >= currentWindowEndTime; i++)
+                    {
+                        stop = reportAndCycleStats(statsByEventName, intendedStatsByEventName, failuresByEventName, currentWindowStartTime, currentWindowEndTime, windowMultiple, handler);
+                        unreportedResults = false;
+                        // Shift the window up by one report period
+                        currentWindowStartTime += reportPeriod;
+                        currentWindowEndTime += reportPeriod;
+                        // Check for stop
+                        if (stop)
+                        {
+                            break breakStop;
+                        }
+                    }
+                    if (eventRecordStartTime >= currentWindowEndTime)
+                    {
+                        // Nothing is left in the window, so start again from the report period of this event
+                        clearStats(statsByEventName, intendedStatsByEventName, failuresByEventName);
+                        currentWindowEndTime = (eventRecordStartTime / reportPeriod) * reportPeriod + reportPeriod;
+                        currentWindowStartTime = currentWindowEndTime - windowSize;
+                    }
+                }
 
                 // We have to report this result at some point
                 unreportedResults = true;
                 
                 // Get the linked list of stats for the event
-                LinkedList<DescriptiveStatistics> eventStatsLL = statsByEventName.get(eventRecordName);
+                LinkedList<LatencyHistogram> eventStatsLL = statsByEventName.get(eventRecordName);
                 if (eventStatsLL == null)
                 {
                     // Create a LL for the event
-                    eventStatsLL = new LinkedList<DescriptiveStatistics>();
+                    eventStatsLL = new LinkedList<LatencyHistogram>();
                     statsByEventName.put(eventRecordName, eventStatsLL);
                     // We need at least one entry in order to record stats
-                    eventStatsLL.add(new DescriptiveStatistics());
+                    eventStatsLL.add(new LatencyHistogram());
                 }
-                // Write the current event to all the stats for the event
-                for (DescriptiveStatistics eventStats : eventStatsLL)
+                // Write the current event to the stats for the current report period
+                eventStatsLL.getLast().recordValue(eventRecordTime);
+                
+                // Do the same for the intended-start latency
+                LinkedList<LatencyHistogram> eventIntendedStatsLL = intendedStatsByEventName.get(eventRecordName);
+                if (eventIntendedStatsLL == null)
                 {
-                    eventStats.addValue(eventRecordTime);
+                    eventIntendedStatsLL = new LinkedList<LatencyHistogram>();
+                    intendedStatsByEventName.put(eventRecordName, eventIntendedStatsLL);
+                    eventIntendedStatsLL.add(new LatencyHistogram());
                 }
+                eventIntendedStatsLL.getLast().recordValue(eventRecordIntendedTime);
 
                 // Get the linked list of failure counts for the event
                 LinkedList<AtomicInteger> eventFailuresLL = failuresByEventName.get(eventRecordName);
@@ -214,26 +261,24 @@ breakStop:
                     // Need one entry to record failures
                     eventFailuresLL.add(new AtomicInteger(0));
                 }
-                // Write any failures to all counts for the event
+                // Count any failure against the current report period
                 if (!eventRecordSuccess)
                 {
-                    for (AtomicInteger eventFailures : eventFailuresLL)
-                    {
-                        eventFailures.incrementAndGet();
-                    }
+                    eventFailuresLL.getLast().incrementAndGet();
                 }
             }
         }
     }
     
     /**
-     * Reports the oldest stats for the events and pops it off the list
+     * Reports the stats for the events over the window and starts the next report period
      * 
      * @param windowMultiple        the number of reporting entries to hold per event
      * @return                      <tt>true</tt> to stop processing
      */
     private boolean reportAndCycleStats(
-            Map<String, LinkedList<DescriptiveStatistics>> statsByEventName,
+            Map<String, LinkedList<LatencyHistogram>> statsByEventName,
+            Map<String, LinkedList<LatencyHistogram>> intendedStatsByEventName,
             Map<String, LinkedList<AtomicInteger>> failuresByEventName,
             long currentWindowStartTime,
             long currentWindowEndTime,
@@ -241,57 +286,34 @@ breakStop:
             ResultHandler handler)
     {
         // Handle stats
-        Map<String, DescriptiveStatistics> stats = new HashMap<String, DescriptiveStatistics>(statsByEventName.size() + 7);
-        for (Map.Entry<String, LinkedList<DescriptiveStatistics>> entry : statsByEventName.entrySet())
-        {
-            // Grab the OLDEST stats from the beginning of the list
-            String eventName = entry.getKey();
-            LinkedList<DescriptiveStatistics> ll = entry.getValue();
-            try
-            {
-                DescriptiveStatistics eventStats = ll.getFirst();
-                stats.put(eventName, eventStats);
-                if (ll.size() == windowMultiple)
-                {
-                    // We have enough reporting points for the window, so pop the first and add a new to the end
-                    ll.pop();
-                }
-                ll.add(new DescriptiveStatistics());
-            }
-            catch (NoSuchElementException e)
-            {
-                throw new RuntimeException("An event name did not have a result for the reporting period: " + statsByEventName);
-            }
-        }
+        Map<String, LatencyStatistics> stats = cycleStats(statsByEventName, windowMultiple);
+        Map<String, LatencyStatistics> intendedStats = cycleStats(intendedStatsByEventName, windowMultiple);
         
         // Handle failures
         Map<String, Integer> failures = new HashMap<String, Integer>(statsByEventName.size() + 7);
         for (Map.Entry<String, LinkedList<AtomicInteger>> entry : failuresByEventName.entrySet())
         {
-            // Grab the OLDEST stats from the beginning of the list
+            // Add up the failures of the report periods in the window
             String eventName = entry.getKey();
             LinkedList<AtomicInteger> ll = entry.getValue();
-            try
+            int eventFailures = 0;
+            for (AtomicInteger periodFailures : ll)
             {
-                AtomicInteger eventFailures = ll.getFirst();
-                failures.put(eventName, Integer.valueOf(eventFailures.get()));
-                if (ll.size() == windowMultiple)
-                {
-                    // We have enough reporting points for the window, so pop the first and add a new to the end
-                    ll.pop();
-                }
-                ll.add(new AtomicInteger());
+                eventFailures += periodFailures.get();
             }
-            catch (NoSuchElementException e)
+            failures.put(eventName, Integer.valueOf(eventFailures));
+            if (ll.size() == windowMultiple)
             {
-                throw new RuntimeException("An event name did not have a failure count for the reporting period: " + failuresByEventName);
+                // We have enough reporting points for the window, so pop the first and add a new to the end
+                ll.pop();
             }
+            ll.add(new AtomicInteger());
         }
         
         boolean stop = false;
         try
         {
-            boolean go = handler.processResult(currentWindowStartTime, currentWindowEndTime, stats, failures);
+            boolean go = handler.processResult(currentWindowStartTime, currentWindowEndTime, stats, intendedStats, failures);
             stop = !go;
         }
         catch (Throwable e)
@@ -300,4 +322,69 @@ breakStop:
         }
         return stop;
     }
+    
+    /**
+     * Drop the stats of all report periods, keeping a single new report period for each event
+     */
+    private void clearStats(
+            Map<String, LinkedList<LatencyHistogram>> statsByEventName,
+            Map<String, LinkedList<LatencyHistogram>> intendedStatsByEventName,
+            Map<String, LinkedList<AtomicInteger>> failuresByEventName)
+    {
+        for (LinkedList<LatencyHistogram> ll : statsByEventName.values())
+        {
+            ll.clear();
+            ll.add(new LatencyHistogram());
+        }
+        for (LinkedList<LatencyHistogram> ll : intendedStatsByEventName.values())
+        {
+            ll.clear();
+            ll.add(new LatencyHistogram());
+        }
+        for (LinkedList<AtomicInteger> ll : failuresByEventName.values())
+        {
+            ll.clear();
+            ll.add(new AtomicInteger());
+        }
+    }
+    
+    /**
+     * Merge the stats of the report periods in the window for each event and start new stats for the next reporting period
+     * 
+     * @param windowMultiple        the number of reporting entries to hold per event
+     * @return                      the stats over the window for each event
+     */
+    private Map<String, LatencyStatistics> cycleStats(
+            Map<String, LinkedList<LatencyHistogram>> statsByEventName,
+            int windowMultiple)
+    {
+        Map<String, LatencyStatistics> stats = new HashMap<String, LatencyStatistics>(statsByEventName.size() + 7);
+        for (Map.Entry<String, LinkedList<LatencyHistogram>> entry : statsByEventName.entrySet())
+        {
+            String eventName = entry.getKey();
+            LinkedList<LatencyHistogram> ll = entry.getValue();
+            LatencyHistogram windowHistogram;
+            if (ll.size() == 1)
+            {
+                // No other report periods to merge with
+                windowHistogram = ll.getFirst();
+            }
+            else
+            {
+                windowHistogram = new LatencyHistogram();
+                for (LatencyHistogram periodHistogram : ll)
+                {
+                    windowHistogram.add(periodHistogram);
+                }
+            }
+            stats.put(eventName, new HistogramStatistics(windowHistogram));
+            if (ll.size() == windowMultiple)
+            {
+                // We have enough reporting points for the window, so pop the first and add a new to the end
+                ll.pop();
+            }
+            ll.add(new LatencyHistogram());
+        }
+        return stats;
+    }
 }
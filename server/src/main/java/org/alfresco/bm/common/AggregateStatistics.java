@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common;
+
+/**
+ * {@link LatencyStatistics} built from values that have already been aggregated into a count, sum,
+ * sum of squares, minimum and maximum, for example by a database query.  Aggregates can be added together,
+ * so the statistics of several time periods can be combined without going back to the values.
+ * <p/>
+ * The individual values are not kept, so percentiles are not known.
+ * 
+ * @since 3.0.3
+ */
+public class AggregateStatistics implements LatencyStatistics
+{
+    private long n;
+    private double sum;
+    private double sumSq;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    public AggregateStatistics()
+    {
+    }
+
+    /**
+     * Add aggregated values
+     * 
+     * @param n                 the number of values (nothing is added if zero)
+     * @param sum               the sum of the values
+     * @param sumSq             the sum of the squares of the values
+     * @param min               the smallest value
+     * @param max               the largest value
+     */
+    public void add(long n, double sum, double sumSq, double min, double max)
+    {
+        if (n < 0L)
+        {
+            throw new IllegalArgumentException("'n' may not be negative.");
+        }
+        if (n == 0L)
+        {
+            return;
+        }
+        if (this.n == 0L)
+        {
+            this.min = min;
+            this.max = max;
+        }
+        else
+        {
+            this.min = Math.min(this.min, min);
+            this.max = Math.max(this.max, max);
+        }
+        this.n += n;
+        this.sum += sum;
+        this.sumSq += sumSq;
+    }
+
+    /**
+     * Add all values of other aggregates to these
+     */
+    public void add(AggregateStatistics other)
+    {
+        add(other.n, other.sum, other.sumSq, other.min, other.max);
+    }
+
+    public void addValue(double v)
+    {
+        add(1L, v, v * v, v, v);
+    }
+
+    @Override
+    public long getN()
+    {
+        return n;
+    }
+
+    @Override
+    public double getSum()
+    {
+        return sum;
+    }
+
+    public double getSumsq()
+    {
+        return sumSq;
+    }
+
+    @Override
+    public double getMean()
+    {
+        return (n == 0L) ? Double.NaN : sum / n;
+    }
+
+    @Override
+    public double getMin()
+    {
+        return min;
+    }
+
+    @Override
+    public double getMax()
+    {
+        return max;
+    }
+
+    /**
+     * @return                  the bias-corrected sample variance
+     */
+    @Override
+    public double getVariance()
+    {
+        if (n == 0L)
+        {
+            return Double.NaN;
+        }
+        else if (n == 1L)
+        {
+            return 0.0;
+        }
+        // Rounding can take the difference just below zero
+        double variance = (sumSq - (sum * sum / n)) / (n - 1L);
+        return Math.max(0.0, variance);
+    }
+
+    @Override
+    public double getStandardDeviation()
+    {
+        return (n == 0L) ? Double.NaN : Math.sqrt(getVariance());
+    }
+
+    /**
+     * @return                  always <tt>NaN</tt> as percentiles cannot be worked out from aggregates
+     */
+    @Override
+    public double getPercentile(double p)
+    {
+        return Double.NaN;
+    }
+
+    public void clear()
+    {
+        n = 0L;
+        sum = 0.0;
+        sumSq = 0.0;
+        min = Double.NaN;
+        max = Double.NaN;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AggregateStatistics [n=" + n + ", sum=" + sum + ", sumSq=" + sumSq + ", min=" + min + ", max=" + max + "]";
+    }
+}
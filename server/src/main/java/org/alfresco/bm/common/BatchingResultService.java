@@ -0,0 +1,618 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common;
+
+import org.alfresco.bm.common.spring.LifecycleListener;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ResultService} that writes results in the background, in batches, so that recording a result does
+ * not wait for the underlying service.
+ * <p/>
+ * Results are held in a bounded queue and written by a single thread whenever a {@link #setBatchSize(int) batch}
+ * has built up or the oldest result has waited for the {@link #setFlushPeriod(long) flush period}.  When the
+ * queue is full, callers wait for space, which slows the drivers down if the underlying service cannot keep up.
+ * Results that cannot be queued within the {@link #setMaxWait(long) maximum wait} are dropped and counted.
+ * <p/>
+ * Results still queued are written before any results are read back and when the service is stopped.
+ * 
+ * @since 3.0.3
+ */
+public class BatchingResultService implements ResultService, LifecycleListener
+{
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_FLUSH_PERIOD = 1000L;
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+    public static final long DEFAULT_MAX_WAIT = 30000L;
+    /** How long to wait for the writer to finish when stopping */
+    private static final long STOP_WAIT = 60000L;
+    /** How often to warn about results being dropped */
+    private static final long DROP_WARNING_PERIOD = 10000L;
+    /** Tells the writer to write what it has straight away */
+    private static final Object FLUSH = new Object();
+
+    private static Log logger = LogFactory.getLog(BatchingResultService.class);
+
+    private final ResultService resultService;
+    private boolean async = true;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long flushPeriod = DEFAULT_FLUSH_PERIOD;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private long maxWait = DEFAULT_MAX_WAIT;
+
+    private volatile BlockingQueue<Object> queue;
+    private volatile Thread writer;
+    private volatile boolean running;
+    /** Written when results have been dealt with */
+    private final Object processedLock = new Object();
+    /** The number of results accepted for writing */
+    private final AtomicLong accepted = new AtomicLong();
+    /** The number of accepted results that have been written or have failed */
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private volatile long lastDropWarning;
+
+    /**
+     * @param resultService     the service that results are written to
+     */
+    public BatchingResultService(ResultService resultService)
+    {
+        if (resultService == null)
+        {
+            throw new IllegalArgumentException("'resultService' may not be null.");
+        }
+        this.resultService = resultService;
+    }
+
+    /**
+     * Set to <tt>false</tt> to write each result straight to the underlying service
+     */
+    public void setAsync(boolean async)
+    {
+        this.async = async;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_BATCH_SIZE default} largest number of results written together
+     */
+    public void setBatchSize(int batchSize)
+    {
+        if (batchSize < 1)
+        {
+            throw new IllegalArgumentException("'batchSize' must be at least 1.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_FLUSH_PERIOD default} longest time (milliseconds) that a result waits
+     * for a batch to fill up
+     */
+    public void setFlushPeriod(long flushPeriod)
+    {
+        if (flushPeriod < 1L)
+        {
+            throw new IllegalArgumentException("'flushPeriod' must be at least 1ms.");
+        }
+        this.flushPeriod = flushPeriod;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_QUEUE_SIZE default} number of results that can wait to be written
+     */
+    public void setQueueSize(int queueSize)
+    {
+        if (queueSize < 1)
+        {
+            throw new IllegalArgumentException("'queueSize' must be at least 1.");
+        }
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_MAX_WAIT default} longest time (milliseconds) that a caller waits for space
+     * in the queue before the result is dropped
+     */
+    public void setMaxWait(long maxWait)
+    {
+        if (maxWait < 0L)
+        {
+            throw new IllegalArgumentException("'maxWait' cannot be negative.");
+        }
+        this.maxWait = maxWait;
+    }
+
+    @Override
+    public synchronized void start()
+    {
+        running = true;
+    }
+
+    /**
+     * Write all queued results and stop the writer.  Results recorded after this are written directly.
+     */
+    @Override
+    public void stop()
+    {
+        Thread writerThread;
+        synchronized (this)
+        {
+            if (!running)
+            {
+                return;
+            }
+            running = false;
+            writerThread = writer;
+            writer = null;
+        }
+        if (writerThread != null)
+        {
+            queue.offer(FLUSH);
+            try
+            {
+                writerThread.join(STOP_WAIT);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            if (writerThread.isAlive())
+            {
+                logger.warn("Result writer did not finish within " + STOP_WAIT + "ms; writing the remaining results directly.");
+                writerThread.interrupt();
+            }
+            // Anything left is written here
+            writeQueued();
+        }
+        logger.info(
+                "Results written: " + written.get() + ", batches: " + flushes.get() + ", failed: " + failed.get() +
+                ", dropped: " + dropped.get() + ", waits for space: " + waits.get());
+    }
+
+    /**
+     * @return                  the number of results waiting to be written, including those being written
+     */
+    public long getQueueDepth()
+    {
+        return accepted.get() - processed.get();
+    }
+
+    /**
+     * @return                  the number of results written to the underlying service
+     */
+    public long getWrittenCount()
+    {
+        return written.get();
+    }
+
+    /**
+     * @return                  the number of batches written to the underlying service
+     */
+    public long getFlushCount()
+    {
+        return flushes.get();
+    }
+
+    /**
+     * @return                  the number of results that the underlying service failed to write
+     */
+    public long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    /**
+     * @return                  the number of results dropped because there was no space to queue them
+     */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * @return                  the number of times that callers had to wait for space in the queue
+     */
+    public long getWaitCount()
+    {
+        return waits.get();
+    }
+
+    /**
+     * Start the writer when the first result is queued
+     * 
+     * @return                  <tt>true</tt> if results can be queued
+     */
+    private boolean ensureWriter()
+    {
+        if (writer != null && running)
+        {
+            return true;
+        }
+        return startWriter();
+    }
+
+    private synchronized boolean startWriter()
+    {
+        if (!running || !async)
+        {
+            return false;
+        }
+        if (writer == null)
+        {
+            if (queue == null)
+            {
+                queue = new ArrayBlockingQueue<Object>(queueSize);
+            }
+            writer = new Thread(new WriterRunnable(), "BatchingResultService-Writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        return true;
+    }
+
+    /**
+     * Queue a result, waiting for space if necessary
+     */
+    private void enqueue(EventRecord result)
+    {
+        // Count it first so that a flush includes it
+        accepted.incrementAndGet();
+        boolean queued = queue.offer(result);
+        if (!queued)
+        {
+            // The writer has fallen behind
+            waits.incrementAndGet();
+            try
+            {
+                queued = queue.offer(result, maxWait, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!queued)
+        {
+            accepted.decrementAndGet();
+            dropped.incrementAndGet();
+            long now = System.currentTimeMillis();
+            if (now - lastDropWarning > DROP_WARNING_PERIOD)
+            {
+                lastDropWarning = now;
+                logger.warn("Results are being dropped as they cannot be written quickly enough; " + dropped.get() + " dropped so far.");
+            }
+        }
+    }
+
+    @Override
+    public void recordResult(EventRecord result)
+    {
+        if (result == null)
+        {
+            throw new IllegalArgumentException("EventRecord may not be null.");
+        }
+        if (!ensureWriter())
+        {
+            resultService.recordResult(result);
+            return;
+        }
+        enqueue(result);
+    }
+
+    @Override
+    public void recordResults(List<EventRecord> results)
+    {
+        if (!ensureWriter())
+        {
+            resultService.recordResults(results);
+            return;
+        }
+        for (EventRecord result : results)
+        {
+            if (result == null)
+            {
+                throw new IllegalArgumentException("EventRecord may not be null.");
+            }
+            enqueue(result);
+        }
+    }
+
+    @Override
+    public void flush()
+    {
+        BlockingQueue<Object> currentQueue = queue;
+        if (currentQueue == null)
+        {
+            // Nothing has ever been queued
+            return;
+        }
+        long target = accepted.get();
+        if (processed.get() >= target)
+        {
+            return;
+        }
+        Thread writerThread = writer;
+        if (writerThread == null)
+        {
+            writeQueued();
+            return;
+        }
+        currentQueue.offer(FLUSH);
+        synchronized (processedLock)
+        {
+            while (processed.get() < target && writerThread.isAlive())
+            {
+                try
+                {
+                    processedLock.wait(flushPeriod);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write whatever is in the queue on the calling thread
+     */
+    private void writeQueued()
+    {
+        BlockingQueue<Object> currentQueue = queue;
+        if (currentQueue == null)
+        {
+            return;
+        }
+        List<Object> objs = new ArrayList<Object>(currentQueue.size());
+        currentQueue.drainTo(objs);
+        List<EventRecord> batch = new ArrayList<EventRecord>(objs.size());
+        for (Object obj : objs)
+        {
+            if (obj != FLUSH)
+            {
+                batch.add((EventRecord) obj);
+            }
+        }
+        write(batch);
+    }
+
+    /**
+     * Write a batch to the underlying service, recording the outcome
+     */
+    private void write(List<EventRecord> batch)
+    {
+        if (batch.isEmpty())
+        {
+            return;
+        }
+        try
+        {
+            resultService.recordResults(batch);
+            written.addAndGet(batch.size());
+            flushes.incrementAndGet();
+        }
+        catch (RuntimeException e)
+        {
+            failed.addAndGet(batch.size());
+            logger.error("Failed to write " + batch.size() + " results.", e);
+        }
+        finally
+        {
+            processed.addAndGet(batch.size());
+            synchronized (processedLock)
+            {
+                processedLock.notifyAll();
+            }
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Wrote " + batch.size() + " results; " + getQueueDepth() + " waiting.");
+        }
+    }
+
+    /**
+     * Collects results into batches and writes them until the service is stopped and the queue is empty
+     * 
+     * @since 3.0.3
+     */
+    private class WriterRunnable implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            List<EventRecord> batch = new ArrayList<EventRecord>(batchSize);
+            try
+            {
+                while (true)
+                {
+                    Object obj = queue.poll(flushPeriod, TimeUnit.MILLISECONDS);
+                    if (obj == null)
+                    {
+                        if (!running)
+                        {
+                            break;
+                        }
+                        continue;
+                    }
+                    // Fill the batch until it is full, the oldest result has waited long enough or we are asked to write
+                    long flushTime = System.currentTimeMillis() + flushPeriod;
+                    while (obj != null)
+                    {
+                        if (obj == FLUSH)
+                        {
+                            break;
+                        }
+                        batch.add((EventRecord) obj);
+                        if (batch.size() >= batchSize)
+                        {
+                            break;
+                        }
+                        long wait = running ? flushTime - System.currentTimeMillis() : 0L;
+                        obj = (wait > 0L) ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+                    }
+                    write(batch);
+                    batch.clear();
+                    if (!running && queue.isEmpty())
+                    {
+                        break;
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // Whatever is left is written by the thread that stopped us
+            }
+            finally
+            {
+                write(batch);
+            }
+        }
+    }
+
+    @Override
+    public String getDataLocation()
+    {
+        return resultService.getDataLocation();
+    }
+
+    @Override
+    public EventRecord getFirstResult()
+    {
+        flush();
+        return resultService.getFirstResult();
+    }
+
+    @Override
+    public EventRecord getLastResult()
+    {
+        flush();
+        return resultService.getLastResult();
+    }
+
+    @Override
+    public List<EventRecord> getResults(String eventName, int skip, int limit)
+    {
+        flush();
+        return resultService.getResults(eventName, skip, limit);
+    }
+
+    @Override
+    public List<EventRecord> getResults(long startTime, long endTime, boolean chartOnly, int skip, int limit)
+    {
+        flush();
+        return resultService.getResults(startTime, endTime, chartOnly, skip, limit);
+    }
+
+    @Override
+    public List<EventRecord> getResultsAfter(long startTime, long endTime, boolean chartOnly, EventRecord after, int limit)
+    {
+        flush();
+        return resultService.getResultsAfter(startTime, endTime, chartOnly, after, limit);
+    }
+
+    @Override
+    public void getResults(ResultHandler handler, long startTime, long windowSize, long reportPeriod, boolean chartOnly)
+    {
+        flush();
+        resultService.getResults(handler, startTime, windowSize, reportPeriod, chartOnly);
+    }
+
+    @Override
+    public List<EventDetails> getEventDetails(EventResultFilter filter, String filterEventName, int skip, int limit)
+    {
+        flush();
+        return resultService.getEventDetails(filter, filterEventName, skip, limit);
+    }
+
+    @Override
+    public List<EventDetails> getEventDetailsBefore(EventResultFilter filter, String filterEventName, String beforeId, int limit)
+    {
+        flush();
+        return resultService.getEventDetailsBefore(filter, filterEventName, beforeId, limit);
+    }
+
+    @Override
+    public List<String> getEventNames()
+    {
+        flush();
+        return resultService.getEventNames();
+    }
+
+    @Override
+    public long countResults()
+    {
+        flush();
+        return resultService.countResults();
+    }
+
+    @Override
+    public long countResultsByEventName(String name)
+    {
+        flush();
+        return resultService.countResultsByEventName(name);
+    }
+
+    @Override
+    public long countResultsBySuccess()
+    {
+        flush();
+        return resultService.countResultsBySuccess();
+    }
+
+    @Override
+    public long countResultsByFailure()
+    {
+        flush();
+        return resultService.countResultsByFailure();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Results still queued are written first so that they are cleared as well.
+     */
+    @Override
+    public boolean clear()
+    {
+        flush();
+        return resultService.clear();
+    }
+}
@@ -80,6 +80,31 @@ public class EventDetails implements Serializable
                 .setEventInputData(inputData)
                 .setEventResultData(resultData);
     }
+    /** Stores the ID of the event result */
+    private String eventId;
+
+    /**
+     * @return (String, may be null) the ID of the event result, used to page through event details
+     * 
+     * @since 3.0.3
+     */
+    public String getEventId()
+    {
+        return eventId;
+    }
+
+    /**
+     * @param eventId
+     *            (String, optional) the ID of the event result
+     * 
+     * @since 3.0.3
+     */
+    public EventDetails setEventId(String eventId)
+    {
+        this.eventId = eventId;
+        return this;
+    }
+
     /** Stores the event time */
     private Date eventTime;
 
@@ -197,7 +222,8 @@ public class EventDetails implements Serializable
     {
         StringBuilder builder = new StringBuilder();
         builder.append("EventDetails ");
-        builder.append("[ eventTime=").append(eventTime);
+        builder.append("[ eventId=").append(eventId);
+        builder.append(", eventTime=").append(eventTime);
         builder.append(", eventName=").append(eventName);
         builder.append(", eventSuccess=").append(eventSuccess);
         builder.append(", eventInputData=").append(eventInputData);
@@ -215,6 +241,7 @@ public class EventDetails implements Serializable
     {
         DBObject eventObj = BasicDBObjectBuilder
                 .start()
+                .add("eventId", eventId)
                 .add("eventTime", eventTime)
                 .add("eventName", eventName)
                 .add("eventSuccess", eventSuccess)
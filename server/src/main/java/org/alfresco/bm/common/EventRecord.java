@@ -43,6 +43,7 @@ public class EventRecord
     public static final String FIELD_SUCCESS = "success";
     public static final String FIELD_START_TIME = "startTime";
     public static final String FIELD_START_DELAY = "startDelay";
+    public static final String FIELD_DISPATCH_LAG = "dispatchLag";
     public static final String FIELD_TIME = "time";
     public static final String FIELD_DATA = "data";
     public static final String FIELD_VALUE = "value";
@@ -65,6 +66,7 @@ public class EventRecord
     private final boolean success;
     private final long startTime;
     private long startDelay;
+    private long dispatchLag;
     private final long time;
     private final Event event;
     private final Object data;
@@ -126,6 +128,7 @@ public class EventRecord
         builder.append(", success=").append(success);
         builder.append(", startTime=").append(new Date(startTime));
         builder.append(", startDelay=").append(String.format("%.1fs", startDelay/1000.0));
+        builder.append(", dispatchLag=").append(String.format("%.3fms", dispatchLag/1000.0));
         builder.append(", time=").append(time).append("ms");
         builder.append(", data=").append(data);
         builder.append(", event=").append(event);
@@ -166,11 +169,40 @@ public class EventRecord
         this.startDelay = startDelay;
     }
 
+    /**
+     * @return              the time (microseconds) between the event's scheduled time and the moment
+     *                      the driver handed it over for processing
+     * 
+     * @since 3.0.3
+     */
+    public long getDispatchLag()
+    {
+        return dispatchLag;
+    }
+    public void setDispatchLag(long dispatchLag)
+    {
+        this.dispatchLag = dispatchLag;
+    }
+
     public long getTime()
     {
         return time;
     }
 
+    /**
+     * Get the time from when the event was <i>meant</i> to start to when it completed.  Unlike the
+     * {@link #getTime() service time}, this includes any time the event spent waiting to be processed
+     * and is therefore not hidden when the driver falls behind (coordinated omission).
+     * 
+     * @return              the start delay plus the service time
+     * 
+     * @since 3.0.3
+     */
+    public long getIntendedTime()
+    {
+        return Math.max(0L, startDelay) + time;
+    }
+
     public Event getEvent()
     {
         return event;
@@ -0,0 +1,130 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common;
+
+/**
+ * {@link LatencyStatistics} backed by a {@link LatencyHistogram} so that any number of values can be
+ * summarised in fixed memory.  The count, sum, mean, minimum, maximum and deviation are exact and
+ * {@link #getPercentile(double) percentiles} are estimated from the histogram.
+ * 
+ * @since 3.0.3
+ */
+public class HistogramStatistics implements LatencyStatistics
+{
+    private final LatencyHistogram histogram;
+
+    public HistogramStatistics()
+    {
+        this(new LatencyHistogram());
+    }
+
+    /**
+     * @param histogram         the values to summarise, which may be added to afterwards
+     */
+    public HistogramStatistics(LatencyHistogram histogram)
+    {
+        if (histogram == null)
+        {
+            throw new IllegalArgumentException("'histogram' may not be null.");
+        }
+        this.histogram = histogram;
+    }
+
+    public LatencyHistogram getHistogram()
+    {
+        return histogram;
+    }
+
+    /**
+     * Record the value, rounded to the nearest millisecond
+     */
+    public void addValue(double v)
+    {
+        histogram.recordValue(Math.round(v));
+    }
+
+    @Override
+    public long getN()
+    {
+        return histogram.getCount();
+    }
+
+    @Override
+    public double getSum()
+    {
+        return histogram.getSum();
+    }
+
+    public double getSumsq()
+    {
+        return histogram.getSumOfSquares();
+    }
+
+    @Override
+    public double getMean()
+    {
+        return histogram.getMean();
+    }
+
+    @Override
+    public double getMin()
+    {
+        return histogram.getMin();
+    }
+
+    @Override
+    public double getMax()
+    {
+        return histogram.getMax();
+    }
+
+    @Override
+    public double getVariance()
+    {
+        return histogram.getVariance();
+    }
+
+    @Override
+    public double getStandardDeviation()
+    {
+        return histogram.getStandardDeviation();
+    }
+
+    /**
+     * @see LatencyHistogram#getValueAtPercentile(double)
+     */
+    @Override
+    public double getPercentile(double p)
+    {
+        return histogram.getValueAtPercentile(p);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HistogramStatistics [" + histogram + "]";
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies (milliseconds) in buckets that are exact for small values and grow with the value,
+ * so that any value is placed in a bucket no wider than {@value #PRECISION_PERCENT}% of the value.
+ * <p/>
+ * Values can be recorded from any number of threads without locking.  The count, sum, minimum and maximum
+ * are kept exactly, so only percentiles are approximate.  Histograms can be merged and can be written to
+ * and read from MongoDB, with only the buckets in use being stored.
+ * 
+ * @since 3.0.3
+ */
+public class LatencyHistogram
+{
+    public static final String FIELD_COUNT = "n";
+    public static final String FIELD_SUM = "sum";
+    public static final String FIELD_SUM_SQUARES = "sumSq";
+    public static final String FIELD_MIN = "min";
+    public static final String FIELD_MAX = "max";
+    /** Pairs of bucket index and bucket count */
+    public static final String FIELD_BUCKETS = "buckets";
+
+    /** The percentiles given in reports and charts */
+    public static final double[] REPORT_PERCENTILES = new double[] {50.0, 90.0, 95.0, 99.0, 99.9};
+    /** Short names of the {@link #REPORT_PERCENTILES}, in the same order */
+    public static final String[] REPORT_PERCENTILE_NAMES = new String[] {"p50", "p90", "p95", "p99", "p999"};
+
+    /** The number of bits of each value that are kept */
+    private static final int SUB_BUCKET_BITS = 7;
+    /** Values below this have a bucket each */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+    /** The largest power of two that is bucketed; larger values are counted in the last bucket */
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_BUCKETED_VALUE = (1L << (MAX_EXPONENT + 1)) - 1L;
+    /** The largest relative width of a bucket */
+    public static final double PRECISION_PERCENT = 100.0 / SUB_BUCKET_HALF_COUNT;
+    static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final DoubleAdder sumSquares = new DoubleAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @return                  the bucket that holds the value
+     */
+    static int getBucket(long value)
+    {
+        if (value < SUB_BUCKET_COUNT)
+        {
+            return (int) Math.max(0L, value);
+        }
+        value = Math.min(value, MAX_BUCKETED_VALUE);
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >>> shift);            // Between half and all of the sub-buckets
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (subBucket - SUB_BUCKET_HALF_COUNT);
+    }
+
+    /**
+     * @return                  the smallest value held by a bucket
+     */
+    static long getBucketLowestValue(int bucket)
+    {
+        if (bucket < SUB_BUCKET_COUNT)
+        {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        long subBucket = (bucket - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return subBucket << shift;
+    }
+
+    /**
+     * @return                  the largest value held by a bucket
+     */
+    static long getBucketHighestValue(int bucket)
+    {
+        if (bucket < SUB_BUCKET_COUNT)
+        {
+            return bucket;
+        }
+        if (bucket == BUCKET_COUNT - 1)
+        {
+            return Long.MAX_VALUE;
+        }
+        return getBucketLowestValue(bucket + 1) - 1L;
+    }
+
+    /**
+     * Record a value
+     * 
+     * @param value             the latency (milliseconds), with negative values being counted as zero
+     */
+    public void recordValue(long value)
+    {
+        value = Math.max(0L, value);
+        buckets.incrementAndGet(getBucket(value));
+        count.increment();
+        sum.add(value);
+        sumSquares.add((double) value * (double) value);
+        long currentMin = min.get();
+        while (value < currentMin && !min.compareAndSet(currentMin, value))
+        {
+            currentMin = min.get();
+        }
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value))
+        {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Add the values recorded in another histogram to this one
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            long bucketCount = other.buckets.get(i);
+            if (bucketCount != 0L)
+            {
+                buckets.addAndGet(i, bucketCount);
+            }
+        }
+        addSummary(other.getCount(), other.getSum(), other.getSumOfSquares(), other.min.get(), other.max.get());
+    }
+
+    private void addSummary(long otherCount, long otherSum, double otherSumSquares, long otherMin, long otherMax)
+    {
+        count.add(otherCount);
+        sum.add(otherSum);
+        sumSquares.add(otherSumSquares);
+        long currentMin = min.get();
+        while (otherMin < currentMin && !min.compareAndSet(currentMin, otherMin))
+        {
+            currentMin = min.get();
+        }
+        long currentMax = max.get();
+        while (otherMax > currentMax && !max.compareAndSet(currentMax, otherMax))
+        {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * @return                  the number of values recorded
+     */
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    /**
+     * @return                  the sum of the values recorded
+     */
+    public long getSum()
+    {
+        return sum.sum();
+    }
+
+    /**
+     * @return                  the sum of the squares of the values recorded
+     */
+    public double getSumOfSquares()
+    {
+        return sumSquares.sum();
+    }
+
+    /**
+     * @return                  the smallest value recorded or {@link Double#NaN} if there are none
+     */
+    public double getMin()
+    {
+        long value = min.get();
+        return (value == Long.MAX_VALUE) ? Double.NaN : value;
+    }
+
+    /**
+     * @return                  the largest value recorded or {@link Double#NaN} if there are none
+     */
+    public double getMax()
+    {
+        long value = max.get();
+        return (value == Long.MIN_VALUE) ? Double.NaN : value;
+    }
+
+    /**
+     * @return                  the mean of the values recorded or {@link Double#NaN} if there are none
+     */
+    public double getMean()
+    {
+        long n = getCount();
+        return (n == 0L) ? Double.NaN : (double) getSum() / n;
+    }
+
+    /**
+     * @return                  the (bias-corrected) sample variance, zero for a single value or
+     *                          {@link Double#NaN} if there are no values
+     */
+    public double getVariance()
+    {
+        long n = getCount();
+        if (n == 0L)
+        {
+            return Double.NaN;
+        }
+        else if (n == 1L)
+        {
+            return 0.0;
+        }
+        double mean = getMean();
+        double variance = (getSumOfSquares() - n * mean * mean) / (n - 1);
+        return Math.max(0.0, variance);
+    }
+
+    /**
+     * @return                  the sample standard deviation
+     * @see #getVariance()
+     */
+    public double getStandardDeviation()
+    {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Estimate the value below which a given percentage of the values fall.  The estimate is the middle
+     * of the bucket holding the value, kept within the smallest and largest values recorded.
+     * 
+     * @param percentile        the percentile (greater than zero and at most 100)
+     * @return                  the estimated value or {@link Double#NaN} if there are no values
+     */
+    public double getValueAtPercentile(double percentile)
+    {
+        if (!(percentile > 0.0 && percentile <= 100.0))
+        {
+            throw new IllegalArgumentException("Percentile must be greater than zero and at most 100: " + percentile);
+        }
+        long n = getCount();
+        if (n == 0L)
+        {
+            return Double.NaN;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += buckets.get(i);
+            if (seen >= rank)
+            {
+                long lowest = getBucketLowestValue(i);
+                long highest = getBucketHighestValue(i);
+                double value = lowest + (Math.min(highest, max.get()) - lowest) / 2.0;
+                return Math.max(getMin(), Math.min(getMax(), value));
+            }
+        }
+        // Values were added while we were looking
+        return getMax();
+    }
+
+    /**
+     * @return                  a document holding the summary and the buckets in use
+     */
+    public DBObject toDBObject()
+    {
+        List<Long> bucketList = new ArrayList<Long>();
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            long bucketCount = buckets.get(i);
+            if (bucketCount != 0L)
+            {
+                bucketList.add(Long.valueOf(i));
+                bucketList.add(Long.valueOf(bucketCount));
+            }
+        }
+        return new BasicDBObject()
+                .append(FIELD_COUNT, Long.valueOf(getCount()))
+                .append(FIELD_SUM, Long.valueOf(getSum()))
+                .append(FIELD_SUM_SQUARES, Double.valueOf(getSumOfSquares()))
+                .append(FIELD_MIN, Long.valueOf(min.get()))
+                .append(FIELD_MAX, Long.valueOf(max.get()))
+                .append(FIELD_BUCKETS, bucketList);
+    }
+
+    /**
+     * Add the values in a document written by {@link #toDBObject()} to this histogram
+     * 
+     * @throws IllegalArgumentException if the document is not a histogram
+     */
+    public void add(DBObject obj)
+    {
+        try
+        {
+            List<?> bucketList = (List<?>) obj.get(FIELD_BUCKETS);
+            for (int i = 0; i + 1 < bucketList.size(); i += 2)
+            {
+                int bucket = ((Number) bucketList.get(i)).intValue();
+                long bucketCount = ((Number) bucketList.get(i + 1)).longValue();
+                buckets.addAndGet(bucket, bucketCount);
+            }
+            addSummary(
+                    ((Number) obj.get(FIELD_COUNT)).longValue(),
+                    ((Number) obj.get(FIELD_SUM)).longValue(),
+                    ((Number) obj.get(FIELD_SUM_SQUARES)).doubleValue(),
+                    ((Number) obj.get(FIELD_MIN)).longValue(),
+                    ((Number) obj.get(FIELD_MAX)).longValue());
+        }
+        catch (NullPointerException | ClassCastException | IndexOutOfBoundsException e)
+        {
+            throw new IllegalArgumentException("Not a latency histogram: " + obj, e);
+        }
+    }
+
+    /**
+     * @return                  a histogram read from a document written by {@link #toDBObject()}
+     */
+    public static LatencyHistogram fromDBObject(DBObject obj)
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.add(obj);
+        return histogram;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LatencyHistogram [count=" + getCount() + ", mean=" + getMean() + ", min=" + getMin() + ", max=" + getMax() + "]";
+    }
+}
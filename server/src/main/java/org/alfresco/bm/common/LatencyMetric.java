@@ -0,0 +1,62 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common;
+
+/**
+ * The latency figures that are used to judge a test run against its service level agreement (SLA).
+ * 
+ * @see TestConstants#PROP_RESULTS_SLA_LATENCY
+ * 
+ * @since 3.0.3
+ */
+public enum LatencyMetric
+{
+    /** The time taken to process each event i.e. the {@link EventRecord#getTime() service time} */
+    Service,
+    
+    /** The time from when each event was scheduled to when it completed i.e. the {@link EventRecord#getIntendedTime() intended-start} latency */
+    Intended;
+    
+    /**
+     * @param value             the name of the metric (may be <tt>null</tt>)
+     * @return                  the metric by name or {@link #Service} if the value is not recognised
+     */
+    public static LatencyMetric fromString(String value)
+    {
+        if (value == null)
+        {
+            return Service;
+        }
+        try
+        {
+            return LatencyMetric.valueOf(value.trim());
+        }
+        catch (IllegalArgumentException e)
+        {
+            return Service;
+        }
+    }
+}
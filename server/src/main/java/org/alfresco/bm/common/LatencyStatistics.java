@@ -0,0 +1,80 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common;
+
+/**
+ * Summary statistics of latencies that have been recorded.  Implementations do not keep the individual
+ * values, so any number of values can be summarised and statistics can be combined cheaply.
+ * 
+ * @see HistogramStatistics
+ * @see AggregateStatistics
+ * 
+ * @since 3.0.3
+ */
+public interface LatencyStatistics
+{
+    /**
+     * @return                  the number of values recorded
+     */
+    long getN();
+
+    /**
+     * @return                  the sum of the values recorded
+     */
+    double getSum();
+
+    /**
+     * @return                  the mean of the values recorded or {@link Double#NaN} if there are none
+     */
+    double getMean();
+
+    /**
+     * @return                  the smallest value recorded or {@link Double#NaN} if there are none
+     */
+    double getMin();
+
+    /**
+     * @return                  the largest value recorded or {@link Double#NaN} if there are none
+     */
+    double getMax();
+
+    /**
+     * @return                  the (bias-corrected) sample variance, zero for a single value or
+     *                          {@link Double#NaN} if there are no values
+     */
+    double getVariance();
+
+    /**
+     * @return                  the standard deviation of the values or {@link Double#NaN} if there are none
+     */
+    double getStandardDeviation();
+
+    /**
+     * @param p                 the percentile (greater than zero and at most 100)
+     * @return                  the estimated value at the percentile or {@link Double#NaN} if it is not known
+     */
+    double getPercentile(double p);
+}
@@ -25,8 +25,8 @@
  */
 package org.alfresco.bm.common;
 
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -50,6 +50,32 @@ public interface ResultService
      */
     void recordResult(EventRecord result);
     
+    /**
+     * Store a number of events in as few operations as possible.  By default, each result is
+     * {@link #recordResult(EventRecord) recorded} in turn.
+     * 
+     * @param results           the results to store
+     * 
+     * @since 3.0.3
+     */
+    default void recordResults(List<EventRecord> results)
+    {
+        for (EventRecord result : results)
+        {
+            recordResult(result);
+        }
+    }
+    
+    /**
+     * Wait for all results recorded so far to be written so that other services and drivers
+     * can see them.  Implementations that write results as they are recorded have nothing to do.
+     * 
+     * @since 3.0.3
+     */
+    default void flush()
+    {
+    }
+    
     /**
      * Retrieve the first result by start time
      * 
@@ -87,6 +113,54 @@ public interface ResultService
             boolean chartOnly,
             int skip, int limit);
     
+    /**
+     * Retrieve a page of event results using a time window, filtering by chartability.  Results are
+     * ordered by start time and ID and each page continues from the last result of the previous page,
+     * so that no results have to be skipped over.
+     * <p/>
+     * By default, the results {@link #getResults(long, long, boolean, int, int) paged} from the start
+     * time of the last result are skipped up to and including the last result.
+     * 
+     * @param startTime         the first event time (inclusive, milliseconds)
+     * @param endTime           the last event time (exclusive, milliseconds)
+     * @param chartOnly         <tt>true</tt> to only retrieve results for charting
+     * @param after             the last result of the previous page or <tt>null</tt> for the first page
+     * @param limit             the number of results to retrieve
+     * 
+     * @since 3.0.3
+     */
+    default List<EventRecord> getResultsAfter(
+            long startTime,
+            long endTime,
+            boolean chartOnly,
+            EventRecord after,
+            int limit)
+    {
+        if (after == null)
+        {
+            return getResults(startTime, endTime, chartOnly, 0, limit);
+        }
+        long afterStartTime = Math.max(startTime, after.getStartTime());
+        int skip = 0;
+        while (true)
+        {
+            List<EventRecord> results = getResults(afterStartTime, endTime, chartOnly, skip, limit);
+            for (int i = 0; i < results.size(); i++)
+            {
+                if (after.getId().equals(results.get(i).getId()))
+                {
+                    return getResults(afterStartTime, endTime, chartOnly, skip + i + 1, limit);
+                }
+            }
+            if (results.isEmpty() || results.size() < limit)
+            {
+                // The last result has gone, so carry on from the next start time
+                return getResults(afterStartTime + 1L, endTime, chartOnly, 0, limit);
+            }
+            skip += results.size();
+        }
+    }
+    
     /**
      * Callback handler for aggregated results.  The results include all results for the
      * given window of time, even if there are multiple callbacks covering the same time
@@ -99,6 +173,10 @@ public interface ResultService
     {
         /**
          * The callback of statistics for a given time window.
+         * <p/>
+         * Before 3.0.3, the statistics were given as <tt>DescriptiveStatistics</tt>.  Handlers need to
+         * change their signature to take {@link LatencyStatistics}, which has the same getters for
+         * the count, sum, mean, minimum, maximum, variance, standard deviation and percentiles.
          * 
          * @param fromTime      the start of the time window (inclusive)
          * @param toTime        the end of the time window (exclusive i.e. no result will have occured at this time)
@@ -110,8 +188,33 @@ public interface ResultService
         boolean processResult(
                 long fromTime,
                 long toTime,
-                Map<String, DescriptiveStatistics> statsByEventName,
+                Map<String, LatencyStatistics> statsByEventName,
                 Map<String, Integer> failuresByEventName) throws Throwable;
+        
+        /**
+         * The callback of statistics for a given time window, including the
+         * {@link EventRecord#getIntendedTime() intended-start} latencies.
+         * Override this method to receive both sets of statistics.
+         * 
+         * @param fromTime      the start of the time window (inclusive)
+         * @param toTime        the end of the time window (exclusive i.e. no result will have occured at this time)
+         * @param statsByEventName          service time statistics for the time window keyed by event name
+         * @param intendedStatsByEventName  intended-start latency statistics for the time window keyed by event name
+         * @param failuresByEventName       the number of failures in the time window keyed by event name
+         * @return              <tt>true</tt> to continue processing otherwise <tt>false</tt>
+         * @throws              all exceptions will be handled
+         * 
+         * @since 3.0.3
+         */
+        default boolean processResult(
+                long fromTime,
+                long toTime,
+                Map<String, LatencyStatistics> statsByEventName,
+                Map<String, LatencyStatistics> intendedStatsByEventName,
+                Map<String, Integer> failuresByEventName) throws Throwable
+        {
+            return processResult(fromTime, toTime, statsByEventName, failuresByEventName);
+        }
     }
     
     /**
@@ -156,6 +259,55 @@ public interface ResultService
             int limit
             );
     
+    /**
+     * Query and returns event result details, newest first, continuing from the last details of the
+     * previous page so that no results have to be skipped over.
+     * 
+     * @param filter
+     *            (EventResultFilter) filter by fail / success / none
+     * @param filterEventName
+     *            (String, optional) if set only the results for the given event will be returned
+     * @param beforeId
+     *            (String, optional) the {@link EventDetails#getEventId() ID} of the last details of the previous page
+     *            or <tt>null</tt> for the first page
+     * @param limit
+     *            (int) max number of results to return
+     * 
+     * @return List of event details
+     * 
+     * @since 3.0.3
+     */
+    default List<EventDetails> getEventDetailsBefore(
+            EventResultFilter filter,
+            String filterEventName,
+            String beforeId,
+            int limit
+            )
+    {
+        if (beforeId == null)
+        {
+            return getEventDetails(filter, filterEventName, 0, limit);
+        }
+        // Page through until the last details of the previous page are found
+        int skip = 0;
+        while (true)
+        {
+            List<EventDetails> details = getEventDetails(filter, filterEventName, skip, limit);
+            for (int i = 0; i < details.size(); i++)
+            {
+                if (beforeId.equals(details.get(i).getEventId()))
+                {
+                    return getEventDetails(filter, filterEventName, skip + i + 1, limit);
+                }
+            }
+            if (details.isEmpty() || details.size() < limit)
+            {
+                return Collections.emptyList();
+            }
+            skip += details.size();
+        }
+    }
+    
     /**
      * Get a discrete list of event names from across all the results
      */
@@ -0,0 +1,839 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.alfresco.bm.common.mongo.MongoResultRollups;
+import org.alfresco.bm.common.mongo.MongoResultRollups.RollupHandler;
+import org.alfresco.bm.common.spring.LifecycleListener;
+import org.alfresco.bm.driver.event.Event;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link ResultService} that aggregates the results recorded by a driver into {@link LatencyHistogram histograms}
+ * for each event name and writes them, once per {@link #setInterval(long) interval}, as
+ * {@link MongoResultRollups rollups}.  Time series and summaries can then be built by adding up histograms
+ * instead of reading every result.
+ * <p/>
+ * The results themselves are still passed on to the underlying service, but they can be
+ * {@link #setRawSampleRate(double) sampled} to cut down on the data written during long tests.  Failures and
+ * {@link Event#EVENT_NAME_START start} events are always kept.  When results are sampled, the counts and event
+ * names come from the rollups, which lag behind the results by up to two intervals.
+ * <p/>
+ * Histograms are recorded without locking.  A read-write lock only keeps results from being recorded into an
+ * interval while it is being taken away to be written.  Results that arrive after their interval was written are
+ * written in a further rollup for the same interval.
+ * 
+ * @since 3.0.3
+ */
+public class RollupResultService implements ResultService, LifecycleListener
+{
+    public static final long DEFAULT_INTERVAL = 1000L;
+    /** How long to wait for the flusher to finish when stopping */
+    private static final long STOP_WAIT = 60000L;
+
+    private static Log logger = LogFactory.getLog(RollupResultService.class);
+
+    private final ResultService resultService;
+    private final MongoResultRollups rollups;
+    private boolean enabled = true;
+    private long interval = DEFAULT_INTERVAL;
+    private double rawSampleRate = 1.0;
+
+    /** Intervals not yet written, keyed by the start of the interval */
+    private final ConcurrentSkipListMap<Long, ConcurrentMap<String, EventRollup>> intervals =
+            new ConcurrentSkipListMap<Long, ConcurrentMap<String, EventRollup>>();
+    /** Held to record results and held exclusively to take intervals away for writing */
+    private final ReadWriteLock intervalsLock = new ReentrantReadWriteLock();
+    private volatile Thread flusher;
+    private volatile boolean running;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * @param resultService     the service that results are passed on to
+     * @param rollups           the rollups written and read by this service
+     */
+    public RollupResultService(ResultService resultService, MongoResultRollups rollups)
+    {
+        if (resultService == null)
+        {
+            throw new IllegalArgumentException("'resultService' may not be null.");
+        }
+        if (rollups == null)
+        {
+            throw new IllegalArgumentException("'rollups' may not be null.");
+        }
+        this.resultService = resultService;
+        this.rollups = rollups;
+    }
+
+    /**
+     * Set to <tt>false</tt> to pass results straight to the underlying service without writing rollups
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_INTERVAL default} length (milliseconds) of time covered by each rollup
+     */
+    public void setInterval(long interval)
+    {
+        if (interval < 1L)
+        {
+            throw new IllegalArgumentException("'interval' must be at least 1ms.");
+        }
+        this.interval = interval;
+    }
+
+    /**
+     * Set the fraction of successful results passed on to the underlying service
+     * 
+     * @param rawSampleRate     from <tt>0.0</tt> (keep only failures) to <tt>1.0</tt> (keep everything)
+     */
+    public void setRawSampleRate(double rawSampleRate)
+    {
+        if (rawSampleRate < 0.0 || rawSampleRate > 1.0)
+        {
+            throw new IllegalArgumentException("'rawSampleRate' must be from 0.0 to 1.0.");
+        }
+        this.rawSampleRate = rawSampleRate;
+    }
+
+    /**
+     * @return                  <tt>true</tt> if only some of the results are passed on
+     */
+    private boolean isSampled()
+    {
+        return enabled && rawSampleRate < 1.0;
+    }
+
+    @Override
+    public synchronized void start()
+    {
+        running = true;
+    }
+
+    /**
+     * Write all intervals and stop the flusher.  Rollups recorded after this are written directly.
+     */
+    @Override
+    public void stop()
+    {
+        Thread flusherThread;
+        synchronized (this)
+        {
+            if (!running)
+            {
+                return;
+            }
+            running = false;
+            flusherThread = flusher;
+            flusher = null;
+            notifyAll();
+        }
+        if (flusherThread != null)
+        {
+            try
+            {
+                flusherThread.join(STOP_WAIT);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Anything left is written here
+        flush(Long.MAX_VALUE);
+        logger.info(
+                "Result rollups written: " + written.get() + ", failed: " + failed.get() +
+                ", results not sampled: " + discarded.get());
+    }
+
+    /**
+     * @return                  the number of rollups written
+     */
+    public long getWrittenCount()
+    {
+        return written.get();
+    }
+
+    /**
+     * @return                  the number of rollups that could not be written
+     */
+    public long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    /**
+     * @return                  the number of results not passed on because of {@link #setRawSampleRate(double) sampling}
+     */
+    public long getDiscardedCount()
+    {
+        return discarded.get();
+    }
+
+    /**
+     * Start the flusher when the first result is recorded
+     * 
+     * @return                  <tt>true</tt> if intervals will be written in the background
+     */
+    private boolean ensureFlusher()
+    {
+        if (flusher != null && running)
+        {
+            return true;
+        }
+        return startFlusher();
+    }
+
+    private synchronized boolean startFlusher()
+    {
+        if (!running)
+        {
+            return false;
+        }
+        if (flusher == null)
+        {
+            flusher = new Thread(new FlusherRunnable(), "RollupResultService-Flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        return true;
+    }
+
+    /**
+     * Add a result to the rollup of its interval
+     */
+    private void rollup(EventRecord result)
+    {
+        long startTime = result.getStartTime();
+        Long time = Long.valueOf(startTime - Math.floorMod(startTime, interval));
+        String key = result.getDriverId() + "\u0000" + result.getEvent().getName() + "\u0000" + result.isChart();
+        intervalsLock.readLock().lock();
+        try
+        {
+            ConcurrentMap<String, EventRollup> eventRollups = intervals.get(time);
+            if (eventRollups == null)
+            {
+                eventRollups = new ConcurrentHashMap<String, EventRollup>();
+                ConcurrentMap<String, EventRollup> existing = intervals.putIfAbsent(time, eventRollups);
+                eventRollups = (existing == null) ? eventRollups : existing;
+            }
+            EventRollup eventRollup = eventRollups.get(key);
+            if (eventRollup == null)
+            {
+                eventRollup = new EventRollup(result);
+                EventRollup existing = eventRollups.putIfAbsent(key, eventRollup);
+                eventRollup = (existing == null) ? eventRollup : existing;
+            }
+            eventRollup.record(result);
+        }
+        finally
+        {
+            intervalsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return                  <tt>true</tt> if the result must be passed on to the underlying service
+     */
+    private boolean sample(EventRecord result)
+    {
+        if (!isSampled() || !result.isSuccess() || Event.EVENT_NAME_START.equals(result.getEvent().getName()))
+        {
+            return true;
+        }
+        else if (ThreadLocalRandom.current().nextDouble() < rawSampleRate)
+        {
+            return true;
+        }
+        discarded.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Write the intervals that end before the given time
+     */
+    private void flush(long endTime)
+    {
+        Map<Long, ConcurrentMap<String, EventRollup>> due;
+        intervalsLock.writeLock().lock();
+        try
+        {
+            ConcurrentNavigableMap<Long, ConcurrentMap<String, EventRollup>> head = (endTime == Long.MAX_VALUE)
+                    ? intervals
+                    : intervals.headMap(Long.valueOf(endTime - interval), true);
+            if (head.isEmpty())
+            {
+                return;
+            }
+            due = new HashMap<Long, ConcurrentMap<String, EventRollup>>(head);
+            head.clear();
+        }
+        finally
+        {
+            intervalsLock.writeLock().unlock();
+        }
+        // Write outside of the lock; results for these intervals will start new rollups
+        for (Map.Entry<Long, ConcurrentMap<String, EventRollup>> entry : due.entrySet())
+        {
+            long time = entry.getKey().longValue();
+            List<DBObject> events = new ArrayList<DBObject>(entry.getValue().size());
+            for (EventRollup eventRollup : entry.getValue().values())
+            {
+                events.add(eventRollup.toDBObject());
+            }
+            try
+            {
+                rollups.writeRollup(time, interval, events);
+                written.incrementAndGet();
+            }
+            catch (RuntimeException e)
+            {
+                failed.incrementAndGet();
+                logger.error("Failed to write result rollup for " + events.size() + " events.", e);
+            }
+        }
+    }
+
+    @Override
+    public void recordResult(EventRecord result)
+    {
+        if (!enabled)
+        {
+            resultService.recordResult(result);
+            return;
+        }
+        rollup(result);
+        if (!ensureFlusher())
+        {
+            flush(Long.MAX_VALUE);
+        }
+        if (sample(result))
+        {
+            resultService.recordResult(result);
+        }
+    }
+
+    @Override
+    public void recordResults(List<EventRecord> results)
+    {
+        if (!enabled)
+        {
+            resultService.recordResults(results);
+            return;
+        }
+        List<EventRecord> sampled = new ArrayList<EventRecord>(results.size());
+        for (EventRecord result : results)
+        {
+            rollup(result);
+            if (sample(result))
+            {
+                sampled.add(result);
+            }
+        }
+        if (!ensureFlusher())
+        {
+            flush(Long.MAX_VALUE);
+        }
+        if (!sampled.isEmpty())
+        {
+            resultService.recordResults(sampled);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * When results are sampled, the rollups recorded so far are written as well.
+     */
+    @Override
+    public void flush()
+    {
+        if (isSampled())
+        {
+            flush(Long.MAX_VALUE);
+        }
+        resultService.flush();
+    }
+
+    /**
+     * Writes the intervals that have ended until the service is stopped
+     * 
+     * @since 3.0.3
+     */
+    private class FlusherRunnable implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                synchronized (RollupResultService.this)
+                {
+                    if (!running)
+                    {
+                        break;
+                    }
+                    try
+                    {
+                        RollupResultService.this.wait(interval);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        break;
+                    }
+                }
+                // Results for an interval can arrive for one more interval after it ends
+                flush(System.currentTimeMillis() - interval);
+            }
+        }
+    }
+
+    /**
+     * The histograms of one event name for one interval
+     * 
+     * @since 3.0.3
+     */
+    private static class EventRollup
+    {
+        private final String driverId;
+        private final String name;
+        private final boolean chart;
+        private final LatencyHistogram success = new LatencyHistogram();
+        private final LatencyHistogram failure = new LatencyHistogram();
+        private final LatencyHistogram intendedSuccess = new LatencyHistogram();
+        private final LatencyHistogram intendedFailure = new LatencyHistogram();
+
+        private EventRollup(EventRecord result)
+        {
+            this.driverId = result.getDriverId();
+            this.name = result.getEvent().getName();
+            this.chart = result.isChart();
+        }
+
+        private void record(EventRecord result)
+        {
+            if (result.isSuccess())
+            {
+                success.recordValue(result.getTime());
+                intendedSuccess.recordValue(result.getIntendedTime());
+            }
+            else
+            {
+                failure.recordValue(result.getTime());
+                intendedFailure.recordValue(result.getIntendedTime());
+            }
+        }
+
+        private DBObject toDBObject()
+        {
+            DBObject eventObj = new BasicDBObject()
+                    .append(MongoResultRollups.FIELD_DRIVER_ID, driverId)
+                    .append(MongoResultRollups.FIELD_NAME, name)
+                    .append(MongoResultRollups.FIELD_CHART, Boolean.valueOf(chart));
+            if (success.getCount() > 0L)
+            {
+                eventObj.put(MongoResultRollups.FIELD_SUCCESS, success.toDBObject());
+                eventObj.put(MongoResultRollups.FIELD_INTENDED_SUCCESS, intendedSuccess.toDBObject());
+            }
+            if (failure.getCount() > 0L)
+            {
+                eventObj.put(MongoResultRollups.FIELD_FAILURE, failure.toDBObject());
+                eventObj.put(MongoResultRollups.FIELD_INTENDED_FAILURE, intendedFailure.toDBObject());
+            }
+            return eventObj;
+        }
+    }
+
+    /**
+     * @return                  <tt>true</tt> if rollups have been written
+     */
+    public boolean hasRollups()
+    {
+        return rollups.hasRollups();
+    }
+
+    /**
+     * Read the rollups in time order
+     * 
+     * @see MongoResultRollups#getRollups(long, RollupHandler)
+     */
+    public void getRollups(long startTime, RollupHandler handler)
+    {
+        rollups.getRollups(startTime, handler);
+    }
+
+    @Override
+    public String getDataLocation()
+    {
+        return resultService.getDataLocation();
+    }
+
+    @Override
+    public EventRecord getFirstResult()
+    {
+        return resultService.getFirstResult();
+    }
+
+    @Override
+    public EventRecord getLastResult()
+    {
+        return resultService.getLastResult();
+    }
+
+    @Override
+    public List<EventRecord> getResults(String eventName, int skip, int limit)
+    {
+        return resultService.getResults(eventName, skip, limit);
+    }
+
+    @Override
+    public List<EventRecord> getResults(long startTime, long endTime, boolean chartOnly, int skip, int limit)
+    {
+        return resultService.getResults(startTime, endTime, chartOnly, skip, limit);
+    }
+
+    @Override
+    public List<EventRecord> getResultsAfter(long startTime, long endTime, boolean chartOnly, EventRecord after, int limit)
+    {
+        return resultService.getResultsAfter(startTime, endTime, chartOnly, after, limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The statistics are built from the rollups if there are any and the report period is a multiple of
+     * their interval.  The reporting windows start with the first rollup after the start time.
+     */
+    @Override
+    public void getResults(ResultHandler handler, long startTime, long windowSize, long reportPeriod, boolean chartOnly)
+    {
+        if (handler == null)
+        {
+            throw new IllegalArgumentException("A result handler must be supplied.");
+        }
+        if (windowSize <= 0L || reportPeriod <= 0L || reportPeriod > windowSize || windowSize % reportPeriod != 0L)
+        {
+            // Let the underlying service explain
+            resultService.getResults(handler, startTime, windowSize, reportPeriod, chartOnly);
+            return;
+        }
+        long rollupInterval = rollups.getInterval();
+        if (rollupInterval <= 0L)
+        {
+            resultService.getResults(handler, startTime, windowSize, reportPeriod, chartOnly);
+            return;
+        }
+        else if (reportPeriod % rollupInterval != 0L)
+        {
+            if (isSampled())
+            {
+                logger.warn(
+                        "The report period (" + reportPeriod + "ms) is not a multiple of the rollup interval (" +
+                        rollupInterval + "ms); statistics are built from sampled results.");
+            }
+            resultService.getResults(handler, startTime, windowSize, reportPeriod, chartOnly);
+            return;
+        }
+        RollupWindows windows = new RollupWindows(handler, windowSize, reportPeriod, chartOnly);
+        rollups.getRollups(startTime - Math.floorMod(startTime, rollupInterval), windows);
+        windows.finish();
+    }
+
+    /**
+     * The results of one event name in one report period
+     */
+    private static class PeriodStats
+    {
+        private final LatencyHistogram time = new LatencyHistogram();
+        private final LatencyHistogram intendedTime = new LatencyHistogram();
+        private int failures;
+
+        private void add(DBObject eventObj)
+        {
+            DBObject successObj = (DBObject) eventObj.get(MongoResultRollups.FIELD_SUCCESS);
+            if (successObj != null)
+            {
+                time.add(successObj);
+                intendedTime.add((DBObject) eventObj.get(MongoResultRollups.FIELD_INTENDED_SUCCESS));
+            }
+            DBObject failureObj = (DBObject) eventObj.get(MongoResultRollups.FIELD_FAILURE);
+            if (failureObj != null)
+            {
+                time.add(failureObj);
+                intendedTime.add((DBObject) eventObj.get(MongoResultRollups.FIELD_INTENDED_FAILURE));
+                failures += ((Number) failureObj.get(LatencyHistogram.FIELD_COUNT)).intValue();
+            }
+        }
+    }
+
+    /**
+     * Adds up rollups into report periods and reports the periods in sliding windows, in the same way that
+     * {@link AbstractResultService} does with results.
+     */
+    private class RollupWindows implements RollupHandler
+    {
+        private final ResultHandler handler;
+        private final long windowSize;
+        private final long reportPeriod;
+        private final int windowMultiple;
+        private final boolean chartOnly;
+        /** The event names seen so far, which are reported in every window */
+        private final Set<String> eventNames = new LinkedHashSet<String>(13);
+        /** The most recent report periods, oldest first */
+        private final LinkedList<Map<String, PeriodStats>> periods = new LinkedList<Map<String, PeriodStats>>();
+        private Map<String, PeriodStats> current;
+        private long currentStartTime;
+        private boolean stop;
+
+        private RollupWindows(ResultHandler handler, long windowSize, long reportPeriod, boolean chartOnly)
+        {
+            this.handler = handler;
+            this.windowSize = windowSize;
+            this.reportPeriod = reportPeriod;
+            this.windowMultiple = (int) (windowSize / reportPeriod);
+            this.chartOnly = chartOnly;
+        }
+
+        @Override
+        public boolean processRollup(long time, long interval, List<DBObject> events)
+        {
+            long periodStartTime = time - Math.floorMod(time, reportPeriod);
+            if (current == null)
+            {
+                current = new HashMap<String, PeriodStats>(13);
+                currentStartTime = periodStartTime;
+            }
+            else if (periodStartTime > currentStartTime)
+            {
+                // Report the period and then any that follow it while they are still in the window
+                if (!report())
+                {
+                    return false;
+                }
+                for (int i = 1; i < windowMultiple && currentStartTime + reportPeriod < periodStartTime; i++)
+                {
+                    current = new HashMap<String, PeriodStats>(13);
+                    currentStartTime += reportPeriod;
+                    if (!report())
+                    {
+                        return false;
+                    }
+                }
+                if (currentStartTime + reportPeriod < periodStartTime)
+                {
+                    // Nothing is left in the window
+                    periods.clear();
+                }
+                current = new HashMap<String, PeriodStats>(13);
+                currentStartTime = periodStartTime;
+            }
+            for (DBObject eventObj : events)
+            {
+                if (chartOnly && !Boolean.TRUE.equals(eventObj.get(MongoResultRollups.FIELD_CHART)))
+                {
+                    continue;
+                }
+                String eventName = (String) eventObj.get(MongoResultRollups.FIELD_NAME);
+                eventNames.add(eventName);
+                PeriodStats periodStats = current.get(eventName);
+                if (periodStats == null)
+                {
+                    periodStats = new PeriodStats();
+                    current.put(eventName, periodStats);
+                }
+                periodStats.add(eventObj);
+            }
+            return true;
+        }
+
+        /**
+         * Report the last period
+         */
+        private void finish()
+        {
+            if (current != null && !stop)
+            {
+                report();
+            }
+        }
+
+        /**
+         * Report the window that ends with the current period
+         * 
+         * @return                  <tt>true</tt> to continue
+         */
+        private boolean report()
+        {
+            periods.add(current);
+            if (periods.size() > windowMultiple)
+            {
+                periods.removeFirst();
+            }
+            Map<String, LatencyStatistics> stats = new HashMap<String, LatencyStatistics>(eventNames.size() + 7);
+            Map<String, LatencyStatistics> intendedStats = new HashMap<String, LatencyStatistics>(eventNames.size() + 7);
+            Map<String, Integer> failures = new HashMap<String, Integer>(eventNames.size() + 7);
+            for (String eventName : eventNames)
+            {
+                LatencyHistogram time = new LatencyHistogram();
+                LatencyHistogram intendedTime = new LatencyHistogram();
+                int eventFailures = 0;
+                for (Map<String, PeriodStats> period : periods)
+                {
+                    PeriodStats periodStats = period.get(eventName);
+                    if (periodStats != null)
+                    {
+                        time.add(periodStats.time);
+                        intendedTime.add(periodStats.intendedTime);
+                        eventFailures += periodStats.failures;
+                    }
+                }
+                stats.put(eventName, new HistogramStatistics(time));
+                intendedStats.put(eventName, new HistogramStatistics(intendedTime));
+                failures.put(eventName, Integer.valueOf(eventFailures));
+            }
+            long windowEndTime = currentStartTime + reportPeriod;
+            try
+            {
+                stop = !handler.processResult(windowEndTime - windowSize, windowEndTime, stats, intendedStats, failures);
+            }
+            catch (Throwable e)
+            {
+                logger.error("Exception while making callback.", e);
+            }
+            return !stop;
+        }
+    }
+
+    @Override
+    public List<EventDetails> getEventDetails(EventResultFilter filter, String filterEventName, int skip, int limit)
+    {
+        return resultService.getEventDetails(filter, filterEventName, skip, limit);
+    }
+
+    @Override
+    public List<EventDetails> getEventDetailsBefore(EventResultFilter filter, String filterEventName, String beforeId, int limit)
+    {
+        return resultService.getEventDetailsBefore(filter, filterEventName, beforeId, limit);
+    }
+
+    @Override
+    public List<String> getEventNames()
+    {
+        if (!isSampled())
+        {
+            return resultService.getEventNames();
+        }
+        return rollups.getEventNames();
+    }
+
+    @Override
+    public long countResults()
+    {
+        if (!isSampled())
+        {
+            return resultService.countResults();
+        }
+        long[] counts = rollups.countResults(null);
+        return counts[0] + counts[1];
+    }
+
+    @Override
+    public long countResultsByEventName(String name)
+    {
+        if (!isSampled())
+        {
+            return resultService.countResultsByEventName(name);
+        }
+        long[] counts = rollups.countResults(name);
+        return counts[0] + counts[1];
+    }
+
+    @Override
+    public long countResultsBySuccess()
+    {
+        if (!isSampled())
+        {
+            return resultService.countResultsBySuccess();
+        }
+        return rollups.countResults(null)[0];
+    }
+
+    @Override
+    public long countResultsByFailure()
+    {
+        if (!isSampled())
+        {
+            return resultService.countResultsByFailure();
+        }
+        return rollups.countResults(null)[1];
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Rollups not yet written are abandoned.
+     */
+    @Override
+    public boolean clear()
+    {
+        intervalsLock.writeLock().lock();
+        try
+        {
+            intervals.clear();
+        }
+        finally
+        {
+            intervalsLock.writeLock().unlock();
+        }
+        boolean cleared = rollups.clear();
+        return resultService.clear() && cleared;
+    }
+}
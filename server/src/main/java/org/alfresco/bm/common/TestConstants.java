@@ -91,6 +91,7 @@ public final class TestConstants
     public static final String PROP_TEST_RUN = "testRun";
     public static final String PROP_TEST_RUN_ID = "testRunId";
     public static final String PROP_TEST_RUN_FQN = "testRunFqn";
+    public static final String PROP_RESULTS_SLA_LATENCY = "results.slaLatency";
     
     /*
      * DB field names
@@ -117,6 +118,14 @@ public final class TestConstants
     public static final String FIELD_PING = "ping";
     public static final String FIELD_TIME = "time";
     public static final String FIELD_EXPIRES = "expires";
+    /** @since 3.0.3 */
+    public static final String FIELD_LOAD = "load";
+    /** @since 3.0.3 */
+    public static final String FIELD_DISPATCH_LAG = "dispatchLag";
+    /** @since 3.0.3 */
+    public static final String FIELD_IN_FLIGHT = "inFlight";
+    /** @since 3.0.3 */
+    public static final String FIELD_CPU_LOAD = "cpuLoad";
     public static final String FIELD_TEST = "test";
     public static final String FIELD_RUN = "run";
     public static final String FIELD_DRIVERS = "drivers";
@@ -142,4 +151,8 @@ public final class TestConstants
     public static final String FIELD_RESULTS_TOTAL = "resultsTotal";
     public static final String FIELD_SUCCESS_RATE = "successRate";
     public static final String FIELD_PROGRESS = "progress";
+    /** @since 3.0.3 */
+    public static final String FIELD_EVENTS_REQUEUED = "eventsRequeued";
+    /** @since 3.0.3 */
+    public static final String FIELD_EVENTS_DEAD_LETTERED = "eventsDeadLettered";
 }
@@ -0,0 +1,488 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common.mongo;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the data of events that keep their {@link org.alfresco.bm.driver.event.Event#getDataInMemory() data in memory}
+ * while the events themselves are queued.
+ * <p/>
+ * The size of each entry is estimated and the total is kept within a memory budget where possible:
+ * <ul>
+ *   <li>If spilling is enabled, serializable data added once the budget is used up is serialized
+ *       to a direct (off-heap) buffer and deserialized again when it is fetched.  The event then
+ *       receives a copy of the data that was put.</li>
+ *   <li>Otherwise the data is kept on the heap anyway and warnings are logged; events cannot be
+ *       processed without their data.</li>
+ * </ul>
+ * Entries for events that have left the queue without being deleted properly can be removed as
+ * {@link #removeOrphans(Collection) orphans}.
+ * <p/>
+ * All methods are thread-safe and do not lock the whole store.
+ * 
+ * @since 3.0.3
+ */
+public class LocalEventDataStore
+{
+    /** The default memory budget of 256MB */
+    public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024L * 1024L;
+    /** The estimated size of an entry excluding the data itself */
+    private static final long ENTRY_OVERHEAD = 96L;
+    /** The estimated size of data that cannot be measured */
+    private static final long DEFAULT_DATA_SIZE = 256L;
+    /** How many elements of a collection are measured before the rest are assumed to be similar */
+    private static final int SAMPLE_SIZE = 16;
+    /** The minimum time between warnings about the memory budget */
+    private static final long WARN_INTERVAL = 60000L;
+
+    private static Log logger = LogFactory.getLog(LocalEventDataStore.class);
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>(1024);
+    private final AtomicLong heapBytes = new AtomicLong();
+    private final AtomicLong offHeapBytes = new AtomicLong();
+    private final AtomicLong spills = new AtomicLong();
+    private final AtomicLong overBudget = new AtomicLong();
+    private final AtomicLong orphans = new AtomicLong();
+    private volatile long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private volatile boolean spill = false;
+    private volatile long lastWarnTime;
+
+    /**
+     * An item of data, held either as it was put or serialized off-heap
+     */
+    private static class Entry
+    {
+        private final Object data;
+        private final ByteBuffer spilled;
+        private final long size;
+        private final long time;
+
+        private Entry(Object data, ByteBuffer spilled, long size)
+        {
+            this.data = data;
+            this.spilled = spilled;
+            this.size = size;
+            this.time = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LocalEventDataStore [entries=" + entries.size() + ", heapBytes=" + heapBytes.get() +
+                ", offHeapBytes=" + offHeapBytes.get() + ", spills=" + spills.get() +
+                ", overBudget=" + overBudget.get() + ", orphans=" + orphans.get() + "]";
+    }
+
+    /**
+     * Override the {@link #DEFAULT_MEMORY_BUDGET default} estimated number of bytes of data kept on the heap
+     */
+    public void setMemoryBudget(long memoryBudget)
+    {
+        if (memoryBudget < 0L)
+        {
+            throw new IllegalArgumentException("'memoryBudget' cannot be negative.");
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Allow serializable data to be moved off the heap once the memory budget is used up (default <tt>false</tt>).
+     * Only enable this if the events do not rely on receiving the same instance of the data that was put.
+     */
+    public void setSpill(boolean spill)
+    {
+        this.spill = spill;
+    }
+
+    /**
+     * Keep data for an event
+     * 
+     * @param id                the ID of the event
+     * @param data              the data (not <tt>null</tt>)
+     */
+    public void put(String id, Object data)
+    {
+        long size = ENTRY_OVERHEAD + estimateSize(data, 0);
+        Entry entry = null;
+        if (heapBytes.get() + size > memoryBudget)
+        {
+            entry = spill(data);
+            if (entry == null)
+            {
+                overBudget.incrementAndGet();
+                warnOverBudget();
+            }
+        }
+        if (entry == null)
+        {
+            entry = new Entry(data, null, size);
+        }
+        account(entry, 1L);
+        Entry previous = entries.put(id, entry);
+        if (previous != null)
+        {
+            account(previous, -1L);
+        }
+    }
+
+    /**
+     * @param id                the ID of the event
+     * @return                  the data for the event or <tt>null</tt> if there is none
+     */
+    public Object get(String id)
+    {
+        Entry entry = entries.get(id);
+        if (entry == null)
+        {
+            return null;
+        }
+        else if (entry.spilled == null)
+        {
+            return entry.data;
+        }
+        else
+        {
+            return unspill(entry.spilled);
+        }
+    }
+
+    /**
+     * @param id                the ID of the event
+     * @return                  <tt>true</tt> if there was data for the event
+     */
+    public boolean remove(String id)
+    {
+        Entry entry = entries.remove(id);
+        if (entry == null)
+        {
+            return false;
+        }
+        account(entry, -1L);
+        return true;
+    }
+
+    /**
+     * Remove the data of events that no longer exist
+     * 
+     * @param ids               the IDs of the events
+     * @return                  the number of entries removed
+     */
+    public int removeOrphans(Collection<String> ids)
+    {
+        int removed = 0;
+        for (String id : ids)
+        {
+            if (remove(id))
+            {
+                removed++;
+            }
+        }
+        orphans.addAndGet(removed);
+        // Done
+        if (removed > 0 && logger.isDebugEnabled())
+        {
+            logger.debug("Removed data held for " + removed + " events that no longer exist.");
+        }
+        return removed;
+    }
+
+    /**
+     * @param time              the latest time (milliseconds) that the data can have been put
+     * @return                  the IDs of events with data put before the given time
+     */
+    public List<String> getIdsPutBefore(long time)
+    {
+        List<String> ids = new ArrayList<String>();
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet())
+        {
+            if (mapEntry.getValue().time < time)
+            {
+                ids.add(mapEntry.getKey());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Drop all data without counting it as orphaned
+     */
+    public void clear()
+    {
+        for (String id : new ArrayList<String>(entries.keySet()))
+        {
+            remove(id);
+        }
+    }
+
+    /**
+     * @return                  the number of events with data
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @return                  the estimated size (bytes) of the data kept on the heap
+     */
+    public long getHeapBytes()
+    {
+        return heapBytes.get();
+    }
+
+    /**
+     * @return                  the size (bytes) of the data moved off the heap
+     */
+    public long getOffHeapBytes()
+    {
+        return offHeapBytes.get();
+    }
+
+    /**
+     * @return                  the number of times that data has been moved off the heap
+     */
+    public long getSpills()
+    {
+        return spills.get();
+    }
+
+    /**
+     * @return                  the number of times that data was kept on the heap despite the memory budget
+     */
+    public long getOverBudget()
+    {
+        return overBudget.get();
+    }
+
+    /**
+     * @return                  the number of entries removed because their events no longer exist
+     */
+    public long getOrphans()
+    {
+        return orphans.get();
+    }
+
+    private void account(Entry entry, long sign)
+    {
+        if (entry.spilled == null)
+        {
+            heapBytes.addAndGet(sign * entry.size);
+        }
+        else
+        {
+            offHeapBytes.addAndGet(sign * entry.size);
+        }
+    }
+
+    private void warnOverBudget()
+    {
+        long now = System.currentTimeMillis();
+        if (now - lastWarnTime < WARN_INTERVAL)
+        {
+            return;
+        }
+        lastWarnTime = now;
+        logger.warn(
+                "Event data held in memory is over budget (" + memoryBudget + " bytes)" +
+                (spill ? " and cannot be moved off the heap: " : ": ") + this);
+    }
+
+    /**
+     * Serialize data to a direct buffer
+     * 
+     * @return                  the spilled entry or <tt>null</tt> if spilling is disabled or the data cannot be serialized
+     */
+    private Entry spill(Object data)
+    {
+        if (!spill || !(data instanceof Serializable))
+        {
+            return null;
+        }
+        byte[] bytes;
+        try
+        {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(512);
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(data);
+            oos.close();
+            bytes = bos.toByteArray();
+        }
+        catch (IOException e)
+        {
+            // Typically something within the data is not serializable
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Unable to move event data off the heap: " + data.getClass().getName(), e);
+            }
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        ((Buffer) buffer).flip();
+        spills.incrementAndGet();
+        return new Entry(null, buffer, bytes.length);
+    }
+
+    /**
+     * Deserialize data from a direct buffer
+     */
+    private Object unspill(ByteBuffer spilled)
+    {
+        ByteBuffer buffer = spilled.duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        try
+        {
+            ObjectInputStream ois = new ContextObjectInputStream(new ByteArrayInputStream(bytes));
+            try
+            {
+                return ois.readObject();
+            }
+            finally
+            {
+                ois.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to read event data moved off the heap.", e);
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IllegalStateException("Unable to read event data moved off the heap.", e);
+        }
+    }
+
+    /**
+     * Estimate the heap used by an object, looking inside common types
+     */
+    private static long estimateSize(Object data, int depth)
+    {
+        if (data == null)
+        {
+            return 8L;
+        }
+        else if (data instanceof byte[])
+        {
+            return 16L + ((byte[]) data).length;
+        }
+        else if (data instanceof CharSequence)
+        {
+            return 40L + 2L * ((CharSequence) data).length();
+        }
+        else if (data instanceof Number || data instanceof Boolean || data instanceof Character)
+        {
+            return 16L;
+        }
+        else if (depth < 2 && data instanceof Collection)
+        {
+            return 64L + estimateElements((Collection<?>) data, ((Collection<?>) data).size(), depth);
+        }
+        else if (depth < 2 && data instanceof Map)
+        {
+            Map<?, ?> map = (Map<?, ?>) data;
+            return 64L +
+                    estimateElements(map.keySet(), map.size(), depth) +
+                    estimateElements(map.values(), map.size(), depth);
+        }
+        else
+        {
+            return DEFAULT_DATA_SIZE;
+        }
+    }
+
+    /**
+     * Measure the first few elements and assume the rest are of a similar size
+     */
+    private static long estimateElements(Iterable<?> elements, int count, int depth)
+    {
+        if (count == 0)
+        {
+            return 0L;
+        }
+        long sampleSize = 0L;
+        int sampled = 0;
+        for (Object element : elements)
+        {
+            if (sampled == SAMPLE_SIZE)
+            {
+                break;
+            }
+            sampleSize += 16L + estimateSize(element, depth + 1);
+            sampled++;
+        }
+        return (sampled == 0) ? 0L : (sampleSize * count / sampled);
+    }
+
+    /**
+     * Resolves classes using the thread's context class loader so that test classes can be found
+     */
+    private static class ContextObjectInputStream extends ObjectInputStream
+    {
+        private ContextObjectInputStream(InputStream in) throws IOException
+        {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+        {
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            if (classLoader != null)
+            {
+                try
+                {
+                    return Class.forName(desc.getName(), false, classLoader);
+                }
+                catch (ClassNotFoundException e)
+                {
+                    // Fall back to the default resolution
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common.mongo;
+
+import com.mongodb.DBCursor;
+import org.alfresco.bm.common.TestConstants;
+import org.alfresco.bm.common.spring.LifecycleListener;
+import org.alfresco.bm.common.util.log.LogService.LogLevel;
+import org.alfresco.bm.common.util.log.TestRunLogService;
+import org.alfresco.bm.driver.event.EventLaneRegistry;
+import org.alfresco.bm.driver.event.EventService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.types.ObjectId;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Returns events abandoned by failed drivers to a {@link MongoEventService MongoDB event queue}.
+ * <p/>
+ * An event is abandoned when the driver that claimed it has stopped
+ * {@link MongoTestDAO#refreshDriver(String, long) refreshing} its registration or when it has been
+ * locked for longer than the lock lease.  Every driver in a test run checks for abandoned events
+ * periodically; the numbers of events requeued and dead-lettered are added to the test run.
+ * <p/>
+ * Data held in memory for events that are no longer queued is dropped at the same time and the
+ * state of the {@link LocalEventDataStore in-memory data} is written to the test run log whenever
+ * data has been dropped, moved off the heap or kept despite the memory budget.
+ * <p/>
+ * Nothing is done if the test run is not using a MongoDB event queue.
+ * 
+ * @since 3.0.3
+ */
+public class MongoEventReaper implements LifecycleListener
+{
+    /** How long an event claimed on its own can stay locked before it is considered abandoned */
+    public static final long DEFAULT_LOCK_LEASE = 600000L;
+    /** How often to check for abandoned events */
+    public static final long DEFAULT_CHECK_PERIOD = 30000L;
+
+    private static Log logger = LogFactory.getLog(MongoEventReaper.class);
+
+    private final MongoEventService eventService;
+    private final MongoTestDAO testDAO;
+    private final TestRunLogService logService;
+    private final String driverId;
+    private final ObjectId testRunId;
+    private long lockLease = DEFAULT_LOCK_LEASE;
+    private long checkPeriod = DEFAULT_CHECK_PERIOD;
+
+    private Timer timer;
+    private long requeuedPublished;
+    private long deadLetteredPublished;
+    private long localDataSpillsPublished;
+    private long localDataOverBudgetPublished;
+    private long localDataOrphansPublished;
+
+    /**
+     * @param eventService      the event queue, which is ignored unless it is a {@link MongoEventService}
+     * @param testDAO           used to find the active drivers and to record recovered events
+     * @param logService        the test run log
+     * @param driverId          the ID of this driver
+     * @param testRunId         the ID of the test run
+     */
+    public MongoEventReaper(
+            EventService eventService,
+            MongoTestDAO testDAO,
+            TestRunLogService logService,
+            String driverId,
+            String testRunId)
+    {
+        this.eventService = (eventService instanceof MongoEventService) ? (MongoEventService) eventService : null;
+        this.testDAO = testDAO;
+        this.logService = logService;
+        this.driverId = driverId;
+        this.testRunId = new ObjectId(testRunId);
+    }
+
+    /**
+     * Override the {@link #DEFAULT_LOCK_LEASE default} time that an event claimed on its own
+     * can stay locked.  This must be longer than any event takes to process.
+     */
+    public void setLockLease(long lockLease)
+    {
+        if (lockLease < 1L)
+        {
+            throw new IllegalArgumentException("'lockLease' must be at least 1ms.");
+        }
+        this.lockLease = lockLease;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_CHECK_PERIOD default} time between checks for abandoned events
+     */
+    public void setCheckPeriod(long checkPeriod)
+    {
+        if (checkPeriod < 1L)
+        {
+            throw new IllegalArgumentException("'checkPeriod' must be at least 1ms.");
+        }
+        this.checkPeriod = checkPeriod;
+    }
+
+    @Override
+    public synchronized void start()
+    {
+        if (eventService == null)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Abandoned events are not recovered as the event queue is not kept in MongoDB.");
+            }
+            return;
+        }
+        timer = new Timer("EventReaper-" + testRunId, true);
+        timer.schedule(new ReaperTask(), checkPeriod, checkPeriod);
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        if (timer != null)
+        {
+            timer.cancel();
+            timer = null;
+            // Make sure that everything recovered is recorded
+            publishCounts();
+            publishLocalData();
+        }
+    }
+
+    /**
+     * Find the active drivers and return events abandoned by any others to the queue
+     * 
+     * @return                  the number of events recovered
+     */
+    public synchronized int recoverEvents()
+    {
+        if (eventService == null)
+        {
+            return 0;
+        }
+        long liveDriversTime = System.currentTimeMillis();
+        Set<String> liveDriverIds = new HashSet<String>(17);
+        DBCursor cursor = testDAO.getDrivers(null, null, true);
+        try
+        {
+            while (cursor.hasNext())
+            {
+                ObjectId driverIdObj = (ObjectId) cursor.next().get(TestConstants.FIELD_ID);
+                liveDriverIds.add(driverIdObj.toString());
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        if (!liveDriverIds.contains(driverId))
+        {
+            // We know that we are alive, so the registrations are not being kept up to date
+            logger.warn("Driver " + driverId + " is not listed as active; only the lock lease will be used to find abandoned events.");
+            liveDriverIds = null;
+        }
+
+        int recovered = eventService.releaseOrphanedEvents(lockLease, liveDriverIds, liveDriversTime);
+        publishCounts();
+        // Data must have been held for a whole check before it is considered
+        eventService.releaseOrphanedData(checkPeriod);
+        publishLocalData();
+        publishLaneBacklog();
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Recovered " + recovered + " abandoned events with active drivers " + liveDriverIds);
+        }
+        return recovered;
+    }
+
+    /**
+     * Add any events recovered since the last call to the test run
+     */
+    private synchronized void publishCounts()
+    {
+        // Includes events recovered by the event service itself
+        long requeued = eventService.getEventsRequeued();
+        long deadLettered = eventService.getEventsDeadLettered();
+        long requeuedDelta = requeued - requeuedPublished;
+        long deadLetteredDelta = deadLettered - deadLetteredPublished;
+        if (requeuedDelta == 0L && deadLetteredDelta == 0L)
+        {
+            return;
+        }
+        testDAO.addTestRunRecoveredEvents(testRunId, requeuedDelta, deadLetteredDelta);
+        requeuedPublished = requeued;
+        deadLetteredPublished = deadLettered;
+
+        String msg = "Recovered events abandoned by failed drivers: " +
+                requeuedDelta + " returned to the queue and " + deadLetteredDelta + " dead-lettered.";
+        logService.log(deadLetteredDelta > 0L ? LogLevel.ERROR : LogLevel.WARN, msg);
+    }
+
+    /**
+     * Log the state of the in-memory event data if anything has happened to it since the last call
+     */
+    private synchronized void publishLocalData()
+    {
+        LocalEventDataStore localData = eventService.getLocalData();
+        long spills = localData.getSpills();
+        long overBudget = localData.getOverBudget();
+        long orphans = localData.getOrphans();
+        if (spills == localDataSpillsPublished && overBudget == localDataOverBudgetPublished && orphans == localDataOrphansPublished)
+        {
+            return;
+        }
+        String msg = "Event data held in memory by driver " + driverId + ": " +
+                localData.size() + " entries, " +
+                localData.getHeapBytes() + " bytes on the heap, " +
+                localData.getOffHeapBytes() + " bytes off the heap; " +
+                (spills - localDataSpillsPublished) + " moved off the heap, " +
+                (overBudget - localDataOverBudgetPublished) + " kept over budget and " +
+                (orphans - localDataOrphansPublished) + " orphans dropped.";
+        logService.log(LogLevel.WARN, msg);
+        localDataSpillsPublished = spills;
+        localDataOverBudgetPublished = overBudget;
+        localDataOrphansPublished = orphans;
+    }
+
+    /**
+     * Log the events waiting in each lane if events in the priority lanes are overdue
+     * by more than a check period i.e. control events are not keeping up
+     */
+    private synchronized void publishLaneBacklog()
+    {
+        if (eventService.getLanes().getLanes().length == 0)
+        {
+            // Everything is in the default lane
+            return;
+        }
+        Map<Integer, Long> backlog = eventService.getLaneBacklog(System.currentTimeMillis() - checkPeriod);
+        long priorityBacklog = 0L;
+        StringBuilder sb = new StringBuilder(128);
+        for (Map.Entry<Integer, Long> entry : backlog.entrySet())
+        {
+            if (entry.getKey().intValue() != EventLaneRegistry.DEFAULT_LANE)
+            {
+                priorityBacklog += entry.getValue().longValue();
+            }
+            sb.append(sb.length() == 0 ? "" : ", ").append("lane ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Overdue events by lane: " + sb);
+        }
+        if (priorityBacklog > 0L)
+        {
+            String msg = "Events in priority lanes are overdue by more than " + checkPeriod + "ms: " + sb + ".";
+            logService.log(LogLevel.WARN, msg);
+        }
+    }
+
+    /**
+     * Periodic recovery of abandoned events
+     * 
+     * @since 3.0.3
+     */
+    private class ReaperTask extends TimerTask
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                recoverEvents();
+            }
+            catch (Throwable e)
+            {
+                logger.error("Failed to recover abandoned events for test run: " + testRunId, e);
+            }
+        }
+    }
+}
@@ -25,7 +25,11 @@
  */
 package org.alfresco.bm.common.mongo;
 
+import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
@@ -35,18 +39,31 @@ import com.mongodb.WriteResult;
 import org.alfresco.bm.common.spring.LifecycleListener;
 import org.alfresco.bm.driver.event.AbstractEventService;
 import org.alfresco.bm.driver.event.Event;
+import org.alfresco.bm.driver.event.EventDataCodec;
+import org.alfresco.bm.driver.event.EventDataCodecRegistry;
+import org.alfresco.bm.driver.event.EventLaneRegistry;
 import org.alfresco.bm.driver.event.EventService;
+import org.alfresco.bm.driver.event.EventService.QueueListener;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.bson.types.ObjectId;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An {@link EventService} <b>MongoDB</b> collection
@@ -56,16 +73,53 @@ import java.util.UUID;
  */
 public class MongoEventService extends AbstractEventService implements LifecycleListener
 {
+    /** How long events claimed in batches are leased for before being returned to the queue */
+    public static final long DEFAULT_LEASE_PERIOD = 60000L;
+    /** How many times an event is returned to the queue before it is dead-lettered */
+    public static final int DEFAULT_MAX_RECOVERIES = 3;
+    /** The suffix of the collection that holds events that could not be recovered */
+    public static final String DEAD_LETTER_SUFFIX = ".dead";
+    public static final String FIELD_DEAD_LETTER_TIME = "deadLetterTime";
+    public static final String FIELD_DEAD_LETTER_REASON = "deadLetterReason";
+    /** How long the shared count of events is used before it is fetched again */
+    public static final long DEFAULT_COUNT_REFRESH_PERIOD = 1000L;
+    /** The number of partitions that the queue is split into; a single partition keeps events unpartitioned */
+    public static final int DEFAULT_PARTITIONS = 1;
+    /** The number of events moved to the dead-letter collection in each bulk operation */
+    private static final int DEAD_LETTER_BATCH_SIZE = 500;
+
     private static Log logger = LogFactory.getLog(MongoEventService.class);
 
     private final DBCollection collection;
+    private final DBCollection deadLetterCollection;
     private final String dataOwner;
+    /** Tells drivers sharing the queue that events have been put */
+    private final MongoEventSignals signals;
+    private boolean signalsEnabled = true;
+    /** IDs of events leased by this instance and not yet deleted */
+    private final Set<String> leasedEventIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(1024));
+    private long leasePeriod = DEFAULT_LEASE_PERIOD;
+    private Timer leaseTimer;
+    private int maxRecoveries = DEFAULT_MAX_RECOVERIES;
+    private final AtomicLong eventsRequeued = new AtomicLong();
+    private final AtomicLong eventsDeadLettered = new AtomicLong();
+    private long countRefreshPeriod = DEFAULT_COUNT_REFRESH_PERIOD;
+    /** The number of events in the collection when last counted */
+    private volatile long sharedCount;
+    private volatile long sharedCountTime;
+    /** Events added less events removed by this instance since the collection was last counted */
+    private final AtomicLong localCountDelta = new AtomicLong();
+    private int partitions = DEFAULT_PARTITIONS;
+    private EventDataCodecRegistry dataCodecs = new EventDataCodecRegistry();
+    private EventLaneRegistry lanes = new EventLaneRegistry();
+    /** Spreads events that are not tied to a driver or session across the partitions */
+    private final AtomicInteger nextPartition = new AtomicInteger();
+    /** Rotates claims through the partitions other than the driver's own */
+    private final AtomicInteger claimRotation = new AtomicInteger();
     /**
      * Data storage for events that are unable to serialize their data to MongoDB storage
-     * <p/>
-     * TODO: Use a cache that expires entries so that any leaks by a test run are clean up eventually
      */
-    private Map<String, Object> runLocalData = Collections.synchronizedMap(new HashMap<String, Object>(1024));
+    private final LocalEventDataStore runLocalData = new LocalEventDataStore();
 
     /**
      * Construct a event service against a Mongo database and given collection name
@@ -73,9 +127,167 @@ public class MongoEventService extends AbstractEventService implements Lifecycle
     public MongoEventService(DB db, String collection)
     {
         this.collection = db.getCollection(collection);
+        this.deadLetterCollection = db.getCollection(collection + DEAD_LETTER_SUFFIX);
         this.dataOwner = UUID.randomUUID().toString();
+        this.signals = new MongoEventSignals(db, collection + MongoEventSignals.SIGNALS_SUFFIX);
+    }
+    
+    /**
+     * Override the {@link #DEFAULT_LEASE_PERIOD default} time that events claimed in batches
+     * remain leased to this instance without the lease being renewed.
+     */
+    public void setLeasePeriod(long leasePeriod)
+    {
+        if (leasePeriod < 3L)
+        {
+            throw new IllegalArgumentException("'leasePeriod' must be at least 3ms.");
+        }
+        this.leasePeriod = leasePeriod;
+    }
+    
+    /**
+     * Override the {@link #DEFAULT_MAX_RECOVERIES default} number of times that an event abandoned
+     * by a driver is returned to the queue.  After that, the event is moved to the dead-letter collection.
+     */
+    public void setMaxRecoveries(int maxRecoveries)
+    {
+        if (maxRecoveries < 0)
+        {
+            throw new IllegalArgumentException("'maxRecoveries' cannot be negative.");
+        }
+        this.maxRecoveries = maxRecoveries;
+    }
+    
+    /**
+     * Override the {@link #DEFAULT_COUNT_REFRESH_PERIOD default} time that the count of events in the
+     * collection is used for {@link #countEstimate() estimates} before the collection is counted again.
+     */
+    public void setCountRefreshPeriod(long countRefreshPeriod)
+    {
+        if (countRefreshPeriod < 0L)
+        {
+            throw new IllegalArgumentException("'countRefreshPeriod' cannot be negative.");
+        }
+        this.countRefreshPeriod = countRefreshPeriod;
+    }
+    
+    /**
+     * Override the {@link #DEFAULT_PARTITIONS default} number of partitions that the queue is split into.
+     * <p/>
+     * Events assigned to a driver are put into that driver's partition and other events are spread
+     * across the partitions by session.  Drivers look for events in their own partition first, so drivers
+     * polling at the same time do not all compete for the same events at the head of the queue.  Each claim
+     * also takes a share of its events from one of the other partitions, in rotation, so that events in
+     * partitions that no driver calls its own are never left behind while the drivers are busy.
+     * All drivers sharing the queue must use the same number of partitions.
+     */
+    public void setPartitions(int partitions)
+    {
+        if (partitions < 1)
+        {
+            throw new IllegalArgumentException("'partitions' must be at least 1.");
+        }
+        this.partitions = partitions;
+    }
+    
+    /**
+     * Override the {@link LocalEventDataStore#DEFAULT_MEMORY_BUDGET default} memory budget (megabytes)
+     * for the data of events that keep their data in memory
+     */
+    public void setLocalDataBudgetMB(long localDataBudgetMB)
+    {
+        runLocalData.setMemoryBudget(localDataBudgetMB * 1024L * 1024L);
+    }
+    
+    /**
+     * Allow the data of events that keep their data in memory to be serialized off the heap once
+     * the {@link #setLocalDataBudgetMB(long) budget} is used up
+     * 
+     * @see LocalEventDataStore#setSpill(boolean)
+     */
+    public void setLocalDataSpill(boolean localDataSpill)
+    {
+        runLocalData.setSpill(localDataSpill);
+    }
+    
+    /**
+     * @return                  the data held in memory for events put by this instance
+     */
+    public LocalEventDataStore getLocalData()
+    {
+        return runLocalData;
+    }
+    
+    /**
+     * Set the codecs used to store event data in binary form.  Data without a codec, or that its codec
+     * cannot encode, is stored as it is.
+     */
+    public void setDataCodecs(EventDataCodecRegistry dataCodecs)
+    {
+        if (dataCodecs == null)
+        {
+            throw new IllegalArgumentException("'dataCodecs' may not be null.");
+        }
+        this.dataCodecs = dataCodecs;
+    }
+    
+    /**
+     * Set the priority lanes that events are queued in.  Events in higher lanes are claimed first and,
+     * when several lanes have events available, each lane gets its {@link EventLaneRegistry#getWeight(int) share}
+     * of a claim.  All drivers sharing the queue must use the same lanes.
+     */
+    public void setLanes(EventLaneRegistry lanes)
+    {
+        if (lanes == null)
+        {
+            throw new IllegalArgumentException("'lanes' may not be null.");
+        }
+        this.lanes = lanes;
+    }
+    
+    /**
+     * @return                  the priority lanes that events are queued in
+     */
+    public EventLaneRegistry getLanes()
+    {
+        return lanes;
+    }
+    
+    /**
+     * Switch off the {@link MongoEventSignals signals} that let idle drivers wait for events to be put
+     * instead of searching the queue regularly
+     * 
+     * @param signalsEnabled    <tt>true</tt> (default) to signal puts to the drivers sharing the queue
+     */
+    public void setSignals(boolean signalsEnabled)
+    {
+        this.signalsEnabled = signalsEnabled;
+    }
+    
+    /**
+     * @return                  the number of abandoned events that this instance has returned to the queue
+     */
+    public long getEventsRequeued()
+    {
+        return eventsRequeued.get();
+    }
+    
+    /**
+     * @return                  the number of abandoned events that this instance has moved to the dead-letter collection
+     */
+    public long getEventsDeadLettered()
+    {
+        return eventsDeadLettered.get();
     }
     
+    /**
+     * @return                  the number of events in the dead-letter collection, regardless of who put them there
+     */
+    public long countDeadLetters()
+    {
+        return deadLetterCollection.count();
+    }
+
     @Override
     public void start()
     {
@@ -100,22 +312,106 @@ public class MongoEventService extends AbstractEventService implements Lifecycle
                 .add("unique", Boolean.FALSE)
                 .get();
         collection.createIndex(idx_NAME, opt_NAME);
+        
+        DBObject idx_LEASE_EXPIRY = BasicDBObjectBuilder
+                .start(Event.FIELD_LEASE_EXPIRY, Integer.valueOf(1))
+                .get();
+        DBObject opt_LEASE_EXPIRY = BasicDBObjectBuilder
+                .start("name", "IDX_LEASE_EXPIRY")
+                .add("unique", Boolean.FALSE)
+                .add("sparse", Boolean.TRUE)
+                .get();
+        collection.createIndex(idx_LEASE_EXPIRY, opt_LEASE_EXPIRY);
+        
+        DBObject idx_LOCK_TIME = BasicDBObjectBuilder
+                .start(Event.FIELD_LOCK_TIME, Integer.valueOf(1))
+                .get();
+        DBObject opt_LOCK_TIME = BasicDBObjectBuilder
+                .start("name", "IDX_LOCK_TIME")
+                .add("unique", Boolean.FALSE)
+                .get();
+        collection.createIndex(idx_LOCK_TIME, opt_LOCK_TIME);
+        
+        if (partitions > 1)
+        {
+            DBObject idx_NEXT_AVAILABLE_EVENT_PARTITION = BasicDBObjectBuilder
+                    .start(Event.FIELD_PARTITION, Integer.valueOf(1))
+                    .add(Event.FIELD_SCHEDULED_TIME, Integer.valueOf(1))
+                    .add(Event.FIELD_LOCK_OWNER, Integer.valueOf(1))
+                    .get();
+            DBObject opt_NEXT_AVAILABLE_EVENT_PARTITION = BasicDBObjectBuilder
+                    .start("name", "IDX_NEXT_AVAILABLE_EVENT_PARTITION")
+                    .add("unique", Boolean.FALSE)
+                    .get();
+            collection.createIndex(idx_NEXT_AVAILABLE_EVENT_PARTITION, opt_NEXT_AVAILABLE_EVENT_PARTITION);
+        }
+        
+        // Only events outside of the default lane are indexed
+        DBObject idx_NEXT_AVAILABLE_EVENT_LANE = BasicDBObjectBuilder
+                .start(Event.FIELD_LANE, Integer.valueOf(1))
+                .add(Event.FIELD_SCHEDULED_TIME, Integer.valueOf(1))
+                .get();
+        DBObject opt_NEXT_AVAILABLE_EVENT_LANE = BasicDBObjectBuilder
+                .start("name", "IDX_NEXT_AVAILABLE_EVENT_LANE")
+                .add("unique", Boolean.FALSE)
+                .add("sparse", Boolean.TRUE)
+                .get();
+        collection.createIndex(idx_NEXT_AVAILABLE_EVENT_LANE, opt_NEXT_AVAILABLE_EVENT_LANE);
+        
+        if (signalsEnabled)
+        {
+            signals.start();
+        }
+        
+        // Keep our leases alive and return abandoned leases to the queue
+        long leaseCheckPeriod = leasePeriod / 3L;
+        leaseTimer = new Timer(collection.getName() + "-Leases", true);
+        leaseTimer.schedule(new LeaseTask(), leaseCheckPeriod, leaseCheckPeriod);
     }
 
     @Override
     public void stop()
     {
+        // Stop renewing leases; anything still leased will expire and be picked up again
+        if (leaseTimer != null)
+        {
+            leaseTimer.cancel();
+            leaseTimer = null;
+        }
+        signals.stop();
+
         // If there are still items in the local data, then the test is probably not cleaning up property
         if (runLocalData.size() > 0)
         {
-            logger.warn("EventService still has " + runLocalData.size() + " data entries held in memory.");
+            logger.warn("EventService still has " + runLocalData.size() + " data entries held in memory: " + runLocalData);
         }
     }
 
     @Override
     public long count()
     {
-        return collection.count();
+        // Changes made while counting may be included twice, which is better than not at all
+        localCountDelta.set(0L);
+        long count = collection.count();
+        sharedCount = count;
+        sharedCountTime = System.currentTimeMillis();
+        return count;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The collection is counted {@link #setCountRefreshPeriod(long) periodically}.  In between,
+     * the estimate is adjusted by the events added and removed by this instance, but not by other drivers.
+     */
+    @Override
+    public long countEstimate()
+    {
+        if (System.currentTimeMillis() - sharedCountTime >= countRefreshPeriod)
+        {
+            return count();
+        }
+        return Math.max(0L, sharedCount + localCountDelta.get());
     }
 
     /**
@@ -149,13 +445,61 @@ public class MongoEventService extends AbstractEventService implements Lifecycle
         return insertObj;
     }
     
+    /**
+     * Convert an {@link Event} into a {@link DBObject persistable object}, storing the data in binary form
+     * if there is a {@link EventDataCodec codec} for the event
+     * 
+     * @param event             the event to convert
+     * @param dataCodecs        the codecs available for the event data
+     */
+    public static DBObject convertEvent(Event event, EventDataCodecRegistry dataCodecs)
+    {
+        DBObject insertObj = convertEvent(event);
+        Object data = event.getData();
+        if (data == null || event.getDataInMemory())
+        {
+            return insertObj;
+        }
+        EventDataCodec codec = dataCodecs.getCodecForEvent(event.getName());
+        if (codec != null && codec.canEncode(data))
+        {
+            // The driver writes the bytes as they are without building a document for the data
+            insertObj.put(Event.FIELD_DATA, codec.encode(data));
+            insertObj.put(Event.FIELD_DATA_CODEC, codec.getName());
+        }
+        return insertObj;
+    }
+    
+    /**
+     * Get the event data from a {@link DBObject persistable object}, decoding it if necessary
+     * 
+     * @param obj               the persisted event
+     * @param dataCodecs        the codecs available for the event data
+     * @return                  the event data as it was stored, excluding data held in memory
+     */
+    public static Object convertData(DBObject obj, EventDataCodecRegistry dataCodecs)
+    {
+        Object data = obj.get(Event.FIELD_DATA);
+        String codecName = (String) obj.get(Event.FIELD_DATA_CODEC);
+        if (codecName == null || data == null)
+        {
+            return data;
+        }
+        EventDataCodec codec = dataCodecs.getCodec(codecName);
+        if (codec == null)
+        {
+            throw new IllegalStateException("Event data was stored using an unknown codec '" + codecName + "': " + obj);
+        }
+        return codec.decode((byte[]) data);
+    }
+    
     /**
      * Helper method to convert a {@link DBObject persistable object} into an {@link Event}
      */
     private Event convertDBObject(DBObject obj)
     {
         String id = obj.get(Event.FIELD_ID).toString();
-        Object data = obj.get(Event.FIELD_DATA);
+        Object data = convertData(obj, dataCodecs);
         String dataOwner = (String) obj.get(Event.FIELD_DATA_OWNER);
         String lockOwner = (String) obj.get(Event.FIELD_LOCK_OWNER);
         long lockTime = obj.containsField(Event.FIELD_LOCK_TIME) ?
@@ -194,6 +538,141 @@ public class MongoEventService extends AbstractEventService implements Lifecycle
         return event;
     }
     
+    /**
+     * Put the event into a partition, if the queue is partitioned
+     */
+    private void addPartition(DBObject insertObj, Event event)
+    {
+        if (partitions < 2)
+        {
+            return;
+        }
+        int partition;
+        if (event.getDriver() != null)
+        {
+            partition = getPartition(event.getDriver());
+        }
+        else if (event.getSessionId() != null)
+        {
+            // Keep a session's events together
+            partition = getPartition(event.getSessionId());
+        }
+        else
+        {
+            partition = (nextPartition.getAndIncrement() & Integer.MAX_VALUE) % partitions;
+        }
+        insertObj.put(Event.FIELD_PARTITION, Integer.valueOf(partition));
+    }
+    
+    /**
+     * Put the event into its priority lane, unless it is in the default lane
+     */
+    private void addLane(DBObject insertObj, Event event)
+    {
+        int lane = lanes.getLane(event.getName());
+        if (lane != EventLaneRegistry.DEFAULT_LANE)
+        {
+            insertObj.put(Event.FIELD_LANE, Integer.valueOf(lane));
+        }
+    }
+    
+    /**
+     * Split a query into one query per lane, highest lane first.  The last query is for the default lane
+     * and also finds events in any lanes that are not known here.
+     * 
+     * @param laneValues        the lanes other than the default lane, highest first
+     * @return                  the lane queries or just the original query if there are no lanes
+     */
+    private List<DBObject> buildLaneQueries(DBObject queryObj, int[] laneValues)
+    {
+        if (laneValues.length == 0)
+        {
+            return Collections.singletonList(queryObj);
+        }
+        List<DBObject> laneQueryObjs = new ArrayList<DBObject>(laneValues.length + 1);
+        Integer[] laneObjs = new Integer[laneValues.length];
+        for (int i = 0; i < laneValues.length; i++)
+        {
+            laneObjs[i] = Integer.valueOf(laneValues[i]);
+            DBObject laneQueryObj = new BasicDBObject(queryObj.toMap());
+            laneQueryObj.put(Event.FIELD_LANE, laneObjs[i]);
+            laneQueryObjs.add(laneQueryObj);
+        }
+        DBObject defaultLaneQueryObj = new BasicDBObject(queryObj.toMap());
+        defaultLaneQueryObj.put(Event.FIELD_LANE, new BasicDBObject("$nin", laneObjs));
+        laneQueryObjs.add(defaultLaneQueryObj);
+        return laneQueryObjs;
+    }
+    
+    /**
+     * Count the events that are available for processing in each lane
+     * 
+     * @param latestScheduledTime   only count events scheduled at or before this time
+     * @return                  the number of events available by lane, highest lane first
+     */
+    public Map<Integer, Long> getLaneBacklog(long latestScheduledTime)
+    {
+        DBObject queryObj = BasicDBObjectBuilder
+                .start()
+                .push(Event.FIELD_SCHEDULED_TIME)
+                    .add("$lte", new Date(latestScheduledTime))
+                    .pop()
+                .add(Event.FIELD_LOCK_OWNER, null)
+                .get();
+        int[] laneValues = lanes.getLanes();
+        List<DBObject> laneQueryObjs = buildLaneQueries(queryObj, laneValues);
+        Map<Integer, Long> backlog = new LinkedHashMap<Integer, Long>(laneQueryObjs.size() * 2);
+        for (int i = 0; i < laneQueryObjs.size(); i++)
+        {
+            int lane = (i < laneValues.length) ? laneValues[i] : EventLaneRegistry.DEFAULT_LANE;
+            backlog.put(Integer.valueOf(lane), Long.valueOf(collection.count(laneQueryObjs.get(i))));
+        }
+        return backlog;
+    }
+    
+    /**
+     * @param key               a driver or session ID
+     * @return                  the partition for the key
+     */
+    private int getPartition(String key)
+    {
+        return (key.hashCode() & Integer.MAX_VALUE) % partitions;
+    }
+    
+    /**
+     * Restrict a query to a partition
+     */
+    private DBObject buildPartitionQuery(DBObject queryObj, int partition)
+    {
+        DBObject partitionQueryObj = new BasicDBObject(queryObj.toMap());
+        partitionQueryObj.put(Event.FIELD_PARTITION, Integer.valueOf(partition));
+        return partitionQueryObj;
+    }
+    
+    /**
+     * Choose the partitions that a claim looks in before looking anywhere: the driver's own partition
+     * and the next of the other partitions in rotation.  Every so often, the other partition comes first
+     * so that claims of a single event also reach it.
+     * 
+     * @return                  the two partitions, in the order they are searched, or <tt>null</tt>
+     *                          if the queue is not partitioned or there is no driver
+     */
+    private int[] getClaimPartitions(String driverId)
+    {
+        if (partitions < 2 || driverId == null)
+        {
+            return null;
+        }
+        int homePartition = getPartition(driverId);
+        int rotation = claimRotation.getAndIncrement() & Integer.MAX_VALUE;
+        int foreignPartition = (homePartition + 1 + rotation % (partitions - 1)) % partitions;
+        if (rotation % partitions == 0)
+        {
+            return new int[] {foreignPartition, homePartition};
+        }
+        return new int[] {homePartition, foreignPartition};
+    }
+    
     @Override
     public String putEvent(Event event)
     {
@@ -201,7 +680,9 @@ public class MongoEventService extends AbstractEventService implements Lifecycle
         {
             throw new IllegalArgumentException("'event' may not be null.");
         }
-        DBObject insertObj = convertEvent(event);
+        DBObject insertObj = convertEvent(event, dataCodecs);
+        addPartition(insertObj, event);
+        addLane(insertObj, event);
 
         // Was the event's ID supplied to us
         ObjectId eventIdObj = (ObjectId) insertObj.get(Event.FIELD_ID);
@@ -239,6 +720,8 @@ public class MongoEventService extends AbstractEventService implements Lifecycle
                     "   Event: " + insertObj,
                     e);
         }
+        localCountDelta.incrementAndGet();
+        notifyEventsPut(event.getScheduledTime());
 
         // Done
         if (logger.isDebugEnabled())
@@ -248,70 +731,224 @@ public class MongoEventService extends AbstractEventService implements Lifecycle
         return eventId;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The events are written using a single unordered bulk insert.  Any in-memory data held
+     * for events that fail to insert is discarded before the exception is thrown.
+     */
     @Override
-    public Event getEvent(String id)
+    public List<String> putEvents(List<Event> events)
     {
-        DBObject queryObj = BasicDBObjectBuilder.start()
-                .add(Event.FIELD_ID, new ObjectId(id))
-                .get();
-        DBObject eventObj = collection.findOne(queryObj);
-        Event event = null;
-        if (eventObj != null)
+        if (events == null)
         {
-            event = convertDBObject(eventObj);
+            throw new IllegalArgumentException("'events' may not be null.");
+        }
+        List<String> eventIds = new ArrayList<String>(events.size());
+        if (events.isEmpty())
+        {
+            return eventIds;
         }
         
-        // Done
-        if (logger.isDebugEnabled())
+        BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+        long earliestScheduledTime = Long.MAX_VALUE;
+        for (Event event : events)
         {
-            logger.debug("Fetched event for ID '" + id + ": " + event);
+            if (event == null)
+            {
+                throw new IllegalArgumentException("'events' may not contain null values.");
+            }
+            earliestScheduledTime = Math.min(earliestScheduledTime, event.getScheduledTime());
+            DBObject insertObj = convertEvent(event, dataCodecs);
+            addPartition(insertObj, event);
+            addLane(insertObj, event);
+            
+            // Was the event's ID supplied to us
+            ObjectId eventIdObj = (ObjectId) insertObj.get(Event.FIELD_ID);
+            if (eventIdObj == null)
+            {
+                // We make up an ID here so that we can record the in-memory object, if necessary
+                eventIdObj = new ObjectId();
+                insertObj.put(Event.FIELD_ID, eventIdObj);
+            }
+            String eventId = eventIdObj.toString();
+            eventIds.add(eventId);
+            
+            // Replace the data with a key, if necessary
+            Object data = event.getData();
+            if (event.getDataInMemory() && data != null)
+            {
+                insertObj.put(Event.FIELD_DATA_OWNER, dataOwner);
+                insertObj.removeField(Event.FIELD_DATA);
+                // As with single inserts, the data must be available before the event can be found
+                runLocalData.put(eventId, data);
+            }
+            bulk.insert(insertObj);
         }
-        return event;
-    }
-
-    @Override
-    public List<Event> getEvents(int skip, int limit)
-    {
-        DBCursor cursor = collection.find().skip(skip).limit(limit);
-        List<Event> events = new ArrayList<Event>(limit);
-        while (cursor.hasNext())
+        
+        try
         {
-            DBObject eventObj = cursor.next();
-            Event event = convertDBObject(eventObj);
-            events.add(event);
+            bulk.execute();
         }
-        cursor.close();
+        catch (BulkWriteException e)
+        {
+            // Some of the events went in, so only clean up after the ones that did not
+            localCountDelta.addAndGet(events.size() - e.getWriteErrors().size());
+            notifyEventsPut(earliestScheduledTime);
+            StringBuilder sb = new StringBuilder(256);
+            for (BulkWriteError error : e.getWriteErrors())
+            {
+                int index = error.getIndex();
+                String eventId = eventIds.get(index);
+                runLocalData.remove(eventId);
+                sb.append("\n   Event: ").append(events.get(index)).append(" (").append(error.getMessage()).append(")");
+            }
+            throw new RuntimeException(
+                    "Failed to insert " + e.getWriteErrors().size() + " of " + events.size() + " events:" + sb.toString(),
+                    e);
+        }
+        catch (MongoException e)
+        {
+            // We have no idea what went in, so assume nothing did
+            for (String eventId : eventIds)
+            {
+                runLocalData.remove(eventId);
+            }
+            throw new RuntimeException("Failed to insert " + events.size() + " events.", e);
+        }
+        localCountDelta.addAndGet(events.size());
+        notifyEventsPut(earliestScheduledTime);
+        
         // Done
         if (logger.isDebugEnabled())
         {
-            logger.debug("Fetched " + events.size() + "events.");
+            logger.debug("Put " + events.size() + " events: " + eventIds);
         }
-        return events;
+        return eventIds;
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * Puts are also {@link MongoEventSignals signalled} to the drivers sharing the queue.
      */
     @Override
-    public Event nextEvent(String driverId, long latestScheduledTime)
+    protected void notifyEventsPut(long earliestScheduledTime)
     {
-        // Build query
-        BasicDBObjectBuilder qb = BasicDBObjectBuilder
+        if (hasQueueListeners())
+        {
+            super.notifyEventsPut(earliestScheduledTime);
+        }
+        if (signalsEnabled)
+        {
+            signals.signal(earliestScheduledTime);
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Listeners are told about events put by any instance that {@link #setSignals(boolean) signals} its puts.
+     */
+    @Override
+    public boolean addQueueListener(QueueListener listener)
+    {
+        if (!signalsEnabled)
+        {
+            return false;
+        }
+        super.addQueueListener(listener);
+        signals.addListener(listener);
+        return true;
+    }
+    
+    @Override
+    public void removeQueueListener(QueueListener listener)
+    {
+        super.removeQueueListener(listener);
+        signals.removeListener(listener);
+    }
+    
+    @Override
+    public long getNextScheduledTime()
+    {
+        DBObject queryObj = BasicDBObjectBuilder
                 .start()
-                .push(Event.FIELD_SCHEDULED_TIME)                   // Must be scheduled to execute
-                    .add("$lte", new Date(latestScheduledTime))
-                    .pop()
-                .add(Event.FIELD_LOCK_OWNER, null)                  // Must not be locked
-                .push(Event.FIELD_DATA_OWNER)                       // We must own the data it or it must be unowned
+                .add(Event.FIELD_LOCK_OWNER, null)
+                .push(Event.FIELD_DATA_OWNER)
                     .add("$in", new String[] {dataOwner, null})
-                    .pop();
-        if (driverId != null)
+                    .pop()
+                .get();
+        DBObject fieldsObj = BasicDBObjectBuilder
+                .start(Event.FIELD_SCHEDULED_TIME, Integer.valueOf(1))
+                .get();
+        DBObject sortObj = BasicDBObjectBuilder
+                .start(Event.FIELD_SCHEDULED_TIME, Integer.valueOf(1))
+                .get();
+        DBCursor cursor = collection.find(queryObj, fieldsObj).sort(sortObj).limit(1);
+        try
         {
-            qb.push(Event.FIELD_DRIVER)                             // Must be assigned to the given driver or must be unassigned
-                .add("$in", new String[] {driverId, null})
-                .pop();
+            if (!cursor.hasNext())
+            {
+                return Long.MAX_VALUE;
+            }
+            Date scheduledTime = (Date) cursor.next().get(Event.FIELD_SCHEDULED_TIME);
+            return (scheduledTime == null) ? Long.MIN_VALUE : scheduledTime.getTime();
+        }
+        finally
+        {
+            cursor.close();
         }
-        DBObject queryObj = qb.get();
+    }
+
+    @Override
+    public Event getEvent(String id)
+    {
+        DBObject queryObj = BasicDBObjectBuilder.start()
+                .add(Event.FIELD_ID, new ObjectId(id))
+                .get();
+        DBObject eventObj = collection.findOne(queryObj);
+        Event event = null;
+        if (eventObj != null)
+        {
+            event = convertDBObject(eventObj);
+        }
+        
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Fetched event for ID '" + id + ": " + event);
+        }
+        return event;
+    }
+
+    @Override
+    public List<Event> getEvents(int skip, int limit)
+    {
+        DBCursor cursor = collection.find().skip(skip).limit(limit);
+        List<Event> events = new ArrayList<Event>(limit);
+        while (cursor.hasNext())
+        {
+            DBObject eventObj = cursor.next();
+            Event event = convertDBObject(eventObj);
+            events.add(event);
+        }
+        cursor.close();
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Fetched " + events.size() + "events.");
+        }
+        return events;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Event nextEvent(String driverId, long latestScheduledTime)
+    {
+        DBObject queryObj = buildNextEventQuery(driverId, latestScheduledTime);
         // Build sort
         DBObject sortObj = BasicDBObjectBuilder
                 .start()
@@ -319,15 +956,37 @@ public class MongoEventService extends AbstractEventService implements Lifecycle
                 .get();
         // Build update
         long now = System.currentTimeMillis();
+        BasicDBObjectBuilder setObjBuilder = BasicDBObjectBuilder
+                .start(Event.FIELD_LOCK_OWNER, dataOwner)
+                .add(Event.FIELD_LOCK_TIME, new Date(now));
+        if (driverId != null)
+        {
+            // Allows the lock to be recovered if the driver stops
+            setObjBuilder.add(Event.FIELD_LOCK_DRIVER, driverId);
+        }
         DBObject updateObj = BasicDBObjectBuilder
-                .start()
-                .push("$set")
-                    .add(Event.FIELD_LOCK_OWNER, dataOwner)
-                    .add(Event.FIELD_LOCK_TIME, new Date(now))
-                .pop()
+                .start("$set", setObjBuilder.get())
                 .get();
 
-        DBObject oldObj = collection.findAndModify(queryObj, sortObj, updateObj);
+        DBObject oldObj = null;
+        int[] claimPartitions = getClaimPartitions(driverId);
+        for (DBObject laneQueryObj : buildLaneQueries(queryObj, lanes.getLanes()))
+        {
+            for (int i = 0; claimPartitions != null && i < claimPartitions.length && oldObj == null; i++)
+            {
+                oldObj = collection.findAndModify(buildPartitionQuery(laneQueryObj, claimPartitions[i]), sortObj, updateObj);
+            }
+            if (oldObj == null)
+            {
+                // Nothing in the partitions, so take the next event from anywhere
+                oldObj = collection.findAndModify(laneQueryObj, sortObj, updateObj);
+            }
+            if (oldObj != null)
+            {
+                // Lower lanes wait
+                break;
+            }
+        }
         // Make sure we return the event, as modified
         Event event = null;
         if (oldObj != null)
@@ -349,6 +1008,194 @@ public class MongoEventService extends AbstractEventService implements Lifecycle
         return event;
     }
     
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The candidate events are located and then leased using a single multi-document update
+     * that is tagged with a unique lease ID; any candidates taken by other drivers in the
+     * meantime are simply not returned.
+     */
+    @Override
+    public List<Event> nextEvents(String driverId, long latestScheduledTime, int maxCount)
+    {
+        if (maxCount < 1)
+        {
+            throw new IllegalArgumentException("'maxCount' must be at least 1.");
+        }
+        DBObject queryObj = buildNextEventQuery(driverId, latestScheduledTime);
+        DBObject fieldsObj = BasicDBObjectBuilder
+                .start(Event.FIELD_ID, Integer.valueOf(1))
+                .get();
+        DBObject sortObj = BasicDBObjectBuilder
+                .start()
+                .add(Event.FIELD_SCHEDULED_TIME, Integer.valueOf(1))
+                .get();
+        
+        // Find the candidate events, sharing the claim between the lanes
+        int[] laneValues = lanes.getLanes();
+        List<DBObject> laneQueryObjs = buildLaneQueries(queryObj, laneValues);
+        int remainingWeight = EventLaneRegistry.getWeight(EventLaneRegistry.DEFAULT_LANE);
+        for (int laneValue : laneValues)
+        {
+            remainingWeight += EventLaneRegistry.getWeight(laneValue);
+        }
+        List<ObjectId> candidateIds = new ArrayList<ObjectId>(maxCount);
+        for (int i = 0; i < laneQueryObjs.size() && candidateIds.size() < maxCount; i++)
+        {
+            int lane = (i < laneValues.length) ? laneValues[i] : EventLaneRegistry.DEFAULT_LANE;
+            int laneWeight = EventLaneRegistry.getWeight(lane);
+            // Any part of the lane's share that it does not use is passed down to the lower lanes
+            int remainingCount = maxCount - candidateIds.size();
+            int laneCount = (int) Math.ceil((double) remainingCount * laneWeight / remainingWeight);
+            remainingWeight -= laneWeight;
+            candidateIds.addAll(findAvailableEventIds(laneQueryObjs.get(i), driverId, fieldsObj, sortObj, laneCount));
+        }
+        if (candidateIds.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        
+        // Lease whatever is still available
+        long now = System.currentTimeMillis();
+        ObjectId leaseId = new ObjectId();
+        DBObject leaseQueryObj = BasicDBObjectBuilder
+                .start()
+                .push(Event.FIELD_ID)
+                    .add("$in", candidateIds)
+                    .pop()
+                .add(Event.FIELD_LOCK_OWNER, null)
+                .get();
+        BasicDBObjectBuilder leaseSetObjBuilder = BasicDBObjectBuilder
+                .start(Event.FIELD_LOCK_OWNER, dataOwner)
+                .add(Event.FIELD_LOCK_TIME, new Date(now))
+                .add(Event.FIELD_LEASE_ID, leaseId)
+                .add(Event.FIELD_LEASE_EXPIRY, new Date(now + leasePeriod));
+        if (driverId != null)
+        {
+            leaseSetObjBuilder.add(Event.FIELD_LOCK_DRIVER, driverId);
+        }
+        DBObject leaseUpdateObj = BasicDBObjectBuilder
+                .start("$set", leaseSetObjBuilder.get())
+                .get();
+        WriteResult wr = collection.update(leaseQueryObj, leaseUpdateObj, false, true);
+        if (wr.getN() == 0)
+        {
+            // Other drivers got there first
+            return Collections.emptyList();
+        }
+        
+        // Fetch the events that we actually leased, going by ID so that the ID index is used
+        DBObject leasedQueryObj = BasicDBObjectBuilder
+                .start()
+                .push(Event.FIELD_ID)
+                    .add("$in", candidateIds)
+                    .pop()
+                .add(Event.FIELD_LEASE_ID, leaseId)
+                .get();
+        List<Event> events = new ArrayList<Event>(wr.getN());
+        DBCursor cursor = collection.find(leasedQueryObj).sort(sortObj);
+        try
+        {
+            while (cursor.hasNext())
+            {
+                Event event = convertDBObject(cursor.next());
+                leasedEventIds.add(event.getId());
+                events.add(event);
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("\n" +
+                    "Leased next events: \n" +
+                    "   Latest scheduled time:  " + latestScheduledTime + "\n" +
+                    "   Driver ID:              " + driverId + "\n" +
+                    "   Requested:              " + maxCount + "\n" +
+                    "   Leased:                 " + events.size());
+        }
+        return events;
+    }
+    
+    /**
+     * Find the IDs of available events, looking in the {@link #getClaimPartitions(String) claim partitions}
+     * first.  A share of the events is reserved for the second partition and anything still missing is taken
+     * from anywhere.
+     */
+    private List<ObjectId> findAvailableEventIds(
+            DBObject queryObj, String driverId, DBObject fieldsObj, DBObject sortObj, int maxCount)
+    {
+        int[] claimPartitions = getClaimPartitions(driverId);
+        if (claimPartitions == null)
+        {
+            return findEventIds(queryObj, fieldsObj, sortObj, maxCount);
+        }
+        List<ObjectId> eventIds = new ArrayList<ObjectId>(maxCount);
+        int foreignCount = (maxCount + partitions - 1) / partitions;
+        if (maxCount > foreignCount)
+        {
+            eventIds.addAll(findEventIds(buildPartitionQuery(queryObj, claimPartitions[0]), fieldsObj, sortObj, maxCount - foreignCount));
+        }
+        eventIds.addAll(findEventIds(buildPartitionQuery(queryObj, claimPartitions[1]), fieldsObj, sortObj, maxCount - eventIds.size()));
+        if (eventIds.size() < maxCount)
+        {
+            // Not enough in the partitions, so take the rest from anywhere
+            DBObject restQueryObj = new BasicDBObject(queryObj.toMap());
+            restQueryObj.put(Event.FIELD_ID, new BasicDBObject("$nin", eventIds));
+            eventIds.addAll(findEventIds(restQueryObj, fieldsObj, sortObj, maxCount - eventIds.size()));
+        }
+        return eventIds;
+    }
+    
+    /**
+     * Find the IDs of events matching a query, in order
+     */
+    private List<ObjectId> findEventIds(DBObject queryObj, DBObject fieldsObj, DBObject sortObj, int maxCount)
+    {
+        List<ObjectId> eventIds = new ArrayList<ObjectId>(maxCount);
+        DBCursor cursor = collection.find(queryObj, fieldsObj).sort(sortObj).limit(maxCount);
+        try
+        {
+            while (cursor.hasNext())
+            {
+                eventIds.add((ObjectId) cursor.next().get(Event.FIELD_ID));
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        return eventIds;
+    }
+    
+    /**
+     * Build the query that finds events available for processing
+     */
+    private DBObject buildNextEventQuery(String driverId, long latestScheduledTime)
+    {
+        // Build query
+        BasicDBObjectBuilder qb = BasicDBObjectBuilder
+                .start()
+                .push(Event.FIELD_SCHEDULED_TIME)                   // Must be scheduled to execute
+                    .add("$lte", new Date(latestScheduledTime))
+                    .pop()
+                .add(Event.FIELD_LOCK_OWNER, null)                  // Must not be locked
+                .push(Event.FIELD_DATA_OWNER)                       // We must own the data it or it must be unowned
+                    .add("$in", new String[] {dataOwner, null})
+                    .pop();
+        if (driverId != null)
+        {
+            qb.push(Event.FIELD_DRIVER)                             // Must be assigned to the given driver or must be unassigned
+                .add("$in", new String[] {driverId, null})
+                .pop();
+        }
+        return qb.get();
+    }
+    
     @Override
     public boolean deleteEvent(Event event)
     {
@@ -359,8 +1206,10 @@ public class MongoEventService extends AbstractEventService implements Lifecycle
                 .get();
         // Drop any associated memory data
         runLocalData.remove(id);
+        leasedEventIds.remove(id);
         
         WriteResult wr = collection.remove(queryObj);
+        localCountDelta.addAndGet(-wr.getN());
         if (wr.getN() != 1)
         {
             // Done
@@ -384,12 +1233,447 @@ public class MongoEventService extends AbstractEventService implements Lifecycle
         }
     }
     
+    @Override
+    public int deleteEvents(List<Event> events)
+    {
+        if (events.isEmpty())
+        {
+            return 0;
+        }
+        List<ObjectId> ids = new ArrayList<ObjectId>(events.size());
+        for (Event event : events)
+        {
+            String id = event.getId();
+            ids.add(new ObjectId(id));
+            // Drop any associated memory data
+            runLocalData.remove(id);
+            leasedEventIds.remove(id);
+        }
+        DBObject queryObj = BasicDBObjectBuilder
+                .start()
+                .push(Event.FIELD_ID)
+                    .add("$in", ids)
+                    .pop()
+                .get();
+        
+        WriteResult wr = collection.remove(queryObj);
+        int deleted = wr.getN();
+        localCountDelta.addAndGet(-deleted);
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Removed " + deleted + " of " + events.size() + " events.");
+        }
+        return deleted;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only events still locked by this instance are given back.  Unlike recovered events, released
+     * events do not count towards the maximum number of recoveries.
+     */
+    @Override
+    public int releaseEvents(List<Event> events)
+    {
+        if (events.isEmpty())
+        {
+            return 0;
+        }
+        List<ObjectId> ids = new ArrayList<ObjectId>(events.size());
+        for (Event event : events)
+        {
+            String id = event.getId();
+            ids.add(new ObjectId(id));
+            leasedEventIds.remove(id);
+        }
+        DBObject queryObj = BasicDBObjectBuilder
+                .start()
+                .push(Event.FIELD_ID)
+                    .add("$in", ids)
+                    .pop()
+                .add(Event.FIELD_LOCK_OWNER, dataOwner)
+                .get();
+        DBObject updateObj = BasicDBObjectBuilder
+                .start()
+                .push("$set")
+                    .add(Event.FIELD_LOCK_OWNER, null)
+                    .add(Event.FIELD_LOCK_TIME, new Date(0L))
+                .pop()
+                .push("$unset")
+                    .add(Event.FIELD_LEASE_ID, "")
+                    .add(Event.FIELD_LEASE_EXPIRY, "")
+                    .add(Event.FIELD_LOCK_DRIVER, "")
+                .pop()
+                .get();
+        WriteResult wr = collection.update(queryObj, updateObj, false, true);
+        int released = wr.getN();
+        if (released > 0)
+        {
+            // The events are available again
+            notifyEventsPut(Long.MIN_VALUE);
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Released " + released + " of " + events.size() + " events.");
+        }
+        return released;
+    }
+    
+    /**
+     * Extend the lease on all events currently leased by this instance
+     * 
+     * @return                  the number of leases renewed
+     */
+    public int renewLeases()
+    {
+        if (leasedEventIds.isEmpty())
+        {
+            return 0;
+        }
+        List<ObjectId> ids = new ArrayList<ObjectId>(leasedEventIds.size());
+        for (String id : leasedEventIds)
+        {
+            ids.add(new ObjectId(id));
+        }
+        DBObject queryObj = BasicDBObjectBuilder
+                .start()
+                .push(Event.FIELD_ID)
+                    .add("$in", ids)
+                    .pop()
+                .add(Event.FIELD_LOCK_OWNER, dataOwner)
+                .get();
+        DBObject updateObj = BasicDBObjectBuilder
+                .start()
+                .push("$set")
+                    .add(Event.FIELD_LEASE_EXPIRY, new Date(System.currentTimeMillis() + leasePeriod))
+                .pop()
+                .get();
+        WriteResult wr = collection.update(queryObj, updateObj, false, true);
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Renewed " + wr.getN() + " of " + ids.size() + " event leases.");
+        }
+        return wr.getN();
+    }
+    
+    /**
+     * Return all events with expired leases back to the queue.  These are events claimed in batches
+     * by a driver that has stopped renewing its leases.
+     * 
+     * @return                  the number of events recovered
+     * 
+     * @see #recoverEvents(DBObject, String)
+     */
+    public int releaseExpiredLeases()
+    {
+        DBObject queryObj = BasicDBObjectBuilder
+                .start()
+                .push(Event.FIELD_LEASE_EXPIRY)
+                    .add("$lt", new Date())
+                    .pop()
+                .get();
+        return recoverEvents(queryObj, "lease expired");
+    }
+    
+    /**
+     * Recover events abandoned by drivers that have failed.  An event is abandoned if:
+     * <ul>
+     *   <li>it was claimed on its own and has been locked for longer than the lock lease or</li>
+     *   <li>the driver that claimed it is no longer active.</li>
+     * </ul>
+     * Events claimed in batches are also covered by their {@link #releaseExpiredLeases() leases}.
+     * 
+     * @param lockLease         how long (milliseconds) an event claimed on its own can stay locked
+     * @param liveDriverIds     the IDs of the active drivers or <tt>null</tt> if not known
+     * @param liveDriversTime   the time when the active drivers were found; only events locked before
+     *                          this time are checked against the active drivers
+     * @return                  the number of events recovered
+     * 
+     * @see #recoverEvents(DBObject, String)
+     */
+    public int releaseOrphanedEvents(long lockLease, Collection<String> liveDriverIds, long liveDriversTime)
+    {
+        if (lockLease < 1L)
+        {
+            throw new IllegalArgumentException("'lockLease' must be at least 1ms.");
+        }
+        List<DBObject> orphanedObjs = new ArrayList<DBObject>(2);
+        DBObject lockExpiredObj = BasicDBObjectBuilder
+                .start()
+                .push(Event.FIELD_LOCK_TIME)
+                    .add("$lt", new Date(System.currentTimeMillis() - lockLease))
+                    .pop()
+                .push(Event.FIELD_LEASE_EXPIRY)
+                    .add("$exists", Boolean.FALSE)
+                    .pop()
+                .get();
+        orphanedObjs.add(lockExpiredObj);
+        if (liveDriverIds != null)
+        {
+            DBObject driverDeadObj = BasicDBObjectBuilder
+                    .start()
+                    .push(Event.FIELD_LOCK_TIME)
+                        .add("$lt", new Date(liveDriversTime))
+                        .pop()
+                    .push(Event.FIELD_LOCK_DRIVER)
+                        .add("$exists", Boolean.TRUE)
+                        .add("$nin", new ArrayList<String>(liveDriverIds))
+                        .pop()
+                    .get();
+            orphanedObjs.add(driverDeadObj);
+        }
+        DBObject queryObj = BasicDBObjectBuilder
+                .start()
+                .push(Event.FIELD_LOCK_OWNER)
+                    .add("$ne", null)
+                    .pop()
+                .add("$or", orphanedObjs)
+                .get();
+        return recoverEvents(queryObj, "driver failed");
+    }
+    
+    /**
+     * Recover locked events.  Each event is returned to the queue unless it has already been
+     * recovered {@link #setMaxRecoveries(int) too often} or its data was held in the memory of
+     * another driver; those events are moved to the dead-letter collection instead.
+     * <p/>
+     * Every condition is part of the updates, so any number of drivers can recover events at the same time.
+     * 
+     * @param matchObj          the query that finds the events to recover
+     * @param reason            the reason recorded against dead-lettered events
+     * @return                  the number of events recovered
+     */
+    private int recoverEvents(DBObject matchObj, String reason)
+    {
+        // Events that we have given up on
+        DBObject deadLetterQueryObj = BasicDBObjectBuilder
+                .start("$and", Arrays.asList(
+                        matchObj,
+                        BasicDBObjectBuilder
+                                .start("$or", Arrays.asList(
+                                        BasicDBObjectBuilder
+                                                .start()
+                                                .push(Event.FIELD_RECOVERIES)
+                                                    .add("$gte", Integer.valueOf(maxRecoveries))
+                                                    .pop()
+                                                .get(),
+                                        BasicDBObjectBuilder
+                                                .start()
+                                                .push(Event.FIELD_DATA_OWNER)
+                                                    .add("$nin", new String[] {dataOwner, null})
+                                                    .pop()
+                                                .get()))
+                                .get()))
+                .get();
+        int deadLettered = deadLetterEvents(deadLetterQueryObj, reason);
+        
+        // Everything else goes back onto the queue
+        DBObject requeueQueryObj = BasicDBObjectBuilder
+                .start("$and", Arrays.asList(
+                        matchObj,
+                        BasicDBObjectBuilder
+                                .start()
+                                .push(Event.FIELD_RECOVERIES)
+                                    .push("$not")
+                                        .add("$gte", Integer.valueOf(maxRecoveries))
+                                        .pop()
+                                    .pop()
+                                .push(Event.FIELD_DATA_OWNER)
+                                    .add("$in", new String[] {dataOwner, null})
+                                    .pop()
+                                .get()))
+                .get();
+        DBObject requeueUpdateObj = BasicDBObjectBuilder
+                .start()
+                .push("$set")
+                    .add(Event.FIELD_LOCK_OWNER, null)
+                    .add(Event.FIELD_LOCK_TIME, new Date(0L))
+                .pop()
+                .push("$unset")
+                    .add(Event.FIELD_LEASE_ID, "")
+                    .add(Event.FIELD_LEASE_EXPIRY, "")
+                    .add(Event.FIELD_LOCK_DRIVER, "")
+                .pop()
+                .push("$inc")
+                    .add(Event.FIELD_RECOVERIES, Integer.valueOf(1))
+                .pop()
+                .get();
+        WriteResult wr = collection.update(requeueQueryObj, requeueUpdateObj, false, true);
+        int requeued = wr.getN();
+        
+        eventsRequeued.addAndGet(requeued);
+        eventsDeadLettered.addAndGet(deadLettered);
+        if (requeued > 0)
+        {
+            // The events are available again
+            notifyEventsPut(Long.MIN_VALUE);
+        }
+        // Done
+        if (requeued > 0 || deadLettered > 0)
+        {
+            logger.warn(
+                    "Recovered events (" + reason + ") from " + collection.getName() + ": " +
+                    requeued + " returned to the queue and " + deadLettered + " dead-lettered.");
+        }
+        return requeued + deadLettered;
+    }
+    
+    /**
+     * Move events to the dead-letter collection in bulk.  Copies are written before the originals are
+     * removed so that no event is lost; an event that changes in the meantime is left in place.
+     * 
+     * @return                  the number of events removed from the queue
+     */
+    private int deadLetterEvents(DBObject queryObj, String reason)
+    {
+        int deadLettered = 0;
+        while (true)
+        {
+            List<DBObject> eventObjs = new ArrayList<DBObject>(DEAD_LETTER_BATCH_SIZE);
+            DBCursor cursor = collection.find(queryObj).limit(DEAD_LETTER_BATCH_SIZE);
+            try
+            {
+                while (cursor.hasNext())
+                {
+                    eventObjs.add(cursor.next());
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+            if (eventObjs.isEmpty())
+            {
+                break;
+            }
+            
+            // Copy the events, replacing any copies left by an earlier attempt
+            Date now = new Date();
+            List<ObjectId> ids = new ArrayList<ObjectId>(eventObjs.size());
+            BulkWriteOperation bulk = deadLetterCollection.initializeUnorderedBulkOperation();
+            for (DBObject eventObj : eventObjs)
+            {
+                ObjectId id = (ObjectId) eventObj.get(Event.FIELD_ID);
+                ids.add(id);
+                eventObj.put(FIELD_DEAD_LETTER_TIME, now);
+                eventObj.put(FIELD_DEAD_LETTER_REASON, reason);
+                bulk.find(new BasicDBObject(Event.FIELD_ID, id)).upsert().replaceOne(eventObj);
+            }
+            try
+            {
+                bulk.execute();
+            }
+            catch (MongoException e)
+            {
+                throw new RuntimeException("Failed to write " + ids.size() + " events to " + deadLetterCollection.getName(), e);
+            }
+            
+            // Remove the originals
+            DBObject removeObj = BasicDBObjectBuilder
+                    .start("$and", Arrays.asList(
+                            new BasicDBObject(Event.FIELD_ID, new BasicDBObject("$in", ids)),
+                            queryObj))
+                    .get();
+            WriteResult wr = collection.remove(removeObj);
+            deadLettered += wr.getN();
+            localCountDelta.addAndGet(-wr.getN());
+            for (ObjectId id : ids)
+            {
+                leasedEventIds.remove(id.toString());
+            }
+            if (wr.getN() < ids.size())
+            {
+                // Some events changed underneath us; keep their data and leave them for the next check
+                break;
+            }
+            for (ObjectId id : ids)
+            {
+                runLocalData.remove(id.toString());
+            }
+        }
+        return deadLettered;
+    }
+    
+    /**
+     * Drop data held in memory for events that are no longer in the queue.  Data should be dropped when
+     * its event is deleted, so anything found here has leaked.
+     * 
+     * @param minAge            how long (milliseconds) data must have been held before it is checked
+     * @return                  the number of entries dropped
+     */
+    public int releaseOrphanedData(long minAge)
+    {
+        List<String> candidateIds = runLocalData.getIdsPutBefore(System.currentTimeMillis() - minAge);
+        int released = 0;
+        for (int i = 0; i < candidateIds.size(); i += DEAD_LETTER_BATCH_SIZE)
+        {
+            List<String> batchIds = candidateIds.subList(i, Math.min(candidateIds.size(), i + DEAD_LETTER_BATCH_SIZE));
+            List<ObjectId> batchObjIds = new ArrayList<ObjectId>(batchIds.size());
+            for (String id : batchIds)
+            {
+                batchObjIds.add(new ObjectId(id));
+            }
+            DBObject queryObj = new BasicDBObject(Event.FIELD_ID, new BasicDBObject("$in", batchObjIds));
+            DBObject fieldsObj = new BasicDBObject(Event.FIELD_ID, Integer.valueOf(1));
+            Set<String> orphanIds = new HashSet<String>(batchIds);
+            DBCursor cursor = collection.find(queryObj, fieldsObj);
+            try
+            {
+                while (cursor.hasNext())
+                {
+                    orphanIds.remove(cursor.next().get(Event.FIELD_ID).toString());
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+            released += runLocalData.removeOrphans(orphanIds);
+        }
+        // Done
+        if (released > 0)
+        {
+            logger.warn("Dropped data held in memory for " + released + " events no longer in the queue: " + collection.getName());
+        }
+        return released;
+    }
+    
+    /**
+     * Periodic renewal of this instance's leases and release of abandoned leases
+     * 
+     * @since 3.0.3
+     */
+    private class LeaseTask extends TimerTask
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                renewLeases();
+                releaseExpiredLeases();
+            }
+            catch (Throwable e)
+            {
+                logger.error("Failed to maintain event leases: " + collection.getName(), e);
+            }
+        }
+    }
+    
     @Override
     public boolean clear()
     {
         try
         {
             this.collection.drop();
+            this.deadLetterCollection.drop();
+            this.signals.drop();
+            this.localCountDelta.set(0L);
+            this.sharedCount = 0L;
+            this.runLocalData.clear();
             return true;
         }
         catch(MongoException mex)
@@ -0,0 +1,277 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BasicDBObjectBuilder;
+import com.mongodb.Bytes;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+import org.alfresco.bm.driver.event.EventService.QueueListener;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Date;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells the drivers sharing a {@link MongoEventService MongoDB event queue} that events have been put into it.
+ * <p/>
+ * Each put writes a small signal into a capped collection and drivers follow the collection using a tailable
+ * cursor, which waits on the server for new signals.  A driver with nothing to do can therefore sleep until
+ * it is signalled instead of searching the queue again and again.
+ * <p/>
+ * Signals from any one instance are written no more than once every {@link #setSignalPeriod(long) period}.
+ * The period must be shorter than the time a driver keeps searching the queue after being woken up so that
+ * events put without a signal of their own are still found.
+ * 
+ * @since 3.0.3
+ */
+public class MongoEventSignals
+{
+    /** The suffix of the collection that holds the signals for an event queue */
+    public static final String SIGNALS_SUFFIX = ".signals";
+    /** The shortest time between signals written by an instance */
+    public static final long DEFAULT_SIGNAL_PERIOD = 20L;
+    public static final String FIELD_TIME = "time";
+    public static final String FIELD_SCHEDULED_TIME = "scheduledTime";
+    /** The size (bytes) of the capped collection */
+    private static final long SIGNALS_SIZE = 1024L * 1024L;
+    /** The number of signals kept in the capped collection */
+    private static final long SIGNALS_MAX = 1000L;
+    /** The time to wait before following the signals again if the cursor is lost */
+    private static final long RETRY_WAIT = 1000L;
+
+    private static Log logger = LogFactory.getLog(MongoEventSignals.class);
+
+    private final DB db;
+    private final String collectionName;
+    private DBCollection collection;
+    private long signalPeriod = DEFAULT_SIGNAL_PERIOD;
+    private final AtomicLong lastSignalTime = new AtomicLong();
+    private final CopyOnWriteArrayList<QueueListener> listeners = new CopyOnWriteArrayList<QueueListener>();
+    private Thread follower;
+    private volatile boolean running;
+
+    /**
+     * @param db                the database holding the event queue
+     * @param collectionName    the name of the signals collection
+     */
+    public MongoEventSignals(DB db, String collectionName)
+    {
+        this.db = db;
+        this.collectionName = collectionName;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_SIGNAL_PERIOD default} shortest time (milliseconds) between signals
+     * written by this instance
+     */
+    public void setSignalPeriod(long signalPeriod)
+    {
+        if (signalPeriod < 0L)
+        {
+            throw new IllegalArgumentException("'signalPeriod' cannot be negative.");
+        }
+        this.signalPeriod = signalPeriod;
+    }
+
+    /**
+     * Ensure that the capped collection exists
+     */
+    public synchronized void start()
+    {
+        DBCollection signals;
+        try
+        {
+            DBObject options = BasicDBObjectBuilder
+                    .start("capped", Boolean.TRUE)
+                    .add("size", Long.valueOf(SIGNALS_SIZE))
+                    .add("max", Long.valueOf(SIGNALS_MAX))
+                    .get();
+            signals = db.createCollection(collectionName, options);
+            // A tailable cursor on an empty collection is closed straight away
+            signals.insert(new BasicDBObject(FIELD_TIME, new Date()));
+        }
+        catch (MongoException ex)
+        {
+            if (!db.getCollectionNames().contains(collectionName))
+            {
+                throw ex;
+            }
+            signals = db.getCollection(collectionName);
+        }
+        this.collection = signals;
+        this.running = true;
+    }
+
+    /**
+     * Stop following the signals
+     */
+    public synchronized void stop()
+    {
+        running = false;
+        if (follower != null)
+        {
+            follower.interrupt();
+            follower = null;
+        }
+    }
+
+    /**
+     * Drop the signals collection
+     */
+    public synchronized void drop()
+    {
+        db.getCollection(collectionName).drop();
+        collection = null;
+    }
+
+    /**
+     * Tell the other drivers that events have been put, unless this instance did so very recently
+     * 
+     * @param earliestScheduledTime the scheduled time of the earliest event put
+     */
+    public void signal(long earliestScheduledTime)
+    {
+        DBCollection signals = collection;
+        if (signals == null)
+        {
+            // Not started
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long last = lastSignalTime.get();
+        if (now - last < signalPeriod || !lastSignalTime.compareAndSet(last, now))
+        {
+            // Covered by a recent signal
+            return;
+        }
+        DBObject signalObj = BasicDBObjectBuilder
+                .start(FIELD_TIME, new Date(now))
+                .add(FIELD_SCHEDULED_TIME, new Date(earliestScheduledTime))
+                .get();
+        try
+        {
+            // Nobody waits for the signal, so there is no point waiting for it to be written
+            signals.insert(signalObj, WriteConcern.UNACKNOWLEDGED);
+        }
+        catch (MongoException e)
+        {
+            // Drivers will still search the queue, just not as quickly
+            logger.warn("Failed to signal event queue " + collectionName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Call a listener whenever any instance signals that events have been put.  Signals are followed
+     * from the first listener onwards.
+     */
+    public synchronized void addListener(QueueListener listener)
+    {
+        listeners.addIfAbsent(listener);
+        if (follower == null && running)
+        {
+            follower = new Thread(new SignalFollower(), collectionName + "-Follower");
+            follower.setDaemon(true);
+            follower.start();
+        }
+    }
+
+    public void removeListener(QueueListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Follows the signals collection using a tailable cursor
+     * 
+     * @since 3.0.3
+     */
+    private class SignalFollower implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            while (running)
+            {
+                DBCursor cursor = null;
+                try
+                {
+                    DBCollection signals = collection;
+                    if (signals == null)
+                    {
+                        break;
+                    }
+                    cursor = signals.find()
+                            .addOption(Bytes.QUERYOPTION_TAILABLE)
+                            .addOption(Bytes.QUERYOPTION_AWAITDATA);
+                    // Signals already in the collection cause a single, harmless wake-up
+                    while (running)
+                    {
+                        // The server holds the request open for a while if there is nothing new
+                        DBObject signalObj = cursor.tryNext();
+                        if (signalObj != null)
+                        {
+                            Date scheduledTime = (Date) signalObj.get(FIELD_SCHEDULED_TIME);
+                            long earliestScheduledTime = (scheduledTime == null) ? Long.MIN_VALUE : scheduledTime.getTime();
+                            for (QueueListener listener : listeners)
+                            {
+                                listener.eventsPut(earliestScheduledTime);
+                            }
+                        }
+                        else if (cursor.getCursorId() == 0L)
+                        {
+                            // The cursor is dead
+                            break;
+                        }
+                    }
+                }
+                catch (RuntimeException e)
+                {
+                    if (running)
+                    {
+                        logger.warn("Lost signals for event queue " + collectionName + ": " + e.getMessage());
+                    }
+                }
+                finally
+                {
+                    if (cursor != null)
+                    {
+                        try { cursor.close(); } catch (RuntimeException e) {}
+                    }
+                }
+                // Avoid a tight loop if the cursor cannot be kept open
+                try { Thread.sleep(RETRY_WAIT); } catch (InterruptedException e) {}
+            }
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common.mongo;
+
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BasicDBObjectBuilder;
+import com.mongodb.Cursor;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.QueryBuilder;
+import org.alfresco.bm.common.LatencyHistogram;
+import org.alfresco.bm.common.spring.LifecycleListener;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Stores result rollups: the results of an interval of time aggregated into
+ * {@link LatencyHistogram histograms} by each driver.
+ * <p/>
+ * Each document covers one interval for one driver:
+ * <pre>
+ * { time: &lt;start of interval&gt;, interval: &lt;ms&gt;, events: [
+ *     { driverId, name, chart, success: &lt;histogram&gt;, failure, intendedSuccess, intendedFailure }, ... ] }
+ * </pre>
+ * Histograms with no values are left out.  Results that arrive after their interval was written are written
+ * in further documents for the same interval, so readers must add up all documents with the same time.
+ * 
+ * @since 3.0.3
+ */
+public class MongoResultRollups implements LifecycleListener
+{
+    public static final String FIELD_TIME = "time";
+    public static final String FIELD_INTERVAL = "interval";
+    public static final String FIELD_EVENTS = "events";
+    public static final String FIELD_DRIVER_ID = "driverId";
+    public static final String FIELD_NAME = "name";
+    public static final String FIELD_CHART = "chart";
+    public static final String FIELD_SUCCESS = "success";
+    public static final String FIELD_FAILURE = "failure";
+    public static final String FIELD_INTENDED_SUCCESS = "intendedSuccess";
+    public static final String FIELD_INTENDED_FAILURE = "intendedFailure";
+
+    private static final String FIELD_EVENTS_NAME = FIELD_EVENTS + "." + FIELD_NAME;
+
+    /**
+     * Callback for rollups read in time order
+     */
+    public interface RollupHandler
+    {
+        /**
+         * @param time              the start of the interval (milliseconds)
+         * @param interval          the length of the interval (milliseconds)
+         * @param events            the event entries of the rollup
+         * @return                  <tt>true</tt> to continue reading otherwise <tt>false</tt>
+         */
+        boolean processRollup(long time, long interval, List<DBObject> events);
+    }
+
+    private static Log logger = LogFactory.getLog(MongoResultRollups.class);
+
+    private DBCollection collection;
+    private boolean checkIndexes = false;
+
+    /**
+     * Construct against a Mongo database and given collection name
+     */
+    public MongoResultRollups(DB db, String collection)
+    {
+        try
+        {
+            this.collection = db.createCollection(collection, new BasicDBObject());
+            checkIndexes = true;
+        }
+        catch (MongoCommandException e)
+        {
+            if (!db.collectionExists(collection))
+            {
+                // The collection is really not there
+                throw e;
+            }
+            // Someone else created it
+            this.collection = db.getCollection(collection);
+            this.checkIndexes = false;
+        }
+    }
+
+    @Override
+    public void start() throws Exception
+    {
+        checkIndexes();
+    }
+
+    private void checkIndexes()
+    {
+        if (!checkIndexes)
+        {
+            return;
+        }
+
+        DBObject idx_TIME = BasicDBObjectBuilder
+                .start(FIELD_TIME, Integer.valueOf(1))
+                .get();
+        DBObject opt_TIME = BasicDBObjectBuilder
+                .start("name", "IDX_TIME")
+                .add("unique", Boolean.FALSE)
+                .get();
+        collection.createIndex(idx_TIME, opt_TIME);
+    }
+
+    @Override
+    public void stop()
+    {
+    }
+
+    /**
+     * @return                  a string giving the location of the rollups
+     */
+    public String getDataLocation()
+    {
+        return collection.getFullName();
+    }
+
+    /**
+     * Write the rollup of an interval
+     * 
+     * @param time              the start of the interval (milliseconds)
+     * @param interval          the length of the interval (milliseconds)
+     * @param events            the event entries
+     */
+    public void writeRollup(long time, long interval, List<DBObject> events)
+    {
+        DBObject insertObj = BasicDBObjectBuilder
+                .start()
+                .add(FIELD_TIME, new Date(time))
+                .add(FIELD_INTERVAL, Long.valueOf(interval))
+                .add(FIELD_EVENTS, events)
+                .get();
+        try
+        {
+            collection.insert(insertObj);
+        }
+        catch (MongoException e)
+        {
+            throw new RuntimeException("Failed to insert result rollup for " + events.size() + " events at " + new Date(time), e);
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Recorded rollup of " + events.size() + " events at " + new Date(time));
+        }
+    }
+
+    /**
+     * @return                  the interval of the first rollup or <tt>0</tt> if there are no rollups
+     */
+    public long getInterval()
+    {
+        DBObject fieldsObj = BasicDBObjectBuilder
+                .start(FIELD_INTERVAL, Boolean.TRUE)
+                .get();
+        DBObject sortObj = BasicDBObjectBuilder
+                .start(FIELD_TIME, Integer.valueOf(1))
+                .get();
+        DBObject rollupObj = collection.findOne(null, fieldsObj, sortObj);
+        return (rollupObj == null) ? 0L : ((Number) rollupObj.get(FIELD_INTERVAL)).longValue();
+    }
+
+    /**
+     * Read the rollups in time order
+     * 
+     * @param startTime         the earliest interval to read (inclusive, milliseconds)
+     * @param handler           the callback for each rollup
+     */
+    @SuppressWarnings("unchecked")
+    public void getRollups(long startTime, RollupHandler handler)
+    {
+        DBObject queryObj = QueryBuilder
+                .start()
+                .and(FIELD_TIME).greaterThanEquals(new Date(startTime))
+                .get();
+        DBObject sortObj = BasicDBObjectBuilder
+                .start(FIELD_TIME, Integer.valueOf(1))
+                .get();
+
+        DBCursor cursor = collection.find(queryObj).sort(sortObj);
+        int count = 0;
+        try
+        {
+            while (cursor.hasNext())
+            {
+                DBObject rollupObj = cursor.next();
+                count++;
+                long time = ((Date) rollupObj.get(FIELD_TIME)).getTime();
+                long interval = ((Number) rollupObj.get(FIELD_INTERVAL)).longValue();
+                List<DBObject> events = (List<DBObject>) rollupObj.get(FIELD_EVENTS);
+                if (!handler.processRollup(time, interval, events))
+                {
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Read " + count + " rollups from " + new Date(startTime));
+        }
+    }
+
+    /**
+     * Count the results in all rollups
+     * 
+     * @param eventName         the name of the event or <tt>null</tt> for all events
+     * @return                  the number of successes and the number of failures
+     */
+    public long[] countResults(String eventName)
+    {
+        List<DBObject> pipeline = new ArrayList<DBObject>(4);
+        if (eventName != null)
+        {
+            pipeline.add(new BasicDBObject("$match", new BasicDBObject(FIELD_EVENTS_NAME, eventName)));
+        }
+        pipeline.add(new BasicDBObject("$unwind", "$" + FIELD_EVENTS));
+        if (eventName != null)
+        {
+            pipeline.add(new BasicDBObject("$match", new BasicDBObject(FIELD_EVENTS_NAME, eventName)));
+        }
+        DBObject groupObj = BasicDBObjectBuilder
+                .start("_id", null)
+                .push(FIELD_SUCCESS)
+                    .add("$sum", "$" + FIELD_EVENTS + "." + FIELD_SUCCESS + "." + LatencyHistogram.FIELD_COUNT)
+                .pop()
+                .push(FIELD_FAILURE)
+                    .add("$sum", "$" + FIELD_EVENTS + "." + FIELD_FAILURE + "." + LatencyHistogram.FIELD_COUNT)
+                .pop()
+                .get();
+        pipeline.add(new BasicDBObject("$group", groupObj));
+
+        long[] counts = new long[2];
+        Cursor cursor = collection.aggregate(pipeline, AggregationOptions.builder().build());
+        try
+        {
+            if (cursor.hasNext())
+            {
+                DBObject countObj = cursor.next();
+                counts[0] = ((Number) countObj.get(FIELD_SUCCESS)).longValue();
+                counts[1] = ((Number) countObj.get(FIELD_FAILURE)).longValue();
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Counted " + counts[0] + " successes and " + counts[1] + " failures for event name: " + eventName);
+        }
+        return counts;
+    }
+
+    /**
+     * @return                  the names of all events in the rollups
+     */
+    public List<String> getEventNames()
+    {
+        @SuppressWarnings("unchecked")
+        List<String> results = (List<String>) collection.distinct(FIELD_EVENTS_NAME);
+        return results;
+    }
+
+    /**
+     * @return                  <tt>true</tt> if there are any rollups
+     */
+    public boolean hasRollups()
+    {
+        return collection.findOne() != null;
+    }
+
+    /**
+     * Drop all rollups
+     * 
+     * @return                  <tt>true</tt> if successful
+     */
+    public boolean clear()
+    {
+        try
+        {
+            this.collection.drop();
+            return true;
+        }
+        catch (MongoException mex)
+        {
+            logger.error("Unable to drop collection '" + this.collection.getName() + "'");
+            return false;
+        }
+    }
+}
@@ -25,27 +25,39 @@
  */
 package org.alfresco.bm.common.mongo;
 
+import com.mongodb.AggregationOptions;
 import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
+import com.mongodb.Cursor;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.InsertOptions;
 import com.mongodb.MongoCommandException;
 import com.mongodb.MongoException;
 import com.mongodb.QueryBuilder;
 import org.alfresco.bm.common.AbstractResultService;
+import org.alfresco.bm.common.AggregateStatistics;
 import org.alfresco.bm.common.EventDetails;
 import org.alfresco.bm.common.EventRecord;
 import org.alfresco.bm.common.EventResultFilter;
+import org.alfresco.bm.common.LatencyStatistics;
 import org.alfresco.bm.common.spring.LifecycleListener;
 import org.alfresco.bm.driver.event.Event;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.bson.types.ObjectId;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A Mongo-based implementation of the results for benchmark test runs.
@@ -57,8 +69,24 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
 {
     private static Log logger = LogFactory.getLog(MongoResultService.class);
 
+    /* Fields of the time series aggregates */
+    private static final String AGG_PERIOD = "period";
+    private static final String AGG_NAME = "name";
+    private static final String AGG_N = "n";
+    private static final String AGG_SUM = "sum";
+    private static final String AGG_SUM_SQ = "sumSq";
+    private static final String AGG_MIN = "min";
+    private static final String AGG_MAX = "max";
+    private static final String AGG_INTENDED_TIME = "intendedTime";
+    private static final String AGG_INTENDED_SUM = "intendedSum";
+    private static final String AGG_INTENDED_SUM_SQ = "intendedSumSq";
+    private static final String AGG_INTENDED_MIN = "intendedMin";
+    private static final String AGG_INTENDED_MAX = "intendedMax";
+    private static final String AGG_FAILURES = "failures";
+
     private DBCollection collection;
     private boolean checkIndexes = false;
+    private boolean aggregate = false;
 
     /**
      * Construct a test result provider against a Mongo database and given collection name
@@ -97,12 +125,14 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
         }
         
         // Initialize indexes
+        // The result ID follows the start time so that pages of results can be read in index order
         DBObject idx_EVENT_NAME_START = BasicDBObjectBuilder
                 .start(EventRecord.FIELD_EVENT_NAME, Integer.valueOf(1))
                 .add(EventRecord.FIELD_START_TIME, Integer.valueOf(1))
+                .add(EventRecord.FIELD_ID, Integer.valueOf(1))
                 .get();
         DBObject opt_EVENT_NAME_START = BasicDBObjectBuilder
-                .start("name", "IDX_EVENT_NAME_START")
+                .start("name", "IDX_EVENT_NAME_START_ID")
                 .add("unique", Boolean.FALSE)
                 .get();
         collection.createIndex(idx_EVENT_NAME_START, opt_EVENT_NAME_START);
@@ -110,18 +140,20 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
         DBObject idx_SUCCESS_START = BasicDBObjectBuilder
                 .start(EventRecord.FIELD_SUCCESS, Integer.valueOf(1))
                 .add(EventRecord.FIELD_START_TIME, Integer.valueOf(1))
+                .add(EventRecord.FIELD_ID, Integer.valueOf(1))
                 .get();
         DBObject opt_SUCCESS_START = BasicDBObjectBuilder
-                .start("name", "IDX_SUCCESS_START")
+                .start("name", "IDX_SUCCESS_START_ID")
                 .add("unique", Boolean.FALSE)
                 .get();
         collection.createIndex(idx_SUCCESS_START, opt_SUCCESS_START);
         
         DBObject idx_START = BasicDBObjectBuilder
                 .start(EventRecord.FIELD_START_TIME, Integer.valueOf(1))
+                .add(EventRecord.FIELD_ID, Integer.valueOf(1))
                 .get();
         DBObject opt_START = BasicDBObjectBuilder
-                .start("name", "IDX_START")
+                .start("name", "IDX_START_ID")
                 .add("unique", Boolean.FALSE)
                 .get();
         collection.createIndex(idx_START, opt_START);
@@ -142,6 +174,16 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
     {
     }
 
+    /**
+     * @param aggregate         <tt>true</tt> to have MongoDB work out the time series statistics
+     *                          of each report period, which is faster but gives no percentiles,
+     *                          or <tt>false</tt> (default) to read and process every result
+     */
+    public void setAggregate(boolean aggregate)
+    {
+        this.aggregate = aggregate;
+    }
+
     /**
      * Creates an {@see EventDetails} object from the MongoDB record
      * 
@@ -178,7 +220,8 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
         // get Event.Data
         Object inputData = event.getData();
         
-        return new EventDetails(startTime, name, success, inputData, eventData);
+        return new EventDetails(startTime, name, success, inputData, eventData)
+                .setEventId(eventDetailsObj.get(EventRecord.FIELD_ID).toString());
     }
     
     /**
@@ -216,6 +259,9 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
         long startDelay = eventRecordObj.containsField(EventRecord.FIELD_START_DELAY) ?
                 (Long) eventRecordObj.get(EventRecord.FIELD_START_DELAY) :
                 Long.valueOf(-1L);
+        long dispatchLag = eventRecordObj.containsField(EventRecord.FIELD_DISPATCH_LAG) ?
+                (Long) eventRecordObj.get(EventRecord.FIELD_DISPATCH_LAG) :
+                Long.valueOf(0L);
         
         // Extract the event
         DBObject eventObj = (DBObject) eventRecordObj.get(EventRecord.FIELD_EVENT);
@@ -231,6 +277,7 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
         eventRecord.setWarning(warning);
         eventRecord.setChart(chart);
         eventRecord.setStartDelay(startDelay);
+        eventRecord.setDispatchLag(dispatchLag);
         // Done
         if (logger.isTraceEnabled())
         {
@@ -267,8 +314,10 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
         return event;
     }
 
-    @Override
-    public void recordResult(EventRecord result)
+    /**
+     * Helper to convert a client-visible {@link EventRecord} into a persistable object
+     */
+    private DBObject convertEventRecord(EventRecord result)
     {
         if (result == null)
         {
@@ -301,6 +350,7 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
                 .add(EventRecord.FIELD_DATA, result.getData())
                 .add(EventRecord.FIELD_DRIVER_ID, result.getDriverId())
                 .add(EventRecord.FIELD_START_DELAY, result.getStartDelay())
+                .add(EventRecord.FIELD_DISPATCH_LAG, result.getDispatchLag())
                 .add(EventRecord.FIELD_START_TIME, new Date(result.getStartTime()))
                 .add(EventRecord.FIELD_SUCCESS, result.isSuccess())
                 .add(EventRecord.FIELD_TIME, result.getTime())
@@ -309,7 +359,13 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
         {
             insertObjBuilder.add(EventRecord.FIELD_WARNING, result.getWarning());
         }
-        DBObject insertObj = insertObjBuilder.get();
+        return insertObjBuilder.get();
+    }
+
+    @Override
+    public void recordResult(EventRecord result)
+    {
+        DBObject insertObj = convertEventRecord(result);
         
         try
         {
@@ -329,6 +385,41 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
         }
     }
     
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The results are written using a single unordered insert.
+     */
+    @Override
+    public void recordResults(List<EventRecord> results)
+    {
+        if (results.isEmpty())
+        {
+            return;
+        }
+        List<DBObject> insertObjs = new ArrayList<DBObject>(results.size());
+        for (EventRecord result : results)
+        {
+            insertObjs.add(convertEventRecord(result));
+        }
+        
+        try
+        {
+            collection.insert(insertObjs, new InsertOptions().continueOnError(true));
+        }
+        catch (MongoException e)
+        {
+            throw new RuntimeException(
+                    "Failed to insert " + results.size() + " event results.",
+                    e);
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Recorded " + results.size() + " results.");
+        }
+    }
+    
     @Override
     public String getDataLocation()
     {
@@ -473,6 +564,362 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
         return results;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Each page starts where the previous page ended in the index on start time and ID.
+     */
+    @Override
+    public List<EventRecord> getResultsAfter(
+            long startTime,
+            long endTime,
+            boolean chartOnly,
+            EventRecord after,
+            int limit)
+    {
+        QueryBuilder queryBuilder = QueryBuilder.start();
+        if (after == null)
+        {
+            queryBuilder.and(EventRecord.FIELD_START_TIME).greaterThanEquals(new Date(startTime));
+        }
+        else
+        {
+            // Start at the last result and leave out those up to and including it
+            Date afterStartTime = new Date(Math.max(startTime, after.getStartTime()));
+            queryBuilder
+                    .and(EventRecord.FIELD_START_TIME).greaterThanEquals(afterStartTime)
+                    .or(
+                            QueryBuilder.start(EventRecord.FIELD_START_TIME).greaterThan(afterStartTime).get(),
+                            QueryBuilder.start(EventRecord.FIELD_ID).greaterThan(toObjectId(after.getId())).get());
+        }
+        queryBuilder.and(EventRecord.FIELD_START_TIME).lessThan(new Date(endTime));
+        if (chartOnly)
+        {
+            queryBuilder.and(EventRecord.FIELD_CHART).is(true);
+        }
+        DBObject queryObj = queryBuilder.get();
+        DBObject sortObj = BasicDBObjectBuilder
+                .start()
+                .add(EventRecord.FIELD_START_TIME, Integer.valueOf(1))
+                .add(EventRecord.FIELD_ID, Integer.valueOf(1))
+                .get();
+        
+        DBCursor cursor = collection.find(queryObj);
+        cursor.sort(sortObj);
+        cursor.limit(limit);
+        
+        // Get all the results and convert them
+        List<EventRecord> results = new ArrayList<EventRecord>(Math.min(limit, 10000));
+        try
+        {
+            while (cursor.hasNext())
+            {
+                DBObject obj = cursor.next();
+                EventRecord eventRecord = convertToEventRecord(obj);
+                results.add(eventRecord);
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("\n" +
+                    "Found results: \n" +
+                    "   Query:          " + queryObj + "\n" +
+                    "   Limit:          " + limit + "\n" +
+                    "   Results:        " + results.size());
+        }
+        return results;
+    }
+    
+    /**
+     * @throws IllegalArgumentException if the ID was not given to a result by this service
+     */
+    private static ObjectId toObjectId(String id)
+    {
+        if (id == null || !ObjectId.isValid(id))
+        {
+            throw new IllegalArgumentException("Not the ID of a stored result: " + id);
+        }
+        return new ObjectId(id);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * When {@link #setAggregate(boolean) aggregating}, MongoDB groups the results by report period and
+     * event name so that only the count, sum, sum of squares, minimum, maximum and failures of each group
+     * are read.  Each window is made up by adding together the groups of the report periods it covers.
+     * Percentiles are not known from these statistics and are given as <tt>NaN</tt>, which is why
+     * reading every result remains the default.
+     */
+    @Override
+    public void getResults(
+            ResultHandler handler,
+            long startTime,
+            long windowSize,
+            long reportPeriod,
+            boolean chartOnly)
+    {
+        if (!aggregate)
+        {
+            super.getResults(handler, startTime, windowSize, reportPeriod, chartOnly);
+            return;
+        }
+        checkResultsArguments(handler, windowSize, reportPeriod);
+        
+        List<DBObject> pipeline = getAggregatePipeline(startTime, reportPeriod, chartOnly);
+        AggregationOptions options = AggregationOptions.builder()
+                .allowDiskUse(Boolean.TRUE)
+                .outputMode(AggregationOptions.OutputMode.CURSOR)
+                .build();
+        AggregateWindows windows = new AggregateWindows(handler, windowSize, reportPeriod);
+        int count = 0;
+        Cursor cursor = collection.aggregate(pipeline, options);
+        try
+        {
+            while (cursor.hasNext())
+            {
+                count++;
+                if (!windows.processGroup(cursor.next()))
+                {
+                    break;
+                }
+            }
+            windows.finish();
+        }
+        finally
+        {
+            cursor.close();
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Aggregated results into " + count + " groups of " + reportPeriod + "ms from " + new Date(startTime));
+        }
+    }
+    
+    /**
+     * Build the pipeline that groups results by report period and event name.  The groups come
+     * out in time order.
+     */
+    private static List<DBObject> getAggregatePipeline(long startTime, long reportPeriod, boolean chartOnly)
+    {
+        QueryBuilder matchBuilder = QueryBuilder
+                .start(EventRecord.FIELD_START_TIME).greaterThanEquals(new Date(startTime));
+        if (chartOnly)
+        {
+            matchBuilder.and(EventRecord.FIELD_CHART).is(Boolean.TRUE);
+        }
+        
+        // Subtracting dates gives milliseconds, from which the start of the report period is found
+        DBObject startTimeMsObj = new BasicDBObject("$subtract", Arrays.<Object>asList("$" + EventRecord.FIELD_START_TIME, new Date(0L)));
+        DBObject periodObj = new BasicDBObject("$subtract", Arrays.<Object>asList(
+                startTimeMsObj,
+                new BasicDBObject("$mod", Arrays.<Object>asList(startTimeMsObj, Long.valueOf(reportPeriod)))));
+        // See EventRecord.getIntendedTime()
+        DBObject intendedTimeObj = new BasicDBObject("$add", Arrays.<Object>asList(
+                "$" + EventRecord.FIELD_TIME,
+                new BasicDBObject("$max", Arrays.<Object>asList(
+                        Long.valueOf(0L),
+                        new BasicDBObject("$ifNull", Arrays.<Object>asList("$" + EventRecord.FIELD_START_DELAY, Long.valueOf(0L)))))));
+        DBObject projectObj = BasicDBObjectBuilder
+                .start(AGG_PERIOD, periodObj)
+                .add(AGG_NAME, "$" + EventRecord.FIELD_EVENT_NAME)
+                .add(EventRecord.FIELD_TIME, Integer.valueOf(1))
+                .add(AGG_INTENDED_TIME, intendedTimeObj)
+                .add(AGG_FAILURES, new BasicDBObject("$cond", Arrays.<Object>asList(
+                        "$" + EventRecord.FIELD_SUCCESS, Integer.valueOf(0), Integer.valueOf(1))))
+                .get();
+        
+        String time = "$" + EventRecord.FIELD_TIME;
+        String intendedTime = "$" + AGG_INTENDED_TIME;
+        DBObject groupObj = BasicDBObjectBuilder
+                .start()
+                .push("_id")
+                    .add(AGG_PERIOD, "$" + AGG_PERIOD)
+                    .add(AGG_NAME, "$" + AGG_NAME)
+                .pop()
+                .add(AGG_N, new BasicDBObject("$sum", Integer.valueOf(1)))
+                .add(AGG_SUM, new BasicDBObject("$sum", time))
+                .add(AGG_SUM_SQ, new BasicDBObject("$sum", new BasicDBObject("$multiply", Arrays.asList(time, time))))
+                .add(AGG_MIN, new BasicDBObject("$min", time))
+                .add(AGG_MAX, new BasicDBObject("$max", time))
+                .add(AGG_INTENDED_SUM, new BasicDBObject("$sum", intendedTime))
+                .add(AGG_INTENDED_SUM_SQ, new BasicDBObject("$sum", new BasicDBObject("$multiply", Arrays.asList(intendedTime, intendedTime))))
+                .add(AGG_INTENDED_MIN, new BasicDBObject("$min", intendedTime))
+                .add(AGG_INTENDED_MAX, new BasicDBObject("$max", intendedTime))
+                .add(AGG_FAILURES, new BasicDBObject("$sum", "$" + AGG_FAILURES))
+                .get();
+        
+        DBObject sortObj = new BasicDBObject("_id." + AGG_PERIOD, Integer.valueOf(1));
+        
+        List<DBObject> pipeline = new ArrayList<DBObject>(4);
+        pipeline.add(new BasicDBObject("$match", matchBuilder.get()));
+        pipeline.add(new BasicDBObject("$project", projectObj));
+        pipeline.add(new BasicDBObject("$group", groupObj));
+        pipeline.add(new BasicDBObject("$sort", sortObj));
+        return pipeline;
+    }
+    
+    /**
+     * The aggregated results of one event name in one report period
+     */
+    private static class PeriodAggregates
+    {
+        private final AggregateStatistics time = new AggregateStatistics();
+        private final AggregateStatistics intendedTime = new AggregateStatistics();
+        private final int failures;
+        
+        private PeriodAggregates(DBObject groupObj)
+        {
+            long n = ((Number) groupObj.get(AGG_N)).longValue();
+            time.add(
+                    n,
+                    ((Number) groupObj.get(AGG_SUM)).doubleValue(),
+                    ((Number) groupObj.get(AGG_SUM_SQ)).doubleValue(),
+                    ((Number) groupObj.get(AGG_MIN)).doubleValue(),
+                    ((Number) groupObj.get(AGG_MAX)).doubleValue());
+            intendedTime.add(
+                    n,
+                    ((Number) groupObj.get(AGG_INTENDED_SUM)).doubleValue(),
+                    ((Number) groupObj.get(AGG_INTENDED_SUM_SQ)).doubleValue(),
+                    ((Number) groupObj.get(AGG_INTENDED_MIN)).doubleValue(),
+                    ((Number) groupObj.get(AGG_INTENDED_MAX)).doubleValue());
+            failures = ((Number) groupObj.get(AGG_FAILURES)).intValue();
+        }
+    }
+    
+    /**
+     * Builds sliding windows out of the aggregates of each report period, in the same way as
+     * {@link AbstractResultService#getResults(ResultHandler, long, long, long, boolean)} does from the
+     * individual results: once seen, an event name is reported in every window.
+     */
+    private class AggregateWindows
+    {
+        private final ResultHandler handler;
+        private final long windowSize;
+        private final long reportPeriod;
+        private final int windowMultiple;
+        /** The event names seen so far */
+        private final Set<String> eventNames = new LinkedHashSet<String>(13);
+        /** The most recent report periods, oldest first */
+        private final LinkedList<Map<String, PeriodAggregates>> periods = new LinkedList<Map<String, PeriodAggregates>>();
+        private Map<String, PeriodAggregates> current;
+        private long currentStartTime;
+        private boolean stop;
+        
+        private AggregateWindows(ResultHandler handler, long windowSize, long reportPeriod)
+        {
+            this.handler = handler;
+            this.windowSize = windowSize;
+            this.reportPeriod = reportPeriod;
+            this.windowMultiple = (int) (windowSize / reportPeriod);
+        }
+        
+        /**
+         * @return                  <tt>true</tt> to continue
+         */
+        private boolean processGroup(DBObject groupObj)
+        {
+            DBObject idObj = (DBObject) groupObj.get("_id");
+            long periodStartTime = ((Number) idObj.get(AGG_PERIOD)).longValue();
+            String eventName = (String) idObj.get(AGG_NAME);
+            if (current == null)
+            {
+                current = new HashMap<String, PeriodAggregates>(13);
+                currentStartTime = periodStartTime;
+            }
+            else if (periodStartTime > currentStartTime)
+            {
+                // Report the period and then any empty periods that follow it while they are still in the window
+                if (!report())
+                {
+                    return false;
+                }
+                for (int i = 1; i < windowMultiple && currentStartTime + reportPeriod < periodStartTime; i++)
+                {
+                    current = new HashMap<String, PeriodAggregates>(13);
+                    currentStartTime += reportPeriod;
+                    if (!report())
+                    {
+                        return false;
+                    }
+                }
+                if (currentStartTime + reportPeriod < periodStartTime)
+                {
+                    // Nothing is left in the window
+                    periods.clear();
+                }
+                current = new HashMap<String, PeriodAggregates>(13);
+                currentStartTime = periodStartTime;
+            }
+            eventNames.add(eventName);
+            current.put(eventName, new PeriodAggregates(groupObj));
+            return true;
+        }
+        
+        /**
+         * Report the last period
+         */
+        private void finish()
+        {
+            if (current != null && !stop)
+            {
+                report();
+            }
+        }
+        
+        /**
+         * Report the window that ends with the current period
+         * 
+         * @return                  <tt>true</tt> to continue
+         */
+        private boolean report()
+        {
+            periods.add(current);
+            if (periods.size() > windowMultiple)
+            {
+                periods.removeFirst();
+            }
+            Map<String, LatencyStatistics> stats = new HashMap<String, LatencyStatistics>(eventNames.size() + 7);
+            Map<String, LatencyStatistics> intendedStats = new HashMap<String, LatencyStatistics>(eventNames.size() + 7);
+            Map<String, Integer> failures = new HashMap<String, Integer>(eventNames.size() + 7);
+            for (String eventName : eventNames)
+            {
+                AggregateStatistics time = new AggregateStatistics();
+                AggregateStatistics intendedTime = new AggregateStatistics();
+                int eventFailures = 0;
+                for (Map<String, PeriodAggregates> period : periods)
+                {
+                    PeriodAggregates periodAggregates = period.get(eventName);
+                    if (periodAggregates != null)
+                    {
+                        time.add(periodAggregates.time);
+                        intendedTime.add(periodAggregates.intendedTime);
+                        eventFailures += periodAggregates.failures;
+                    }
+                }
+                stats.put(eventName, time);
+                intendedStats.put(eventName, intendedTime);
+                failures.put(eventName, Integer.valueOf(eventFailures));
+            }
+            long windowEndTime = currentStartTime + reportPeriod;
+            try
+            {
+                stop = !handler.processResult(windowEndTime - windowSize, windowEndTime, stats, intendedStats, failures);
+            }
+            catch (Throwable e)
+            {
+                logger.error("Exception while making callback.", e);
+            }
+            return !stop;
+        }
+    }
+
     @Override
     public List<String> getEventNames()
     {
@@ -556,8 +1003,10 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
         return count;
     }
 
-    @Override
-    public List<EventDetails> getEventDetails(EventResultFilter filter, String filterEventName, int skip, int limit)
+    /**
+     * @return                  a query for the event details that pass the filters
+     */
+    private QueryBuilder getEventDetailsQuery(EventResultFilter filter, String filterEventName)
     {
         QueryBuilder queryBuilder = QueryBuilder.start();
         
@@ -580,12 +1029,19 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
         {
             queryBuilder.and(EventRecord.FIELD_EVENT_NAME).is(filterEventName);
         }
-        
-        DBObject queryObj = queryBuilder.get();
+        return queryBuilder;
+    }
+    
+    /**
+     * Find event details, newest first
+     */
+    private List<EventDetails> findEventDetails(DBObject queryObj, int skip, int limit)
+    {
         // sort descending to get the newest values first
         DBObject sortObj = BasicDBObjectBuilder
                 .start()
                 .add(EventRecord.FIELD_START_TIME, Integer.valueOf(-1))
+                .add(EventRecord.FIELD_ID, Integer.valueOf(-1))
                 .get();
         DBCursor cursor = collection.find(queryObj);
         cursor.sort(sortObj);
@@ -593,8 +1049,7 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
         cursor.limit(limit);
         
         // Get all the results and convert them
-        int size = cursor.size();
-        List<EventDetails> results = new ArrayList<EventDetails>(size);
+        List<EventDetails> results = new ArrayList<EventDetails>(Math.min(limit, 1000));
         try
         {
             while (cursor.hasNext())
@@ -608,10 +1063,57 @@ public class MongoResultService extends AbstractResultService implements Lifecyc
         {
             cursor.close();
         }
-        
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("\n" +
+                    "Found event details: \n" +
+                    "   Query:          " + queryObj + "\n" +
+                    "   Skip:           " + skip + "\n" +
+                    "   Limit:          " + limit + "\n" +
+                    "   Results:        " + results.size());
+        }
         return results;
     }
     
+    @Override
+    public List<EventDetails> getEventDetails(EventResultFilter filter, String filterEventName, int skip, int limit)
+    {
+        DBObject queryObj = getEventDetailsQuery(filter, filterEventName).get();
+        return findEventDetails(queryObj, skip, limit);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The start time of the last details is looked up by ID so that the page can be read from the index
+     * on start time and ID.
+     */
+    @Override
+    public List<EventDetails> getEventDetailsBefore(EventResultFilter filter, String filterEventName, String beforeId, int limit)
+    {
+        QueryBuilder queryBuilder = getEventDetailsQuery(filter, filterEventName);
+        if (beforeId != null)
+        {
+            ObjectId id = toObjectId(beforeId);
+            DBObject beforeObj = collection.findOne(
+                    new BasicDBObject(EventRecord.FIELD_ID, id),
+                    new BasicDBObject(EventRecord.FIELD_START_TIME, Boolean.TRUE));
+            if (beforeObj == null)
+            {
+                // The results have been cleared
+                return new ArrayList<EventDetails>(0);
+            }
+            Date beforeStartTime = (Date) beforeObj.get(EventRecord.FIELD_START_TIME);
+            queryBuilder
+                    .and(EventRecord.FIELD_START_TIME).lessThanEquals(beforeStartTime)
+                    .or(
+                            QueryBuilder.start(EventRecord.FIELD_START_TIME).lessThan(beforeStartTime).get(),
+                            QueryBuilder.start(EventRecord.FIELD_ID).lessThan(id).get());
+        }
+        return findEventDetails(queryBuilder.get(), 0, limit);
+    }
+    
     @Override
     public boolean clear()
     {
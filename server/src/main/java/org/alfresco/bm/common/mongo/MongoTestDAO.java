@@ -46,6 +46,7 @@ import org.alfresco.bm.common.util.cipher.AESCipher;
 import org.alfresco.bm.common.util.cipher.CipherException;
 import org.alfresco.bm.common.util.cipher.CipherVersion;
 import org.alfresco.bm.common.util.exception.ObjectNotFoundException;
+import org.alfresco.bm.driver.event.DriverLoad;
 import org.alfresco.bm.driver.test.prop.TestProperty;
 import org.alfresco.bm.driver.test.prop.TestPropertyOrigin;
 import org.apache.commons.logging.Log;
@@ -69,15 +70,21 @@ import java.util.regex.Pattern;
 import static org.alfresco.bm.common.TestConstants.FIELD_CAPABILITIES;
 import static org.alfresco.bm.common.TestConstants.FIELD_CIPHER;
 import static org.alfresco.bm.common.TestConstants.FIELD_COMPLETED;
+import static org.alfresco.bm.common.TestConstants.FIELD_CPU_LOAD;
 import static org.alfresco.bm.common.TestConstants.FIELD_CONTEXT_PATH;
 import static org.alfresco.bm.common.TestConstants.FIELD_DEFAULT;
 import static org.alfresco.bm.common.TestConstants.FIELD_DESCRIPTION;
+import static org.alfresco.bm.common.TestConstants.FIELD_DISPATCH_LAG;
 import static org.alfresco.bm.common.TestConstants.FIELD_DRIVERS;
 import static org.alfresco.bm.common.TestConstants.FIELD_DURATION;
+import static org.alfresco.bm.common.TestConstants.FIELD_EVENTS_DEAD_LETTERED;
+import static org.alfresco.bm.common.TestConstants.FIELD_EVENTS_REQUEUED;
 import static org.alfresco.bm.common.TestConstants.FIELD_EXPIRES;
 import static org.alfresco.bm.common.TestConstants.FIELD_HOSTNAME;
 import static org.alfresco.bm.common.TestConstants.FIELD_ID;
+import static org.alfresco.bm.common.TestConstants.FIELD_IN_FLIGHT;
 import static org.alfresco.bm.common.TestConstants.FIELD_IP_ADDRESS;
+import static org.alfresco.bm.common.TestConstants.FIELD_LOAD;
 import static org.alfresco.bm.common.TestConstants.FIELD_MASK;
 import static org.alfresco.bm.common.TestConstants.FIELD_MESSAGE;
 import static org.alfresco.bm.common.TestConstants.FIELD_NAME;
@@ -405,16 +412,41 @@ public class MongoTestDAO implements LifecycleListener
      *        the new expiry time
      */
     public void refreshDriver(String id, long expiryTime)
+    {
+        refreshDriver(id, expiryTime, null);
+    }
+
+    /**
+     * Refresh the expiry time of a driver and publish how busy it is
+     * 
+     * @param id
+     *        the driver id
+     * @param expiryTime
+     *        the new expiry time
+     * @param load
+     *        the current load on the driver or <tt>null</tt> if it is not known
+     * 
+     * @since 3.0.3
+     */
+    public void refreshDriver(String id, long expiryTime, DriverLoad load)
     {
         DBObject queryObj = QueryBuilder
                 .start()
                 .and(FIELD_ID).is(new ObjectId(id))
                 .get();
+        BasicDBObjectBuilder setObjBuilder = BasicDBObjectBuilder
+                .start(FIELD_PING + "." + FIELD_EXPIRES, new Date(expiryTime));
+        if (load != null)
+        {
+            DBObject loadObj = BasicDBObjectBuilder
+                    .start(FIELD_DISPATCH_LAG, Long.valueOf(load.getDispatchLag()))
+                    .add(FIELD_IN_FLIGHT, Integer.valueOf(load.getInFlight()))
+                    .add(FIELD_CPU_LOAD, Double.valueOf(load.getCpuLoad()))
+                    .get();
+            setObjBuilder.add(FIELD_PING + "." + FIELD_LOAD, loadObj);
+        }
         DBObject updateObj = BasicDBObjectBuilder
-                .start()
-                .push("$set")
-                .add(FIELD_PING + "." + FIELD_EXPIRES, new Date(expiryTime))
-                .pop()
+                .start("$set", setObjBuilder.get())
                 .get();
         testDrivers.findAndModify(queryObj, null, null, false, updateObj, false, false);
 
@@ -423,8 +455,9 @@ public class MongoTestDAO implements LifecycleListener
         {
             logger.debug(
                     "Updated test driver expiry: \n" +
-                            "   ID:  " + id + "\n" +
-                            "   New: " + expiryTime);
+                            "   ID:   " + id + "\n" +
+                            "   New:  " + expiryTime + "\n" +
+                            "   Load: " + load);
         }
     }
 
@@ -1405,6 +1438,8 @@ public class MongoTestDAO implements LifecycleListener
                 .add(FIELD_RESULTS_FAIL, true)
                 .add(FIELD_RESULTS_TOTAL, true)
                 .add(FIELD_SUCCESS_RATE, true)
+                .add(FIELD_EVENTS_REQUEUED, true)
+                .add(FIELD_EVENTS_DEAD_LETTERED, true)
                 .get();
 
         DBCursor dbCursor = testRuns.find(queryObj, fieldsObj).skip(skip).limit(count);
@@ -1489,6 +1524,8 @@ public class MongoTestDAO implements LifecycleListener
                 .add(FIELD_RESULTS_FAIL, true)
                 .add(FIELD_RESULTS_TOTAL, true)
                 .add(FIELD_SUCCESS_RATE, true)
+                .add(FIELD_EVENTS_REQUEUED, true)
+                .add(FIELD_EVENTS_DEAD_LETTERED, true)
                 .add(FIELD_DRIVERS, true);
         DBObject fieldsObj = fieldsObjBuilder.get();
 
@@ -2241,6 +2278,45 @@ public class MongoTestDAO implements LifecycleListener
         }
     }
 
+    /**
+     * Add to the number of events that a test run has recovered from failed drivers
+     * 
+     * @param runObjId
+     *        the ID of the test run
+     * @param requeued
+     *        the number of events returned to the queue
+     * @param deadLettered
+     *        the number of events given up on
+     * 
+     * @since 3.0.3
+     */
+    public void addTestRunRecoveredEvents(ObjectId runObjId, long requeued, long deadLettered)
+    {
+        // Find the test run
+        DBObject queryObj = QueryBuilder
+                .start()
+                .and(FIELD_ID).is(runObjId)
+                .get();
+        DBObject updateObj = BasicDBObjectBuilder.start()
+                .push("$inc")
+                .add(FIELD_EVENTS_REQUEUED, Long.valueOf(requeued))
+                .add(FIELD_EVENTS_DEAD_LETTERED, Long.valueOf(deadLettered))
+                .pop()
+                .get();
+        WriteResult result = testRuns.update(queryObj, updateObj);
+
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(
+                    "Added recovered events to test run: \n" +
+                            "   Run ID:        " + runObjId + "\n" +
+                            "   Requeued:      " + requeued + "\n" +
+                            "   Dead-lettered: " + deadLettered + "\n" +
+                            "   Result:        " + result);
+        }
+    }
+
     /**
      * Delete an existing test run
      * 
@@ -166,8 +166,8 @@ public class TestRunServicesCache implements LifecycleListener
             testRunCtx.refresh();
             testRunCtx.start();
             // Make sure that the required components are present
-            testRunCtx.getBean(EventService.class);
-            testRunCtx.getBean(ResultService.class);
+            testRunCtx.getBean("eventService", EventService.class);
+            testRunCtx.getBean("resultService", ResultService.class);
             testRunCtx.getBean(SessionService.class);
         }
         catch (Exception e)
@@ -289,7 +289,22 @@ public class TestRunServicesCache implements LifecycleListener
         {
             return null;
         }
-        return ctx.getBean(ResultService.class);
+        return ctx.getBean("resultService", ResultService.class);
+    }
+
+    /**
+     * Get the value of a test run property, falling back to the property's default
+     * 
+     * @return the property value or <tt>null</tt> if it is not available
+     */
+    public String getTestRunProperty(String test, String run, String propertyName)
+    {
+        ApplicationContext ctx = getContext(test, run);
+        if (ctx == null)
+        {
+            return null;
+        }
+        return ctx.getEnvironment().getProperty(propertyName);
     }
 
     /**
@@ -304,7 +319,7 @@ public class TestRunServicesCache implements LifecycleListener
         {
             return null;
         }
-        return ctx.getBean(EventService.class);
+        return ctx.getBean("eventService", EventService.class);
     }
 
     /**
@@ -0,0 +1,65 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import org.alfresco.bm.common.EventResult;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Basic services for the {@link AsyncEventProcessor asynchronous event processor} implementations.
+ * <p/>
+ * When used synchronously, the calling thread waits for the processing to complete.
+ * 
+ * @since 3.0.3
+ */
+public abstract class AbstractAsyncEventProcessor extends AbstractEventProcessor implements AsyncEventProcessor
+{
+    /**
+     * Waits for the {@link #processEventAsync(Event) asynchronous processing} to complete
+     */
+    @Override
+    protected final EventResult processEvent(Event event) throws Exception
+    {
+        try
+        {
+            return processEventAsync(event).toCompletableFuture().get();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+            {
+                throw (Exception) cause;
+            }
+            else if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
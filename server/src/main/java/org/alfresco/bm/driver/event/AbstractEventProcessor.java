@@ -52,6 +52,9 @@ public abstract class AbstractEventProcessor implements EventProcessor, BeanName
     /** Resource for derived classes to use for logging */
     protected Log logger = LogFactory.getLog(this.getClass());
     private EventProcessorRegistry registry;
+    private EventDataCodecRegistry dataCodecs;
+    private EventLaneRegistry lanes;
+    private int lane = EventLaneRegistry.DEFAULT_LANE;
     private String name = "unknown";
     private List<String> eventNames;
     private long warnDelay;
@@ -122,6 +125,57 @@ public abstract class AbstractEventProcessor implements EventProcessor, BeanName
         this.registry = registry;
     }
 
+    /**
+     * Inject the registry that any {@link #getDataCodec() data codec} will be {@link #register() registered} with.
+     */
+    public synchronized void setDataCodecs(EventDataCodecRegistry dataCodecs)
+    {
+        this.dataCodecs = dataCodecs;
+    }
+
+    /**
+     * Inject the registry that the {@link #setLane(int) lane} will be {@link #register() registered} with.
+     */
+    public synchronized void setLanes(EventLaneRegistry lanes)
+    {
+        this.lanes = lanes;
+    }
+
+    /**
+     * @return              the priority lane that the events handled are queued in
+     */
+    public int getLane()
+    {
+        return lane;
+    }
+
+    /**
+     * Change the priority lane that the events handled are queued in.  Events in higher lanes are claimed
+     * ahead of any backlog of events in lower lanes.
+     * 
+     * @param lane          the lane (default: {@link EventLaneRegistry#DEFAULT_LANE})
+     */
+    public void setLane(int lane)
+    {
+        if (lane < EventLaneRegistry.DEFAULT_LANE)
+        {
+            throw new IllegalArgumentException("'lane' cannot be less than " + EventLaneRegistry.DEFAULT_LANE + ".");
+        }
+        this.lane = lane;
+    }
+
+    /**
+     * Override to store the data of the events handled by this processor in a compact form.
+     * The codec must be able to decode anything that it encodes, regardless of which processor
+     * the events were raised by.
+     * 
+     * @return              a codec for the data of the events handled or <tt>null</tt> (default) to store the data as it is
+     */
+    protected EventDataCodec getDataCodec()
+    {
+        return null;
+    }
+
     /**
      * @return              the processing time after which an warning is logged (default {@link #DEFAULT_WARN_DELAY})
      */
@@ -204,9 +258,18 @@ public abstract class AbstractEventProcessor implements EventProcessor, BeanName
             // Nothing to do
             return;
         }
+        EventDataCodec dataCodec = (dataCodecs == null) ? null : getDataCodec();
         for (String eventName : eventNames)
         {
             registry.register(eventName, this);
+            if (dataCodec != null)
+            {
+                dataCodecs.register(eventName, dataCodec);
+            }
+            if (lanes != null)
+            {
+                lanes.register(eventName, lane);
+            }
         }
     }
 
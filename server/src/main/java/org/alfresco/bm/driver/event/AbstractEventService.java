@@ -25,6 +25,8 @@
  */
 package org.alfresco.bm.driver.event;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * Services for {@link EventService} implementations.
  * 
@@ -33,4 +35,60 @@ package org.alfresco.bm.driver.event;
  */
 public abstract class AbstractEventService implements EventService
 {
+    private final CopyOnWriteArrayList<QueueListener> queueListeners = new CopyOnWriteArrayList<QueueListener>();
+    
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Uses the exact {@link #count() count}, which is suitable if it is cheap to get.
+     */
+    @Override
+    public long countEstimate()
+    {
+        return count();
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Listeners are only called for events put by this instance, as {@link #notifyEventsPut(long) notified}
+     * by the implementation.
+     */
+    @Override
+    public boolean addQueueListener(QueueListener listener)
+    {
+        if (listener == null)
+        {
+            throw new IllegalArgumentException("'listener' may not be null.");
+        }
+        queueListeners.addIfAbsent(listener);
+        return true;
+    }
+    
+    @Override
+    public void removeQueueListener(QueueListener listener)
+    {
+        queueListeners.remove(listener);
+    }
+    
+    /**
+     * @return                  <tt>true</tt> if there are any {@link #addQueueListener(QueueListener) listeners}
+     */
+    protected boolean hasQueueListeners()
+    {
+        return !queueListeners.isEmpty();
+    }
+    
+    /**
+     * Tell the {@link #addQueueListener(QueueListener) listeners} that events have been put into the queue
+     * 
+     * @param earliestScheduledTime the scheduled time of the earliest event put or <tt>Long.MIN_VALUE</tt> if not known
+     */
+    protected void notifyEventsPut(long earliestScheduledTime)
+    {
+        for (QueueListener listener : queueListeners)
+        {
+            listener.eventsPut(earliestScheduledTime);
+        }
+    }
 }
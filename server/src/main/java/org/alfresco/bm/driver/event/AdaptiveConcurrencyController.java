@@ -0,0 +1,251 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the number of events that a driver should process at the same time using feedback from
+ * the processing itself.
+ * <p/>
+ * The limit is adjusted using <i>additive increase, multiplicative decrease</i> (AIMD):
+ * <ul>
+ *   <li>The limit is cut by a quarter if the driver's CPU is above its limit or if event processing
+ *       is taking much longer than the lowest recent processing time i.e. the target is struggling.</li>
+ *   <li>The limit is raised by the square root of the current limit if events are being
+ *       dispatched late i.e. there is a backlog that more concurrency could clear.</li>
+ *   <li>Otherwise the limit is held.</li>
+ * </ul>
+ * The lowest recent processing time drifts upwards slowly so that a lasting change in the target
+ * does not leave the limit pinned at the minimum.
+ * <p/>
+ * Samples can be recorded by any thread but only one thread may {@link #adjust(double) adjust} the limit.
+ * 
+ * @since 3.0.3
+ */
+public class AdaptiveConcurrencyController
+{
+    /** Processing is slow once it takes this many times longer than the baseline */
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+    /** Mean dispatch lag (microseconds) above which there is a backlog */
+    public static final long DEFAULT_BACKLOG_LAG = 10000L;
+    /** The fraction of the limit kept after a decrease */
+    private static final double DECREASE_FACTOR = 0.75;
+    /** The amount by which the baseline latency rises on each adjustment */
+    private static final double BASELINE_DRIFT = 1.02;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double cpuLimit;
+    private double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+    private long backlogLag = DEFAULT_BACKLOG_LAG;
+
+    private final AtomicLong latencyTotal;
+    private final AtomicLong latencyCount;
+    private final AtomicLong lagTotal;
+    private final AtomicLong lagCount;
+    private int limit;
+    private double baselineLatency = Double.NaN;
+
+    /**
+     * @param minLimit              the lowest limit allowed
+     * @param maxLimit              the highest limit allowed
+     * @param initialLimit          the starting limit, which is brought within the bounds if necessary
+     * @param cpuLimit              the fraction (0 to 1) of the available CPU that the driver may use
+     */
+    public AdaptiveConcurrencyController(int minLimit, int maxLimit, int initialLimit, double cpuLimit)
+    {
+        if (minLimit < 1)
+        {
+            throw new IllegalArgumentException("minLimit must be greater than zero.");
+        }
+        if (maxLimit < minLimit)
+        {
+            throw new IllegalArgumentException("maxLimit cannot be less than minLimit.");
+        }
+        if (cpuLimit <= 0.0 || cpuLimit > 1.0)
+        {
+            throw new IllegalArgumentException("cpuLimit must be greater than 0 and no more than 1.");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.cpuLimit = cpuLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.latencyTotal = new AtomicLong();
+        this.latencyCount = new AtomicLong();
+        this.lagTotal = new AtomicLong();
+        this.lagCount = new AtomicLong();
+    }
+
+    /**
+     * Override the {@link #DEFAULT_LATENCY_TOLERANCE default} factor by which processing can slow down
+     * before the limit is decreased.
+     */
+    public void setLatencyTolerance(double latencyTolerance)
+    {
+        if (latencyTolerance <= 1.0)
+        {
+            throw new IllegalArgumentException("latencyTolerance must be greater than 1.");
+        }
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_BACKLOG_LAG default} mean dispatch lag (microseconds) that indicates
+     * that events are backing up.
+     */
+    public void setBacklogLag(long backlogLag)
+    {
+        if (backlogLag < 0L)
+        {
+            throw new IllegalArgumentException("backlogLag cannot be negative.");
+        }
+        this.backlogLag = backlogLag;
+    }
+
+    /**
+     * @return                  the current limit
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * @param time              the time (milliseconds) taken to process an event
+     */
+    public void recordLatency(long time)
+    {
+        latencyTotal.addAndGet(time);
+        latencyCount.incrementAndGet();
+    }
+
+    /**
+     * @param lag               the time (microseconds) between an event's scheduled time and its dispatch
+     */
+    public void recordDispatchLag(long lag)
+    {
+        lagTotal.addAndGet(lag);
+        lagCount.incrementAndGet();
+    }
+
+    /**
+     * Use the samples recorded since the last call to decide on the new limit
+     * 
+     * @param cpuLoad           the fraction (0 to 1) of the available CPU being used by the driver
+     *                          or a negative value if it is not known
+     * @return                  the decision, which may be to keep the current limit
+     */
+    public Decision adjust(double cpuLoad)
+    {
+        long latencySamples = latencyCount.getAndSet(0L);
+        long latencySum = latencyTotal.getAndSet(0L);
+        long lagSamples = lagCount.getAndSet(0L);
+        long lagSum = lagTotal.getAndSet(0L);
+
+        int previousLimit = limit;
+        if (latencySamples == 0L && lagSamples == 0L)
+        {
+            return new Decision(previousLimit, limit, "no events processed");
+        }
+        double latency = (latencySamples == 0L) ? Double.NaN : ((double) latencySum / latencySamples);
+        long lag = (lagSamples == 0L) ? 0L : (lagSum / lagSamples);
+        if (!Double.isNaN(latency))
+        {
+            baselineLatency = Double.isNaN(baselineLatency) ? latency : Math.min(latency, baselineLatency * BASELINE_DRIFT);
+        }
+
+        String reason;
+        if (cpuLoad >= cpuLimit)
+        {
+            limit = Math.max(minLimit, (int) (limit * DECREASE_FACTOR));
+            reason = String.format("driver CPU at %.0f%%", cpuLoad * 100.0);
+        }
+        else if (!Double.isNaN(latency) && latency > baselineLatency * latencyTolerance)
+        {
+            limit = Math.max(minLimit, (int) (limit * DECREASE_FACTOR));
+            reason = String.format("mean processing time of %.1fms against a baseline of %.1fms", latency, baselineLatency);
+        }
+        else if (lag > backlogLag)
+        {
+            limit = Math.min(maxLimit, limit + Math.max(1, (int) Math.sqrt(limit)));
+            reason = String.format("events dispatched %.1fms late on average", lag / 1000.0);
+        }
+        else
+        {
+            reason = "keeping up";
+        }
+        return new Decision(previousLimit, limit, reason);
+    }
+
+    /**
+     * The outcome of an {@link AdaptiveConcurrencyController#adjust(double) adjustment}
+     * 
+     * @since 3.0.3
+     */
+    public static class Decision
+    {
+        private final int previousLimit;
+        private final int limit;
+        private final String reason;
+
+        private Decision(int previousLimit, int limit, String reason)
+        {
+            this.previousLimit = previousLimit;
+            this.limit = limit;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString()
+        {
+            return previousLimit + " -> " + limit + " (" + reason + ")";
+        }
+
+        public int getPreviousLimit()
+        {
+            return previousLimit;
+        }
+
+        public int getLimit()
+        {
+            return limit;
+        }
+
+        public String getReason()
+        {
+            return reason;
+        }
+
+        /**
+         * @return                  <tt>true</tt> if the limit has changed
+         */
+        public boolean isChanged()
+        {
+            return limit != previousLimit;
+        }
+    }
+}
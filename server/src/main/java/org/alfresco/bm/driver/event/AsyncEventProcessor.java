@@ -0,0 +1,61 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import org.alfresco.bm.common.EventResult;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * An {@link EventProcessor} that does not hold a thread while it waits for the outcome of its work
+ * e.g. a processor that makes calls using a non-blocking HTTP client.
+ * <p/>
+ * The framework calls {@link #processEventAsync(Event)} in preference to the synchronous
+ * {@link #processEvent(Event, org.apache.commons.lang3.time.StopWatch) processEvent} method.
+ * The time recorded for the event runs from the call until the returned stage completes, so
+ * the processing cannot suspend or stop the timer.  Completing the stage exceptionally is treated
+ * in the same way as throwing an exception from synchronous processing i.e. no follow-up events
+ * are published.
+ * <p/>
+ * The outcome is recorded by the thread that completes the stage.  That thread can be held up if
+ * the driver cannot write results as quickly as the events are completed, so the stage should
+ * not be completed by a thread that must never block.
+ * 
+ * @see AbstractAsyncEventProcessor
+ * 
+ * @since 3.0.3
+ */
+public interface AsyncEventProcessor extends EventProcessor
+{
+    /**
+     * Start processing an event.
+     * 
+     * @param event             the event (along with associated data)
+     * @return                  the stage that completes with the result of the process
+     *                          (includes errors and next events)
+     */
+    CompletionStage<EventResult> processEventAsync(Event event) throws Exception;
+}
@@ -64,6 +64,10 @@ public class CreateSessionsEventProcessor extends AbstractEventProcessor
     public static final String KEY_OUTPUT_EVENTS_RAISED = "outputEventsRaised";
     public static final String KEY_COMPLETED_SESSION_COUNT = "completedSessionCount";
     
+    /** Stores the processor's own data in binary form */
+    public static final EventDataCodec DATA_CODEC = new NumberFieldsDataCodec(
+            "createSessions.v1", KEY_COMPLETED_SESSION_COUNT, KEY_OUTPUT_EVENTS_RAISED);
+    
     private static final String DEFAULT_EVENT_NAME_CREATE_SESSIONS = "createSessions";
     private static final long DEFAULT_CHECK_PERIOD = 10000L;
     private static final long DEFAULT_TIME_BETWEEN_SESSIONS = 100L;
@@ -95,6 +99,8 @@ public class CreateSessionsEventProcessor extends AbstractEventProcessor
         this.outputEventName = outputEventName;
         this.concurrentSessions = concurrentSessions;
         this.totalSessions = totalSessions;
+        // Controls the flow of events, so must not wait behind the workload
+        setLane(EventLaneRegistry.CONTROL_LANE);
         if (concurrentSessions > totalSessions)
         {
             throw new IllegalArgumentException("The number of concurrent sessions cannot exceed the total number of sessions.");
@@ -129,6 +135,15 @@ public class CreateSessionsEventProcessor extends AbstractEventProcessor
         this.timeBetweenSessions = timeBetweenSessions;
     }
     
+    /**
+     * @return                  a codec for the data that this processor passes to itself
+     */
+    @Override
+    protected EventDataCodec getDataCodec()
+    {
+        return DATA_CODEC;
+    }
+
     @Override
     public EventResult processEvent(Event event)
     {
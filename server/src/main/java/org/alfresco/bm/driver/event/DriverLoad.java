@@ -0,0 +1,147 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+/**
+ * How busy a driver is, as published with its registration and used to share new events between drivers.
+ * <p/>
+ * Drivers with more headroom are given a larger weight and therefore a larger share of the events
+ * assigned to specific drivers.  A driver's weight is reduced by:
+ * <ul>
+ *   <li>the fraction of its CPU in use,</li>
+ *   <li>the lag in dispatching its events i.e. it is not keeping up with its own queue and</li>
+ *   <li>having more events in flight than the other drivers.</li>
+ * </ul>
+ * No driver's weight drops below {@link #MIN_WEIGHT} so that every driver continues to get some events
+ * and can report its recovery.
+ * 
+ * @since 3.0.3
+ */
+public class DriverLoad
+{
+    /** The weight of a driver without any load data */
+    public static final double DEFAULT_WEIGHT = 100.0;
+    /** The lowest weight given to a driver */
+    public static final double MIN_WEIGHT = 5.0;
+    /** The dispatch lag (milliseconds) that halves a driver's weight */
+    private static final double LAG_HALF_WEIGHT = 100.0;
+    /** The most that a driver's weight is changed by its share of the events in flight */
+    private static final double MAX_IN_FLIGHT_FACTOR = 4.0;
+
+    private final long dispatchLag;
+    private final int inFlight;
+    private final double cpuLoad;
+
+    /**
+     * @param dispatchLag       the recent time (milliseconds) between events' scheduled times and their dispatch
+     * @param inFlight          the number of events being processed
+     * @param cpuLoad           the fraction (0 to 1) of the available CPU being used or a negative value if not known
+     */
+    public DriverLoad(long dispatchLag, int inFlight, double cpuLoad)
+    {
+        this.dispatchLag = Math.max(0L, dispatchLag);
+        this.inFlight = Math.max(0, inFlight);
+        this.cpuLoad = cpuLoad;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DriverLoad [dispatchLag=" + dispatchLag + ", inFlight=" + inFlight + ", cpuLoad=" + cpuLoad + "]";
+    }
+
+    public long getDispatchLag()
+    {
+        return dispatchLag;
+    }
+
+    public int getInFlight()
+    {
+        return inFlight;
+    }
+
+    public double getCpuLoad()
+    {
+        return cpuLoad;
+    }
+
+    /**
+     * Combine the load of two test runs on the same driver
+     * 
+     * @param other             the other load (may be <tt>null</tt>)
+     * @return                  the total load
+     */
+    public DriverLoad add(DriverLoad other)
+    {
+        if (other == null)
+        {
+            return this;
+        }
+        return new DriverLoad(
+                Math.max(dispatchLag, other.dispatchLag),
+                inFlight + other.inFlight,
+                Math.max(cpuLoad, other.cpuLoad));
+    }
+
+    /**
+     * Work out the relative weights of drivers
+     * 
+     * @param loads             the load of each driver; <tt>null</tt> entries are for drivers without load data
+     * @return                  the weight of each driver, in the same order
+     */
+    public static double[] getWeights(DriverLoad[] loads)
+    {
+        // Events in flight only mean something when compared with the other drivers
+        double inFlightTotal = 0.0;
+        int loadCount = 0;
+        for (DriverLoad load : loads)
+        {
+            if (load != null)
+            {
+                inFlightTotal += load.inFlight;
+                loadCount++;
+            }
+        }
+        double inFlightMean = (loadCount == 0) ? 0.0 : (inFlightTotal / loadCount);
+
+        double[] weights = new double[loads.length];
+        for (int i = 0; i < loads.length; i++)
+        {
+            DriverLoad load = loads[i];
+            if (load == null)
+            {
+                weights[i] = DEFAULT_WEIGHT;
+                continue;
+            }
+            double cpuFactor = (load.cpuLoad < 0.0) ? 1.0 : Math.max(0.0, 1.0 - load.cpuLoad);
+            double lagFactor = 1.0 / (1.0 + load.dispatchLag / LAG_HALF_WEIGHT);
+            double inFlightFactor = (inFlightMean + 1.0) / (load.inFlight + 1.0);
+            inFlightFactor = Math.max(1.0 / MAX_IN_FLIGHT_FACTOR, Math.min(MAX_IN_FLIGHT_FACTOR, inFlightFactor));
+            weights[i] = Math.max(MIN_WEIGHT, DEFAULT_WEIGHT * cpuFactor * lagFactor * inFlightFactor);
+        }
+        return weights;
+    }
+}
@@ -45,6 +45,13 @@ public class Event
     public static final String FIELD_DATA = "data";
     public static final String FIELD_DATA_OWNER = "dataOwner";
     public static final String FIELD_DRIVER = "driver";
+    public static final String FIELD_LEASE_ID = "leaseId";
+    public static final String FIELD_LEASE_EXPIRY = "leaseExpiry";
+    public static final String FIELD_LOCK_DRIVER = "lockDriver";
+    public static final String FIELD_RECOVERIES = "recoveries";
+    public static final String FIELD_PARTITION = "partition";
+    public static final String FIELD_DATA_CODEC = "dataCodec";
+    public static final String FIELD_LANE = "lane";
     
     /** The 'value' that is associated with the data */
     public static final String FIELD_VALUE = "value";
@@ -64,6 +71,7 @@ public class Event
     private final Object data;            // DBObject, String or Numeric
     private final boolean dataInMemory;
     private String driver;
+    private boolean generated;                  // Never in the queue
     
     /**
      * Construct an event with some data, scheduling it for the current time.
@@ -287,4 +295,15 @@ public class Event
         }
         this.driver = driver;
     }
+    /**
+     * @return          <tt>true</tt> if the event was created by an {@link EventGenerator} and was never queued
+     */
+    public boolean isGenerated()
+    {
+        return generated;
+    }
+    void setGenerated(boolean generated)
+    {
+        this.generated = generated;
+    }
 }
@@ -0,0 +1,283 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Releases events for processing as close as possible to their {@link Event#getScheduledTime() scheduled time}.
+ * <p/>
+ * Events are claimed from the queue slightly ahead of time and held here in scheduled order.
+ * The calling thread is parked until the next event is due and then spins for the last fraction
+ * of a millisecond, so events are released with sub-millisecond accuracy.  The overall rate is
+ * capped by a token bucket: events are released immediately while tokens are available and are
+ * held back once the tokens run out, regardless of how often the queue is searched.
+ * <p/>
+ * The time between an event's scheduled time and its release is the <i>dispatch lag</i>; it is
+ * the amount by which the driver is failing to keep up with the load.
+ * <p/>
+ * This class is not thread safe; it is used by a single controller thread while other threads
+ * may only {@link #wakeUp() wake it up}.
+ * 
+ * @since 3.0.3
+ */
+public class EventArrivalScheduler
+{
+    /** Waits shorter than this are done by spinning rather than parking the thread */
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(200L);
+
+    private static final Comparator<Event> SCHEDULED_TIME_COMPARATOR = new Comparator<Event>()
+    {
+        @Override
+        public int compare(Event e1, Event e2)
+        {
+            return Long.compare(e1.getScheduledTime(), e2.getScheduledTime());
+        }
+    };
+
+    private final PriorityQueue<Event> pending;
+    /** The time between tokens */
+    private final long tokenNanos;
+    /** How far the token bucket can run ahead of the time i.e. the burst allowance */
+    private final long burstNanos;
+    /** Maps the wall clock onto the high-resolution clock */
+    private final long clockOffsetNanos;
+
+    /** The theoretical release time of the next token */
+    private long nextTokenNanos;
+    private volatile Thread waiter;
+    private volatile boolean woken;
+
+    private long lastDispatchLag;
+    private long dispatchCount;
+    private long dispatchLagTotal;
+    private long dispatchLagMax;
+
+    /**
+     * @param eventsPerSecond       the maximum rate at which events are released
+     * @param burstSize             the number of events that can be released together
+     *                              after a period of low activity
+     */
+    public EventArrivalScheduler(int eventsPerSecond, int burstSize)
+    {
+        if (eventsPerSecond < 1)
+        {
+            throw new IllegalArgumentException("eventsPerSecond must be greater than zero.");
+        }
+        if (burstSize < 1)
+        {
+            throw new IllegalArgumentException("burstSize must be greater than zero.");
+        }
+        this.pending = new PriorityQueue<Event>(Math.max(burstSize, 11), SCHEDULED_TIME_COMPARATOR);
+        this.tokenNanos = TimeUnit.SECONDS.toNanos(1L) / eventsPerSecond;
+        this.burstNanos = tokenNanos * (burstSize - 1);
+        this.clockOffsetNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        this.nextTokenNanos = System.nanoTime();
+    }
+
+    /**
+     * Hold events until they are due
+     */
+    public void addAll(Collection<Event> events)
+    {
+        pending.addAll(events);
+    }
+
+    /**
+     * @return                      the number of events waiting to be released
+     */
+    public int size()
+    {
+        return pending.size();
+    }
+
+    /**
+     * @return                      <tt>true</tt> if there are no events waiting to be released
+     */
+    public boolean isEmpty()
+    {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Remove all the events waiting to be released
+     * 
+     * @return                      the events that were waiting, in no particular order
+     */
+    public List<Event> drain()
+    {
+        List<Event> events = new ArrayList<Event>(pending);
+        pending.clear();
+        return events;
+    }
+
+    /**
+     * Convert a wall clock time to the high-resolution clock
+     */
+    private long toNanos(long timeMillis)
+    {
+        return TimeUnit.MILLISECONDS.toNanos(timeMillis) + clockOffsetNanos;
+    }
+
+    /**
+     * Wait for the next event to become due, giving up at the deadline or if {@link #wakeUp() woken up}.
+     * 
+     * @param deadlineNanos         the latest {@link System#nanoTime() time} to wait until
+     * @return                      the next event or <tt>null</tt> if no event was released
+     */
+    public Event next(long deadlineNanos)
+    {
+        waiter = Thread.currentThread();
+        try
+        {
+            Event event = pending.peek();
+            if (event == null)
+            {
+                parkUntil(deadlineNanos);
+                return null;
+            }
+            // The 'start' event and other events scheduled for time zero are always due
+            boolean scheduled = event.getScheduledTime() != 0L;
+            long scheduledNanos = toNanos(event.getScheduledTime());
+            long releaseNanos = nextTokenNanos - burstNanos;
+            if (scheduled && scheduledNanos - releaseNanos > 0L)
+            {
+                releaseNanos = scheduledNanos;
+            }
+            if (releaseNanos - deadlineNanos > 0L)
+            {
+                // The event will not be due before we have to check back
+                parkUntil(deadlineNanos);
+                return null;
+            }
+            if (!parkUntil(releaseNanos))
+            {
+                // Something else needs attention
+                return null;
+            }
+            pending.poll();
+            long now = System.nanoTime();
+            nextTokenNanos = Math.max(nextTokenNanos, now - burstNanos) + tokenNanos;
+
+            // Keep track of how well we are doing
+            lastDispatchLag = 0L;
+            if (scheduled)
+            {
+                long lag = TimeUnit.NANOSECONDS.toMicros(Math.max(0L, now - scheduledNanos));
+                lastDispatchLag = lag;
+                dispatchCount++;
+                dispatchLagTotal += lag;
+                dispatchLagMax = Math.max(dispatchLagMax, lag);
+            }
+            return event;
+        }
+        finally
+        {
+            waiter = null;
+        }
+    }
+
+    /**
+     * Park or spin the current thread until the given time
+     * 
+     * @return                      <tt>true</tt> if the time was reached or <tt>false</tt> if woken up
+     */
+    private boolean parkUntil(long targetNanos)
+    {
+        while (true)
+        {
+            if (woken)
+            {
+                woken = false;
+                return false;
+            }
+            long remaining = targetNanos - System.nanoTime();
+            if (remaining <= 0L)
+            {
+                return true;
+            }
+            else if (remaining > SPIN_NANOS)
+            {
+                LockSupport.parkNanos(this, remaining - SPIN_NANOS);
+            }
+            else
+            {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Cause any current or next wait to return early
+     */
+    public void wakeUp()
+    {
+        woken = true;
+        Thread thread = waiter;
+        if (thread != null)
+        {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * @return                      the dispatch lag (microseconds) of the event last {@link #next(long) released}
+     */
+    public long getLastDispatchLag()
+    {
+        return lastDispatchLag;
+    }
+
+    /**
+     * @return                      the number of scheduled events released
+     */
+    public long getDispatchCount()
+    {
+        return dispatchCount;
+    }
+
+    /**
+     * @return                      the mean dispatch lag (microseconds) of all scheduled events released
+     */
+    public long getDispatchLagMean()
+    {
+        return (dispatchCount == 0L) ? 0L : (dispatchLagTotal / dispatchCount);
+    }
+
+    /**
+     * @return                      the maximum dispatch lag (microseconds) of all scheduled events released
+     */
+    public long getDispatchLagMax()
+    {
+        return dispatchLagMax;
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import org.alfresco.bm.common.EventRecord;
+import org.alfresco.bm.common.ResultService;
+import org.alfresco.bm.common.spring.LifecycleListener;
+import org.alfresco.bm.common.util.log.LogService.LogLevel;
+import org.alfresco.bm.common.util.log.TestRunLogService;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the outcome of processed events i.e. the result, the next events and the removal of
+ * the processed event from the queue.
+ * <p/>
+ * When completion threads are available, the worker threads hand over the completed events
+ * and return immediately; the completion threads group the writes for many events into batches.
+ * The number of completed events waiting to be written is bounded: workers wait for space
+ * when the completion threads fall behind.
+ * <p/>
+ * For any completed event, the result is recorded and {@link ResultService#flush() written} and
+ * the next events are published <i>before</i> the event is removed from the queue.  This guarantees
+ * that the queue is never seen to be empty while there is still work to be done and that results
+ * can be counted as soon as their events are gone.
+ * 
+ * @since 3.0.3
+ */
+public class EventCompletionPipeline implements LifecycleListener
+{
+    public static final int DEFAULT_BATCH_SIZE = 200;
+    /** How long the completion threads wait when there is nothing to write */
+    private static final long IDLE_WAIT = 10L;
+
+    private static final Log logger = LogFactory.getLog(EventCompletionPipeline.class);
+
+    private final String testRunFqn;
+    private final EventService eventService;
+    private final ResultService resultService;
+    private final TestRunLogService logService;
+    private final int threadCount;
+    private final int queueSize;
+    private final Queue<CompletedEvent> queue;
+    private final Semaphore capacity;
+    /** Completed events that have been handed over and not yet written */
+    private final AtomicInteger pending;
+    private final List<Thread> threads;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile boolean running;
+
+    /**
+     * Construct a pipeline that writes completed events on the calling thread
+     * 
+     * @param testRunFqn        the fully qualified name of the test run
+     * @param eventService      the queue events that will be updated
+     * @param resultService     the service to store results of the execution
+     * @param logService        the service to report any issues
+     */
+    public EventCompletionPipeline(
+            String testRunFqn,
+            EventService eventService, ResultService resultService,
+            TestRunLogService logService)
+    {
+        this(testRunFqn, eventService, resultService, logService, 0, 1);
+    }
+
+    /**
+     * @param testRunFqn        the fully qualified name of the test run
+     * @param eventService      the queue events that will be updated
+     * @param resultService     the service to store results of the execution
+     * @param logService        the service to report any issues
+     * @param threadCount       the number of completion threads or <tt>0</tt> to write completed
+     *                          events on the calling thread
+     * @param queueSize         the maximum number of completed events waiting to be written
+     */
+    public EventCompletionPipeline(
+            String testRunFqn,
+            EventService eventService, ResultService resultService,
+            TestRunLogService logService,
+            int threadCount, int queueSize)
+    {
+        if (threadCount < 0)
+        {
+            throw new IllegalArgumentException("'threadCount' cannot be negative.");
+        }
+        if (queueSize < 1)
+        {
+            throw new IllegalArgumentException("'queueSize' must be greater than zero.");
+        }
+        this.testRunFqn = testRunFqn;
+        this.eventService = eventService;
+        this.resultService = resultService;
+        this.logService = logService;
+        this.threadCount = threadCount;
+        this.queueSize = queueSize;
+        this.queue = new ConcurrentLinkedQueue<CompletedEvent>();
+        this.capacity = new Semaphore(queueSize);
+        this.pending = new AtomicInteger();
+        this.threads = new ArrayList<Thread>(threadCount);
+    }
+
+    /**
+     * Override the {@link #DEFAULT_BATCH_SIZE maximum} number of completed events written together
+     */
+    public void setBatchSize(int batchSize)
+    {
+        if (batchSize < 1)
+        {
+            throw new IllegalArgumentException("batchSize must be greater than zero.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return                  the number of completed events waiting to be written or being written
+     */
+    public int getQueueSize()
+    {
+        return pending.get();
+    }
+
+    @Override
+    public synchronized void start()
+    {
+        if (running)
+        {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < threadCount; i++)
+        {
+            Thread thread = new Thread(new CompletionRunnable(), testRunFqn + "-Completion-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    /**
+     * Stop accepting completed events for the completion threads and flush everything
+     * that is still waiting to be written.
+     */
+    @Override
+    public void stop()
+    {
+        synchronized (this)
+        {
+            running = false;
+            this.notifyAll();
+        }
+        // The threads drain the queue before exiting
+        for (Thread thread : threads)
+        {
+            try { thread.join(); } catch (InterruptedException e) {}
+        }
+        threads.clear();
+        // Pick up anything that slipped in while stopping
+        List<CompletedEvent> batch = drain();
+        while (batch.size() > 0)
+        {
+            write(batch);
+            batch = drain();
+        }
+    }
+
+    /**
+     * Hand over a completed event for writing.  If the completion threads are not running,
+     * the write is done immediately.  If the completion threads have fallen behind, this call
+     * waits until there is space for the completed event.
+     * 
+     * @param completedEvent    the outcome of the event processing
+     */
+    public void submit(CompletedEvent completedEvent)
+    {
+        pending.incrementAndGet();
+        if (!running || threadCount == 0)
+        {
+            write(Collections.singletonList(completedEvent));
+            return;
+        }
+        try
+        {
+            capacity.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            // Don't lose it
+            write(Collections.singletonList(completedEvent));
+            Thread.currentThread().interrupt();
+            return;
+        }
+        queue.offer(completedEvent);
+    }
+
+    /**
+     * Remove the next batch of completed events from the queue, freeing up space as we go
+     */
+    private List<CompletedEvent> drain()
+    {
+        List<CompletedEvent> batch = new ArrayList<CompletedEvent>(batchSize);
+        CompletedEvent completedEvent = null;
+        while (batch.size() < batchSize && (completedEvent = queue.poll()) != null)
+        {
+            capacity.release();
+            batch.add(completedEvent);
+        }
+        return batch;
+    }
+
+    /**
+     * Write a batch of completed events: results first, then the next events and, finally,
+     * the removal of the processed events from the queue.
+     */
+    protected void write(List<CompletedEvent> batch)
+    {
+        try
+        {
+            writeImpl(batch);
+        }
+        finally
+        {
+            pending.addAndGet(-batch.size());
+        }
+    }
+
+    private void writeImpl(List<CompletedEvent> batch)
+    {
+        List<EventRecord> results = new ArrayList<EventRecord>(batch.size());
+        List<Event> nextEvents = new ArrayList<Event>(batch.size() * 2);
+        List<Event> events = new ArrayList<Event>(batch.size());
+        for (CompletedEvent completedEvent : batch)
+        {
+            results.add(completedEvent.getResult());
+            nextEvents.addAll(completedEvent.getNextEvents());
+            // Events created by generators were never queued
+            if (!completedEvent.getEvent().isGenerated())
+            {
+                events.add(completedEvent.getEvent());
+            }
+        }
+
+        // Record the results
+        try
+        {
+            resultService.recordResults(results);
+            // Results written in the background must be visible before the events go
+            resultService.flush();
+        }
+        catch (Throwable e)
+        {
+            String stack = ExceptionUtils.getStackTrace(e);
+            logService.log(LogLevel.ERROR, "Failed to record " + results.size() + " results: " + stack);
+            logger.error("Failed to record results: " + results, e);
+        }
+
+        // Persist the next events
+        if (nextEvents.size() > 0)
+        {
+            try
+            {
+                eventService.putEvents(nextEvents);
+            }
+            catch (Throwable e)
+            {
+                String stack = ExceptionUtils.getStackTrace(e);
+                String msg =
+                        "Failed to insert events into queue: \n" +
+                        "  Events to insert:    " + nextEvents.size() + "\n" +
+                        "  Inbound events:      " + events;
+                logService.log(LogLevel.ERROR, msg + "\n" + stack);
+                logger.error(msg, e);
+            }
+        }
+
+        // Remove the events from the queue.
+        try
+        {
+            int deleted = eventService.deleteEvents(events);
+            if (deleted != events.size())
+            {
+                String msg = (events.size() - deleted) + " events were not deleted from the queue: " + events;
+                logger.error(msg);
+                logService.log(LogLevel.ERROR, msg);
+            }
+        }
+        catch (Throwable e)
+        {
+            String stack = ExceptionUtils.getStackTrace(e);
+            String msg = "Failed to remove events from the queue: " + events;
+            logger.error(msg, e);
+            logService.log(LogLevel.ERROR, msg + "\n" + stack);
+        }
+
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Completed " + batch.size() + " events, publishing " + nextEvents.size() + " next events.");
+        }
+    }
+
+    /**
+     * Keeps writing batches of completed events until the pipeline is stopped and there is nothing left
+     */
+    private class CompletionRunnable implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                List<CompletedEvent> batch = drain();
+                if (batch.size() > 0)
+                {
+                    write(batch);
+                    continue;
+                }
+                // Nothing to do
+                if (!running)
+                {
+                    break;
+                }
+                synchronized (EventCompletionPipeline.this)
+                {
+                    try { EventCompletionPipeline.this.wait(IDLE_WAIT); } catch (InterruptedException e) {}
+                }
+            }
+        }
+    }
+
+    /**
+     * Everything that needs to be written once an event has been processed
+     * 
+     * @since 3.0.3
+     */
+    public static class CompletedEvent
+    {
+        private final Event event;
+        private final EventRecord result;
+        private final List<Event> nextEvents;
+
+        /**
+         * @param event             the event that was processed
+         * @param result            the result of the processing
+         * @param nextEvents        the events to publish
+         */
+        public CompletedEvent(Event event, EventRecord result, List<Event> nextEvents)
+        {
+            this.event = event;
+            this.result = result;
+            this.nextEvents = nextEvents;
+        }
+
+        public Event getEvent()
+        {
+            return event;
+        }
+
+        public EventRecord getResult()
+        {
+            return result;
+        }
+
+        public List<Event> getNextEvents()
+        {
+            return nextEvents;
+        }
+    }
+}
@@ -30,6 +30,8 @@ import org.alfresco.bm.common.ResultService;
 import org.alfresco.bm.common.spring.LifecycleListener;
 import org.alfresco.bm.common.util.log.LogService.LogLevel;
 import org.alfresco.bm.common.util.log.TestRunLogService;
+import org.alfresco.bm.driver.event.AdaptiveConcurrencyController.Decision;
+import org.alfresco.bm.driver.event.EventWork.CompletionListener;
 import org.alfresco.bm.driver.event.producer.EventProducerRegistry;
 import org.alfresco.bm.common.session.SessionService;
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -41,16 +43,23 @@ import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.event.ContextStoppedEvent;
 import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A <i>master</i> controlling thread that ensures that:
@@ -72,6 +81,27 @@ public class EventController implements LifecycleListener, ApplicationContextAwa
     private static final int DEFAULT_EVENTS_PER_SECOND_PER_THREAD = 2;
     /** How long a driver has to grab assigned events */
     private static final long DEFAULT_ASSIGNED_EVENT_GRACE_PERIOD = 5000L;
+    private static final int DEFAULT_COMPLETION_THREAD_COUNT = 1;
+    private static final int DEFAULT_COMPLETION_QUEUE_SIZE = 1000;
+    /** How far ahead of their scheduled time events are claimed from the queue */
+    private static final long DEFAULT_SCHEDULE_LOOK_AHEAD = 100L;
+    /** The longest time between searches of the queue when there are no events */
+    private static final long MAX_IDLE_SEARCH_WAIT = 50L;
+    /** The longest time between searches of the queue when it tells us about new events */
+    private static final long DEFAULT_QUEUE_IDLE_WAIT = 5000L;
+    /** The number of events over which the reported dispatch lag is averaged */
+    private static final long DISPATCH_LAG_SMOOTHING = 16L;
+    private static final int DEFAULT_IN_FLIGHT_LIMIT = 10000;
+    /** How far ahead (milliseconds) generators are expanded */
+    private static final long DEFAULT_GENERATOR_WINDOW = 1000L;
+    /** The most events created from a generator at a time */
+    private static final int DEFAULT_GENERATOR_BATCH_SIZE = 1000;
+    private static final int DEFAULT_ADAPTIVE_MIN_LIMIT = 1;
+    private static final int DEFAULT_ADAPTIVE_MAX_LIMIT = 1024;
+    private static final long DEFAULT_ADAPTIVE_INTERVAL = 5000L;
+    private static final int DEFAULT_ADAPTIVE_CPU_LIMIT = 85;
+    /** The JVM option that prints the stack of virtual threads that block while pinned to their carrier */
+    private static final String PROP_TRACE_PINNED_THREADS = "jdk.tracePinnedThreads";
     
     private static final Log logger = LogFactory.getLog(EventController.class);
     
@@ -81,16 +111,59 @@ public class EventController implements LifecycleListener, ApplicationContextAwa
     private final EventProducerRegistry eventProducers;
     private final EventProcessorRegistry eventProcessors;
     private final Thread thread;
-    private final ExecutorService executor;
+    private ExecutorService executor;
     private final ResultService resultService;
     private final SessionService sessionService;
     private final TestRunLogService logService;
     private final int threadCount;
 
     private int eventsPerSecondPerThread = DEFAULT_EVENTS_PER_SECOND_PER_THREAD;
+    private int prefetchSize;
+    private int completionThreadCount = DEFAULT_COMPLETION_THREAD_COUNT;
+    private int completionQueueSize = DEFAULT_COMPLETION_QUEUE_SIZE;
+    private EventCompletionPipeline completionPipeline;
     private long assignedEventGracePeriod = DEFAULT_ASSIGNED_EVENT_GRACE_PERIOD;
+    private long scheduleLookAhead = DEFAULT_SCHEDULE_LOOK_AHEAD;
+    private long generatorWindow = DEFAULT_GENERATOR_WINDOW;
+    private int generatorBatchSize = DEFAULT_GENERATOR_BATCH_SIZE;
+    private long queueIdleWait = DEFAULT_QUEUE_IDLE_WAIT;
+    /** Keeps a copy of the events claimed, if enabled */
+    private EventRecorder eventRecorder;
+    /** Wakes us up when events are put into the queue */
+    private final EventService.QueueListener queueListener;
+    /** <tt>true</tt> if the queue tells us about new events */
+    private boolean queueNotifies;
+    /** Events have been put into the queue since the last search */
+    private volatile boolean queueSignalled;
+    /** The number of events held by the scheduler that were created by generators rather than claimed */
+    private int generatedInHand;
+    private EventArrivalScheduler scheduler;
+    private EventThreadMode threadMode = EventThreadMode.Pool;
+    private int inFlightLimit = DEFAULT_IN_FLIGHT_LIMIT;
+    private boolean pinningDiagnostics;
+    private boolean adaptive;
+    private int adaptiveMinLimit = DEFAULT_ADAPTIVE_MIN_LIMIT;
+    private int adaptiveMaxLimit = DEFAULT_ADAPTIVE_MAX_LIMIT;
+    private long adaptiveInterval = DEFAULT_ADAPTIVE_INTERVAL;
+    private int adaptiveCpuLimit = DEFAULT_ADAPTIVE_CPU_LIMIT;
+    /** Adjusts the concurrency while running, if enabled */
+    private AdaptiveConcurrencyController concurrencyController;
+    /** Limits the events in flight when the thread pool does not */
+    private ResizableSemaphore inFlight;
+    /** Frees a place in flight once an event's outcome has been handed over */
+    private CompletionListener inFlightListener;
+    /** Records the processing time for events that do not hold a place in flight */
+    private CompletionListener latencyListener;
+    /** <tt>true</tt> if every event takes a place in flight and not only the asynchronous ones */
+    private boolean threadPerEvent;
 
     private volatile String[] driverIds = new String[0];
+    /** The relative share of new events given to each driver or <tt>null</tt> to share them equally */
+    private volatile double[] driverWeights;
+    /** The number of events handed over for processing and not yet completed */
+    private final AtomicInteger eventsInFlight = new AtomicInteger();
+    /** A moving average of the dispatch lag (microseconds) */
+    private volatile long recentDispatchLag;
     private ApplicationContext ctx;
     private boolean running;
     private EventProcessor doNothingProcessor = new DoNothingEventProcessor();
@@ -133,21 +206,141 @@ public class EventController implements LifecycleListener, ApplicationContextAwa
         this.sessionService = sessionService;
         this.logService = logService;
         this.threadCount = threadCount;
-        // Configure threads
-        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(testRunFqn + "-");
-        threadFactory.setThreadGroup(thread.getThreadGroup());
-        threadFactory.setDaemon(true);
-        // Configure work queue
-        SynchronousQueue<Runnable> queue = new SynchronousQueue<Runnable>(true);
-        // Configure executor
-        RejectedExecutionHandler abortPolicy = new ThreadPoolExecutor.CallerRunsPolicy();
-        executor = new ThreadPoolExecutor(
-                threadCount, threadCount, 60, TimeUnit.SECONDS,
-                queue, threadFactory, abortPolicy);
+        this.prefetchSize = threadCount;
+        this.queueListener = new EventService.QueueListener()
+        {
+            @Override
+            public void eventsPut(long earliestScheduledTime)
+            {
+                queueSignalled = true;
+                EventArrivalScheduler currentScheduler = scheduler;
+                if (currentScheduler != null)
+                {
+                    currentScheduler.wakeUp();
+                }
+            }
+        };
         
         setRunning(true);
     }
 
+    /**
+     * Override the {@link EventThreadMode#Pool default} way that events are executed.
+     * 
+     * @param threadMode        the name of a {@link EventThreadMode mode}
+     * 
+     * @since 3.0.3
+     */
+    public void setThreadMode(String threadMode)
+    {
+        this.threadMode = EventThreadMode.fromString(threadMode);
+    }
+
+    /**
+     * Override the {@link #DEFAULT_IN_FLIGHT_LIMIT default} number of events that can be in flight
+     * when each event is given its {@link EventThreadMode#Virtual own thread}.  When using the
+     * {@link EventThreadMode#Pool thread pool}, the limit only applies to events handled by
+     * {@link AsyncEventProcessor asynchronous processors}, which do not hold a pool thread while in flight.
+     * 
+     * @since 3.0.3
+     */
+    public void setInFlightLimit(int inFlightLimit)
+    {
+        if (inFlightLimit < 1)
+        {
+            throw new IllegalArgumentException("inFlightLimit must be greater than zero.");
+        }
+        this.inFlightLimit = inFlightLimit;
+    }
+
+    /**
+     * Report event processors that block while holding a monitor i.e. inside a <tt>synchronized</tt>
+     * block or method.  A blocked virtual thread normally releases its carrier thread; when it holds a
+     * monitor, it stays pinned to the carrier and ties up one of the few carrier threads.
+     * <p/>
+     * This sets the <b>{@value #PROP_TRACE_PINNED_THREADS}</b> system property, unless it is already set,
+     * so that the JVM prints the stack of each pinned thread to standard output.  The JVM reads the property
+     * once, so it only takes effect if no virtual thread has been started in the process.
+     * 
+     * @since 3.0.3
+     */
+    public void setPinningDiagnostics(boolean pinningDiagnostics)
+    {
+        this.pinningDiagnostics = pinningDiagnostics;
+    }
+
+    /**
+     * Adjust the concurrency while events are processed, using the processing time, the dispatch lag
+     * and the driver CPU as feedback.  The concurrency is the number of threads when using the
+     * {@link EventThreadMode#Pool thread pool} and the in-flight limit when using a
+     * {@link EventThreadMode#Virtual thread per event}; the configured value is the starting point.
+     * Every change is recorded in the test run log.
+     * 
+     * @see AdaptiveConcurrencyController
+     * @since 3.0.3
+     */
+    public void setAdaptiveConcurrency(boolean adaptive)
+    {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_ADAPTIVE_MIN_LIMIT default} lowest concurrency when it is adaptive
+     * 
+     * @since 3.0.3
+     */
+    public void setAdaptiveMinLimit(int adaptiveMinLimit)
+    {
+        if (adaptiveMinLimit < 1)
+        {
+            throw new IllegalArgumentException("adaptiveMinLimit must be greater than zero.");
+        }
+        this.adaptiveMinLimit = adaptiveMinLimit;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_ADAPTIVE_MAX_LIMIT default} highest concurrency when it is adaptive
+     * 
+     * @since 3.0.3
+     */
+    public void setAdaptiveMaxLimit(int adaptiveMaxLimit)
+    {
+        if (adaptiveMaxLimit < 1)
+        {
+            throw new IllegalArgumentException("adaptiveMaxLimit must be greater than zero.");
+        }
+        this.adaptiveMaxLimit = adaptiveMaxLimit;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_ADAPTIVE_INTERVAL default} time (milliseconds) between adjustments
+     * 
+     * @since 3.0.3
+     */
+    public void setAdaptiveInterval(long adaptiveInterval)
+    {
+        if (adaptiveInterval < 1L)
+        {
+            throw new IllegalArgumentException("adaptiveInterval must be greater than zero.");
+        }
+        this.adaptiveInterval = adaptiveInterval;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_ADAPTIVE_CPU_LIMIT default} percentage of the driver's CPU above
+     * which the concurrency is reduced
+     * 
+     * @since 3.0.3
+     */
+    public void setAdaptiveCpuLimit(int adaptiveCpuLimit)
+    {
+        if (adaptiveCpuLimit < 1 || adaptiveCpuLimit > 100)
+        {
+            throw new IllegalArgumentException("adaptiveCpuLimit must be a percentage.");
+        }
+        this.adaptiveCpuLimit = adaptiveCpuLimit;
+    }
+
     /**
      * Override the {@link #DEFAULT_EVENTS_PER_SECOND_PER_THREAD maximum} number of events
      * that can be processed per second per thread.  This represents a maximum; lower volumes
@@ -163,6 +356,46 @@ public class EventController implements LifecycleListener, ApplicationContextAwa
         this.eventsPerSecondPerThread = eventsPerSecondPerThread;
     }
 
+    /**
+     * Override the default number of events (equal to the thread count) that are claimed from the
+     * queue in a single operation.  Claimed events are held locally until they are due.
+     */
+    public void setPrefetchSize(int prefetchSize)
+    {
+        if (prefetchSize < 1)
+        {
+            throw new IllegalArgumentException("prefetchSize must be greater than zero.");
+        }
+        this.prefetchSize = prefetchSize;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_COMPLETION_THREAD_COUNT default} number of threads that write
+     * event results, publish next events and remove processed events from the queue.  Use <tt>0</tt>
+     * to do the writes on the event processing threads.
+     */
+    public void setCompletionThreadCount(int completionThreadCount)
+    {
+        if (completionThreadCount < 0)
+        {
+            throw new IllegalArgumentException("completionThreadCount cannot be negative.");
+        }
+        this.completionThreadCount = completionThreadCount;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_COMPLETION_QUEUE_SIZE default} number of processed events that
+     * can wait for the completion threads before event processing threads are held up.
+     */
+    public void setCompletionQueueSize(int completionQueueSize)
+    {
+        if (completionQueueSize < 1)
+        {
+            throw new IllegalArgumentException("completionQueueSize must be greater than zero.");
+        }
+        this.completionQueueSize = completionQueueSize;
+    }
+
     /**
      * Override the {@link #DEFAULT_ASSIGNED_EVENT_GRACE_PERIOD default} time that an event can
      * be available on the queue for a specific driver before any other driver can pick it up.
@@ -172,18 +405,119 @@ public class EventController implements LifecycleListener, ApplicationContextAwa
         this.assignedEventGracePeriod = assignedEventGracePeriod;
     }
 
+    /**
+     * Override the {@link #DEFAULT_SCHEDULE_LOOK_AHEAD default} time before their scheduled time
+     * that events are claimed from the queue.  Events are held locally and released for processing
+     * at their scheduled time.
+     */
+    public void setScheduleLookAhead(long scheduleLookAhead)
+    {
+        if (scheduleLookAhead < 0L)
+        {
+            throw new IllegalArgumentException("scheduleLookAhead cannot be negative.");
+        }
+        this.scheduleLookAhead = scheduleLookAhead;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_GENERATOR_WINDOW default} time ahead that {@link EventGenerator generators}
+     * are expanded.  Events are created in memory up to this time and are lost if the driver stops.
+     */
+    public void setGeneratorWindow(long generatorWindow)
+    {
+        if (generatorWindow < 0L)
+        {
+            throw new IllegalArgumentException("generatorWindow cannot be negative.");
+        }
+        this.generatorWindow = generatorWindow;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_GENERATOR_BATCH_SIZE default} number of events that are created
+     * from a {@link EventGenerator generator} each time it is claimed.
+     */
+    public void setGeneratorBatchSize(int generatorBatchSize)
+    {
+        if (generatorBatchSize < 1)
+        {
+            throw new IllegalArgumentException("generatorBatchSize must be greater than zero.");
+        }
+        this.generatorBatchSize = generatorBatchSize;
+    }
+
+    /**
+     * Override the {@link #DEFAULT_QUEUE_IDLE_WAIT default} longest time (milliseconds) between searches of
+     * an idle queue when the queue {@link EventService#addQueueListener(EventService.QueueListener) tells us}
+     * about new events.  Between searches, we wait for the next event known to be in the queue or until new
+     * events are put.  Queues that do not give notifications are searched at least every {@value #MAX_IDLE_SEARCH_WAIT}ms.
+     */
+    public void setQueueIdleWait(long queueIdleWait)
+    {
+        if (queueIdleWait < MAX_IDLE_SEARCH_WAIT)
+        {
+            throw new IllegalArgumentException("queueIdleWait must be at least " + MAX_IDLE_SEARCH_WAIT + "ms.");
+        }
+        this.queueIdleWait = queueIdleWait;
+    }
+
+    /**
+     * Record the events claimed by this driver so that the run can be {@link ReplayEventService replayed}.
+     * Events are recorded once any {@link EventGenerator generators} have been expanded.
+     * 
+     * @param eventRecorder     the recorder, which is ignored if it has no file to record to
+     * 
+     * @since 3.0.3
+     */
+    public void setEventRecorder(EventRecorder eventRecorder)
+    {
+        this.eventRecorder = (eventRecorder != null && eventRecorder.isEnabled()) ? eventRecorder : null;
+    }
+
     /**
      * Update the list of driver IDs in use.  This list can change at run time.
      */
     public void setDriverIds(String[] driverIds)
+    {
+        setDriverIds(driverIds, null);
+    }
+    
+    /**
+     * Update the list of driver IDs in use along with the share of new events that each should get.
+     * 
+     * @param driverIds         the IDs of the drivers
+     * @param driverWeights     the relative weight of each driver or <tt>null</tt> to share events equally
+     * 
+     * @see DriverLoad#getWeights(DriverLoad[])
+     * @since 3.0.3
+     */
+    public void setDriverIds(String[] driverIds, double[] driverWeights)
     {
         if (driverIds == null)
         {
             throw new IllegalArgumentException("'driverIds' may not be null.");
         }
+        if (driverWeights != null && driverWeights.length != driverIds.length)
+        {
+            throw new IllegalArgumentException("There must be a weight for each driver.");
+        }
+        // Work in progress checks that the two match
+        this.driverWeights = driverWeights;
         this.driverIds = driverIds;
     }
     
+    /**
+     * @return                  the current load on this driver from this test run
+     * 
+     * @since 3.0.3
+     */
+    public DriverLoad getLoad()
+    {
+        return new DriverLoad(
+                TimeUnit.MICROSECONDS.toMillis(recentDispatchLag),
+                eventsInFlight.get(),
+                getProcessCpuLoad());
+    }
+    
     /**
      * Record the application context for shutdown once processing has finished
      */
@@ -215,13 +549,153 @@ public class EventController implements LifecycleListener, ApplicationContextAwa
     @Override
     public void start()
     {
+        threadPerEvent = (threadMode == EventThreadMode.Virtual);
+        int concurrency = threadPerEvent ? inFlightLimit : threadCount;
+        int maxConcurrency = concurrency;
+        if (adaptive)
+        {
+            concurrencyController = new AdaptiveConcurrencyController(
+                    adaptiveMinLimit, Math.max(adaptiveMinLimit, adaptiveMaxLimit),
+                    concurrency,
+                    adaptiveCpuLimit / 100.0);
+            concurrency = concurrencyController.getLimit();
+            maxConcurrency = Math.max(adaptiveMinLimit, adaptiveMaxLimit);
+        }
+        if (threadPerEvent)
+        {
+            executor = createThreadPerEventExecutor();
+            inFlight = new ResizableSemaphore(concurrency);
+        }
+        else
+        {
+            executor = createThreadPoolExecutor(concurrency);
+            inFlight = new ResizableSemaphore(inFlightLimit);
+        }
+        final ResizableSemaphore semaphore = inFlight;
+        final AdaptiveConcurrencyController controller = concurrencyController;
+        inFlightListener = new CompletionListener()
+        {
+            @Override
+            public void eventCompleted(long time)
+            {
+                eventsInFlight.decrementAndGet();
+                semaphore.release();
+                if (controller != null)
+                {
+                    controller.recordLatency(time);
+                }
+            }
+        };
+        latencyListener = new CompletionListener()
+        {
+            @Override
+            public void eventCompleted(long time)
+            {
+                eventsInFlight.decrementAndGet();
+                if (controller != null)
+                {
+                    controller.recordLatency(time);
+                }
+            }
+        };
+        completionPipeline = new EventCompletionPipeline(
+                testRunFqn,
+                eventService, resultService,
+                logService,
+                completionThreadCount, completionQueueSize);
+        completionPipeline.start();
+        scheduler = new EventArrivalScheduler(maxConcurrency * eventsPerSecondPerThread, concurrency);
+        queueNotifies = eventService.addQueueListener(queueListener);
+        if (eventRecorder != null)
+        {
+            eventRecorder.open();
+        }
         thread.start();
     }
+
+    /**
+     * Create a fixed thread pool that runs events on the calling thread when all threads are busy
+     */
+    private ExecutorService createThreadPoolExecutor(int poolSize)
+    {
+        // Configure threads
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(testRunFqn + "-");
+        threadFactory.setThreadGroup(thread.getThreadGroup());
+        threadFactory.setDaemon(true);
+        // Configure work queue
+        SynchronousQueue<Runnable> queue = new SynchronousQueue<Runnable>(true);
+        // Configure executor
+        RejectedExecutionHandler abortPolicy = new ThreadPoolExecutor.CallerRunsPolicy();
+        return new ThreadPoolExecutor(
+                poolSize, poolSize, 60, TimeUnit.SECONDS,
+                queue, threadFactory, abortPolicy);
+    }
+
+    /**
+     * Create an executor that starts a new virtual thread for each event.  Virtual threads are
+     * looked up by reflection as the code must still run on Java 8.  On runtimes without virtual
+     * threads, short-lived platform threads are used instead.
+     */
+    private ExecutorService createThreadPerEventExecutor()
+    {
+        if (pinningDiagnostics)
+        {
+            if (System.getProperty(PROP_TRACE_PINNED_THREADS) == null)
+            {
+                System.setProperty(PROP_TRACE_PINNED_THREADS, "short");
+            }
+            logService.log(
+                    LogLevel.INFO,
+                    "Event processors that block while pinned to a carrier thread will be reported on the driver's standard output.");
+        }
+        try
+        {
+            // Thread.ofVirtual().name(prefix, 0L).factory()
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, testRunFqn + "-", 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            // Executors.newThreadPerTaskExecutor(threadFactory)
+            Object virtualExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+            // Done
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Using virtual threads for events: " + testRunFqn);
+            }
+            return (ExecutorService) virtualExecutor;
+        }
+        catch (ClassNotFoundException | NoSuchMethodException e)
+        {
+            String msg = "Virtual threads are not available in Java " + System.getProperty("java.version") + ".  " +
+                    "Each event will be run on a new platform thread.";
+            logger.warn(msg);
+            logService.log(LogLevel.WARN, msg);
+        }
+        catch (Exception e)
+        {
+            String msg = "Virtual threads could not be created.  Each event will be run on a new platform thread.";
+            logger.warn(msg, e);
+            logService.log(LogLevel.WARN, msg);
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(testRunFqn + "-");
+        threadFactory.setThreadGroup(thread.getThreadGroup());
+        threadFactory.setDaemon(true);
+        // The pool is not bounded as a thread can release its place in flight just before it is free for more work
+        return new ThreadPoolExecutor(
+                0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), threadFactory);
+    }
     
     @Override
     public void stop()
     {
         setRunning(false);
+        if (executor == null)
+        {
+            // Never started
+            return;
+        }
+        eventService.removeQueueListener(queueListener);
         // Stop the event processors
         this.executor.shutdown();
         // If another thread is making this call then make sure we wait for the thread to kill itself
@@ -232,9 +706,18 @@ public class EventController implements LifecycleListener, ApplicationContextAwa
                 // Wake the EventController thread up
                 this.notify();
             }
+            if (scheduler != null)
+            {
+                scheduler.wakeUp();
+            }
             // Wait for the EventController thread to stop
             try { thread.join(); } catch (InterruptedException e) {}
         }
+        // Give back the events that were claimed but never dispatched
+        if (scheduler != null)
+        {
+            releaseUndispatched();
+        }
         // Now wait for the executing threads
         try { executor.awaitTermination(30L, TimeUnit.SECONDS); } catch (InterruptedException e) {}
         // And finally, force the threads to die
@@ -246,6 +729,51 @@ public class EventController implements LifecycleListener, ApplicationContextAwa
                 logger.warn(testRunFqn + ": " + runnables.size() + " event processor threads did not stop within 30s.");
             }
         }
+        // Write out everything that has been processed
+        if (completionPipeline != null)
+        {
+            completionPipeline.stop();
+        }
+        if (eventRecorder != null)
+        {
+            eventRecorder.close();
+        }
+    }
+    
+    /**
+     * Return the events held by the scheduler to the queue so that other drivers do not have
+     * to wait for their leases to expire.  Generated events were never queued and are dropped.
+     */
+    private void releaseUndispatched()
+    {
+        List<Event> events = scheduler.drain();
+        generatedInHand = 0;
+        List<Event> claimedEvents = new ArrayList<Event>(events.size());
+        for (Event event : events)
+        {
+            if (!event.isGenerated())
+            {
+                claimedEvents.add(event);
+            }
+        }
+        if (claimedEvents.isEmpty())
+        {
+            return;
+        }
+        try
+        {
+            int released = eventService.releaseEvents(claimedEvents);
+            // Done
+            if (logger.isDebugEnabled())
+            {
+                logger.debug(testRunFqn + ": released " + released + " of " + claimedEvents.size() + " undispatched events.");
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // They will be recovered once their leases expire
+            logger.warn(testRunFqn + ": failed to release " + claimedEvents.size() + " undispatched events.", e);
+        }
     }
     
     @Override
@@ -287,140 +815,442 @@ public class EventController implements LifecycleListener, ApplicationContextAwa
     {
         Set<String> staleDrivers = new HashSet<String>(3);              // Keep track of any stale drivers
         
-        int eventsPerSecond = (threadCount * eventsPerSecondPerThread);
-        String msgStarted = "Event processing started: " + testRunFqn + " (" + eventsPerSecond + " events per second using " + threadCount + " threads)";
+        String msgStarted;
+        if (!threadPerEvent)
+        {
+            int eventsPerSecond = (threadCount * eventsPerSecondPerThread);
+            msgStarted = "Event processing started: " + testRunFqn + " (" + eventsPerSecond + " events per second using " + threadCount + " threads)";
+        }
+        else
+        {
+            int eventsPerSecond = (inFlightLimit * eventsPerSecondPerThread);
+            msgStarted = "Event processing started: " + testRunFqn + " (" + eventsPerSecond + " events per second using a thread per event with up to " + inFlightLimit + " events in flight)";
+        }
+        if (concurrencyController != null)
+        {
+            msgStarted += String.format(
+                    "; concurrency will adapt between %d and %d starting at %d",
+                    adaptiveMinLimit, Math.max(adaptiveMinLimit, adaptiveMaxLimit), concurrencyController.getLimit());
+        }
         logger.info("\t" + msgStarted);
         logService.log(LogLevel.INFO, msgStarted);
 
-        // Keep details on when we started looking for events
-        long eventProcessStartTime = System.currentTimeMillis();
-        int eventSearchesPerformed = 0;
+        // Searches of the queue back off while there is nothing to do
+        long searchWait = 0L;
+        long nextSearchNanos = System.nanoTime();
+        long nextAdjustNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(adaptiveInterval);
+        // Whether or not the next event already has a place in flight
+        boolean permitHeld = false;
         
-runStateChanged:
-        while (isRunning())
+        try
         {
-            long eventProcessSearchTime = System.currentTimeMillis();
-            // Make sure we don't look for events too frequently
-            while (true)
+            while (isRunning())
             {
-                if (!isRunning())
+                // Adapt the concurrency to the conditions
+                if (concurrencyController != null && System.nanoTime() - nextAdjustNanos >= 0L)
                 {
-                    break runStateChanged;
+                    adjustConcurrency();
+                    nextAdjustNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(adaptiveInterval);
                 }
-                // Calculate how many searches we are allowed to have performed
-                long eventProcessElapsedTime = eventProcessSearchTime - eventProcessStartTime;
-                int eventSearchesAllowed = (int) Math.floor((eventProcessElapsedTime/1000.0) * eventsPerSecond);
-                if (eventSearchesPerformed < eventSearchesAllowed)
+                // Wait for space before taking the next event so that any delay shows up as dispatch lag
+                if (threadPerEvent && !permitHeld)
                 {
-                    // Yield to other threads
-                    Thread.yield();
-                    // We are allowed to do more
-                    break;
+                    permitHeld = acquireInFlight();
+                    if (!permitHeld)
+                    {
+                        continue;
+                    }
                 }
-                // We need to wait and allow enough time to elapse.
-                // We cut the mean time between checks in half
-                long toSleep = 1000L / eventsPerSecond / 2;
-                toSleep = (toSleep < 10L) ? 10L : toSleep;
-                synchronized (this)
+                long nowNanos = System.nanoTime();
+                if (queueSignalled)
                 {
-                    try { this.wait(toSleep); } catch (InterruptedException e) {}
+                    // New events might be available
+                    queueSignalled = false;
+                    searchWait = 0L;
+                    nextSearchNanos = nowNanos;
                 }
-                // Now go back around the see if we are allowed to proceed
-                eventProcessSearchTime = System.currentTimeMillis();
-            }
-            // We record the event search regardless of missing or hit in the queue
-            eventSearchesPerformed++;
-            // Grab an event
-            // First look for events specific to this driver
-            Event event = eventService.nextEvent(driverId, eventProcessSearchTime);
-            if (event == null)
-            {
-                // Nothing found for the driver.
-                // Look for events from other drivers, giving them a grace period
-                event = eventService.nextEvent(null, eventProcessSearchTime - assignedEventGracePeriod);
-                if (event != null)
+                // Generated events don't take the place of claimed events
+                int claimedInHand = scheduler.size() - generatedInHand;
+                // Claim the events that will soon be due, unless we have enough already
+                if (claimedInHand < prefetchSize && nowNanos - nextSearchNanos >= 0L)
                 {
-                    String driver = event.getDriver();
-                    if (staleDrivers.add(driver))
+                    int maxCount = prefetchSize - claimedInHand;
+                    List<Event> events = nextEvents(System.currentTimeMillis(), maxCount, staleDrivers);
+                    List<Event> expandedEvents = expandGenerators(events);
+                    if (eventRecorder != null)
+                    {
+                        eventRecorder.record(expandedEvents);
+                    }
+                    scheduler.addAll(expandedEvents);
+                    claimedInHand = scheduler.size() - generatedInHand;
+                    // Search again immediately if there might be more events available
+                    long previousSearchWait = searchWait;
+                    searchWait = (events.size() == maxCount) ? 0L : Math.max(1L, Math.min(searchWait * 2L, MAX_IDLE_SEARCH_WAIT));
+                    long nextSearchWait = searchWait;
+                    if (queueNotifies && events.isEmpty() && previousSearchWait >= MAX_IDLE_SEARCH_WAIT && eventsInFlight.get() == 0)
+                    {
+                        // Nothing has turned up for a while and we are not about to finish the last events,
+                        // so wait until something is due or we are told of new events
+                        nextSearchWait = getQueueIdleWait();
+                    }
+                    nextSearchNanos = nowNanos + TimeUnit.MILLISECONDS.toNanos(nextSearchWait);
+                
+                    // Is there anything left to do?
+                    if (scheduler.isEmpty())
                     {
-                        logger.error("Driver " + driver + " is leaving stale events.  Check server load.");
+                        checkQueueEmpty();
                     }
                 }
-            }
-            // Do we have an event to process?
-            if (event == null)
-            {
-                long count = eventService.count();
-                if (count == 0)
+                // Wait for the next event to become due but don't miss the next search
+                long deadlineNanos = (claimedInHand < prefetchSize) ?
+                        nextSearchNanos :
+                        nowNanos + TimeUnit.MILLISECONDS.toNanos(MAX_IDLE_SEARCH_WAIT);
+                Event event = scheduler.next(deadlineNanos);
+                if (event == null)
+                {
+                    // Nothing due or we have to search the queue
+                    continue;
+                }
+                if (event.isGenerated())
+                {
+                    generatedInHand--;
+                }
+                // Find the processor for the event
+                EventProcessor processor = getProcessor(event);
+                // Asynchronous processing does not hold a thread, so it always needs a place in flight
+                if (processor instanceof AsyncEventProcessor)
+                {
+                    while (!permitHeld && isRunning())
+                    {
+                        permitHeld = acquireInFlight();
+                    }
+                    if (!permitHeld)
+                    {
+                        // Stopped
+                        break;
+                    }
+                }
+            
+                // Schedule it
+                EventWork work = new EventWork(
+                        driverId, testRunFqn,
+                        event,
+                        driverIds,
+                        processor, eventProducers,
+                        sessionService, logService,
+                        completionPipeline);
+                work.setDriverWeights(driverWeights);
+                long dispatchLag = scheduler.getLastDispatchLag();
+                work.setDispatchLag(dispatchLag);
+                recentDispatchLag += (dispatchLag - recentDispatchLag) / DISPATCH_LAG_SMOOTHING;
+                if (concurrencyController != null)
+                {
+                    concurrencyController.recordDispatchLag(dispatchLag);
+                }
+                eventsInFlight.incrementAndGet();
+                try
                 {
-                    // Look in the results to see if the run was started at some point
-                    List<EventRecord> startRecords = resultService.getResults(Event.EVENT_NAME_START, 0, 1);
-                    if (startRecords.size() == 0)
+                    // Grabbing an event automatically applies a short-lived lock to prevent
+                    // any other drivers from grabbing the same event before the event is locked
+                    // for execution.
+                    if (permitHeld)
                     {
-                        // The test has not *ever* been started.
-                        // We do that now; note that the event name will enforce a unique ID
-                        event = new Event(Event.EVENT_NAME_START, 0L, null);
-                        try
-                        {
-                            eventService.putEvent(event);
-                            // There is no guarantee that it actually went in
-                        }
-                        catch (RuntimeException e)
-                        {
-                            // We were unable to start the whole process.
-                            // We assume that someone else has.
-                        }
+                        // The place in flight is freed when the work completes
+                        work.setCompletionListener(inFlightListener);
+                        executor.execute(work);
+                        permitHeld = false;
                     }
                     else
                     {
-                        // The test was started but there are no more events remaining.
-                        // Quit
-                        if (ctx != null)        // The controller might have been run manually
-                        {
-                            ctx.publishEvent(new ContextStoppedEvent(ctx));
-                        }
+                        work.setCompletionListener(latencyListener);
+                        executor.execute(work);
                     }
                 }
-                // Go back to the queue
+                catch (RejectedExecutionException e)
+                {
+                    eventsInFlight.decrementAndGet();
+                    // Should not occur as the caller executes
+                    // Log it
+                    logService.log(
+                            LogLevel.WARN, "EventController's execution of an event was rejected.  "
+                            + "Are there enough drivers to handle the event load?");
+                }
+                catch (RuntimeException e)
+                {
+                    // Put here in case a CallerRunsPolicy is used
+                    logger.error("execute failed (pool or CallerRunsPolicy)", e);
+                }
+            }
+        }
+        finally
+        {
+            if (permitHeld)
+            {
+                inFlight.release();
+            }
+        }
+        
+        String msgStopped = String.format(
+                "Event processing stopped: %s (%d scheduled events dispatched with a mean lag of %.3fms and a maximum lag of %.3fms)",
+                testRunFqn, scheduler.getDispatchCount(),
+                scheduler.getDispatchLagMean() / 1000.0, scheduler.getDispatchLagMax() / 1000.0);
+        logger.info("\t" + msgStopped);
+        logService.log(LogLevel.INFO, msgStopped);
+    }
+    
+    /**
+     * Apply the next decision of the {@link AdaptiveConcurrencyController} and log any change
+     */
+    private void adjustConcurrency()
+    {
+        Decision decision = concurrencyController.adjust(getProcessCpuLoad());
+        if (!decision.isChanged())
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Concurrency unchanged for " + testRunFqn + ": " + decision);
+            }
+            return;
+        }
+        int limit = decision.getLimit();
+        String msg;
+        if (threadPerEvent)
+        {
+            inFlight.resize(decision.getPreviousLimit(), limit);
+            msg = "Adaptive concurrency: events in flight " + decision;
+        }
+        else
+        {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            // The core size can never be more than the maximum
+            if (limit > pool.getMaximumPoolSize())
+            {
+                pool.setMaximumPoolSize(limit);
+                pool.setCorePoolSize(limit);
+            }
+            else
+            {
+                pool.setCorePoolSize(limit);
+                pool.setMaximumPoolSize(limit);
+            }
+            msg = "Adaptive concurrency: threads " + decision;
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(testRunFqn + ": " + msg);
+        }
+        logService.log(LogLevel.INFO, msg);
+    }
+    
+    /**
+     * @return                      the fraction of the available CPU used by this process
+     *                              or a negative value if it is not known
+     */
+    private static double getProcessCpuLoad()
+    {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+        {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+        }
+        // Fall back to the load of the whole machine
+        double loadAverage = os.getSystemLoadAverage();
+        return (loadAverage < 0.0) ? -1.0 : (loadAverage / os.getAvailableProcessors());
+    }
+    
+    /**
+     * Wait a short while for a place in flight
+     * 
+     * @return                      <tt>true</tt> if a place was obtained
+     */
+    private boolean acquireInFlight()
+    {
+        try
+        {
+            return inFlight.tryAcquire(MAX_IDLE_SEARCH_WAIT, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            // Check if we have been stopped
+            return false;
+        }
+    }
+    
+    /**
+     * Claim the next events from the queue, including those that are due within the
+     * {@link #setScheduleLookAhead(long) look-ahead} period.
+     * <p/>
+     * Claimed events are leased to this driver and will be returned to the queue if the driver dies.
+     * 
+     * @param searchTime            the current time
+     * @param maxCount              the maximum number of events to claim
+     * @param staleDrivers          the drivers already reported for leaving stale events
+     * @return                      the events claimed
+     */
+    private List<Event> nextEvents(long searchTime, int maxCount, Set<String> staleDrivers)
+    {
+        // First look for events specific to this driver
+        List<Event> events = eventService.nextEvents(driverId, searchTime + scheduleLookAhead, maxCount);
+        if (events.isEmpty())
+        {
+            // Nothing found for the driver.
+            // Look for events from other drivers, giving them a grace period
+            events = eventService.nextEvents(null, searchTime - assignedEventGracePeriod, maxCount);
+            for (Event event : events)
+            {
+                String driver = event.getDriver();
+                if (staleDrivers.add(driver))
+                {
+                    logger.error("Driver " + driver + " is leaving stale events.  Check server load.");
+                }
+            }
+        }
+        return events;
+    }
+    
+    /**
+     * Work out how long an idle queue can be left before it is searched again, assuming that
+     * we are told about any new events
+     * 
+     * @return                      the time (milliseconds) to wait
+     */
+    private long getQueueIdleWait()
+    {
+        long nextScheduledTime = eventService.getNextScheduledTime();
+        long now = System.currentTimeMillis();
+        long wait;
+        if (nextScheduledTime == Long.MAX_VALUE)
+        {
+            // Nothing is waiting
+            wait = queueIdleWait;
+        }
+        else if (nextScheduledTime - scheduleLookAhead > now)
+        {
+            // Wake up when it can be claimed
+            wait = nextScheduledTime - scheduleLookAhead - now;
+        }
+        else
+        {
+            // It is due but we could not claim it, so it must be assigned to another driver
+            wait = nextScheduledTime + assignedEventGracePeriod - now;
+        }
+        return Math.max(MAX_IDLE_SEARCH_WAIT, Math.min(wait, queueIdleWait));
+    }
+    
+    /**
+     * Replace any {@link EventGenerator generators} amongst claimed events with the events that they generate
+     * over the next {@link #setGeneratorWindow(long) window}.  Generators that have more events to give are
+     * queued again, scheduled for their next event.
+     * 
+     * @param events                the events claimed from the queue
+     * @return                      the events to process
+     */
+    private List<Event> expandGenerators(List<Event> events)
+    {
+        List<Event> expanded = null;
+        for (int i = 0; i < events.size(); i++)
+        {
+            Event event = events.get(i);
+            if (!EventGenerator.isGenerator(event))
+            {
+                if (expanded != null)
+                {
+                    expanded.add(event);
+                }
                 continue;
             }
-            // Find the processor for the event
-            EventProcessor processor = getProcessor(event);
-            
-            // Schedule it
-            EventWork work = new EventWork(
-                    driverId, testRunFqn,
-                    event,
-                    driverIds,
-                    processor, eventProducers,
-                    eventService, resultService, sessionService,
-                    logService);
+            if (expanded == null)
+            {
+                expanded = new ArrayList<Event>(events.subList(0, i));
+            }
             try
             {
-                // Grabbing an event automatically applies a short-lived lock to prevent
-                // any other drivers from grabbing the same event before the event is locked
-                // for execution.
-                executor.execute(work);
+                EventGenerator generator = EventGenerator.fromEvent(event);
+                List<Event> generated = generator.generate(System.currentTimeMillis() + generatorWindow, generatorBatchSize);
+                // Queue the rest of the stream before giving up the claim on it
+                if (!generator.isExhausted())
+                {
+                    eventService.putEvent(generator.toEvent());
+                }
+                eventService.deleteEvent(event);
+                expanded.addAll(generated);
+                generatedInHand += generated.size();
+                // Done
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Generated " + generated.size() + " events: " + generator);
+                }
             }
-            catch (RejectedExecutionException e)
+            catch (IllegalArgumentException e)
             {
-                // Should not occur as the caller executes
-                eventSearchesPerformed += threadCount;
-                // Log it
-                logService.log(
-                        LogLevel.WARN, "EventController's execution of an event was rejected.  "
-                        + "Are there enough drivers to handle the event load?");
+                String msg = "Discarding invalid event generator: " + e.getMessage();
+                logger.error(msg);
+                logService.log(LogLevel.ERROR, msg);
+                eventService.deleteEvent(event);
             }
             catch (RuntimeException e)
             {
-                // Put here in case a CallerRunsPolicy is used
-                logger.error("execute failed (pool or CallerRunsPolicy)", e);
+                // The claim will lapse and the generator will be picked up again
+                String msg = "Failed to expand event generator: " + event;
+                logger.error(msg, e);
+                logService.log(LogLevel.ERROR, msg + " (" + e.getMessage() + ")");
+            }
+        }
+        return (expanded == null) ? events : expanded;
+    }
+    
+    /**
+     * Called when there are no events in hand: start the test if it has never been started or
+     * notify the application context if the test has finished.
+     * <p/>
+     * Generated events are never queued, so the queue is only checked once every event handed over
+     * for processing has completed and its outcome, including any next events, has been written.
+     */
+    private void checkQueueEmpty()
+    {
+        if (eventsInFlight.get() > 0 || generatedInHand > 0 || completionPipeline.getQueueSize() > 0)
+        {
+            // Events still being processed or written may yet publish more events
+            return;
+        }
+        // Avoid counting the queue exactly while it clearly has events in it
+        if (eventService.countEstimate() > 0L)
+        {
+            return;
+        }
+        long count = eventService.count();
+        if (count > 0)
+        {
+            return;
+        }
+        // Look in the results to see if the run was started at some point
+        List<EventRecord> startRecords = resultService.getResults(Event.EVENT_NAME_START, 0, 1);
+        if (startRecords.size() == 0)
+        {
+            // The test has not *ever* been started.
+            // We do that now; note that the event name will enforce a unique ID
+            Event event = new Event(Event.EVENT_NAME_START, 0L, null);
+            try
+            {
+                eventService.putEvent(event);
+                // There is no guarantee that it actually went in
+            }
+            catch (RuntimeException e)
+            {
+                // We were unable to start the whole process.
+                // We assume that someone else has.
+            }
+        }
+        else
+        {
+            // The test was started but there are no more events remaining.
+            // Quit
+            if (ctx != null)        // The controller might have been run manually
+            {
+                ctx.publishEvent(new ContextStoppedEvent(ctx));
             }
         }
-        
-        String msgStopped = "Event processing stopped: " + testRunFqn;
-        logger.info("\t" + msgStopped);
-        logService.log(LogLevel.INFO, msgStopped);
     }
     
     /** Keep track of event names that have been warned about w.r.t. missing event processors. */
@@ -454,4 +1284,34 @@ runStateChanged:
         }
         return processor;
     }
+    
+    /**
+     * A semaphore whose number of permits can be changed while it is in use
+     * 
+     * @since 3.0.3
+     */
+    private static class ResizableSemaphore extends Semaphore
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private ResizableSemaphore(int permits)
+        {
+            super(permits);
+        }
+        
+        /**
+         * Change the total number of permits; permits in use are not affected
+         */
+        private void resize(int previousPermits, int permits)
+        {
+            if (permits > previousPermits)
+            {
+                release(permits - previousPermits);
+            }
+            else if (permits < previousPermits)
+            {
+                reducePermits(previousPermits - permits);
+            }
+        }
+    }
 }
@@ -0,0 +1,65 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+/**
+ * Converts event data to and from a compact binary form for storage in an {@link EventService}.
+ * <p/>
+ * Codecs are {@link EventDataCodecRegistry#register(String, EventDataCodec) registered} against
+ * event names.  The {@link #getName() name} of the codec is stored with the encoded data so that
+ * it can be decoded by any driver, regardless of how its events are named.
+ * <p/>
+ * Implementations must be thread-safe.
+ * 
+ * @since 3.0.3
+ */
+public interface EventDataCodec
+{
+    /**
+     * @return                  a name that identifies this codec and the version of its encoding
+     */
+    String getName();
+    
+    /**
+     * Check that data can be encoded without losing anything
+     * 
+     * @param data              the event data (never <tt>null</tt>)
+     * @return                  <tt>true</tt> if the data can be {@link #encode(Object) encoded}
+     */
+    boolean canEncode(Object data);
+    
+    /**
+     * @param data              the event data, which has been {@link #canEncode(Object) checked}
+     * @return                  the encoded data
+     */
+    byte[] encode(Object data);
+    
+    /**
+     * @param bytes             data produced by {@link #encode(Object)}
+     * @return                  the event data
+     */
+    Object decode(byte[] bytes);
+}
@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+
+/**
+ * A registry of {@link EventDataCodec event data codecs} by event name and by codec name.
+ * <p/>
+ * The codecs used by the standard event processors are always available for decoding so that
+ * their events can be read by services that do not load the test's event processors.
+ * 
+ * @since 3.0.3
+ */
+public class EventDataCodecRegistry
+{
+    private final Map<String, EventDataCodec> codecsByEventName;
+    private final Map<String, EventDataCodec> codecsByName;
+    private final ReadLock readLock;
+    private final WriteLock writeLock;
+    
+    public EventDataCodecRegistry()
+    {
+        this.codecsByEventName = new HashMap<String, EventDataCodec>(97);
+        this.codecsByName = new HashMap<String, EventDataCodec>(17);
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        readLock = lock.readLock();
+        writeLock = lock.writeLock();
+        
+        codecsByName.put(RaiseEventsEventProcessor.DATA_CODEC.getName(), RaiseEventsEventProcessor.DATA_CODEC);
+        codecsByName.put(CreateSessionsEventProcessor.DATA_CODEC.getName(), CreateSessionsEventProcessor.DATA_CODEC);
+    }
+    
+    /**
+     * Register a codec for a given event name
+     * 
+     * @param eventName         the name of the event
+     * @param codec             the codec that will encode the event's data
+     */
+    public void register(String eventName, EventDataCodec codec)
+    {
+        writeLock.lock();
+        try
+        {
+            EventDataCodec existing = codecsByName.get(codec.getName());
+            if (existing != null && !existing.getClass().equals(codec.getClass()))
+            {
+                throw new IllegalArgumentException(
+                        "A different codec is already registered with name '" + codec.getName() + "': " + existing);
+            }
+            codecsByEventName.put(eventName, codec);
+            codecsByName.put(codec.getName(), codec);
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Get the codec used to encode the data of events with the given name
+     * 
+     * @param eventName         the name of the event
+     * @return                  the codec or <tt>null</tt> if the event's data is not encoded
+     */
+    public EventDataCodec getCodecForEvent(String eventName)
+    {
+        readLock.lock();
+        try
+        {
+            return codecsByEventName.get(eventName);
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+    }
+    
+    /**
+     * Get a codec by its {@link EventDataCodec#getName() name}
+     * 
+     * @param codecName         the name of the codec used to encode the data
+     * @return                  the codec or <tt>null</tt> if it is unknown
+     */
+    public EventDataCodec getCodec(String codecName)
+    {
+        readLock.lock();
+        try
+        {
+            return codecsByName.get(codecName);
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+    }
+}
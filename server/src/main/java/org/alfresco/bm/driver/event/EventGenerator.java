@@ -0,0 +1,243 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Describes a stream of events that is expanded by the {@link EventController} as it becomes due
+ * instead of being written to the queue one event at a time.
+ * <p/>
+ * The stream is queued as a single {@link #EVENT_NAME_GENERATE generator event}.  When a driver claims it,
+ * the events due within a short window are created in memory and the generator is queued again,
+ * scheduled for the first event not yet created.  The queue therefore holds one event per stream
+ * regardless of how many events the stream produces.
+ * <p/>
+ * Events are separated by a fixed interval or, for a {@link #DISTRIBUTION_POISSON Poisson} stream,
+ * by exponentially-distributed intervals with the given mean.  Every event gets a copy of the same data.
+ * <p/>
+ * Generated events are not in the queue, so any that have not been processed when a driver stops are lost.
+ * 
+ * @since 3.0.3
+ */
+public class EventGenerator
+{
+    /** The name of the events that describe generators */
+    public static final String EVENT_NAME_GENERATE = "generate";
+
+    /** Events are separated by exactly the interval */
+    public static final String DISTRIBUTION_FIXED = "fixed";
+    /** Events are separated by random intervals with the given mean i.e. they arrive as a Poisson process */
+    public static final String DISTRIBUTION_POISSON = "poisson";
+
+    public static final String KEY_EVENT_NAME = "eventName";
+    public static final String KEY_INTERVAL = "interval";
+    public static final String KEY_DISTRIBUTION = "distribution";
+    public static final String KEY_COUNT = "count";
+    public static final String KEY_GENERATED = "generated";
+    public static final String KEY_NEXT_TIME = "nextTime";
+    public static final String KEY_DATA = "data";
+
+    private final String eventName;
+    private final double interval;
+    private final String distribution;
+    private final long count;
+    private final Object data;
+    private long generated;
+    private double nextTime;
+
+    /**
+     * @param eventName         the name of the events to generate
+     * @param startTime         the time (milliseconds) of the first event
+     * @param interval          the (mean) time (milliseconds) between events, which may be fractional
+     * @param distribution      {@link #DISTRIBUTION_FIXED} or {@link #DISTRIBUTION_POISSON}
+     * @param count             the number of events to generate
+     * @param data              the data given to each event, which must be {@link Event#canPersistDataObject(Object) persistable}
+     */
+    public EventGenerator(String eventName, long startTime, double interval, String distribution, long count, Object data)
+    {
+        this(eventName, interval, distribution, count, data, 0L, startTime);
+    }
+
+    private EventGenerator(
+            String eventName, double interval, String distribution, long count, Object data,
+            long generated, double nextTime)
+    {
+        if (eventName == null)
+        {
+            throw new IllegalArgumentException("'eventName' may not be null.");
+        }
+        if (!(interval >= 0.0))
+        {
+            throw new IllegalArgumentException("'interval' cannot be negative.");
+        }
+        if (!DISTRIBUTION_FIXED.equals(distribution) && !DISTRIBUTION_POISSON.equals(distribution))
+        {
+            throw new IllegalArgumentException("Unknown distribution '" + distribution + "'.");
+        }
+        if (count < 0L)
+        {
+            throw new IllegalArgumentException("'count' cannot be negative.");
+        }
+        if (!Event.canPersistDataObject(data))
+        {
+            throw new IllegalArgumentException("Generated event data must be persistable: " + data);
+        }
+        this.eventName = eventName;
+        this.interval = interval;
+        this.distribution = distribution;
+        this.count = count;
+        this.data = data;
+        this.generated = generated;
+        this.nextTime = nextTime;
+    }
+
+    /**
+     * Read the state of a generator from its event
+     * 
+     * @param event             a {@link #EVENT_NAME_GENERATE generator event}
+     * @return                  the generator
+     * @throws IllegalArgumentException if the event does not describe a generator
+     */
+    public static EventGenerator fromEvent(Event event)
+    {
+        if (!isGenerator(event) || !(event.getData() instanceof DBObject))
+        {
+            throw new IllegalArgumentException("Event does not describe a generator: " + event);
+        }
+        DBObject obj = (DBObject) event.getData();
+        try
+        {
+            return new EventGenerator(
+                    (String) obj.get(KEY_EVENT_NAME),
+                    ((Number) obj.get(KEY_INTERVAL)).doubleValue(),
+                    (String) obj.get(KEY_DISTRIBUTION),
+                    ((Number) obj.get(KEY_COUNT)).longValue(),
+                    obj.get(KEY_DATA),
+                    ((Number) obj.get(KEY_GENERATED)).longValue(),
+                    ((Number) obj.get(KEY_NEXT_TIME)).doubleValue());
+        }
+        catch (NullPointerException e)
+        {
+            throw new IllegalArgumentException("Generator event is missing values: " + event);
+        }
+        catch (ClassCastException e)
+        {
+            throw new IllegalArgumentException("Generator event has values of the wrong type: " + event);
+        }
+    }
+
+    /**
+     * @return                  <tt>true</tt> if the event describes a generator
+     */
+    public static boolean isGenerator(Event event)
+    {
+        return EVENT_NAME_GENERATE.equals(event.getName());
+    }
+
+    @Override
+    public String toString()
+    {
+        return "EventGenerator [eventName=" + eventName + ", interval=" + interval + ", distribution=" + distribution +
+                ", count=" + count + ", generated=" + generated + ", nextTime=" + (long) nextTime + "]";
+    }
+
+    /**
+     * @return                  an event that describes the current state of the generator,
+     *                          scheduled for the next event to be generated
+     */
+    public Event toEvent()
+    {
+        DBObject obj = new BasicDBObject()
+                .append(KEY_EVENT_NAME, eventName)
+                .append(KEY_INTERVAL, Double.valueOf(interval))
+                .append(KEY_DISTRIBUTION, distribution)
+                .append(KEY_COUNT, Long.valueOf(count))
+                .append(KEY_GENERATED, Long.valueOf(generated))
+                .append(KEY_NEXT_TIME, Double.valueOf(nextTime))
+                .append(KEY_DATA, data);
+        return new Event(EVENT_NAME_GENERATE, getNextTime(), obj);
+    }
+
+    /**
+     * @return                  the time (milliseconds) of the next event to be generated
+     */
+    public long getNextTime()
+    {
+        return (long) nextTime;
+    }
+
+    /**
+     * @return                  the number of events generated so far
+     */
+    public long getGenerated()
+    {
+        return generated;
+    }
+
+    /**
+     * @return                  <tt>true</tt> if all the events have been generated
+     */
+    public boolean isExhausted()
+    {
+        return generated >= count;
+    }
+
+    /**
+     * Create the events that are due up to a given time
+     * 
+     * @param untilTime         the latest time (milliseconds) of the events to create
+     * @param maxCount          the maximum number of events to create
+     * @return                  the events, which are not in any queue
+     */
+    public List<Event> generate(long untilTime, int maxCount)
+    {
+        List<Event> events = new ArrayList<Event>(Math.min(maxCount, 1024));
+        while (generated < count && events.size() < maxCount && (long) nextTime <= untilTime)
+        {
+            Object eventData = (data instanceof BasicDBObject) ? ((BasicDBObject) data).copy() : data;
+            Event event = new Event(eventName, (long) nextTime, eventData);
+            event.setGenerated(true);
+            events.add(event);
+            generated++;
+            if (DISTRIBUTION_POISSON.equals(distribution))
+            {
+                // Exponential intervals with the given mean
+                nextTime += -interval * Math.log(1.0 - ThreadLocalRandom.current().nextDouble());
+            }
+            else
+            {
+                nextTime += interval;
+            }
+        }
+        return events;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+
+/**
+ * A registry of the priority lanes that events are queued in, by event name.
+ * <p/>
+ * Events are in the {@link #DEFAULT_LANE default lane} unless their processor declares otherwise.
+ * Event queues that support lanes claim events from the higher lanes first so that events that
+ * control the shape of the load, such as raising more events or creating sessions, are not stuck
+ * behind a backlog of workload events.  When several lanes have events waiting, each lane gets a share
+ * of a claim in proportion to its {@link #getWeight(int) weight} and any share that a lane cannot use
+ * is passed to the lanes below it.
+ * 
+ * @since 3.0.3
+ */
+public class EventLaneRegistry
+{
+    /** The lane of events that do not declare one */
+    public static final int DEFAULT_LANE = 0;
+    /** The lane used by the standard processors that control the flow of events */
+    public static final int CONTROL_LANE = 9;
+    
+    private final Map<String, Integer> lanesByEventName;
+    private final ReadLock readLock;
+    private final WriteLock writeLock;
+    /** The distinct lanes other than the default lane, highest first */
+    private volatile int[] lanes;
+    
+    public EventLaneRegistry()
+    {
+        this.lanesByEventName = new HashMap<String, Integer>(97);
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        readLock = lock.readLock();
+        writeLock = lock.writeLock();
+        this.lanes = new int[0];
+    }
+    
+    /**
+     * @param lane              a lane
+     * @return                  the relative share of a claim given to the lane, which is one more than the lane
+     */
+    public static int getWeight(int lane)
+    {
+        return lane + 1;
+    }
+    
+    /**
+     * Register the lane for a given event name
+     * 
+     * @param eventName         the name of the event
+     * @param lane              the lane, where higher lanes are claimed first
+     */
+    public void register(String eventName, int lane)
+    {
+        if (lane < DEFAULT_LANE)
+        {
+            throw new IllegalArgumentException("'lane' cannot be less than " + DEFAULT_LANE + ".");
+        }
+        writeLock.lock();
+        try
+        {
+            if (lane == DEFAULT_LANE)
+            {
+                lanesByEventName.remove(eventName);
+            }
+            else
+            {
+                lanesByEventName.put(eventName, Integer.valueOf(lane));
+            }
+            // Rebuild the distinct lanes, highest first
+            TreeSet<Integer> distinct = new TreeSet<Integer>(lanesByEventName.values());
+            int[] newLanes = new int[distinct.size()];
+            int i = 0;
+            for (Integer distinctLane : distinct.descendingSet())
+            {
+                newLanes[i++] = distinctLane.intValue();
+            }
+            lanes = newLanes;
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Get the lane for events with the given name
+     * 
+     * @param eventName         the name of the event
+     * @return                  the lane or {@link #DEFAULT_LANE} if none was registered
+     */
+    public int getLane(String eventName)
+    {
+        readLock.lock();
+        try
+        {
+            Integer lane = lanesByEventName.get(eventName);
+            return (lane == null) ? DEFAULT_LANE : lane.intValue();
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+    }
+    
+    /**
+     * @return                  the distinct lanes in use, excluding the {@link #DEFAULT_LANE default lane}, highest first
+     */
+    public int[] getLanes()
+    {
+        return lanes.clone();
+    }
+}
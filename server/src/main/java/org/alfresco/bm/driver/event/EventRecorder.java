@@ -0,0 +1,439 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.BSONObject;
+import org.bson.BasicBSONEncoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends the events claimed by a driver to a local file so that exactly the same events can be
+ * {@link ReplayEventService replayed} against another build of the system under test.
+ * <p/>
+ * The file starts with a header holding the time that recording started.  Each event is then appended as a
+ * length-prefixed record holding its scheduled time relative to the start, its name, its session ID and its
+ * data.  Events whose data only exists in memory are recorded without it.  A driver that is restarted keeps
+ * appending to the same recording, relative to the original start time.
+ * 
+ * @since 3.0.3
+ */
+public class EventRecorder
+{
+    /** Identifies a file of recorded events */
+    public static final int MAGIC = 0x424D4552;
+    public static final byte VERSION = 1;
+    /** The length of the file header: magic, version and start time */
+    public static final int HEADER_LENGTH = 4 + 1 + 8;
+
+    static final byte DATA_NULL = 0;
+    static final byte DATA_STRING = 1;
+    static final byte DATA_INTEGER = 2;
+    static final byte DATA_LONG = 3;
+    static final byte DATA_DOUBLE = 4;
+    static final byte DATA_BSON = 5;
+    /** Flag added to the data type when the data was bound in memory */
+    static final byte DATA_IN_MEMORY = (byte) 0x80;
+
+    private static Log logger = LogFactory.getLog(EventRecorder.class);
+
+    private final String file;
+    private FileChannel channel;
+    private long startTime;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private boolean warnedDataInMemory;
+
+    /**
+     * @param file              the file to record to or <tt>null</tt> or empty to record nothing
+     */
+    public EventRecorder(String file)
+    {
+        this.file = (file == null || file.trim().length() == 0) ? null : file.trim();
+    }
+
+    /**
+     * @return                  <tt>true</tt> if a file has been given to record to
+     */
+    public boolean isEnabled()
+    {
+        return file != null;
+    }
+
+    /**
+     * @return                  the time (milliseconds) that the recording started
+     */
+    public synchronized long getStartTime()
+    {
+        return startTime;
+    }
+
+    /**
+     * Open the recording, reading the start time from the header if the file already holds events
+     */
+    public synchronized void open()
+    {
+        if (file == null || channel != null)
+        {
+            return;
+        }
+        try
+        {
+            channel = FileChannel.open(
+                    new File(file).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() < HEADER_LENGTH)
+            {
+                startTime = System.currentTimeMillis();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC).put(VERSION).putLong(startTime);
+                ((Buffer) header).flip();
+                channel.truncate(0L);
+                writeFully(header, 0L);
+            }
+            else
+            {
+                startTime = readHeader(channel);
+            }
+            // Drop anything left half-written by a driver that died
+            long end = findEnd(channel);
+            channel.truncate(end);
+            channel.position(end);
+        }
+        catch (IOException e)
+        {
+            close();
+            throw new RuntimeException("Failed to open event recording: " + file, e);
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Recording events to " + file);
+        }
+    }
+
+    /**
+     * Close the recording.  Events recorded so far remain in the file.
+     */
+    public synchronized void close()
+    {
+        if (channel == null)
+        {
+            return;
+        }
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to close event recording: " + file, e);
+        }
+        channel = null;
+    }
+
+    /**
+     * Append events to the recording with a single write
+     * 
+     * @param events            the events claimed for processing
+     */
+    public synchronized void record(List<Event> events)
+    {
+        if (channel == null || events.isEmpty())
+        {
+            return;
+        }
+        ((Buffer) buffer).clear();
+        for (Event event : events)
+        {
+            encode(event);
+        }
+        ((Buffer) buffer).flip();
+        try
+        {
+            writeFully(buffer, -1L);
+        }
+        catch (IOException e)
+        {
+            // A partial recording is no use to anyone
+            logger.error("Failed to record events; recording stopped: " + file, e);
+            close();
+        }
+    }
+
+    private void writeFully(ByteBuffer src, long position) throws IOException
+    {
+        while (src.hasRemaining())
+        {
+            if (position < 0L)
+            {
+                channel.write(src);
+            }
+            else
+            {
+                position += channel.write(src, position);
+            }
+        }
+    }
+
+    /**
+     * Append an event to the buffer, growing it as required
+     */
+    private void encode(Event event)
+    {
+        byte[] name = event.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] sessionId = (event.getSessionId() == null) ? null : event.getSessionId().getBytes(StandardCharsets.UTF_8);
+        Object data = event.getData();
+        byte dataType;
+        byte[] dataBytes = null;
+        if (data == null)
+        {
+            dataType = DATA_NULL;
+        }
+        else if (data instanceof String)
+        {
+            dataType = DATA_STRING;
+            dataBytes = ((String) data).getBytes(StandardCharsets.UTF_8);
+        }
+        else if (data instanceof Integer)
+        {
+            dataType = DATA_INTEGER;
+        }
+        else if (data instanceof Long)
+        {
+            dataType = DATA_LONG;
+        }
+        else if (data instanceof Number)
+        {
+            dataType = DATA_DOUBLE;
+        }
+        else if (data instanceof DBObject)
+        {
+            dataType = DATA_BSON;
+            dataBytes = new BasicBSONEncoder().encode((BSONObject) data);
+        }
+        else
+        {
+            // Only the process that created it can make sense of it
+            dataType = DATA_NULL;
+            if (!warnedDataInMemory)
+            {
+                warnedDataInMemory = true;
+                logger.warn("Events with data held in memory are recorded without their data e.g. " + event);
+            }
+        }
+        if (event.getDataInMemory() && dataType != DATA_NULL)
+        {
+            dataType |= DATA_IN_MEMORY;
+        }
+        int dataLength;
+        switch (dataType & ~DATA_IN_MEMORY)
+        {
+            case DATA_NULL:
+                dataLength = 0;
+                break;
+            case DATA_STRING:
+            case DATA_BSON:
+                dataLength = 4 + dataBytes.length;
+                break;
+            default:
+                dataLength = 8;
+                break;
+        }
+        int length = 8 + 2 + name.length + 2 + (sessionId == null ? 0 : sessionId.length) + 1 + dataLength;
+        ensureCapacity(4 + length);
+        // Events that were overdue when recording started are due immediately
+        long offset = Math.max(0L, event.getScheduledTime() - startTime);
+        buffer.putInt(length);
+        buffer.putLong(offset);
+        buffer.putShort((short) name.length).put(name);
+        if (sessionId == null)
+        {
+            buffer.putShort((short) -1);
+        }
+        else
+        {
+            buffer.putShort((short) sessionId.length).put(sessionId);
+        }
+        buffer.put(dataType);
+        switch (dataType & ~DATA_IN_MEMORY)
+        {
+            case DATA_INTEGER:
+                buffer.putLong(((Integer) data).longValue());
+                break;
+            case DATA_LONG:
+                buffer.putLong(((Long) data).longValue());
+                break;
+            case DATA_DOUBLE:
+                buffer.putLong(Double.doubleToRawLongBits(((Number) data).doubleValue()));
+                break;
+            case DATA_STRING:
+            case DATA_BSON:
+                buffer.putInt(dataBytes.length).put(dataBytes);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void ensureCapacity(int length)
+    {
+        if (buffer.remaining() >= length)
+        {
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+        ((Buffer) buffer).flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+    /**
+     * Check the header of a recording
+     * 
+     * @return                  the time (milliseconds) that recording started
+     */
+    static long readHeader(FileChannel channel) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (header.hasRemaining())
+        {
+            if (channel.read(header, header.position()) < 0)
+            {
+                throw new IOException("Event recording is missing its header.");
+            }
+        }
+        ((Buffer) header).flip();
+        if (header.getInt() != MAGIC)
+        {
+            throw new IOException("Not an event recording.");
+        }
+        byte version = header.get();
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported event recording version: " + version);
+        }
+        return header.getLong();
+    }
+
+    /**
+     * Find the end of the last complete record
+     */
+    private static long findEnd(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        long position = HEADER_LENGTH;
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        while (position + 4 <= size)
+        {
+            ((Buffer) lengthBuffer).clear();
+            while (lengthBuffer.hasRemaining())
+            {
+                channel.read(lengthBuffer, position + lengthBuffer.position());
+            }
+            int length = lengthBuffer.getInt(0);
+            if (length <= 0 || position + 4 + length > size)
+            {
+                break;
+            }
+            position += 4 + length;
+        }
+        return position;
+    }
+
+    /**
+     * Read a record written by {@link #record(List)}
+     * 
+     * @param record            the record, without its length
+     * @param startTime         the time (milliseconds) that the recorded events are scheduled relative to
+     * @return                  the event
+     * @throws IllegalArgumentException if the record is damaged
+     */
+    static Event decode(ByteBuffer record, long startTime)
+    {
+        try
+        {
+            long offset = record.getLong();
+            String name = readString(record, record.getShort());
+            short sessionIdLength = record.getShort();
+            String sessionId = (sessionIdLength < 0) ? null : readString(record, sessionIdLength);
+            byte dataType = record.get();
+            Object data;
+            switch (dataType & ~DATA_IN_MEMORY)
+            {
+                case DATA_NULL:
+                    data = null;
+                    break;
+                case DATA_STRING:
+                    data = readString(record, record.getInt());
+                    break;
+                case DATA_INTEGER:
+                    data = Integer.valueOf((int) record.getLong());
+                    break;
+                case DATA_LONG:
+                    data = Long.valueOf(record.getLong());
+                    break;
+                case DATA_DOUBLE:
+                    data = Double.valueOf(Double.longBitsToDouble(record.getLong()));
+                    break;
+                case DATA_BSON:
+                    byte[] bson = new byte[record.getInt()];
+                    record.get(bson);
+                    data = new DefaultDBDecoder().decode(bson, (DBCollection) null);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown event data type: " + dataType);
+            }
+            boolean dataInMemory = (dataType & DATA_IN_MEMORY) != 0;
+            Event event = new Event(name, startTime + offset, data, dataInMemory);
+            event.setSessionId(sessionId);
+            return event;
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IllegalArgumentException("Event record is truncated.");
+        }
+    }
+
+    private static String readString(ByteBuffer record, int length)
+    {
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
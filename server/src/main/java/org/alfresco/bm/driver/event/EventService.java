@@ -25,6 +25,7 @@
  */
 package org.alfresco.bm.driver.event;
 
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -45,6 +46,20 @@ public interface EventService
      */
     long count();
     
+    /**
+     * Get the approximate number of events in the queue without necessarily going to the underlying storage.
+     * The value may not include recent changes made by this or other drivers, so only an exact
+     * {@link #count() count} can show that the queue is empty.  By default, the exact count is given.
+     * 
+     * @return                      an estimate of the number of events in the queue
+     * 
+     * @since 3.0.3
+     */
+    default long countEstimate()
+    {
+        return count();
+    }
+    
     /**
      * Adds an event to the provider. This is done to populate the queue with
      * a new event to be processed.
@@ -54,6 +69,44 @@ public interface EventService
      */
     String putEvent(Event event);
     
+    /**
+     * Adds a number of events to the provider in as few operations as possible.  The events
+     * are independent of each other i.e. the failure to add one event does not prevent the
+     * others from being added.
+     * 
+     * @param events            the events to add
+     * @return                  the IDs of the events in the order given
+     * @throws RuntimeException if any of the events could not be added; all other events will
+     *                          have been added
+     * 
+     * @since 3.0.3
+     */
+    default List<String> putEvents(List<Event> events)
+    {
+        List<String> ids = new ArrayList<String>(events.size());
+        RuntimeException failure = null;
+        for (Event event : events)
+        {
+            try
+            {
+                ids.add(putEvent(event));
+            }
+            catch (RuntimeException e)
+            {
+                // Keep going and report the first failure at the end
+                if (failure == null)
+                {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+        return ids;
+    }
+    
     /**
      * Retrieve an event by ID
      * 
@@ -85,7 +138,39 @@ public interface EventService
      * @return                      Returns the next event in the queue or <tt>null</tt>
      */
     Event nextEvent(String driverId, long latestScheduledTime);
-    
+
+    /**
+     * Claim a batch of the next events in the queue in a single operation.  The same search rules
+     * apply as for {@link #nextEvent(String, long) single event} retrieval.
+     * <p/>
+     * Events claimed in this way are <i>leased</i> to the caller: the lease is kept alive for as long
+     * as this service is running and the event has not been {@link #deleteEvent(Event) deleted}.
+     * If the lease is not kept alive e.g. the driver process dies, the events are returned to the
+     * queue for other drivers to process.
+     * 
+     * @param driverId              the ID of the driver performing the search or <tt>null</tt> to
+     *                              search events assigned to any driver
+     * @param latestScheduledTime   the maximum scheduled time for events
+     * @param maxCount              the maximum number of events to claim
+     * @return                      Returns the claimed events in scheduled order (never <tt>null</tt>)
+     * 
+     * @since 3.0.3
+     */
+    default List<Event> nextEvents(String driverId, long latestScheduledTime, int maxCount)
+    {
+        List<Event> events = new ArrayList<Event>(maxCount);
+        while (events.size() < maxCount)
+        {
+            Event event = nextEvent(driverId, latestScheduledTime);
+            if (event == null)
+            {
+                break;
+            }
+            events.add(event);
+        }
+        return events;
+    }
+
     /**
      * Delete an event from the provider.  This can be done after the event has
      * been fully processed and there is no further requirement for it.
@@ -97,6 +182,82 @@ public interface EventService
      */
     boolean deleteEvent(Event event);
     
+    /**
+     * Delete a number of events from the provider in as few operations as possible.
+     * 
+     * @param events            the events to delete
+     * @return                  the number of events actually deleted
+     * 
+     * @since 3.0.3
+     */
+    default int deleteEvents(List<Event> events)
+    {
+        int deleted = 0;
+        for (Event event : events)
+        {
+            if (deleteEvent(event))
+            {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+    
+    /**
+     * Give back events that were {@link #nextEvents(String, long, int) claimed} but will not be processed
+     * so that they can be claimed again straight away.  By default, nothing is given back and the events
+     * are only recovered once their leases or locks expire.
+     * 
+     * @param events            the claimed events to give back
+     * @return                  the number of events returned to the queue
+     * 
+     * @since 3.0.3
+     */
+    default int releaseEvents(List<Event> events)
+    {
+        return 0;
+    }
+    
+    /**
+     * Find the time of the earliest event that could be {@link #nextEvents(String, long, int) claimed}
+     * once it is due, ignoring the driver assignment.  By default, any event in the queue is taken
+     * to be available now.
+     * 
+     * @return                      the scheduled time of the earliest event available or
+     *                              <tt>Long.MAX_VALUE</tt> if there are no events available
+     * 
+     * @since 3.0.3
+     */
+    default long getNextScheduledTime()
+    {
+        return (count() > 0L) ? System.currentTimeMillis() : Long.MAX_VALUE;
+    }
+    
+    /**
+     * Register to be told when events are put into the queue, including by other processes, so that
+     * the queue does not have to be searched while it has nothing to give.
+     * 
+     * @param listener              the listener to call
+     * @return                      <tt>true</tt> if the listener will be called or <tt>false</tt> if the
+     *                              queue does not give notifications and must still be searched regularly,
+     *                              which is the default
+     * 
+     * @since 3.0.3
+     */
+    default boolean addQueueListener(QueueListener listener)
+    {
+        return false;
+    }
+    
+    /**
+     * Stop calling a listener {@link #addQueueListener(QueueListener) added} earlier
+     * 
+     * @since 3.0.3
+     */
+    default void removeQueueListener(QueueListener listener)
+    {
+    }
+    
     /**
      * Clears all recorded data
      * 
@@ -104,4 +265,20 @@ public interface EventService
      * @since 2.1.4
      */
     boolean clear();
+
+    /**
+     * Told when events are put into a queue.  Calls are made on the thread putting the events or on a thread
+     * watching the queue, so they must return quickly.
+     * 
+     * @since 3.0.3
+     */
+    public interface QueueListener
+    {
+        /**
+         * Events have been put into the queue.  There may be spurious calls.
+         * 
+         * @param earliestScheduledTime the scheduled time of the earliest event put or <tt>Long.MIN_VALUE</tt> if not known
+         */
+        void eventsPut(long earliestScheduledTime);
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+/**
+ * How the {@link EventController} runs each piece of {@link EventWork}.
+ * 
+ * @since 3.0.3
+ */
+public enum EventThreadMode
+{
+    /**
+     * A fixed pool of platform threads.  The pool size limits the number of events in flight.
+     */
+    Pool,
+
+    /**
+     * A new virtual thread for each event.  The number of events in flight is limited by
+     * a separate limit, which can be far higher than any practical thread pool size.
+     * Virtual threads are only available on Java 21 or later; a thread-per-event executor
+     * using platform threads is used on older runtimes.
+     */
+    Virtual;
+
+    /**
+     * @param value             the name of the mode (may be <tt>null</tt>)
+     * @return                  the mode by name or {@link #Pool} if the value is not recognised
+     */
+    public static EventThreadMode fromString(String value)
+    {
+        if (value == null)
+        {
+            return Pool;
+        }
+        try
+        {
+            return EventThreadMode.valueOf(value.trim());
+        }
+        catch (IllegalArgumentException e)
+        {
+            return Pool;
+        }
+    }
+}
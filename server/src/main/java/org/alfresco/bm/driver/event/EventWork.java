@@ -30,7 +30,7 @@ import org.alfresco.bm.common.EventResult;
 import org.alfresco.bm.common.ResultService;
 import org.alfresco.bm.common.util.log.LogService.LogLevel;
 import org.alfresco.bm.common.util.log.TestRunLogService;
-import org.alfresco.bm.driver.event.producer.EventProducer;
+import org.alfresco.bm.driver.event.EventCompletionPipeline.CompletedEvent;
 import org.alfresco.bm.driver.event.producer.EventProducerRegistry;
 import org.alfresco.bm.common.session.SessionService;
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -41,9 +41,11 @@ import org.joda.time.DateTime;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 /**
  * A unit of work that can be executed by the event processing threads.
@@ -56,6 +58,19 @@ import java.util.Set;
  */
 public class EventWork implements Runnable
 {
+    /**
+     * Notified when the processing of an event is complete
+     * 
+     * @since 3.0.3
+     */
+    public interface CompletionListener
+    {
+        /**
+         * @param time              the time (milliseconds) taken to process the event
+         */
+        void eventCompleted(long time);
+    }
+    
     private static final Log logger = LogFactory.getLog(EventService.class);
     
     private final String driverId;
@@ -64,13 +79,15 @@ public class EventWork implements Runnable
     private final String[] driverIds;
     private final EventProcessor processor;
     private final EventProducerRegistry eventProducers;
-    private final EventService eventService;
-    private final ResultService resultService;
     private final SessionService sessionService;
     private final TestRunLogService logService;
+    private final EventCompletionPipeline completionPipeline;
+    private double[] driverWeights;
+    private long dispatchLag;
+    private CompletionListener completionListener;
     
     /**
-     * Construct work to be executed by a thread
+     * Construct work to be executed by a thread, writing the results on the same thread
      * 
      * @param driverId          the identifier of the driver process handling the event
      * @param testRunFqn        the fully qualified name of the test run initiating the work
@@ -90,6 +107,36 @@ public class EventWork implements Runnable
             EventProcessor processor, EventProducerRegistry eventProducers,
             EventService eventService, ResultService resultService, SessionService sessionService,
             TestRunLogService logService)
+    {
+        this(
+                driverId, testRunFqn,
+                event,
+                driverIds,
+                processor, eventProducers,
+                sessionService, logService,
+                new EventCompletionPipeline(testRunFqn, eventService, resultService, logService));
+    }
+    
+    /**
+     * Construct work to be executed by a thread
+     * 
+     * @param driverId          the identifier of the driver process handling the event
+     * @param testRunFqn        the fully qualified name of the test run initiating the work
+     * @param event             the event to be processed
+     * @param driverIds         the current list of driver IDs operating on this test run
+     * @param processor         the component that will do the actual processing
+     * @param eventProducers    the registry to convert events before persistence
+     * @param sessionService    the service manage sessions
+     * @param logService        the service to report any issues
+     * @param completionPipeline    the pipeline that writes the outcome of the processing
+     */
+    public EventWork(
+            String driverId, String testRunFqn,
+            Event event,
+            String[] driverIds,
+            EventProcessor processor, EventProducerRegistry eventProducers,
+            SessionService sessionService, TestRunLogService logService,
+            EventCompletionPipeline completionPipeline)
     {
         this.driverId = driverId;
         this.testRunFqn = testRunFqn;
@@ -97,48 +144,162 @@ public class EventWork implements Runnable
         this.driverIds = driverIds;
         this.processor = processor;
         this.eventProducers = eventProducers;
-        this.eventService = eventService;
-        this.resultService = resultService;
         this.sessionService = sessionService;
         this.logService = logService;
+        this.completionPipeline = completionPipeline;
+    }
+
+    /**
+     * @param driverWeights     the relative share of new events to give each of the drivers,
+     *                          in the same order, or <tt>null</tt> to share them equally
+     * 
+     * @since 3.0.3
+     */
+    public void setDriverWeights(double[] driverWeights)
+    {
+        this.driverWeights = driverWeights;
+    }
+
+    /**
+     * @param dispatchLag       the time (microseconds) between the event's scheduled time and
+     *                          the moment it was handed over for processing
+     */
+    public void setDispatchLag(long dispatchLag)
+    {
+        this.dispatchLag = dispatchLag;
+    }
+
+    /**
+     * @param completionListener    called once the outcome of the event has been handed over for
+     *                              writing, which can be after {@link #run()} returns if the processor
+     *                              is {@link AsyncEventProcessor asynchronous}
+     * 
+     * @since 3.0.3
+     */
+    public void setCompletionListener(CompletionListener completionListener)
+    {
+        this.completionListener = completionListener;
     }
 
     @Override
     public void run()
     {
-        // Set the start and end times for the event
-        long warnDelay = processor.getWarnDelay();
-        boolean chart = processor.isChart();
-
+        if (processor instanceof AsyncEventProcessor)
+        {
+            runAsync((AsyncEventProcessor) processor);
+            return;
+        }
         EventResult result = null;
         StopWatch stopWatch = new StopWatch();
         try
         {
             // Process the event
             result = processor.processEvent(event, stopWatch);
+        }
+        catch (Throwable e)
+        {
+            result = getFailureResult(stopWatch.getStartTime(), e);
+        }
+        // See how long it took
+        long before = stopWatch.getStartTime();
+        long time = stopWatch.getTime();
+        complete(result, before, time);
+    }
+
+    /**
+     * Start the processing and deal with the result whenever it becomes available.
+     * The time recorded runs from the moment the event is handed to the processor
+     * until the processing completes, regardless of the threads involved.
+     */
+    private void runAsync(AsyncEventProcessor asyncProcessor)
+    {
+        final long before = System.currentTimeMillis();
+        final long beforeNanos = System.nanoTime();
+        CompletionStage<EventResult> stage;
+        try
+        {
+            stage = asyncProcessor.processEventAsync(event);
+            if (stage == null)
+            {
+                throw new RuntimeException("Event processor returned null result: " + processor);
+            }
+        }
+        catch (Throwable e)
+        {
+            long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beforeNanos);
+            complete(getFailureResult(before, e), before, time);
+            return;
+        }
+        stage.whenComplete(new BiConsumer<EventResult, Throwable>()
+        {
+            @Override
+            public void accept(EventResult result, Throwable e)
+            {
+                long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beforeNanos);
+                if (e != null)
+                {
+                    // Get the exception thrown by the processor
+                    if (e instanceof CompletionException && e.getCause() != null)
+                    {
+                        e = e.getCause();
+                    }
+                    result = getFailureResult(before, e);
+                }
+                complete(result, before, time);
+            }
+        });
+    }
+
+    /**
+     * Build the result for processing that failed, ending any session associated with the event
+     */
+    private EventResult getFailureResult(long before, Throwable e)
+    {
+        DateTime eventTime = new DateTime(before);
+        String stack = ExceptionUtils.getStackTrace(e);
+        String error = "[" + eventTime + "] Event processing exception; no further events will be published. \r\n" + stack;
+        // Close any associated session
+        String sessionId = event.getSessionId();
+        if (sessionId != null && processor.isAutoCloseSessionId())
+        {
+            sessionService.endSession(sessionId);
+        }
+        return new EventResult(error, Collections.emptyList(), false);
+    }
+
+    /**
+     * Record the outcome of the processing and pass it on for writing
+     * 
+     * @param result            the result of the processing
+     * @param before            the time the processing started
+     * @param time              the time the processing took
+     */
+    private void complete(EventResult result, long before, long time)
+    {
+        try
+        {
             if (result == null)
             {
                 String msg = "Event processtor returned null result: " + processor;
                 logService.log(LogLevel.FATAL, msg);
-                throw new RuntimeException(msg);
+                result = getFailureResult(before, new RuntimeException(msg));
             }
+            completeImpl(result, before, time);
         }
-        catch (Throwable e)
+        finally
         {
-            DateTime eventTime = new DateTime(stopWatch.getStartTime());
-            String stack = ExceptionUtils.getStackTrace(e);
-            String error = "[" + eventTime + "] Event processing exception; no further events will be published. \r\n" + stack;
-            result = new EventResult(error, Collections.emptyList(), false);
-            // Close any associated session
-            String sessionId = event.getSessionId();
-            if (sessionId != null && processor.isAutoCloseSessionId())
+            if (completionListener != null)
             {
-                sessionService.endSession(sessionId);
+                completionListener.eventCompleted(time);
             }
         }
-        // See how long it took
-        long before = stopWatch.getStartTime();
-        long time = stopWatch.getTime();
+    }
+
+    private void completeImpl(EventResult result, long before, long time)
+    {
+        // Set the start and end times for the event
+        long warnDelay = processor.getWarnDelay();
+        boolean chart = processor.isChart();
         
         // Get any supplemental data to be recorded
         Object data = result.getData();
@@ -150,6 +311,7 @@ public class EventWork implements Runnable
         EventRecord recordedEvent = new EventRecord(driverId, wasSuccess, before, time, data, event);
         recordedEvent.setChart(chart);
         recordedEvent.setProcessedBy(processor.getName());
+        recordedEvent.setDispatchLag(dispatchLag);
         
         // Check the time taken against the time allowed
         if (time > warnDelay)
@@ -169,22 +331,18 @@ public class EventWork implements Runnable
                     "   Processor: " + processor);
         }
 
-        // Record the event
+        // Pass the event(s) through the producers
         try
         {
-            resultService.recordResult(recordedEvent);
+            nextEvents = eventProducers.getRoutes().expand(nextEvents);
         }
-        catch (Throwable e)
+        catch (IllegalStateException e)
         {
-            String stack = ExceptionUtils.getStackTrace(e);
-            logService.log(LogLevel.ERROR, "Failed to record an result " + recordedEvent + ": " + stack);
-            logger.error("Failed recorded event: " + recordedEvent, e);
+            String msg = e.getMessage();
+            logService.log(LogLevel.ERROR, msg);
+            throw new RuntimeException(msg, e);
         }
         
-        // Pass the event(s) through the producers
-        Set<String> eventNamesSeen = new HashSet<String>(nextEvents.size() + 17);
-        nextEvents = getNextEvents(nextEvents, eventNamesSeen);
-        
         // Only propagate session IDs automatically if there is a 1:1 relationship between the event processed
         // and the next event i.e. we branching of the session is not intrinsically supported
         String sessionId = event.getSessionId();
@@ -197,13 +355,16 @@ public class EventWork implements Runnable
         }
         
         // Use weightings (https://github.com/AlfrescoBenchmark/alfresco-benchmark/issues/54)
+        // The weights are ignored if they have been updated at the same time as the drivers
+        boolean weighted = driverWeights != null && driverWeights.length == driverIds.length;
         RandomWeightedSelector<String> driverSelector = new RandomWeightedSelector<String>();
-        for (String driverId : driverIds)
+        for (int i = 0; i < driverIds.length; i++)
         {
-            driverSelector.add(100, driverId);
+            driverSelector.add(weighted ? driverWeights[i] : DriverLoad.DEFAULT_WEIGHT, driverIds[i]);
         }
 
-        // Publish the next events
+        // Prepare the next events for publication
+        List<Event> eventsToPublish = new ArrayList<Event>(nextEvents.size());
         for (Event nextEvent : nextEvents)
         {
             if (nextEvent == null)
@@ -235,86 +396,10 @@ public class EventWork implements Runnable
                 nextEvent.setDriver(driverIdForNextEvent);
             }
             
-            // Persist the event
-            try
-            {
-                eventService.putEvent(nextEvent);
-            }
-            catch (Throwable e)
-            {
-                String stack = ExceptionUtils.getStackTrace(e);
-                String msg =
-                        "Failed to insert event into queue: \n" +
-                        "  Event to insert:     " + nextEvent + "\n" +
-                        "  Inbound event:       " + event + "\n" +
-                        "  Process used:        " + processor + "\n" +
-                        "  Events produced:     " + eventNamesSeen;
-                logService.log(LogLevel.ERROR, msg + "\n" + stack);
-                logger.error(msg, e);
-            }
+            eventsToPublish.add(nextEvent);
         }
         
-        // Remove the event from the queue.
-        try
-        {
-            boolean deleted = eventService.deleteEvent(event);
-            if (!deleted)
-            {
-                String msg = "Event was not deleted from the queue: " + event;
-                logger.error(msg);
-                logService.log(LogLevel.ERROR, msg);
-            }
-        }
-        catch (Throwable e)
-        {
-            String stack = ExceptionUtils.getStackTrace(e);
-            String msg = "Failed to remove event from the queue: " + event;
-            logger.error(msg, e);
-            logService.log(LogLevel.ERROR, msg + "\n" + stack);
-        }
-    }
-
-    /**
-     * Go to the event producers and, recursively, keep producing events until:
-     * <ul>
-     * <li>there are no more producers for the events in hand</li>
-     * </ul>
-     * 
-     * @throws IllegalStateException        if a cyclical producer relationship is detected
-     */
-    private List<Event> getNextEvents(List<Event> events, Set<String> eventNamesSeen)
-    {
-        List<Event> nextEvents = new ArrayList<Event>(events.size() * 2);
-        for (Event event : events)
-        {
-            String eventName = event.getName();
-            // Get a producer associated with the event
-            EventProducer producer = eventProducers.getProducer(eventName);
-            if (producer == null)
-            {
-                // There is no producer, so take the event at face value
-                nextEvents.add(event);
-                continue;
-            }
-            // See what new events need producing
-            List<Event> producedEvents = producer.getNextEvents(event);
-            if (!eventNamesSeen.add(eventName))
-            {
-                // The event was already present, which means we would enter a loop
-                String msg = "Event is part of a cyclical production configuration: " + event;
-                logService.log(LogLevel.ERROR, msg);
-                throw new RuntimeException(msg);
-            }
-            // Recurse into each one of these
-            producedEvents = getNextEvents(producedEvents, eventNamesSeen);
-            // Add this to the list
-            nextEvents.addAll(producedEvents);
-            
-            // CRITICAL!
-            // The event names already seen must only apply to a single branch, so remove the event name
-            eventNamesSeen.remove(eventName);
-        }
-        // Done
-        return nextEvents;
+        // Record the result, publish the next events and remove the event from the queue
+        completionPipeline.submit(new CompletedEvent(event, recordedEvent, eventsToPublish));
     }
 }
@@ -0,0 +1,539 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import org.alfresco.bm.common.spring.LifecycleListener;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * An {@link EventService} that keeps all events in the memory of the driver process.
+ * <p/>
+ * Events that are available for processing are held in a concurrent structure for each
+ * {@link EventLaneRegistry lane}, ordered by {@link Event#getScheduledTime() scheduled time}; an event
+ * is claimed by atomically removing it from that structure, so no two threads can ever process the
+ * same event.  Claims take events from the head of each lane, so a deep backlog in one lane does not
+ * slow down claims from the others.
+ * <p/>
+ * The queue is not shared with other drivers and does not survive a restart of the driver.
+ * It is intended for single-driver runs where the event queue must not limit the rate
+ * at which events are processed e.g. local benchmarking of event processors and CI runs.
+ * 
+ * @since 3.0.3
+ */
+public class InMemoryEventService extends AbstractEventService implements LifecycleListener
+{
+    /** Orders events by scheduled time, using the ID to keep events with the same time distinct */
+    private static final Comparator<Event> SCHEDULED_TIME_COMPARATOR = new Comparator<Event>()
+    {
+        @Override
+        public int compare(Event e1, Event e2)
+        {
+            int cmp = Long.compare(e1.getScheduledTime(), e2.getScheduledTime());
+            return (cmp != 0) ? cmp : e1.getId().compareTo(e2.getId());
+        }
+    };
+
+    /** Claim events regardless of their lane */
+    private static final int ANY_LANE = -1;
+
+    private static Log logger = LogFactory.getLog(InMemoryEventService.class);
+
+    private final String lockOwner;
+    /** All events by ID */
+    private final Map<String, Event> events;
+    /** Events that are not locked by lane, each in the order that they must be processed */
+    private final ConcurrentMap<Integer, NavigableSet<Event>> availableEventsByLane;
+    private EventLaneRegistry lanes = new EventLaneRegistry();
+
+    public InMemoryEventService()
+    {
+        this.lockOwner = UUID.randomUUID().toString();
+        this.events = new ConcurrentHashMap<String, Event>(1024);
+        this.availableEventsByLane = new ConcurrentHashMap<Integer, NavigableSet<Event>>(7);
+    }
+
+    /**
+     * @return                  the events available in the lane, which are created if necessary
+     */
+    private NavigableSet<Event> getAvailableEvents(int lane)
+    {
+        Integer key = Integer.valueOf(lane);
+        NavigableSet<Event> laneEvents = availableEventsByLane.get(key);
+        if (laneEvents == null)
+        {
+            laneEvents = new ConcurrentSkipListSet<Event>(SCHEDULED_TIME_COMPARATOR);
+            NavigableSet<Event> existing = availableEventsByLane.putIfAbsent(key, laneEvents);
+            laneEvents = (existing == null) ? laneEvents : existing;
+        }
+        return laneEvents;
+    }
+
+    /**
+     * Set the priority lanes that events are queued in.  Events in higher lanes are claimed first and,
+     * when several lanes have events available, each lane gets its {@link EventLaneRegistry#getWeight(int) share}
+     * of a claim.
+     */
+    public void setLanes(EventLaneRegistry lanes)
+    {
+        if (lanes == null)
+        {
+            throw new IllegalArgumentException("'lanes' may not be null.");
+        }
+        this.lanes = lanes;
+    }
+
+    @Override
+    public void start()
+    {
+    }
+
+    @Override
+    public void stop()
+    {
+        // If there are still events, then they are lost
+        if (events.size() > 0)
+        {
+            logger.warn("EventService still has " + events.size() + " events held in memory.");
+        }
+    }
+
+    /**
+     * Copy an event so that clients cannot modify the queued instance
+     */
+    private static Event copyEvent(Event event)
+    {
+        Event copy = new Event(event.getName(), event.getScheduledTime(), event.getData(), event.getDataInMemory());
+        if (event.getId() != null)
+        {
+            copy.setId(event.getId());
+        }
+        copy.setSessionId(event.getSessionId());
+        copy.setLockOwner(event.getLockOwner());
+        copy.setLockTime(event.getLockTime());
+        copy.setDriver(event.getDriver());
+        return copy;
+    }
+
+    @Override
+    public long count()
+    {
+        return events.size();
+    }
+
+    @Override
+    public String putEvent(Event event)
+    {
+        if (event == null)
+        {
+            throw new IllegalArgumentException("'event' may not be null.");
+        }
+        // Check the event
+        if (event.getDataInMemory() && event.getDriver() != null)
+        {
+            throw new IllegalStateException("Events cannot be assigned a specific driver when they have their data bound in memory: " + event);
+        }
+        Event queuedEvent = copyEvent(event);
+        // Was the event's ID supplied to us
+        String eventId = queuedEvent.getId();
+        if (eventId == null)
+        {
+            eventId = new ObjectId().toString();
+            queuedEvent.setId(eventId);
+        }
+        // IDs are unique, which is how the 'start' event is only ever added once
+        if (events.putIfAbsent(eventId, queuedEvent) != null)
+        {
+            throw new RuntimeException(
+                    "Failed to insert event (duplicate ID):\n" +
+                    "   Event: " + event);
+        }
+        if (queuedEvent.getLockOwner() == null)
+        {
+            getAvailableEvents(lanes.getLane(queuedEvent.getName())).add(queuedEvent);
+            notifyEventsPut(queuedEvent.getScheduledTime());
+        }
+
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Put event: " + queuedEvent);
+        }
+        return eventId;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Each event is added individually.
+     */
+    @Override
+    public List<String> putEvents(List<Event> events)
+    {
+        if (events == null)
+        {
+            throw new IllegalArgumentException("'events' may not be null.");
+        }
+        List<String> eventIds = new ArrayList<String>(events.size());
+        StringBuilder sb = null;
+        int failures = 0;
+        for (Event event : events)
+        {
+            if (event == null)
+            {
+                throw new IllegalArgumentException("'events' may not contain null values.");
+            }
+            try
+            {
+                eventIds.add(putEvent(event));
+            }
+            catch (RuntimeException e)
+            {
+                sb = (sb == null) ? new StringBuilder(256) : sb;
+                sb.append("\n   Event: ").append(event);
+                eventIds.add(null);
+                failures++;
+            }
+        }
+        if (failures > 0)
+        {
+            throw new RuntimeException("Failed to insert " + failures + " of " + events.size() + " events:" + sb.toString());
+        }
+        return eventIds;
+    }
+
+    @Override
+    public long getNextScheduledTime()
+    {
+        long nextScheduledTime = Long.MAX_VALUE;
+        for (NavigableSet<Event> laneEvents : availableEventsByLane.values())
+        {
+            Iterator<Event> iterator = laneEvents.iterator();
+            if (iterator.hasNext())
+            {
+                nextScheduledTime = Math.min(nextScheduledTime, iterator.next().getScheduledTime());
+            }
+        }
+        return nextScheduledTime;
+    }
+
+    @Override
+    public Event getEvent(String id)
+    {
+        Event event = events.get(id);
+        return (event == null) ? null : copyEvent(event);
+    }
+
+    @Override
+    public List<Event> getEvents(int skip, int limit)
+    {
+        List<Event> results = new ArrayList<Event>(limit);
+        Iterator<Event> iterator = events.values().iterator();
+        for (int i = 0; iterator.hasNext() && results.size() < limit; i++)
+        {
+            Event event = iterator.next();
+            if (i >= skip)
+            {
+                results.add(copyEvent(event));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Event nextEvent(String driverId, long latestScheduledTime)
+    {
+        List<Event> claimed = claimEvents(driverId, latestScheduledTime, 1);
+        Event event = claimed.isEmpty() ? null : claimed.get(0);
+
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("\n" +
+                    "Fetched next event (no lock present): \n" +
+                    "   Latest scheduled time:  " + latestScheduledTime + "\n" +
+                    "   Driver ID:              " + driverId + "\n" +
+                    "   Event: " + event);
+        }
+        return event;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * There are no leases to maintain as the events cannot be seen outside of this process.
+     */
+    @Override
+    public List<Event> nextEvents(String driverId, long latestScheduledTime, int maxCount)
+    {
+        if (maxCount < 1)
+        {
+            throw new IllegalArgumentException("'maxCount' must be at least 1.");
+        }
+        List<Event> claimed = claimEvents(driverId, latestScheduledTime, maxCount);
+
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("\n" +
+                    "Claimed next events: \n" +
+                    "   Latest scheduled time:  " + latestScheduledTime + "\n" +
+                    "   Driver ID:              " + driverId + "\n" +
+                    "   Requested:              " + maxCount + "\n" +
+                    "   Claimed:                " + claimed.size());
+        }
+        return claimed;
+    }
+
+    /**
+     * Lock the events that the driver may process, sharing the claim between the lanes
+     * 
+     * @return                  copies of the events that were locked
+     */
+    private List<Event> claimEvents(String driverId, long latestScheduledTime, int maxCount)
+    {
+        int[] laneValues = lanes.getLanes();
+        if (laneValues.length == 0)
+        {
+            return claimEvents(driverId, latestScheduledTime, maxCount, ANY_LANE, Collections.<Event>emptyList());
+        }
+        int remainingWeight = EventLaneRegistry.getWeight(EventLaneRegistry.DEFAULT_LANE);
+        for (int laneValue : laneValues)
+        {
+            remainingWeight += EventLaneRegistry.getWeight(laneValue);
+        }
+        List<Event> claimed = Collections.emptyList();
+        for (int laneValue : laneValues)
+        {
+            int laneWeight = EventLaneRegistry.getWeight(laneValue);
+            // Any part of the lane's share that it does not use is passed down to the lower lanes
+            int remainingCount = maxCount - claimed.size();
+            int laneCount = (int) Math.ceil((double) remainingCount * laneWeight / remainingWeight);
+            remainingWeight -= laneWeight;
+            claimed = claimEvents(driverId, latestScheduledTime, claimed.size() + laneCount, laneValue, claimed);
+        }
+        if (claimed.size() < maxCount)
+        {
+            // The default lane gets whatever is left
+            claimed = claimEvents(driverId, latestScheduledTime, maxCount, ANY_LANE, claimed);
+        }
+        return claimed;
+    }
+
+    /**
+     * Lock the events of a lane that the driver may process, taking them from the head of the lane
+     * 
+     * @param lane              the lane of the events to claim or {@link #ANY_LANE}
+     * @param claimed           the events already claimed
+     * @return                  the events already claimed plus copies of the events that were locked
+     */
+    private List<Event> claimEvents(String driverId, long latestScheduledTime, int maxCount, int lane, List<Event> claimed)
+    {
+        if (lane == ANY_LANE)
+        {
+            return claimEvents(driverId, latestScheduledTime, maxCount, availableEventsByLane.values(), claimed);
+        }
+        NavigableSet<Event> laneEvents = availableEventsByLane.get(Integer.valueOf(lane));
+        if (laneEvents == null)
+        {
+            return claimed;
+        }
+        return claimEvents(driverId, latestScheduledTime, maxCount, Collections.singletonList(laneEvents), claimed);
+    }
+
+    /**
+     * Lock events that the driver may process, taking the earliest of the lanes' events each time
+     * 
+     * @param laneEvents        the available events of each lane to claim from
+     * @param claimed           the events already claimed
+     * @return                  the events already claimed plus copies of the events that were locked
+     */
+    private List<Event> claimEvents(
+            String driverId, long latestScheduledTime, int maxCount,
+            Collection<NavigableSet<Event>> laneEvents, List<Event> claimed)
+    {
+        List<NavigableSet<Event>> sources = new ArrayList<NavigableSet<Event>>(laneEvents);
+        List<Iterator<Event>> iterators = new ArrayList<Iterator<Event>>(sources.size());
+        Event[] heads = new Event[sources.size()];
+        for (int i = 0; i < heads.length; i++)
+        {
+            iterators.add(sources.get(i).iterator());
+            heads[i] = nextClaimable(iterators.get(i), driverId, latestScheduledTime);
+        }
+        while (claimed.size() < maxCount)
+        {
+            // Find the lane with the earliest event
+            int earliest = -1;
+            for (int i = 0; i < heads.length; i++)
+            {
+                if (heads[i] != null && (earliest < 0 || SCHEDULED_TIME_COMPARATOR.compare(heads[i], heads[earliest]) < 0))
+                {
+                    earliest = i;
+                }
+            }
+            if (earliest < 0)
+            {
+                // Nothing more is due
+                break;
+            }
+            Event event = heads[earliest];
+            heads[earliest] = nextClaimable(iterators.get(earliest), driverId, latestScheduledTime);
+            if (!sources.get(earliest).remove(event))
+            {
+                // Another thread got there first
+                continue;
+            }
+            event.setLockOwner(lockOwner);
+            event.setLockTime(System.currentTimeMillis());
+            if (claimed.isEmpty())
+            {
+                claimed = new ArrayList<Event>(maxCount);
+            }
+            claimed.add(copyEvent(event));
+        }
+        return claimed;
+    }
+
+    /**
+     * @return                  the next event that is due and that the driver may process or <tt>null</tt> if there are none
+     */
+    private static Event nextClaimable(Iterator<Event> iterator, String driverId, long latestScheduledTime)
+    {
+        while (iterator.hasNext())
+        {
+            Event event = iterator.next();
+            if (event.getScheduledTime() > latestScheduledTime)
+            {
+                // Nothing further along is due
+                return null;
+            }
+            String driver = event.getDriver();
+            if (driverId != null && driver != null && !driverId.equals(driver))
+            {
+                // Assigned to another driver
+                continue;
+            }
+            return event;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean deleteEvent(Event event)
+    {
+        Event queuedEvent = events.remove(event.getId());
+        if (queuedEvent == null)
+        {
+            // Done
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Failed to removed event: " + event);
+            }
+            return false;
+        }
+        if (!getAvailableEvents(lanes.getLane(queuedEvent.getName())).remove(queuedEvent))
+        {
+            // The lanes may have changed since the event was put
+            for (NavigableSet<Event> laneEvents : availableEventsByLane.values())
+            {
+                laneEvents.remove(queuedEvent);
+            }
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Removed event: " + event);
+        }
+        return true;
+    }
+
+    @Override
+    public int deleteEvents(List<Event> events)
+    {
+        int deleted = 0;
+        for (Event event : events)
+        {
+            if (deleteEvent(event))
+            {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public int releaseEvents(List<Event> events)
+    {
+        int released = 0;
+        long earliestScheduledTime = Long.MAX_VALUE;
+        for (Event event : events)
+        {
+            Event queuedEvent = this.events.get(event.getId());
+            if (queuedEvent == null || !lockOwner.equals(queuedEvent.getLockOwner()))
+            {
+                // Already gone or not ours to give back
+                continue;
+            }
+            queuedEvent.setLockOwner(null);
+            queuedEvent.setLockTime(0L);
+            getAvailableEvents(lanes.getLane(queuedEvent.getName())).add(queuedEvent);
+            earliestScheduledTime = Math.min(earliestScheduledTime, queuedEvent.getScheduledTime());
+            released++;
+        }
+        if (released > 0)
+        {
+            notifyEventsPut(earliestScheduledTime);
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Released " + released + " of " + events.size() + " events.");
+        }
+        return released;
+    }
+
+    @Override
+    public boolean clear()
+    {
+        events.clear();
+        availableEventsByLane.clear();
+        return true;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes {@link DBObject} event data with a fixed set of <tt>Integer</tt> or <tt>Long</tt> fields.
+ * <p/>
+ * The field names are known to the codec and are not stored; each value is written as a
+ * one-byte type followed by its fixed-width value.  Data with any other fields or values
+ * is {@link #canEncode(Object) rejected} and stored as it is.
+ * 
+ * @since 3.0.3
+ */
+public class NumberFieldsDataCodec implements EventDataCodec
+{
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    
+    private final String name;
+    private final String[] keys;
+    
+    /**
+     * @param name              the name of the codec
+     * @param keys              the names of the fields, which are encoded in this order
+     */
+    public NumberFieldsDataCodec(String name, String ... keys)
+    {
+        if (name == null || keys == null || keys.length == 0)
+        {
+            throw new IllegalArgumentException("A codec needs a name and at least one field.");
+        }
+        this.name = name;
+        this.keys = keys;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "NumberFieldsDataCodec [name=" + name + ", keys=" + Arrays.toString(keys) + "]";
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public boolean canEncode(Object data)
+    {
+        if (!(data instanceof BasicDBObject))
+        {
+            return false;
+        }
+        BasicDBObject dataObj = (BasicDBObject) data;
+        if (dataObj.size() != keys.length)
+        {
+            return false;
+        }
+        for (String key : keys)
+        {
+            if (!dataObj.containsField(key))
+            {
+                return false;
+            }
+            Object value = dataObj.get(key);
+            if (value != null && !(value instanceof Integer) && !(value instanceof Long))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Object data)
+    {
+        DBObject dataObj = (DBObject) data;
+        ByteBuffer buffer = ByteBuffer.allocate(keys.length * 9);
+        for (String key : keys)
+        {
+            Object value = dataObj.get(key);
+            if (value == null)
+            {
+                buffer.put(TYPE_NULL);
+            }
+            else if (value instanceof Integer)
+            {
+                buffer.put(TYPE_INT).putInt((Integer) value);
+            }
+            else
+            {
+                buffer.put(TYPE_LONG).putLong((Long) value);
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    @Override
+    public Object decode(byte[] bytes)
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        BasicDBObject dataObj = new BasicDBObject();
+        for (String key : keys)
+        {
+            byte type = buffer.get();
+            switch (type)
+            {
+                case TYPE_NULL:
+                    dataObj.put(key, null);
+                    break;
+                case TYPE_INT:
+                    dataObj.put(key, Integer.valueOf(buffer.getInt()));
+                    break;
+                case TYPE_LONG:
+                    dataObj.put(key, Long.valueOf(buffer.getLong()));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown value type " + type + " in data encoded by " + this);
+            }
+        }
+        return dataObj;
+    }
+}
@@ -30,6 +30,7 @@ import com.mongodb.DBObject;
 import org.alfresco.bm.common.EventResult;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -44,7 +45,8 @@ import java.util.List;
  * 
  * <h1>Actions</h1>
  * 
- * Emits events in batches before rescheduling itself.
+ * Emits events in batches before rescheduling itself or, if {@link #setGenerate(boolean) generating},
+ * emits a single {@link EventGenerator generator} that the drivers expand as the events become due.
  * 
  * <h1>Output</h1>
  * 
@@ -58,10 +60,15 @@ public class RaiseEventsEventProcessor extends AbstractEventProcessor
 {
     private static final String ERR_INCORRECT_INBOUND_TYPE = "The event processor takes no initial input.";
     private static final String MSG_CREATED_EVENTS = "Scheduled %3d events named %s.";
+    private static final String MSG_CREATED_GENERATOR = "Scheduled a generator for %d events named %s.";
     
     public static final String KEY_OUTPUT_EVENTS_RAISED = "outputEventsRaised";
     public static final String KEY_LAST_EVENT_TIME = "lastEventTime";
     
+    /** Stores the processor's own data in binary form */
+    public static final EventDataCodec DATA_CODEC = new NumberFieldsDataCodec(
+            "raiseEvents.v1", KEY_LAST_EVENT_TIME, KEY_OUTPUT_EVENTS_RAISED);
+    
     private static final int DEFAULT_BATCH_SIZE = 1000;
     private static final String DEFAULT_EVENT_NAME_RAISE_EVENTS = "raiseEvents";
     
@@ -70,6 +77,7 @@ public class RaiseEventsEventProcessor extends AbstractEventProcessor
     private final int outputEventCount;
     private int batchSize = DEFAULT_BATCH_SIZE;
     private String eventNameRaiseEvents = DEFAULT_EVENT_NAME_RAISE_EVENTS;
+    private boolean generate = false;
     
     /**
      * Constructor with <b>essential</b> values
@@ -87,6 +95,8 @@ public class RaiseEventsEventProcessor extends AbstractEventProcessor
         this.outputEventName = outputEventName;
         this.timeBetweenEvents = timeBetweenEvents;
         this.outputEventCount = outputEventCount;
+        // Controls the flow of events, so must not wait behind the workload
+        setLane(EventLaneRegistry.CONTROL_LANE);
     }
 
     /**
@@ -105,6 +115,25 @@ public class RaiseEventsEventProcessor extends AbstractEventProcessor
         this.eventNameRaiseEvents = eventNameRaiseEvents;
     }
 
+    /**
+     * Queue a single {@link EventGenerator generator} for all the events instead of writing them to the
+     * queue in batches (default <tt>false</tt>).  The {@link #getNextEventData() data} is fetched once
+     * and given to every event.
+     */
+    public void setGenerate(boolean generate)
+    {
+        this.generate = generate;
+    }
+
+    /**
+     * @return                  a codec for the data that this processor passes to itself
+     */
+    @Override
+    protected EventDataCodec getDataCodec()
+    {
+        return DATA_CODEC;
+    }
+
     @Override
     public EventResult processEvent(Event event)
     {
@@ -119,6 +148,10 @@ public class RaiseEventsEventProcessor extends AbstractEventProcessor
             EventResult result = new EventResult(ERR_INCORRECT_INBOUND_TYPE, false);
             return result;
         }
+        if (data == null && generate)
+        {
+            return processEventGenerate();
+        }
         if (data == null)
         {
             data = new BasicDBObject()
@@ -157,6 +190,32 @@ public class RaiseEventsEventProcessor extends AbstractEventProcessor
                 true);
     }
     
+    /**
+     * Raise all the events using a single generator
+     */
+    private EventResult processEventGenerate()
+    {
+        EventGenerator generator;
+        try
+        {
+            generator = new EventGenerator(
+                    outputEventName,
+                    System.currentTimeMillis() + timeBetweenEvents,
+                    timeBetweenEvents,
+                    EventGenerator.DISTRIBUTION_FIXED,
+                    outputEventCount,
+                    getNextEventData());
+        }
+        catch (IllegalArgumentException e)
+        {
+            return new EventResult(e.getMessage(), false);
+        }
+        return new EventResult(
+                String.format(MSG_CREATED_GENERATOR, outputEventCount, outputEventName),
+                Collections.singletonList(generator.toEvent()),
+                true);
+    }
+    
     /**
      * Get data to provide for each event raised.  Implementations can override to
      * add any data that is required for the each of the events being raised.
@@ -0,0 +1,365 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.types.ObjectId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link EventService} that feeds back the events {@link EventRecorder recorded} during a previous run,
+ * each scheduled at the same time relative to the start of the replay as it was relative to the start of
+ * the recording.  Two builds of the system under test can therefore be compared using exactly the same
+ * event names, timings, session IDs and data.
+ * <p/>
+ * Recorded events are read from the file as they become due and are then held in memory.  The events put
+ * by event processors were recorded when they were claimed, so any new events are discarded.
+ * <p/>
+ * Like the {@link InMemoryEventService}, the queue is not shared with other drivers.  Events are replayed
+ * with their recorded session IDs; event processors that look up session data will only find it if the
+ * sessions of the original run are available.
+ * 
+ * @since 3.0.3
+ */
+public class ReplayEventService extends InMemoryEventService
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static Log logger = LogFactory.getLog(ReplayEventService.class);
+
+    private final String file;
+    private FileChannel channel;
+    /** Records read from the file but not yet decoded, ready for reading */
+    private ByteBuffer buffer;
+    /** The time that the replay started or zero if no events have been asked for */
+    private long replayStartTime;
+    /** The next recorded event that is not yet due */
+    private Event pending;
+    /** The number of recorded events not yet queued */
+    private volatile long remaining;
+
+    /**
+     * @param file              the file written by an {@link EventRecorder}
+     */
+    public ReplayEventService(String file)
+    {
+        if (file == null || file.trim().length() == 0)
+        {
+            throw new IllegalArgumentException("A recording of events is required for replay.");
+        }
+        this.file = file.trim();
+    }
+
+    /**
+     * Open the recording and count the events in it
+     */
+    @Override
+    public synchronized void start()
+    {
+        super.start();
+        if (channel != null)
+        {
+            return;
+        }
+        try
+        {
+            channel = FileChannel.open(new File(file).toPath(), StandardOpenOption.READ);
+            EventRecorder.readHeader(channel);
+            // Count the complete records so that the end of the replay can be detected
+            rewind();
+            long count = 0L;
+            while (readRecord() != null)
+            {
+                count++;
+            }
+            rewind();
+            remaining = count;
+        }
+        catch (IOException e)
+        {
+            close();
+            throw new RuntimeException("Failed to open event recording: " + file, e);
+        }
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Replaying " + remaining + " events from " + file);
+        }
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        close();
+        super.stop();
+    }
+
+    private void close()
+    {
+        if (channel == null)
+        {
+            return;
+        }
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to close event recording: " + file, e);
+        }
+        channel = null;
+    }
+
+    private void rewind() throws IOException
+    {
+        channel.position(EventRecorder.HEADER_LENGTH);
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        ((Buffer) buffer).limit(0);
+    }
+
+    /**
+     * Make sure that enough bytes have been read from the file
+     * 
+     * @return                  <tt>false</tt> if the file ends first
+     */
+    private boolean fill(int needed) throws IOException
+    {
+        if (buffer.remaining() >= needed)
+        {
+            return true;
+        }
+        if (buffer.capacity() < needed)
+        {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, needed));
+            larger.put(buffer);
+            buffer = larger;
+        }
+        else
+        {
+            buffer.compact();
+        }
+        try
+        {
+            while (buffer.position() < needed)
+            {
+                if (channel.read(buffer) < 0)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        finally
+        {
+            ((Buffer) buffer).flip();
+        }
+    }
+
+    /**
+     * @return                  the next complete record, without its length, or <tt>null</tt> if there are no more
+     */
+    private ByteBuffer readRecord() throws IOException
+    {
+        if (!fill(4))
+        {
+            return null;
+        }
+        int length = buffer.getInt(buffer.position());
+        if (length <= 0 || !fill(4 + length))
+        {
+            // A driver died half-way through recording an event
+            return null;
+        }
+        ((Buffer) buffer).position(buffer.position() + 4);
+        ByteBuffer record = buffer.slice();
+        ((Buffer) record).limit(length);
+        ((Buffer) buffer).position(buffer.position() + length);
+        return record;
+    }
+
+    /**
+     * @return                  the next recorded event or <tt>null</tt> if there are no more
+     */
+    private Event readEvent()
+    {
+        if (channel == null || remaining <= 0L)
+        {
+            return null;
+        }
+        try
+        {
+            ByteBuffer record = readRecord();
+            return (record == null) ? null : EventRecorder.decode(record, replayStartTime);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Failed to read event recording: " + file, e);
+        }
+        catch (IllegalArgumentException e)
+        {
+            logger.error("Event recording is damaged; no more events will be replayed: " + file, e);
+            remaining = 0L;
+            return null;
+        }
+    }
+
+    /**
+     * Queue the recorded events that are due, starting the replay clock if necessary
+     */
+    private synchronized void queueDueEvents(long latestScheduledTime)
+    {
+        if (replayStartTime == 0L)
+        {
+            replayStartTime = System.currentTimeMillis();
+        }
+        List<Event> dueEvents = null;
+        while (true)
+        {
+            if (pending == null)
+            {
+                pending = readEvent();
+                if (pending == null)
+                {
+                    break;
+                }
+            }
+            if (pending.getScheduledTime() > latestScheduledTime)
+            {
+                break;
+            }
+            dueEvents = (dueEvents == null) ? new ArrayList<Event>() : dueEvents;
+            dueEvents.add(pending);
+            pending = null;
+        }
+        if (dueEvents == null)
+        {
+            return;
+        }
+        for (Event event : dueEvents)
+        {
+            super.putEvent(event);
+        }
+        remaining -= dueEvents.size();
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Replayed " + dueEvents.size() + " events; " + remaining + " remaining.");
+        }
+    }
+
+    /**
+     * @return                  the number of events queued plus those still to be replayed
+     */
+    @Override
+    public long count()
+    {
+        return super.count() + remaining;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The event was put during the recording and is discarded.
+     */
+    @Override
+    public String putEvent(Event event)
+    {
+        if (event == null)
+        {
+            throw new IllegalArgumentException("'event' may not be null.");
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Discarding event not in the recording: " + event);
+        }
+        return new ObjectId().toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The events were put during the recording and are discarded.
+     */
+    @Override
+    public List<String> putEvents(List<Event> events)
+    {
+        if (events == null)
+        {
+            throw new IllegalArgumentException("'events' may not be null.");
+        }
+        List<String> eventIds = new ArrayList<String>(events.size());
+        for (Event event : events)
+        {
+            eventIds.add(putEvent(event));
+        }
+        return eventIds;
+    }
+
+    @Override
+    public synchronized long getNextScheduledTime()
+    {
+        queueDueEvents(Long.MIN_VALUE);
+        long nextScheduledTime = super.getNextScheduledTime();
+        return (pending == null) ? nextScheduledTime : Math.min(nextScheduledTime, pending.getScheduledTime());
+    }
+
+    @Override
+    public Event nextEvent(String driverId, long latestScheduledTime)
+    {
+        queueDueEvents(latestScheduledTime);
+        return super.nextEvent(driverId, latestScheduledTime);
+    }
+
+    @Override
+    public List<Event> nextEvents(String driverId, long latestScheduledTime, int maxCount)
+    {
+        queueDueEvents(latestScheduledTime);
+        return super.nextEvents(driverId, latestScheduledTime, maxCount);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Events not yet replayed are abandoned.
+     */
+    @Override
+    public synchronized boolean clear()
+    {
+        pending = null;
+        remaining = 0L;
+        return super.clear();
+    }
+}
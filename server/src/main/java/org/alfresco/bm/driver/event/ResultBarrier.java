@@ -75,6 +75,8 @@ public class ResultBarrier extends AbstractEventProcessor
         this.expectedCount = expectedCount;
         
         checkInterval = DEFAULT_INTERVAL;
+        // Controls the flow of events, so must not wait behind the workload
+        setLane(EventLaneRegistry.CONTROL_LANE);
     }
 
     @Override
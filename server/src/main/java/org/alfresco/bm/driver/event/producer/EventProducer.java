@@ -28,6 +28,7 @@ package org.alfresco.bm.driver.event.producer;
 import org.alfresco.bm.driver.event.Event;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * Interface for components that can redirect events according to
@@ -61,4 +62,18 @@ public interface EventProducer
      *                              an empty list if the scenario cannot continue
      */
     List<Event> getNextEvents(Event event);
+    
+    /**
+     * Declare the names of the events that this producer can produce so that the chains of producers
+     * can be {@link EventProducerRegistry#getRoutes() checked and compiled} before any events are produced.
+     * 
+     * @return                      the names of all events that may be produced or <tt>null</tt>
+     *                              if they cannot be known in advance, which is the default
+     * 
+     * @since 3.0.3
+     */
+    default Set<String> getNextEventNames()
+    {
+        return null;
+    }
 }
@@ -25,6 +25,8 @@
  */
 package org.alfresco.bm.driver.event.producer;
 
+import org.alfresco.bm.common.spring.LifecycleListener;
+
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -34,15 +36,20 @@ import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 /**
  * A registry of {@link EventProducer event producers} that allow for simple
  * {@link AbstractEventProducer#register() registration}
+ * <p/>
+ * The registered producers are compiled into {@link #getRoutes() routes} when the registry is
+ * {@link #start() started} so that any cycles are reported before the test runs.
  * 
  * @author Derek Hulley
  * @since 2.0
  */
-public class EventProducerRegistry
+public class EventProducerRegistry implements LifecycleListener
 {
     private final Map<String, EventProducer> producers;
     private final ReadLock readLock;
     private final WriteLock writeLock;
+    /** The compiled routes or <tt>null</tt> if producers have been registered since */
+    private volatile EventProducerRoutes routes;
     
     public EventProducerRegistry()
     {
@@ -64,6 +71,51 @@ public class EventProducerRegistry
         try
         {
             producers.put(eventName, producer);
+            routes = null;
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Compile the routes for the producers registered so far
+     * 
+     * @throws IllegalStateException if the producers form a cycle
+     */
+    @Override
+    public void start()
+    {
+        getRoutes();
+    }
+    
+    @Override
+    public void stop()
+    {
+    }
+    
+    /**
+     * Get the routes through the registered producers, compiling them if any producers have been registered since
+     * 
+     * @return                  the routes for all registered producers
+     * @throws IllegalStateException if the producers form a cycle
+     */
+    public EventProducerRoutes getRoutes()
+    {
+        EventProducerRoutes currentRoutes = routes;
+        if (currentRoutes != null)
+        {
+            return currentRoutes;
+        }
+        writeLock.lock();
+        try
+        {
+            if (routes == null)
+            {
+                routes = new EventProducerRoutes(producers);
+            }
+            return routes;
         }
         finally
         {
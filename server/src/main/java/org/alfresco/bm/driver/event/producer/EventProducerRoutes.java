@@ -0,0 +1,197 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event.producer;
+
+import org.alfresco.bm.driver.event.Event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable routing table, compiled from the {@link EventProducerRegistry registered producers}, that
+ * turns the events raised by processors into the events that are queued.
+ * <p/>
+ * The chains of producers are checked for cycles when the table is compiled, as far as the producers
+ * {@link EventProducer#getNextEventNames() declare} what they produce.  Events are then expanded one level
+ * at a time without recursion; events that have no producer, which is the usual case, are passed through
+ * without any copying at all.
+ * 
+ * @since 3.0.3
+ */
+public class EventProducerRoutes
+{
+    private final Map<String, EventProducer> producers;
+    /** The most levels of production that any event can go through */
+    private final int maxDepth;
+    
+    /**
+     * Compile the routes
+     * 
+     * @param producers         the producers by event name
+     * @throws IllegalStateException if the declared outputs of the producers form a cycle
+     */
+    public EventProducerRoutes(Map<String, EventProducer> producers)
+    {
+        this.producers = Collections.unmodifiableMap(new HashMap<String, EventProducer>(producers));
+        
+        // Find the longest chain of production
+        Map<String, Integer> depths = new HashMap<String, Integer>(producers.size() * 2);
+        boolean bounded = true;
+        int longest = 0;
+        for (String eventName : this.producers.keySet())
+        {
+            int depth = getDepth(eventName, depths, new ArrayList<String>(8));
+            if (depth < 0)
+            {
+                bounded = false;
+            }
+            longest = Math.max(longest, depth);
+        }
+        // Without declared outputs, no chain can be longer than the number of producers without repeating one
+        this.maxDepth = bounded ? longest : this.producers.size();
+    }
+    
+    /**
+     * Work out how many levels of production an event goes through
+     * 
+     * @param path              the event names in the chain leading to this one
+     * @return                  the number of producers applied to the event, which is negative if not known
+     * @throws IllegalStateException if the event name is already in the chain
+     */
+    private int getDepth(String eventName, Map<String, Integer> depths, List<String> path)
+    {
+        Integer knownDepth = depths.get(eventName);
+        if (knownDepth != null)
+        {
+            return knownDepth.intValue();
+        }
+        EventProducer producer = producers.get(eventName);
+        if (producer == null)
+        {
+            // The event is queued as it is
+            return 0;
+        }
+        if (path.contains(eventName))
+        {
+            throw new IllegalStateException("Event producers form a cycle: " + path + " -> " + eventName);
+        }
+        Set<String> nextEventNames = producer.getNextEventNames();
+        int depth;
+        if (nextEventNames == null)
+        {
+            depth = -1;
+        }
+        else
+        {
+            // Keep going after an unknown depth so that every cycle is found
+            path.add(eventName);
+            boolean unknown = false;
+            int deepest = 0;
+            for (String nextEventName : nextEventNames)
+            {
+                int nextDepth = getDepth(nextEventName, depths, path);
+                unknown |= (nextDepth < 0);
+                deepest = Math.max(deepest, nextDepth);
+            }
+            path.remove(path.size() - 1);
+            depth = unknown ? -1 : deepest + 1;
+        }
+        depths.put(eventName, Integer.valueOf(depth));
+        return depth;
+    }
+    
+    /**
+     * @param eventName         the name of an event
+     * @return                  the producer for the event or <tt>null</tt> if the event is queued as it is
+     */
+    public EventProducer getProducer(String eventName)
+    {
+        return producers.get(eventName);
+    }
+    
+    /**
+     * @return                  the most levels of production that any event can go through
+     */
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
+    
+    /**
+     * Pass events through their producers until there are no more producers for the events in hand.
+     * The order of the events is kept, with each event replaced by the events produced from it.
+     * 
+     * @param events            the events raised
+     * @return                  the events to queue, which is the same list if no event has a producer
+     * @throws IllegalStateException if the producers keep producing events beyond the {@link #getMaxDepth() deepest} chain
+     */
+    public List<Event> expand(List<Event> events)
+    {
+        List<Event> current = events;
+        for (int depth = 0; ; depth++)
+        {
+            // Usually, nothing has a producer
+            int first = 0;
+            while (first < current.size() && !isProduced(current.get(first)))
+            {
+                first++;
+            }
+            if (first == current.size())
+            {
+                return current;
+            }
+            if (depth >= maxDepth)
+            {
+                throw new IllegalStateException("Event is part of a cyclical production configuration: " + current.get(first));
+            }
+            List<Event> next = new ArrayList<Event>(current.size() + 4);
+            next.addAll(current.subList(0, first));
+            for (int i = first; i < current.size(); i++)
+            {
+                Event event = current.get(i);
+                EventProducer producer = (event == null) ? null : producers.get(event.getName());
+                if (producer == null)
+                {
+                    next.add(event);
+                }
+                else
+                {
+                    next.addAll(producer.getNextEvents(event));
+                }
+            }
+            current = next;
+        }
+    }
+    
+    private boolean isProduced(Event event)
+    {
+        return event != null && producers.containsKey(event.getName());
+    }
+}
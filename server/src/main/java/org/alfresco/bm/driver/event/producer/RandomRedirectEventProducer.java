@@ -30,7 +30,9 @@ import org.alfresco.bm.driver.event.EventWeight;
 import org.alfresco.bm.driver.event.RandomWeightedSelector;
 
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Redirect events randomly based on relative weights.
@@ -47,6 +49,7 @@ import java.util.List;
 public class RandomRedirectEventProducer extends AbstractEventProducer
 {
     private final RandomWeightedSelector<RedirectEventProducer> selector = new RandomWeightedSelector<RedirectEventProducer>();
+    private final Set<String> nextEventNames = new HashSet<String>(7);
 
     /**
      * @param eventWeights          list of events weights to select from
@@ -63,10 +66,17 @@ public class RandomRedirectEventProducer extends AbstractEventProducer
             double weight = eventWeight.getWeight();
             // Construct a redirector for this
             RedirectEventProducer redirect = new RedirectEventProducer(eventName);
+            nextEventNames.add(eventName);
             selector.add(weight, redirect);
         }
     }
 
+    @Override
+    public Set<String> getNextEventNames()
+    {
+        return Collections.unmodifiableSet(nextEventNames);
+    }
+
     @Override
     public List<Event> getNextEvents(Event event)
     {
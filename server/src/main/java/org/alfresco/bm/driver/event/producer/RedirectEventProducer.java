@@ -29,6 +29,7 @@ import org.alfresco.bm.driver.event.Event;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Redirect the inbound event into a single, renamed, possibly-delayed event.
@@ -65,6 +66,12 @@ public class RedirectEventProducer extends AbstractEventProducer
         this.delay = delay;
     }
     
+    @Override
+    public Set<String> getNextEventNames()
+    {
+        return Collections.singleton(newEventName);
+    }
+    
     @Override
     public List<Event> getNextEvents(Event event)
     {
@@ -29,6 +29,7 @@ import org.alfresco.bm.driver.event.Event;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Always produce nothing.  This is useful to cheaply destroy events.
@@ -44,6 +45,12 @@ public class TerminateEventProducer extends AbstractEventProducer
     {
     }
     
+    @Override
+    public Set<String> getNextEventNames()
+    {
+        return Collections.emptySet();
+    }
+    
     @Override
     public List<Event> getNextEvents(Event event)
     {
@@ -106,10 +106,9 @@ public abstract class AbstractCompletionEstimator implements CompletionEstimator
         }
         else if (lastCompletion >= this.completion)
         {
-            long eventCount = eventService.count();
             boolean haveResults = resultsSuccess > 0L || resultsFail > 0L;
-            // We have not advanced.  Check against the event count
-            if (eventCount == 0L && haveResults)
+            // We have not advanced.  Check against the event count, only counting exactly if it looks empty
+            if (eventService.countEstimate() == 0L && eventService.count() == 0L && haveResults)
             {
                 // We're done
                 completion = 1.0;
@@ -31,6 +31,7 @@ import org.alfresco.bm.common.TestRunState;
 import org.alfresco.bm.common.mongo.MongoTestDAO;
 import org.alfresco.bm.common.spring.LifecycleListener;
 import org.alfresco.bm.common.util.log.LogService;
+import org.alfresco.bm.driver.event.DriverLoad;
 import org.alfresco.bm.driver.test.prop.TestProperty;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -200,7 +201,9 @@ public class Test implements LifecycleListener,
             {
                 // Add the ping
                 long expiryTime = System.currentTimeMillis() + PING_TIMEOUT;
-                testDAO.refreshDriver(driverId, expiryTime);
+                // Publish the load so that other drivers can send new events where there is headroom
+                DriverLoad load = testRunPingTask.getLoad();
+                testDAO.refreshDriver(driverId, expiryTime, load);
             }
             else
             {
@@ -242,6 +245,26 @@ public class Test implements LifecycleListener,
             }
         }
         
+        /**
+         * @return                      the load of all running test runs or <tt>null</tt> if none are running
+         */
+        private DriverLoad getLoad()
+        {
+            // Avoid waiting while test runs are started or stopped
+            TestRun[] testRunsCopy;
+            synchronized (testRuns)
+            {
+                testRunsCopy = testRuns.values().toArray(new TestRun[testRuns.size()]);
+            }
+            DriverLoad load = null;
+            for (TestRun testRun : testRunsCopy)
+            {
+                DriverLoad testRunLoad = testRun.getLoad();
+                load = (load == null) ? testRunLoad : load.add(testRunLoad);
+            }
+            return load;
+        }
+        
         /**
          * Get the object managing the specific test run
          * 
@@ -290,7 +313,10 @@ public class Test implements LifecycleListener,
                     }
                     // Build a test run
                     TestRun testRun = new TestRun(testDAO, logService, testRunId, ctx, driverId);
-                    testRuns.put(testRunId, testRun);
+                    synchronized (testRuns)
+                    {
+                        testRuns.put(testRunId, testRun);
+                    }
                     if (logger.isDebugEnabled())
                     {
                         logger.debug("Created TestRun monitor: " + testRunObj);
@@ -307,7 +333,10 @@ public class Test implements LifecycleListener,
                 TestRun testRun = testRuns.get(testRunId);
                 testRun.checkState();
                 // Now clean it out
-                testRuns.remove(testRunId);
+                synchronized (testRuns)
+                {
+                    testRuns.remove(testRunId);
+                }
                 if (logger.isDebugEnabled())
                 {
                     logger.debug("Removed redundant TestRun monitor: " + testRunId);
@@ -33,6 +33,7 @@ import org.alfresco.bm.common.mongo.MongoTestDAO;
 import org.alfresco.bm.common.util.exception.ObjectNotFoundException;
 import org.alfresco.bm.common.util.log.LogService;
 import org.alfresco.bm.common.util.log.LogService.LogLevel;
+import org.alfresco.bm.driver.event.DriverLoad;
 import org.alfresco.bm.driver.event.EventController;
 import org.alfresco.bm.driver.event.EventProcessor;
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -45,14 +46,20 @@ import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.core.env.ConfigurableEnvironment;
 import org.springframework.core.env.PropertiesPropertySource;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
 
+import static org.alfresco.bm.common.TestConstants.FIELD_CPU_LOAD;
 import static org.alfresco.bm.common.TestConstants.FIELD_DEFAULT;
+import static org.alfresco.bm.common.TestConstants.FIELD_DISPATCH_LAG;
 import static org.alfresco.bm.common.TestConstants.FIELD_ID;
+import static org.alfresco.bm.common.TestConstants.FIELD_IN_FLIGHT;
+import static org.alfresco.bm.common.TestConstants.FIELD_LOAD;
 import static org.alfresco.bm.common.TestConstants.FIELD_MASK;
 import static org.alfresco.bm.common.TestConstants.FIELD_NAME;
+import static org.alfresco.bm.common.TestConstants.FIELD_PING;
 import static org.alfresco.bm.common.TestConstants.FIELD_PROPERTIES;
 import static org.alfresco.bm.common.TestConstants.FIELD_RELEASE;
 import static org.alfresco.bm.common.TestConstants.FIELD_SCHEDULED;
@@ -86,6 +93,7 @@ public class TestRun
     private final ApplicationContext parentCtx;
     private final String driverId;
     private AbstractXmlApplicationContext testRunCtx;       // This will be created when the test run actually starts
+    private volatile EventController eventController;       // Available without locking while the test run is started
     private String test;                                    // Only populated once the test run starts
     private String run;                                     // Only populated once the test run starts
     private String release;                                 // Only populated once the test run starts
@@ -338,7 +346,8 @@ public class TestRun
     }
     
     /**
-     * Helper method to inject the current list of driver IDs into the EventController.
+     * Helper method to inject the current list of driver IDs into the EventController along with
+     * weights based on the load that each driver publishes.
      * The test run must already have started for this to work.
      */
     private synchronized void updateDriverIds()
@@ -346,16 +355,57 @@ public class TestRun
         // Give the EventController the updated list of drivers
         DBCursor cursor = testDAO.getDrivers(release, schema, true);
         String[] driverIds = new String[cursor.size()];
+        DriverLoad[] driverLoads = new DriverLoad[driverIds.length];
         int index = 0;
         while (cursor.hasNext())
         {
-            ObjectId driverIdObj = (ObjectId) cursor.next().get(FIELD_ID);
-            driverIds[index++] = driverIdObj.toString();
+            DBObject driverObj = cursor.next();
+            ObjectId driverIdObj = (ObjectId) driverObj.get(FIELD_ID);
+            driverIds[index] = driverIdObj.toString();
+            driverLoads[index] = getDriverLoad(driverObj);
+            index++;
         }
         cursor.close();
+        double[] driverWeights = DriverLoad.getWeights(driverLoads);
         // Pass the driver IDs to the event controller
         EventController eventController = testRunCtx.getBean(EventController.class);
-        eventController.setDriverIds(driverIds);
+        eventController.setDriverIds(driverIds, driverWeights);
+        // Done
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Driver weights for test run " + id + ": " + Arrays.toString(driverIds) + " " + Arrays.toString(driverWeights));
+        }
+    }
+    
+    /**
+     * @return              the load published by a driver or <tt>null</tt> if it has not published any
+     */
+    private static DriverLoad getDriverLoad(DBObject driverObj)
+    {
+        DBObject pingObj = (DBObject) driverObj.get(FIELD_PING);
+        DBObject loadObj = (pingObj == null) ? null : (DBObject) pingObj.get(FIELD_LOAD);
+        if (loadObj == null)
+        {
+            return null;
+        }
+        Number dispatchLag = (Number) loadObj.get(FIELD_DISPATCH_LAG);
+        Number inFlight = (Number) loadObj.get(FIELD_IN_FLIGHT);
+        Number cpuLoad = (Number) loadObj.get(FIELD_CPU_LOAD);
+        return new DriverLoad(
+                dispatchLag == null ? 0L : dispatchLag.longValue(),
+                inFlight == null ? 0 : inFlight.intValue(),
+                cpuLoad == null ? -1.0 : cpuLoad.doubleValue());
+    }
+    
+    /**
+     * @return              the load that this test run is putting on the driver or <tt>null</tt> if it is not running
+     * 
+     * @since 3.0.3
+     */
+    public DriverLoad getLoad()
+    {
+        EventController eventController = this.eventController;
+        return (eventController == null) ? null : eventController.getLoad();
     }
     
     /**
@@ -516,6 +566,7 @@ public class TestRun
             
             // Register the driver with the test run
             testDAO.addTestRunDriver(runObjId, driverId);
+            eventController = testRunCtx.getBean(EventController.class);
             
             // Log the successful startup
             logService.log(driverId, test, run, LogLevel.INFO, "Successful startup of test run '" + testRunFqn + "'.");
@@ -566,6 +617,7 @@ public class TestRun
             logger.info("Stopping test run application context: " + id);
         }
 
+        eventController = null;
         try
         {
             DBObject runObj = getRunObj(false);
@@ -65,6 +65,10 @@ public class UnknownCompletionEstimator extends AbstractCompletionEstimator
             return 0.0;
         }
         // We have some results.  Check if there are any events remaining.
+        if (eventService.countEstimate() > 0L)
+        {
+            return 0.0;
+        }
         long events = eventService.count();
         return events == 0 ? 1.0 : 0.0;
     }
@@ -31,14 +31,17 @@ import com.mongodb.DBObject;
 import com.mongodb.util.JSON;
 import org.alfresco.bm.common.EventDetails;
 import org.alfresco.bm.common.EventResultFilter;
+import org.alfresco.bm.common.LatencyHistogram;
+import org.alfresco.bm.common.LatencyMetric;
+import org.alfresco.bm.common.LatencyStatistics;
 import org.alfresco.bm.common.ResultService;
 import org.alfresco.bm.common.ResultService.ResultHandler;
+import org.alfresco.bm.common.TestConstants;
 import org.alfresco.bm.common.spring.TestRunServicesCache;
 import org.alfresco.bm.common.util.exception.NotFoundException;
 import org.alfresco.bm.manager.api.AbstractRestResource;
 import org.alfresco.bm.manager.report.CSVReporter;
 import org.alfresco.bm.manager.report.XLSXReporter;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -260,6 +263,9 @@ public class ResultsRestAPI extends AbstractRestResource
         }
         
         final ResultService resultService = getResultService(test, run);
+        // The SLA is judged against service time or intended-start time
+        final String slaLatency = LatencyMetric.fromString(
+                services.getTestRunProperty(test, run, TestConstants.PROP_RESULTS_SLA_LATENCY)).toString();
 
         // Calculate the window size
         long reportPeriodMs = timeUnitEnum.toMillis(reportPeriod);
@@ -270,13 +276,25 @@ public class ResultsRestAPI extends AbstractRestResource
         ResultHandler handler = new ResultHandler()
         {
             @Override
-            public boolean processResult(long fromTime, long toTime, Map<String, DescriptiveStatistics> statsByEventName,
+            public boolean processResult(long fromTime, long toTime, Map<String, LatencyStatistics> statsByEventName,
                 Map<String, Integer> failuresByEventName)
             {
-                for (Map.Entry<String, DescriptiveStatistics> entry : statsByEventName.entrySet())
+                return processResult(fromTime, toTime, statsByEventName, statsByEventName, failuresByEventName);
+            }
+
+            @Override
+            public boolean processResult(long fromTime, long toTime, Map<String, LatencyStatistics> statsByEventName,
+                Map<String, LatencyStatistics> intendedStatsByEventName, Map<String, Integer> failuresByEventName)
+            {
+                for (Map.Entry<String, LatencyStatistics> entry : statsByEventName.entrySet())
                 {
                     String eventName = entry.getKey();
-                    DescriptiveStatistics stats = entry.getValue();
+                    LatencyStatistics stats = entry.getValue();
+                    LatencyStatistics intendedStats = intendedStatsByEventName.get(eventName);
+                    if (intendedStats == null)
+                    {
+                        intendedStats = stats;
+                    }
                     Integer failures = failuresByEventName.get(eventName);
                     if (failures == null)
                     {
@@ -290,7 +308,19 @@ public class ResultsRestAPI extends AbstractRestResource
                     // Push into an object
                     DBObject eventObj = BasicDBObjectBuilder.start().add("time", toTime).add("name", eventName).add("mean", stats.getMean())
                         .add("min", stats.getMin()).add("max", stats.getMax()).add("stdDev", stats.getStandardDeviation()).add("num", stats.getN())
-                        .add("numPerSec", numPerSec).add("fail", failures).add("failPerSec", failuresPerSec).get();
+                        .add("numPerSec", numPerSec).add("fail", failures).add("failPerSec", failuresPerSec)
+                        .add("intendedMean", intendedStats.getMean()).add("intendedMin", intendedStats.getMin())
+                        .add("intendedMax", intendedStats.getMax()).add("intendedStdDev", intendedStats.getStandardDeviation())
+                        .add("slaLatency", slaLatency).get();
+                    // Leave out percentiles that are not known, as NaN is not valid JSON
+                    for (int i = 0; i < LatencyHistogram.REPORT_PERCENTILES.length; i++)
+                    {
+                        double value = stats.getPercentile(LatencyHistogram.REPORT_PERCENTILES[i]);
+                        if (!Double.isNaN(value))
+                        {
+                            eventObj.put(LatencyHistogram.REPORT_PERCENTILE_NAMES[i], value);
+                        }
+                    }
                     // Add the object to the list of events
                     events.add(eventObj);
                 }
@@ -336,15 +366,31 @@ public class ResultsRestAPI extends AbstractRestResource
             @RequestParam(value="filterEventName", defaultValue=ALL_EVENT_NAMES) String filterEventName,
             @RequestParam(value="filterSuccess", defaultValue="All") String filterSuccess,
             @RequestParam(value="skipResults", defaultValue="0")int skipResults,
-            @RequestParam(value="numberOfResults", defaultValue="10") int numberOfResults)
+            @RequestParam(value="numberOfResults", defaultValue="10") int numberOfResults,
+            @RequestParam(value="beforeId", required=false) String beforeId)
     {
 
         EventResultFilter filter = getFilter(filterSuccess);
         final ResultService resultService = getResultService(test, run);
         String nameFilterString = filterEventName.equals(ALL_EVENT_NAMES) ? "" : filterEventName;
 
-        // get event details
-        List<EventDetails> details = resultService.getEventDetails(filter, nameFilterString, skipResults, numberOfResults);
+        // get event details, continuing from the last page if the client knows where it ended
+        List<EventDetails> details;
+        if (beforeId != null || skipResults == 0)
+        {
+            try
+            {
+                details = resultService.getEventDetailsBefore(filter, nameFilterString, beforeId, numberOfResults);
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new HttpClientErrorException(HttpStatus.BAD_REQUEST, e.getMessage());
+            }
+        }
+        else
+        {
+            details = resultService.getEventDetails(filter, nameFilterString, skipResults, numberOfResults);
+        }
 
         // serialize back ....
         BasicDBList retList = new BasicDBList();
@@ -25,9 +25,15 @@
  */
 package org.alfresco.bm.manager.report;
 
+import com.mongodb.DBObject;
 import org.alfresco.bm.common.EventRecord;
+import org.alfresco.bm.common.LatencyMetric;
 import org.alfresco.bm.common.ResultService;
+import org.alfresco.bm.common.RollupResultService;
+import org.alfresco.bm.common.TestConstants;
 import org.alfresco.bm.common.TestService;
+import org.alfresco.bm.common.mongo.MongoResultRollups;
+import org.alfresco.bm.common.mongo.MongoResultRollups.RollupHandler;
 import org.alfresco.bm.common.mongo.MongoTestDAO;
 import org.alfresco.bm.common.spring.TestRunServicesCache;
 import org.apache.commons.logging.Log;
@@ -85,15 +91,34 @@ public abstract class AbstractEventReporter implements ReportGenerator
         return services.getTestDAO();
     }
 
+    /**
+     * @return                  the latency metric that the test run's SLA is judged against
+     */
+    protected LatencyMetric getSlaLatency()
+    {
+        String value = services.getTestRunProperty(test, run, TestConstants.PROP_RESULTS_SLA_LATENCY);
+        return LatencyMetric.fromString(value);
+    }
+
     @Override
     public String toString()
     {
         return this.getClass().getSimpleName() + " [test=" + test + ", run=" + run + "]";
     }
 
+    /**
+     * Summarise the results of each event, using the result rollups if the drivers wrote them
+     * 
+     * @param chartOnly         <tt>true</tt> to only include results for charting
+     * @return                  the summaries by event name
+     */
     protected TreeMap<String, ResultSummary> collateResults(boolean chartOnly)
     {
         ResultService resultService = getResultService();
+        if (resultService instanceof RollupResultService && ((RollupResultService) resultService).hasRollups())
+        {
+            return collateRollups((RollupResultService) resultService, chartOnly);
+        }
         // Do a quick check to see if there are results
         EventRecord firstEvent = resultService.getFirstResult();
         if (firstEvent == null)
@@ -109,11 +134,11 @@ public abstract class AbstractEventReporter implements ReportGenerator
         // Prepare recorded data
         TreeMap<String, ResultSummary> results = new TreeMap<String, ResultSummary>();
         int limit = 10000;
-        int skip = 0;
+        EventRecord lastRead = null;
         
         while (true)
         {
-            List<EventRecord> data = resultService.getResults(queryWindowStartTime, queryWindowEndTime, chartOnly, skip, limit);
+            List<EventRecord> data = resultService.getResultsAfter(queryWindowStartTime, queryWindowEndTime, chartOnly, lastRead, limit);
             if (data.size() == 0)
             {
                 if (queryWindowEndTime > lastEvent.getStartTime())
@@ -126,14 +151,14 @@ public abstract class AbstractEventReporter implements ReportGenerator
                     // Push the window up
                     queryWindowStartTime = queryWindowEndTime;
                     queryWindowEndTime += oneHour;
-                    skip = 0;
+                    lastRead = null;
                     // Requery
                     continue;
                 }
             }
             for (EventRecord eventRecord : data)
             {
-                skip++;
+                lastRead = eventRecord;
                 // Add the data
                 String eventName = eventRecord.getEvent().getName();
                 ResultSummary resultSummary = results.get(eventName);
@@ -144,13 +169,47 @@ public abstract class AbstractEventReporter implements ReportGenerator
                 }
                 boolean resultSuccess = eventRecord.isSuccess();
                 long resultTime = eventRecord.getTime();
-                resultSummary.addSample(resultSuccess, resultTime);
+                long resultIntendedTime = eventRecord.getIntendedTime();
+                resultSummary.addSample(resultSuccess, resultTime, resultIntendedTime);
             }
         }
         // Done
         return results;
     }
     
+    /**
+     * Summarise the results of each event by adding up the result rollups
+     */
+    private TreeMap<String, ResultSummary> collateRollups(RollupResultService resultService, final boolean chartOnly)
+    {
+        final TreeMap<String, ResultSummary> results = new TreeMap<String, ResultSummary>();
+        resultService.getRollups(0L, new RollupHandler()
+        {
+            @Override
+            public boolean processRollup(long time, long interval, List<DBObject> events)
+            {
+                for (DBObject eventObj : events)
+                {
+                    if (chartOnly && !Boolean.TRUE.equals(eventObj.get(MongoResultRollups.FIELD_CHART)))
+                    {
+                        continue;
+                    }
+                    String eventName = (String) eventObj.get(MongoResultRollups.FIELD_NAME);
+                    ResultSummary resultSummary = results.get(eventName);
+                    if (resultSummary == null)
+                    {
+                        resultSummary = new ResultSummary(eventName);
+                        results.put(eventName, resultSummary);
+                    }
+                    resultSummary.addRollup(eventObj);
+                }
+                return true;
+            }
+        });
+        // Done
+        return results;
+    }
+    
     /**
      * Stardard window sizes
      */
@@ -27,10 +27,11 @@ package org.alfresco.bm.manager.report;
 
 import com.mongodb.DBObject;
 import org.alfresco.bm.common.EventRecord;
+import org.alfresco.bm.common.LatencyHistogram;
+import org.alfresco.bm.common.LatencyStatistics;
 import org.alfresco.bm.common.ResultService;
 import org.alfresco.bm.common.spring.TestRunServicesCache;
 import org.apache.commons.lang3.time.DurationFormatUtils;
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -57,6 +58,10 @@ import static org.alfresco.bm.common.TestConstants.FIELD_DESCRIPTION;
  *   <li><b>Max (ms):</b> Maximum event time (successes only).</li>
  *   <li><b>Arithmetic Mean (ms):</b> The arithmetic mean of all successful event times.</li>
  *   <li><b>Standard Deviation:</b> The standard deviation of all successful event times.</li>
+ *   <li><b>Intended Min (ms):</b> Minimum time from the scheduled start of the event to its completion (successes only).</li>
+ *   <li><b>Intended Max (ms):</b> Maximum time from the scheduled start of the event to its completion (successes only).</li>
+ *   <li><b>Intended Mean (ms):</b> The arithmetic mean of all successful event times measured from the scheduled start.</li>
+ *   <li><b>Intended Standard Deviation (ms):</b> The standard deviation of all successful event times measured from the scheduled start.</li>
  * </ul>
  * 
  * @author Derek Hulley
@@ -107,6 +112,9 @@ public class CSVReporter extends AbstractEventReporter
         writer.write("Duration:,");
         writer.write("'" + durationStr);            // ' is needed for Excel
         writer.write(NEW_LINE);
+        writer.write("SLA Latency:,");
+        writer.write(getSlaLatency().toString());
+        writer.write(NEW_LINE);
         writer.write(NEW_LINE);
 
         writer.write("Notes:");
@@ -148,7 +156,9 @@ public class CSVReporter extends AbstractEventReporter
         writer.write(",,");
         writer.write(
                 "Event Name,Total Count,Success Count,Failure Count,Success Rate (%)," +
-                "Min (ms), Max (ms), Arithmetic Mean (ms), Standard Deviation (ms)");
+                "Min (ms), Max (ms), Arithmetic Mean (ms), Standard Deviation (ms)," +
+                "Intended Min (ms), Intended Max (ms), Intended Mean (ms), Intended Standard Deviation (ms)," +
+                "P50 (ms), P90 (ms), P95 (ms), P99 (ms), P99.9 (ms)");
         writer.write(NEW_LINE);
         TreeMap<String, ResultSummary> summaries = collateResults(true);
         for (Map.Entry<String, ResultSummary> entry : summaries.entrySet())
@@ -156,8 +166,9 @@ public class CSVReporter extends AbstractEventReporter
             writer.write(",,");
             String eventName = entry.getKey();
             ResultSummary summary = entry.getValue();
-            SummaryStatistics statsSuccess = summary.getStats(true);
-            SummaryStatistics statsFail = summary.getStats(false);
+            LatencyStatistics statsSuccess = summary.getStats(true);
+            LatencyStatistics statsFail = summary.getStats(false);
+            LatencyStatistics intendedStatsSuccess = summary.getIntendedStats(true);
             DecimalFormatSymbols formatSymbols = new DecimalFormatSymbols();
             formatSymbols.setDecimalSeparator('.');
             formatSymbols.setGroupingSeparator(' ');
@@ -181,7 +192,22 @@ public class CSVReporter extends AbstractEventReporter
             // Arithmetic Mean (ms)
             writer.write(String.format("%10d,", (long)statsSuccess.getMean()));
             // Standard Deviation (ms)
-            writer.write(String.format("%10d%s", (long)statsSuccess.getStandardDeviation(), NEW_LINE));
+            writer.write(String.format("%10d,", (long)statsSuccess.getStandardDeviation()));
+            // Intended Min (ms)
+            writer.write(String.format("%10d,", (long)intendedStatsSuccess.getMin()));
+            // Intended Max (ms)
+            writer.write(String.format("%10d,", (long)intendedStatsSuccess.getMax()));
+            // Intended Mean (ms)
+            writer.write(String.format("%10d,", (long)intendedStatsSuccess.getMean()));
+            // Intended Standard Deviation (ms)
+            writer.write(String.format("%10d", (long)intendedStatsSuccess.getStandardDeviation()));
+            // Percentiles (ms), left blank if they are not known
+            for (double percentile : LatencyHistogram.REPORT_PERCENTILES)
+            {
+                double value = statsSuccess.getPercentile(percentile);
+                writer.write(Double.isNaN(value) ? "," : String.format(",%10d", (long) value));
+            }
+            writer.write(NEW_LINE);
         }
         // Done
         
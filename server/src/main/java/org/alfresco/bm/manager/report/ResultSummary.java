@@ -25,7 +25,10 @@
  */
 package org.alfresco.bm.manager.report;
 
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import com.mongodb.DBObject;
+import org.alfresco.bm.common.HistogramStatistics;
+import org.alfresco.bm.common.LatencyStatistics;
+import org.alfresco.bm.common.mongo.MongoResultRollups;
 
 /**
  * Class assisting with the gathering of statistics for an event
@@ -36,14 +39,18 @@ import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 public class ResultSummary
 {
     private final String name;
-    private SummaryStatistics statsSuccess;
-    private SummaryStatistics statsFailure;
+    private HistogramStatistics statsSuccess;
+    private HistogramStatistics statsFailure;
+    private HistogramStatistics intendedStatsSuccess;
+    private HistogramStatistics intendedStatsFailure;
 
     public ResultSummary(String name)
     {
         this.name = name;
-        this.statsSuccess = new SummaryStatistics();
-        this.statsFailure = new SummaryStatistics();
+        this.statsSuccess = new HistogramStatistics();
+        this.statsFailure = new HistogramStatistics();
+        this.intendedStatsSuccess = new HistogramStatistics();
+        this.intendedStatsFailure = new HistogramStatistics();
     }
     
     /**
@@ -51,17 +58,57 @@ public class ResultSummary
      */
     public void addSample(boolean success, long time)
     {
-        if (time < 0L)
+        addSample(success, time, time);
+    }
+    
+    /**
+     * Add another sample to the event
+     * 
+     * @param success           <tt>true</tt> if the event succeeded
+     * @param time              the service time of the event
+     * @param intendedTime      the time from the event's scheduled time to its completion
+     * 
+     * @since 3.0.3
+     */
+    public void addSample(boolean success, long time, long intendedTime)
+    {
+        if (time < 0L || intendedTime < 0L)
         {
             throw new IllegalArgumentException("Sample time cannot be negative.");
         }
         if (success)
         {
             statsSuccess.addValue(time);
+            intendedStatsSuccess.addValue(intendedTime);
         }
         else
         {
             statsFailure.addValue(time);
+            intendedStatsFailure.addValue(intendedTime);
+        }
+    }
+    
+    /**
+     * Add the results of the event from one {@link MongoResultRollups rollup}
+     * 
+     * @param eventObj          the event entry of the rollup
+     * 
+     * @since 3.0.3
+     */
+    public void addRollup(DBObject eventObj)
+    {
+        addHistogram(statsSuccess, eventObj, MongoResultRollups.FIELD_SUCCESS);
+        addHistogram(statsFailure, eventObj, MongoResultRollups.FIELD_FAILURE);
+        addHistogram(intendedStatsSuccess, eventObj, MongoResultRollups.FIELD_INTENDED_SUCCESS);
+        addHistogram(intendedStatsFailure, eventObj, MongoResultRollups.FIELD_INTENDED_FAILURE);
+    }
+    
+    private static void addHistogram(HistogramStatistics stats, DBObject eventObj, String field)
+    {
+        DBObject histogramObj = (DBObject) eventObj.get(field);
+        if (histogramObj != null)
+        {
+            stats.getHistogram().add(histogramObj);
         }
     }
     
@@ -77,7 +124,7 @@ public class ResultSummary
      *                          <tt>false</tt> to return failure statistics
      * @return                  the statics for success or failure
      */
-    public SummaryStatistics getStats(boolean success)
+    public LatencyStatistics getStats(boolean success)
     {
         if (success)
         {
@@ -89,6 +136,27 @@ public class ResultSummary
         }
     }
     
+    /**
+     * Get the intended-start latency statistics for the event
+     * 
+     * @param success           <tt>true</tt> to return statistics for successs or
+     *                          <tt>false</tt> to return failure statistics
+     * @return                  the statics for success or failure
+     * 
+     * @since 3.0.3
+     */
+    public LatencyStatistics getIntendedStats(boolean success)
+    {
+        if (success)
+        {
+            return intendedStatsSuccess;
+        }
+        else
+        {
+            return intendedStatsFailure;
+        }
+    }
+    
     /**
      * Get the total number of results (success and failure)
      */
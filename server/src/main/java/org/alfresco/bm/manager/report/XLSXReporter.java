@@ -29,6 +29,8 @@ import com.mongodb.BasicDBList;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import org.alfresco.bm.common.EventRecord;
+import org.alfresco.bm.common.LatencyHistogram;
+import org.alfresco.bm.common.LatencyStatistics;
 import org.alfresco.bm.common.ResultService;
 import org.alfresco.bm.common.ResultService.ResultHandler;
 import org.alfresco.bm.common.TestService;
@@ -40,8 +42,6 @@ import org.apache.commons.lang3.time.DurationFormatUtils;
 import org.apache.commons.lang3.time.FastDateFormat;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.apache.poi.POIXMLProperties.CoreProperties;
 import org.apache.poi.openxml4j.util.Nullable;
 import org.apache.poi.ss.usermodel.Cell;
@@ -437,13 +437,22 @@ public class XLSXReporter extends AbstractEventReporter
                 row.getCell(1).setCellStyle(summaryDataStyle);
             }
         }
+        row = sheet.createRow(rowCount++);
+        {
+            row.getCell(0).setCellValue("SLA Latency:");
+            row.getCell(0).setCellStyle(headerStyle);
+            row.getCell(1).setCellValue(getSlaLatency().toString());
+            row.getCell(1).setCellStyle(summaryDataStyle);
+        }
 
         rowCount++;
         rowCount++;
         // Create a header row
         row = sheet.createRow(rowCount++); // Header row
         String[] headers = new String[] { "Event Name", "Total Count", "Success Count", "Failure Count",
-                "Success Rate (%)", "Min (ms)", "Max (ms)", "Arithmetic Mean (ms)", "Standard Deviation (ms)" };
+                "Success Rate (%)", "Min (ms)", "Max (ms)", "Arithmetic Mean (ms)", "Standard Deviation (ms)",
+                "Intended Min (ms)", "Intended Max (ms)", "Intended Mean (ms)", "Intended Standard Deviation (ms)",
+                "P50 (ms)", "P90 (ms)", "P95 (ms)", "P99 (ms)", "P99.9 (ms)" };
         int columnCount = 0;
         for (String header : headers)
         {
@@ -462,8 +471,9 @@ public class XLSXReporter extends AbstractEventReporter
             row = sheet.createRow(rowCount++);
             String eventName = entry.getKey();
             ResultSummary summary = entry.getValue();
-            SummaryStatistics statsSuccess = summary.getStats(true);
-            SummaryStatistics statsFail = summary.getStats(false);
+            LatencyStatistics statsSuccess = summary.getStats(true);
+            LatencyStatistics statsFail = summary.getStats(false);
+            LatencyStatistics intendedStatsSuccess = summary.getIntendedStats(true);
             // Event Name
             row.getCell(columnCount++).setCellValue(eventName);
             // Total Count
@@ -482,10 +492,28 @@ public class XLSXReporter extends AbstractEventReporter
             row.getCell(columnCount++).setCellValue((long) statsSuccess.getMean());
             // Standard Deviation (ms)
             row.getCell(columnCount++).setCellValue((long) statsSuccess.getStandardDeviation());
+            // Intended Min (ms)
+            row.getCell(columnCount++).setCellValue((long) intendedStatsSuccess.getMin());
+            // Intended Max (ms)
+            row.getCell(columnCount++).setCellValue((long) intendedStatsSuccess.getMax());
+            // Intended Mean (ms)
+            row.getCell(columnCount++).setCellValue((long) intendedStatsSuccess.getMean());
+            // Intended Standard Deviation (ms)
+            row.getCell(columnCount++).setCellValue((long) intendedStatsSuccess.getStandardDeviation());
+            // Percentiles (ms), left blank if they are not known
+            for (double percentile : LatencyHistogram.REPORT_PERCENTILES)
+            {
+                double value = statsSuccess.getPercentile(percentile);
+                XSSFCell percentileCell = row.getCell(columnCount++);
+                if (!Double.isNaN(value))
+                {
+                    percentileCell.setCellValue((long) value);
+                }
+            }
         }
 
         // Auto-size the columns
-        for (int i = 0; i < 10; i++)
+        for (int i = 0; i < headers.length; i++)
         {
             sheet.autoSizeColumn(i);
         }
@@ -648,7 +676,16 @@ public class XLSXReporter extends AbstractEventReporter
         {
             @Override
             public boolean processResult(long fromTime, long toTime,
-                    Map<String, DescriptiveStatistics> statsByEventName, Map<String, Integer> failuresByEventName)
+                    Map<String, LatencyStatistics> statsByEventName, Map<String, Integer> failuresByEventName)
+            {
+                return processResult(fromTime, toTime, statsByEventName, statsByEventName, failuresByEventName);
+            }
+
+            @Override
+            public boolean processResult(long fromTime, long toTime,
+                    Map<String, LatencyStatistics> statsByEventName,
+                    Map<String, LatencyStatistics> intendedStatsByEventName,
+                    Map<String, Integer> failuresByEventName)
             {
                 // Get or create a sheet for each event
                 for (String eventName : statsByEventName.keySet())
@@ -730,6 +767,24 @@ public class XLSXReporter extends AbstractEventReporter
                         cell = row.createCell(8);
                         cell.setCellStyle(headerStyle);
                         cell.setCellValue("failPerSec");
+                        cell = row.createCell(9);
+                        cell.setCellStyle(headerStyle);
+                        cell.setCellValue("intendedMean");
+                        cell = row.createCell(10);
+                        cell.setCellStyle(headerStyle);
+                        cell.setCellValue("intendedMin");
+                        cell = row.createCell(11);
+                        cell.setCellStyle(headerStyle);
+                        cell.setCellValue("intendedMax");
+                        cell = row.createCell(12);
+                        cell.setCellStyle(headerStyle);
+                        cell.setCellValue("intendedStdDev");
+                        for (int i = 0; i < LatencyHistogram.REPORT_PERCENTILE_NAMES.length; i++)
+                        {
+                            cell = row.createCell(13 + i);
+                            cell.setCellStyle(headerStyle);
+                            cell.setCellValue(LatencyHistogram.REPORT_PERCENTILE_NAMES[i]);
+                        }
                         // Size the columns
                         sheet.autoSizeColumn(0);
                         sheet.autoSizeColumn(1);
@@ -740,6 +795,14 @@ public class XLSXReporter extends AbstractEventReporter
                         sheet.autoSizeColumn(6);
                         sheet.autoSizeColumn(7);
                         sheet.autoSizeColumn(8);
+                        sheet.autoSizeColumn(9);
+                        sheet.autoSizeColumn(10);
+                        sheet.autoSizeColumn(11);
+                        sheet.autoSizeColumn(12);
+                        for (int i = 0; i < LatencyHistogram.REPORT_PERCENTILE_NAMES.length; i++)
+                        {
+                            sheet.autoSizeColumn(13 + i);
+                        }
                     }
                     AtomicInteger rowNum = rowNums.get(eventName);
                     if (rowNum == null)
@@ -748,7 +811,7 @@ public class XLSXReporter extends AbstractEventReporter
                         rowNums.put(eventName, rowNum);
                     }
 
-                    DescriptiveStatistics stats = statsByEventName.get(eventName);
+                    LatencyStatistics stats = statsByEventName.get(eventName);
                     Integer failures = failuresByEventName.get(eventName);
 
                     double numPerSec = (double) stats.getN() / ((double) (toTime - fromTime) / 1000.0);
@@ -780,6 +843,29 @@ public class XLSXReporter extends AbstractEventReporter
                     cell.setCellValue(stats.getMax());
                     cell = row.createCell(4, Cell.CELL_TYPE_NUMERIC);
                     cell.setCellValue(stats.getStandardDeviation());
+                    for (int i = 0; i < LatencyHistogram.REPORT_PERCENTILES.length; i++)
+                    {
+                        // Leave out percentiles that are not known
+                        double value = stats.getPercentile(LatencyHistogram.REPORT_PERCENTILES[i]);
+                        if (!Double.isNaN(value))
+                        {
+                            cell = row.createCell(13 + i, Cell.CELL_TYPE_NUMERIC);
+                            cell.setCellValue(value);
+                        }
+                    }
+                    LatencyStatistics intendedStats = intendedStatsByEventName.get(eventName);
+                    if (intendedStats == null || Double.isNaN(intendedStats.getMean()))
+                    {
+                        continue;
+                    }
+                    cell = row.createCell(9, Cell.CELL_TYPE_NUMERIC);
+                    cell.setCellValue(intendedStats.getMean());
+                    cell = row.createCell(10, Cell.CELL_TYPE_NUMERIC);
+                    cell.setCellValue(intendedStats.getMin());
+                    cell = row.createCell(11, Cell.CELL_TYPE_NUMERIC);
+                    cell.setCellValue(intendedStats.getMax());
+                    cell = row.createCell(12, Cell.CELL_TYPE_NUMERIC);
+                    cell.setCellValue(intendedStats.getStandardDeviation());
                 }
                 return true;
             }
@@ -0,0 +1,248 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common;
+
+import org.alfresco.bm.common.ResultService.ResultHandler;
+import org.alfresco.bm.driver.event.Event;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @see AbstractResultService
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class AbstractResultServiceTest
+{
+    private static final String[] EVENT_NAMES = new String[] {"a", "b", "c"};
+
+    /** Results in start time order */
+    private List<EventRecord> results;
+    private AbstractResultService resultService;
+
+    @Before
+    public void setUp()
+    {
+        // Results every 10ms for 10s
+        Random random = new Random(42L);
+        results = new ArrayList<EventRecord>();
+        for (long startTime = 100000L; startTime < 110000L; startTime += 10L)
+        {
+            Event event = new Event(EVENT_NAMES[random.nextInt(EVENT_NAMES.length)], null);
+            long time = (long) (20.0 * Math.exp(random.nextGaussian()));
+            EventRecord result = new EventRecord("driver", random.nextInt(10) > 0, startTime, time, null, event);
+            result.setStartDelay(random.nextInt(50));
+            results.add(result);
+        }
+
+        resultService = Mockito.mock(AbstractResultService.class, Mockito.CALLS_REAL_METHODS);
+        Mockito.doReturn(results.get(0)).when(resultService).getFirstResult();
+        Mockito.doReturn(results.get(results.size() - 1)).when(resultService).getLastResult();
+        // Serve pages of results as the results are ordered
+        Mockito.doAnswer(new Answer<List<EventRecord>>()
+        {
+            @Override
+            public List<EventRecord> answer(InvocationOnMock invocation) throws Throwable
+            {
+                long startTime = (Long) invocation.getArguments()[0];
+                long endTime = (Long) invocation.getArguments()[1];
+                EventRecord after = (EventRecord) invocation.getArguments()[3];
+                int limit = (Integer) invocation.getArguments()[4];
+                List<EventRecord> page = new ArrayList<EventRecord>(limit);
+                int from = (after == null) ? 0 : results.indexOf(after) + 1;
+                for (int i = from; i < results.size() && page.size() < limit; i++)
+                {
+                    EventRecord result = results.get(i);
+                    if (result.getStartTime() >= startTime && result.getStartTime() < endTime)
+                    {
+                        page.add(result);
+                    }
+                }
+                return page;
+            }
+        }).when(resultService).getResultsAfter(
+                Mockito.anyLong(), Mockito.anyLong(), Mockito.anyBoolean(), Mockito.any(EventRecord.class), Mockito.anyInt());
+    }
+
+    /**
+     * Windows merged from each report period match the statistics of all results in the window
+     */
+    @Test
+    public void windowStatistics()
+    {
+        final List<String> checked = new ArrayList<String>();
+        resultService.getResults(new ResultHandler()
+        {
+            @Override
+            public boolean processResult(
+                    long fromTime, long toTime,
+                    Map<String, LatencyStatistics> statsByEventName,
+                    Map<String, Integer> failuresByEventName)
+            {
+                throw new IllegalStateException("Intended-start statistics were not given.");
+            }
+
+            @Override
+            public boolean processResult(
+                    long fromTime, long toTime,
+                    Map<String, LatencyStatistics> statsByEventName,
+                    Map<String, LatencyStatistics> intendedStatsByEventName,
+                    Map<String, Integer> failuresByEventName)
+            {
+                assertEquals(3000L, toTime - fromTime);
+                for (String eventName : EVENT_NAMES)
+                {
+                    DescriptiveStatistics expected = new DescriptiveStatistics();
+                    DescriptiveStatistics expectedIntended = new DescriptiveStatistics();
+                    int expectedFailures = 0;
+                    for (EventRecord result : results)
+                    {
+                        if (result.getStartTime() >= fromTime && result.getStartTime() < toTime && result.getEvent().getName().equals(eventName))
+                        {
+                            expected.addValue(result.getTime());
+                            expectedIntended.addValue(result.getIntendedTime());
+                            expectedFailures += result.isSuccess() ? 0 : 1;
+                        }
+                    }
+                    String msg = eventName + " " + fromTime + "-" + toTime;
+                    LatencyStatistics stats = statsByEventName.get(eventName);
+                    LatencyStatistics intendedStats = intendedStatsByEventName.get(eventName);
+                    assertEquals(msg, expected.getN(), stats.getN());
+                    assertEquals(msg, expected.getMean(), stats.getMean(), 1E-9);
+                    assertEquals(msg, expected.getMin(), stats.getMin(), 0.0);
+                    assertEquals(msg, expected.getMax(), stats.getMax(), 0.0);
+                    assertEquals(msg, expected.getStandardDeviation(), stats.getStandardDeviation(), 1E-6);
+                    assertEquals(msg, expectedIntended.getMean(), intendedStats.getMean(), 1E-9);
+                    assertEquals(msg, expectedIntended.getMax(), intendedStats.getMax(), 0.0);
+                    assertEquals(msg, Integer.valueOf(expectedFailures), failuresByEventName.get(eventName));
+                    // Percentiles are within the precision of the histograms
+                    double[] sorted = expected.getSortedValues();
+                    for (double percentile : LatencyHistogram.REPORT_PERCENTILES)
+                    {
+                        double exact = sorted[(int) Math.ceil(percentile / 100.0 * sorted.length) - 1];
+                        double tolerance = Math.max(1.0, exact * LatencyHistogram.PRECISION_PERCENT / 100.0);
+                        assertEquals(msg + " p" + percentile, exact, stats.getPercentile(percentile), tolerance);
+                    }
+                }
+                checked.add(fromTime + "-" + toTime);
+                return true;
+            }
+        }, 0L, 3000L, 1000L, false);
+        // One window for each report period
+        assertEquals(10, checked.size());
+        assertEquals("98000-101000", checked.get(0));
+        assertEquals("107000-110000", checked.get(9));
+    }
+
+    /**
+     * Empty report periods are reported while results are still in the window, after which the window
+     * starts again from the next result
+     */
+    @Test
+    public void windowsAcrossGap()
+    {
+        // Leave a gap of over a window between 103000 and 107500
+        Iterator<EventRecord> iterator = results.iterator();
+        while (iterator.hasNext())
+        {
+            long startTime = iterator.next().getStartTime();
+            if (startTime >= 103000L && startTime < 107500L)
+            {
+                iterator.remove();
+            }
+        }
+        final List<String> reported = new ArrayList<String>();
+        resultService.getResults(new ResultHandler()
+        {
+            @Override
+            public boolean processResult(
+                    long fromTime, long toTime,
+                    Map<String, LatencyStatistics> statsByEventName,
+                    Map<String, Integer> failuresByEventName)
+            {
+                for (String eventName : EVENT_NAMES)
+                {
+                    long expectedN = 0L;
+                    int expectedFailures = 0;
+                    for (EventRecord result : results)
+                    {
+                        if (result.getStartTime() >= fromTime && result.getStartTime() < toTime && result.getEvent().getName().equals(eventName))
+                        {
+                            expectedN++;
+                            expectedFailures += result.isSuccess() ? 0 : 1;
+                        }
+                    }
+                    String msg = eventName + " " + fromTime + "-" + toTime;
+                    assertEquals(msg, expectedN, statsByEventName.get(eventName).getN());
+                    assertEquals(msg, Integer.valueOf(expectedFailures), failuresByEventName.get(eventName));
+                }
+                reported.add(fromTime + "-" + toTime);
+                return true;
+            }
+        }, 0L, 3000L, 1000L, false);
+        assertEquals(
+                Arrays.asList(
+                        "98000-101000", "99000-102000", "100000-103000", "101000-104000", "102000-105000",
+                        "105000-108000", "106000-109000", "107000-110000"),
+                reported);
+    }
+
+    @Test
+    public void stop()
+    {
+        final List<Long> reported = new ArrayList<Long>();
+        resultService.getResults(new ResultHandler()
+        {
+            @Override
+            public boolean processResult(
+                    long fromTime, long toTime,
+                    Map<String, LatencyStatistics> statsByEventName,
+                    Map<String, Integer> failuresByEventName)
+            {
+                reported.add(toTime);
+                // Stop after the second
+                return reported.size() < 2;
+            }
+        }, 0L, 1000L, 1000L, false);
+        assertEquals(2, reported.size());
+    }
+}
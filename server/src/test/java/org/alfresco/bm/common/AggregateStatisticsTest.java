@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common;
+
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @see AggregateStatistics
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class AggregateStatisticsTest
+{
+    private static void assertSameStatistics(DescriptiveStatistics expected, LatencyStatistics actual)
+    {
+        assertEquals(expected.getN(), actual.getN());
+        assertEquals(expected.getSum(), actual.getSum(), 0.0);
+        assertEquals(expected.getMin(), actual.getMin(), 0.0);
+        assertEquals(expected.getMax(), actual.getMax(), 0.0);
+        assertEquals(expected.getMean(), actual.getMean(), 1E-9);
+        assertEquals(expected.getVariance(), actual.getVariance(), expected.getVariance() * 1E-9);
+        assertEquals(expected.getStandardDeviation(), actual.getStandardDeviation(), expected.getStandardDeviation() * 1E-9);
+    }
+
+    @Test
+    public void empty()
+    {
+        AggregateStatistics stats = new AggregateStatistics();
+        DescriptiveStatistics expected = new DescriptiveStatistics();
+        assertEquals(0L, stats.getN());
+        assertEquals(expected.getMean(), stats.getMean(), 0.0);
+        assertEquals(expected.getMin(), stats.getMin(), 0.0);
+        assertEquals(expected.getMax(), stats.getMax(), 0.0);
+        assertEquals(expected.getStandardDeviation(), stats.getStandardDeviation(), 0.0);
+        // Adding nothing changes nothing
+        stats.add(0L, 0.0, 0.0, Double.NaN, Double.NaN);
+        stats.add(new AggregateStatistics());
+        assertEquals(Double.NaN, stats.getMin(), 0.0);
+
+        stats.addValue(5.0);
+        expected.addValue(5.0);
+        assertSameStatistics(expected, stats);
+    }
+
+    @Test
+    public void aggregates()
+    {
+        Random random = new Random(42L);
+        DescriptiveStatistics expected = new DescriptiveStatistics();
+        AggregateStatistics stats = new AggregateStatistics();
+        // Aggregate in groups, as a database would
+        for (int group = 0; group < 100; group++)
+        {
+            long n = 0L;
+            double sum = 0.0;
+            double sumSq = 0.0;
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            for (int i = 0; i < 100; i++)
+            {
+                long value = (long) (20.0 * Math.exp(random.nextGaussian() * 1.5));
+                expected.addValue(value);
+                n++;
+                sum += value;
+                sumSq += value * value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            AggregateStatistics groupStats = new AggregateStatistics();
+            groupStats.add(n, sum, sumSq, min, max);
+            stats.add(groupStats);
+        }
+        assertSameStatistics(expected, stats);
+        // Percentiles are not known
+        assertEquals(Double.NaN, stats.getPercentile(50.0), 0.0);
+        try
+        {
+            stats.add(-1L, 0.0, 0.0, 0.0, 0.0);
+            fail("Negative counts are not allowed.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common;
+
+import org.alfresco.bm.driver.event.Event;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see BatchingResultService
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class BatchingResultServiceTest
+{
+    private ResultService target;
+    /** The size of each batch written to the target */
+    private List<Integer> batches;
+    private BatchingResultService resultService;
+
+    @Before
+    public void setUp()
+    {
+        batches = Collections.synchronizedList(new ArrayList<Integer>());
+        target = Mockito.mock(ResultService.class);
+        Mockito.doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                batches.add(((List<?>) invocation.getArguments()[0]).size());
+                return null;
+            }
+        }).when(target).recordResults(Mockito.anyListOf(EventRecord.class));
+        resultService = new BatchingResultService(target);
+    }
+
+    @After
+    public void tearDown()
+    {
+        resultService.stop();
+    }
+
+    private static EventRecord newResult()
+    {
+        return new EventRecord("driver", true, System.currentTimeMillis(), 10L, null, new Event("test", null));
+    }
+
+    private int countWritten()
+    {
+        int count = 0;
+        synchronized (batches)
+        {
+            for (Integer batch : batches)
+            {
+                count += batch;
+            }
+        }
+        return count;
+    }
+
+    private void waitForWritten(int count) throws InterruptedException
+    {
+        for (int i = 0; i < 500 && countWritten() < count; i++)
+        {
+            Thread.sleep(10L);
+        }
+    }
+
+    @Test
+    public void notStarted()
+    {
+        EventRecord result = newResult();
+        resultService.recordResult(result);
+        Mockito.verify(target).recordResult(result);
+        assertEquals(0, resultService.getQueueDepth());
+    }
+
+    @Test
+    public void notAsync()
+    {
+        resultService.setAsync(false);
+        resultService.start();
+        EventRecord result = newResult();
+        resultService.recordResult(result);
+        Mockito.verify(target).recordResult(result);
+    }
+
+    @Test
+    public void batchSize() throws Exception
+    {
+        resultService.setBatchSize(10);
+        resultService.setFlushPeriod(60000L);
+        resultService.start();
+        for (int i = 0; i < 25; i++)
+        {
+            resultService.recordResult(newResult());
+        }
+        waitForWritten(20);
+        assertEquals(20, countWritten());
+        assertEquals(5, resultService.getQueueDepth());
+        // Reading the results writes the rest first
+        resultService.countResults();
+        assertEquals(25, countWritten());
+        assertEquals(3, resultService.getFlushCount());
+        assertEquals(25, resultService.getWrittenCount());
+        Mockito.verify(target).countResults();
+        Mockito.verify(target, Mockito.never()).recordResult(Mockito.any(EventRecord.class));
+    }
+
+    @Test
+    public void flushPeriod() throws Exception
+    {
+        resultService.setFlushPeriod(20L);
+        resultService.start();
+        List<EventRecord> results = new ArrayList<EventRecord>();
+        for (int i = 0; i < 3; i++)
+        {
+            results.add(newResult());
+        }
+        resultService.recordResults(results);
+        waitForWritten(3);
+        assertEquals(3, countWritten());
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void stopWritesEverything() throws Exception
+    {
+        resultService.setFlushPeriod(60000L);
+        resultService.start();
+        for (int i = 0; i < 7; i++)
+        {
+            resultService.recordResult(newResult());
+        }
+        resultService.stop();
+        assertEquals(7, countWritten());
+        assertEquals(0, resultService.getQueueDepth());
+        // Results recorded after stopping are written directly
+        EventRecord result = newResult();
+        resultService.recordResult(result);
+        Mockito.verify(target).recordResult(result);
+    }
+
+    @Test
+    public void backpressure() throws Exception
+    {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Mockito.doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                blocked.countDown();
+                release.await(10L, TimeUnit.SECONDS);
+                batches.add(((List<?>) invocation.getArguments()[0]).size());
+                return null;
+            }
+        }).when(target).recordResults(Mockito.anyListOf(EventRecord.class));
+        resultService.setBatchSize(1);
+        resultService.setQueueSize(2);
+        resultService.setMaxWait(20L);
+        resultService.start();
+        // The first result is taken by the writer, which then waits
+        resultService.recordResult(newResult());
+        assertTrue(blocked.await(10L, TimeUnit.SECONDS));
+        // Fill the queue and then some
+        for (int i = 0; i < 4; i++)
+        {
+            resultService.recordResult(newResult());
+        }
+        assertEquals(3, resultService.getQueueDepth());
+        assertEquals(2, resultService.getDroppedCount());
+        assertEquals(2, resultService.getWaitCount());
+        release.countDown();
+        resultService.stop();
+        assertEquals(3, countWritten());
+        assertEquals(3, resultService.getWrittenCount());
+    }
+
+    @Test
+    public void failures() throws Exception
+    {
+        Mockito.doThrow(new RuntimeException("Expected")).when(target).recordResults(Mockito.anyListOf(EventRecord.class));
+        resultService.start();
+        resultService.recordResult(newResult());
+        resultService.recordResult(newResult());
+        resultService.flush();
+        assertEquals(2, resultService.getFailedCount());
+        assertEquals(0, resultService.getWrittenCount());
+        assertEquals(0, resultService.getQueueDepth());
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @see LatencyHistogram
+ * @see HistogramStatistics
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class LatencyHistogramTest
+{
+    @Test
+    public void buckets()
+    {
+        // Small values are exact
+        for (int i = 0; i < 128; i++)
+        {
+            assertEquals(i, LatencyHistogram.getBucket(i));
+        }
+        // The buckets follow on from each other and are never too wide
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT - 1; i++)
+        {
+            long lowest = LatencyHistogram.getBucketLowestValue(i);
+            long highest = LatencyHistogram.getBucketHighestValue(i);
+            assertEquals("Bucket " + i, highest + 1L, LatencyHistogram.getBucketLowestValue(i + 1));
+            assertEquals("Bucket " + i, i, LatencyHistogram.getBucket(lowest));
+            assertEquals("Bucket " + i, i, LatencyHistogram.getBucket(highest));
+            assertTrue("Bucket " + i, (highest - lowest) * 100.0 <= LatencyHistogram.PRECISION_PERCENT * Math.max(1L, lowest));
+        }
+        // Huge values go into the last bucket
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.getBucket(Long.MAX_VALUE));
+        assertEquals(0, LatencyHistogram.getBucket(-5L));
+    }
+
+    @Test
+    public void empty()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.getCount());
+        assertEquals(Double.NaN, histogram.getMean(), 0.0);
+        assertEquals(Double.NaN, histogram.getMin(), 0.0);
+        assertEquals(Double.NaN, histogram.getMax(), 0.0);
+        assertEquals(Double.NaN, histogram.getStandardDeviation(), 0.0);
+        assertEquals(Double.NaN, histogram.getValueAtPercentile(50.0), 0.0);
+        // Empty histograms survive a round trip
+        LatencyHistogram copy = LatencyHistogram.fromDBObject(histogram.toDBObject());
+        assertEquals(0L, copy.getCount());
+        assertEquals(Double.NaN, copy.getMin(), 0.0);
+    }
+
+    @Test
+    public void statistics()
+    {
+        Random random = new Random(42L);
+        LatencyHistogram histogram = new LatencyHistogram();
+        DescriptiveStatistics expected = new DescriptiveStatistics();
+        for (int i = 0; i < 10000; i++)
+        {
+            // Mostly fast with a long tail
+            long value = (long) (20.0 * Math.exp(random.nextGaussian() * 1.5));
+            histogram.recordValue(value);
+            expected.addValue(value);
+        }
+        assertEquals(expected.getN(), histogram.getCount());
+        assertEquals(expected.getSum(), histogram.getSum(), 0.0);
+        assertEquals(expected.getMin(), histogram.getMin(), 0.0);
+        assertEquals(expected.getMax(), histogram.getMax(), 0.0);
+        assertEquals(expected.getMean(), histogram.getMean(), 0.0001);
+        assertEquals(expected.getStandardDeviation(), histogram.getStandardDeviation(), expected.getStandardDeviation() * 0.0001);
+        double[] sorted = expected.getSortedValues();
+        for (double percentile : new double[] {1.0, 25.0, 50.0, 90.0, 99.0, 99.9, 100.0})
+        {
+            double exact = sorted[(int) Math.ceil(percentile / 100.0 * sorted.length) - 1];
+            double estimate = histogram.getValueAtPercentile(percentile);
+            double tolerance = Math.max(1.0, exact * LatencyHistogram.PRECISION_PERCENT / 100.0);
+            assertEquals("Percentile " + percentile, exact, estimate, tolerance);
+        }
+        try
+        {
+            histogram.getValueAtPercentile(0.0);
+            fail("Percentile must be greater than zero.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void mergeAndRoundTrip()
+    {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        LatencyHistogram all = new LatencyHistogram();
+        for (long i = 0; i < 1000; i++)
+        {
+            LatencyHistogram histogram = (i % 3 == 0) ? a : b;
+            histogram.recordValue(i * 7L);
+            all.recordValue(i * 7L);
+        }
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.add(a);
+        merged.add(LatencyHistogram.fromDBObject(b.toDBObject()));
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getSum(), merged.getSum());
+        assertEquals(all.getMin(), merged.getMin(), 0.0);
+        assertEquals(all.getMax(), merged.getMax(), 0.0);
+        assertEquals(all.getStandardDeviation(), merged.getStandardDeviation(), 0.0001);
+        assertEquals(all.getValueAtPercentile(50.0), merged.getValueAtPercentile(50.0), 0.0);
+        assertEquals(all.toDBObject(), merged.toDBObject());
+        // Only the buckets in use are stored
+        assertTrue(((List<?>) merged.toDBObject().get(LatencyHistogram.FIELD_BUCKETS)).size() < 2 * LatencyHistogram.BUCKET_COUNT);
+        try
+        {
+            LatencyHistogram.fromDBObject(new BasicDBObject("n", 1));
+            fail("Not a histogram.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void concurrentRecording() throws Exception
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++)
+        {
+            final int offset = t;
+            threads.add(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < 10000; i++)
+                    {
+                        histogram.recordValue(offset * 10000 + i);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertEquals(40000L, histogram.getCount());
+        assertEquals(0.0, histogram.getMin(), 0.0);
+        assertEquals(39999.0, histogram.getMax(), 0.0);
+        assertEquals(19999.5, histogram.getMean(), 0.0001);
+    }
+
+    @Test
+    public void statisticsView()
+    {
+        HistogramStatistics stats = new HistogramStatistics();
+        stats.addValue(10.0);
+        stats.addValue(20.4);
+        stats.addValue(29.6);
+        assertEquals(3L, stats.getN());
+        assertEquals(20.0, stats.getMean(), 0.0001);
+        assertEquals(10.0, stats.getMin(), 0.0);
+        assertEquals(30.0, stats.getMax(), 0.0);
+        assertEquals(10.0, stats.getStandardDeviation(), 0.0001);
+        assertEquals(20.0, stats.getPercentile(50.0), 0.0);
+        DBObject histogramObj = stats.getHistogram().toDBObject();
+        assertEquals(3L, histogramObj.get(LatencyHistogram.FIELD_COUNT));
+    }
+}
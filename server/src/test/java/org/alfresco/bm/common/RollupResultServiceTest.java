@@ -0,0 +1,311 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common;
+
+import com.mongodb.DBObject;
+import org.alfresco.bm.common.ResultService.ResultHandler;
+import org.alfresco.bm.common.mongo.MongoResultRollups;
+import org.alfresco.bm.common.mongo.MongoResultRollups.RollupHandler;
+import org.alfresco.bm.driver.event.Event;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see RollupResultService
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class RollupResultServiceTest
+{
+    private ResultService target;
+    private MongoResultRollups rollups;
+    /** Rollups written, keyed by time */
+    private TreeMap<Long, List<DBObject>> written;
+    private List<EventRecord> passedOn;
+    private RollupResultService resultService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp()
+    {
+        written = new TreeMap<Long, List<DBObject>>();
+        passedOn = Collections.synchronizedList(new ArrayList<EventRecord>());
+        target = Mockito.mock(ResultService.class);
+        Mockito.doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                passedOn.addAll((List<EventRecord>) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(target).recordResults(Mockito.anyListOf(EventRecord.class));
+        rollups = Mockito.mock(MongoResultRollups.class);
+        Mockito.doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                Long time = (Long) invocation.getArguments()[0];
+                synchronized (written)
+                {
+                    List<DBObject> events = written.get(time);
+                    if (events == null)
+                    {
+                        events = new ArrayList<DBObject>();
+                        written.put(time, events);
+                    }
+                    events.addAll((List<DBObject>) invocation.getArguments()[2]);
+                }
+                return null;
+            }
+        }).when(rollups).writeRollup(Mockito.anyLong(), Mockito.anyLong(), Mockito.anyListOf(DBObject.class));
+        // Rollups are read back as they were written
+        Mockito.doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                long startTime = (Long) invocation.getArguments()[0];
+                RollupHandler handler = (RollupHandler) invocation.getArguments()[1];
+                for (Map.Entry<Long, List<DBObject>> entry : written.tailMap(startTime).entrySet())
+                {
+                    if (!handler.processRollup(entry.getKey(), 1000L, entry.getValue()))
+                    {
+                        break;
+                    }
+                }
+                return null;
+            }
+        }).when(rollups).getRollups(Mockito.anyLong(), Mockito.any(RollupHandler.class));
+        resultService = new RollupResultService(target, rollups);
+    }
+
+    @After
+    public void tearDown()
+    {
+        resultService.stop();
+    }
+
+    private static EventRecord newResult(String name, boolean success, long startTime, long time)
+    {
+        return new EventRecord("driver", success, startTime, time, null, new Event(name, null));
+    }
+
+    private static long getCount(DBObject eventObj, String field)
+    {
+        DBObject histogramObj = (DBObject) eventObj.get(field);
+        return (histogramObj == null) ? 0L : ((Number) histogramObj.get(LatencyHistogram.FIELD_COUNT)).longValue();
+    }
+
+    @Test
+    public void rollups()
+    {
+        resultService.recordResults(Arrays.asList(
+                newResult("a", true, 10000L, 10L),
+                newResult("a", true, 10500L, 30L),
+                newResult("a", false, 10999L, 50L),
+                newResult("b", true, 11000L, 5L)));
+        assertEquals(4, passedOn.size());
+        assertEquals(2, written.size());
+
+        List<DBObject> events = written.get(10000L);
+        assertEquals(1, events.size());
+        DBObject eventObj = events.get(0);
+        assertEquals("a", eventObj.get(MongoResultRollups.FIELD_NAME));
+        assertEquals("driver", eventObj.get(MongoResultRollups.FIELD_DRIVER_ID));
+        assertEquals(Boolean.TRUE, eventObj.get(MongoResultRollups.FIELD_CHART));
+        assertEquals(2L, getCount(eventObj, MongoResultRollups.FIELD_SUCCESS));
+        assertEquals(2L, getCount(eventObj, MongoResultRollups.FIELD_INTENDED_SUCCESS));
+        assertEquals(1L, getCount(eventObj, MongoResultRollups.FIELD_FAILURE));
+        LatencyHistogram success = LatencyHistogram.fromDBObject((DBObject) eventObj.get(MongoResultRollups.FIELD_SUCCESS));
+        assertEquals(20.0, success.getMean(), 0.0001);
+
+        events = written.get(11000L);
+        assertEquals(1, events.size());
+        assertEquals("b", events.get(0).get(MongoResultRollups.FIELD_NAME));
+        assertEquals(0L, getCount(events.get(0), MongoResultRollups.FIELD_FAILURE));
+        assertNull(events.get(0).get(MongoResultRollups.FIELD_FAILURE));
+    }
+
+    @Test
+    public void disabled()
+    {
+        resultService.setEnabled(false);
+        EventRecord result = newResult("a", true, 10000L, 10L);
+        resultService.recordResult(result);
+        Mockito.verify(target).recordResult(result);
+        Mockito.verify(rollups, Mockito.never()).writeRollup(Mockito.anyLong(), Mockito.anyLong(), Mockito.anyListOf(DBObject.class));
+        resultService.countResults();
+        Mockito.verify(target).countResults();
+    }
+
+    @Test
+    public void sampling()
+    {
+        resultService.setRawSampleRate(0.0);
+        resultService.recordResults(Arrays.asList(
+                newResult(Event.EVENT_NAME_START, true, 10000L, 1L),
+                newResult("a", true, 10000L, 10L),
+                newResult("a", true, 10000L, 10L),
+                newResult("a", false, 10000L, 10L)));
+        // Only the start event and failures are kept
+        assertEquals(2, passedOn.size());
+        assertEquals(Event.EVENT_NAME_START, passedOn.get(0).getEvent().getName());
+        assertFalse(passedOn.get(1).isSuccess());
+        assertEquals(2L, resultService.getDiscardedCount());
+        // All results are in the rollups
+        long total = 0L;
+        for (DBObject eventObj : written.get(10000L))
+        {
+            total += getCount(eventObj, MongoResultRollups.FIELD_SUCCESS) + getCount(eventObj, MongoResultRollups.FIELD_FAILURE);
+        }
+        assertEquals(4L, total);
+        // Counts come from the rollups
+        Mockito.when(rollups.countResults(null)).thenReturn(new long[] {3L, 1L});
+        Mockito.when(rollups.countResults("a")).thenReturn(new long[] {2L, 1L});
+        assertEquals(4L, resultService.countResults());
+        assertEquals(3L, resultService.countResultsBySuccess());
+        assertEquals(1L, resultService.countResultsByFailure());
+        assertEquals(3L, resultService.countResultsByEventName("a"));
+        Mockito.verify(target, Mockito.never()).countResults();
+    }
+
+    @Test
+    public void backgroundFlush() throws Exception
+    {
+        resultService.setInterval(20L);
+        resultService.start();
+        long now = System.currentTimeMillis();
+        resultService.recordResult(newResult("a", true, now - 1000L, 10L));
+        // Old intervals are written in the background
+        for (int i = 0; i < 500 && resultService.getWrittenCount() == 0L; i++)
+        {
+            Thread.sleep(10L);
+        }
+        assertEquals(1L, resultService.getWrittenCount());
+        // The rest are written when stopping
+        resultService.recordResult(newResult("a", true, now + 60000L, 10L));
+        resultService.stop();
+        assertEquals(2L, resultService.getWrittenCount());
+        Mockito.verify(target, Mockito.times(2)).recordResult(Mockito.any(EventRecord.class));
+    }
+
+    @Test
+    public void timeSeries()
+    {
+        Mockito.when(rollups.getInterval()).thenReturn(1000L);
+        resultService.recordResults(Arrays.asList(
+                newResult("a", true, 10000L, 10L),
+                newResult("a", true, 10100L, 20L),
+                newResult("a", true, 10200L, 30L),
+                newResult("a", false, 11000L, 100L),
+                newResult("b", true, 14000L, 5L)));
+        final List<String> reports = new ArrayList<String>();
+        ResultHandler handler = new ResultHandler()
+        {
+            @Override
+            public boolean processResult(
+                    long fromTime, long toTime,
+                    Map<String, LatencyStatistics> statsByEventName,
+                    Map<String, Integer> failuresByEventName) throws Throwable
+            {
+                StringBuilder sb = new StringBuilder();
+                sb.append(fromTime).append("-").append(toTime);
+                for (String eventName : new TreeMap<String, LatencyStatistics>(statsByEventName).keySet())
+                {
+                    sb.append(" ").append(eventName)
+                      .append(":").append(statsByEventName.get(eventName).getN())
+                      .append("/").append(failuresByEventName.get(eventName));
+                }
+                reports.add(sb.toString());
+                return true;
+            }
+        };
+        resultService.getResults(handler, 0L, 2000L, 1000L, false);
+        assertEquals(
+                Arrays.asList(
+                        "9000-11000 a:3/0",
+                        "10000-12000 a:4/1",
+                        "11000-13000 a:1/1",
+                        "13000-15000 a:0/0 b:1/0"),
+                reports);
+        Mockito.verify(target, Mockito.never()).getResults(
+                Mockito.any(ResultHandler.class), Mockito.anyLong(), Mockito.anyLong(), Mockito.anyLong(), Mockito.anyBoolean());
+
+        // Statistics hold the values of the whole window
+        final List<LatencyStatistics> stats = new ArrayList<LatencyStatistics>();
+        resultService.getResults(new ResultHandler()
+        {
+            @Override
+            public boolean processResult(
+                    long fromTime, long toTime,
+                    Map<String, LatencyStatistics> statsByEventName,
+                    Map<String, Integer> failuresByEventName) throws Throwable
+            {
+                stats.add(statsByEventName.get("a"));
+                // Stop after the first
+                return false;
+            }
+        }, 0L, 1000L, 1000L, false);
+        assertEquals(1, stats.size());
+        assertEquals(20.0, stats.get(0).getMean(), 0.0001);
+        assertEquals(10.0, stats.get(0).getMin(), 0.0);
+        assertEquals(30.0, stats.get(0).getMax(), 0.0);
+
+        // Report periods that do not fit the rollups use the results
+        resultService.getResults(handler, 0L, 1500L, 1500L, false);
+        Mockito.verify(target).getResults(handler, 0L, 1500L, 1500L, false);
+    }
+
+    @Test
+    public void noRollups()
+    {
+        ResultHandler handler = Mockito.mock(ResultHandler.class);
+        resultService.getResults(handler, 0L, 1000L, 1000L, true);
+        Mockito.verify(target).getResults(handler, 0L, 1000L, 1000L, true);
+        assertTrue(written.isEmpty());
+    }
+}
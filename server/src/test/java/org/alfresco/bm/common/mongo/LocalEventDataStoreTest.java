@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.common.mongo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see LocalEventDataStore
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class LocalEventDataStoreTest
+{
+    @Test
+    public void accounting()
+    {
+        LocalEventDataStore store = new LocalEventDataStore();
+        Object data = new Object();
+        store.put("1", data);
+        store.put("2", new byte[10000]);
+        assertEquals(2, store.size());
+        assertSame(data, store.get("1"));
+        assertTrue("Size not estimated: " + store, store.getHeapBytes() > 10000L);
+        
+        // Replacing data does not count it twice
+        long heapBytes = store.getHeapBytes();
+        store.put("2", new byte[10000]);
+        assertEquals(heapBytes, store.getHeapBytes());
+        
+        assertTrue(store.remove("1"));
+        assertFalse(store.remove("1"));
+        assertTrue(store.remove("2"));
+        assertNull(store.get("2"));
+        assertEquals(0, store.size());
+        assertEquals(0L, store.getHeapBytes());
+    }
+    
+    @Test
+    public void spill()
+    {
+        LocalEventDataStore store = new LocalEventDataStore();
+        store.setMemoryBudget(40200L);
+        store.setSpill(true);
+        store.put("1", new byte[40000]);
+        ArrayList<String> data = new ArrayList<String>(Arrays.asList("A", "B", "C"));
+        store.put("2", new byte[40000]);
+        store.put("3", data);
+        assertEquals(2L, store.getSpills());
+        assertEquals(0L, store.getOverBudget());
+        assertTrue("Data not moved off the heap: " + store, store.getOffHeapBytes() > 40000L);
+        assertTrue("Heap budget not kept: " + store, store.getHeapBytes() <= 40200L);
+        
+        // Spilled data comes back as a copy
+        Object spilled = store.get("3");
+        assertEquals(data, spilled);
+        assertNotSame(data, spilled);
+        
+        store.remove("2");
+        store.remove("3");
+        assertEquals(0L, store.getOffHeapBytes());
+    }
+    
+    @Test
+    public void overBudget()
+    {
+        LocalEventDataStore store = new LocalEventDataStore();
+        store.setMemoryBudget(100L);
+        store.setSpill(true);
+        // Not serializable, so it has to stay on the heap
+        Object data = new Object();
+        store.put("1", data);
+        assertEquals(0L, store.getSpills());
+        assertEquals(1L, store.getOverBudget());
+        assertSame(data, store.get("1"));
+    }
+    
+    @Test
+    public void orphans() throws Exception
+    {
+        LocalEventDataStore store = new LocalEventDataStore();
+        store.put("1", "ONE");
+        store.put("2", "TWO");
+        Thread.sleep(5L);
+        long time = System.currentTimeMillis();
+        store.put("3", "THREE");
+        
+        List<String> ids = store.getIdsPutBefore(time);
+        assertEquals(2, ids.size());
+        assertTrue(ids.containsAll(Arrays.asList("1", "2")));
+        assertEquals(1, store.removeOrphans(Arrays.asList("2", "4")));
+        assertEquals(1L, store.getOrphans());
+        assertEquals(2, store.size());
+        
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(1L, store.getOrphans());
+    }
+}
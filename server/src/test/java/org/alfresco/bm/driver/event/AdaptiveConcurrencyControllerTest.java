@@ -0,0 +1,115 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import org.alfresco.bm.driver.event.AdaptiveConcurrencyController.Decision;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @see AdaptiveConcurrencyController
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class AdaptiveConcurrencyControllerTest
+{
+    @Test
+    public void bounds()
+    {
+        assertEquals(8, new AdaptiveConcurrencyController(8, 16, 1, 0.9).getLimit());
+        assertEquals(16, new AdaptiveConcurrencyController(8, 16, 100, 0.9).getLimit());
+        try
+        {
+            new AdaptiveConcurrencyController(8, 4, 4, 0.9);
+            fail("Bounds not checked.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void holdWhenIdleOrKeepingUp()
+    {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(1, 100, 16, 0.9);
+        assertFalse(controller.adjust(0.1).isChanged());
+        controller.recordLatency(20L);
+        controller.recordDispatchLag(100L);
+        Decision decision = controller.adjust(0.1);
+        assertFalse(decision.isChanged());
+        assertEquals(16, decision.getLimit());
+    }
+
+    @Test
+    public void increaseWithBacklog()
+    {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(1, 20, 16, 0.9);
+        controller.recordLatency(20L);
+        controller.recordDispatchLag(50000L);
+        Decision decision = controller.adjust(0.1);
+        assertTrue(decision.isChanged());
+        assertEquals(20, decision.getLimit());
+        // Stops at the maximum
+        controller.recordLatency(20L);
+        controller.recordDispatchLag(50000L);
+        assertFalse(controller.adjust(0.1).isChanged());
+    }
+
+    @Test
+    public void decreaseWhenSlow()
+    {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(10, 100, 16, 0.9);
+        controller.recordLatency(20L);
+        controller.adjust(0.1);
+        // Processing slows down even though there is a backlog
+        controller.recordLatency(100L);
+        controller.recordDispatchLag(50000L);
+        Decision decision = controller.adjust(0.1);
+        assertEquals(12, decision.getLimit());
+        // Stops at the minimum
+        controller.recordLatency(100L);
+        assertEquals(10, controller.adjust(0.1).getLimit());
+    }
+
+    @Test
+    public void decreaseWhenCpuBusy()
+    {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(1, 100, 16, 0.8);
+        controller.recordLatency(20L);
+        controller.recordDispatchLag(50000L);
+        Decision decision = controller.adjust(0.95);
+        assertEquals(12, decision.getLimit());
+        assertTrue(decision.getReason().contains("CPU"));
+    }
+}
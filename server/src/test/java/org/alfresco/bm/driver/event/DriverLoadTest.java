@@ -0,0 +1,91 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see DriverLoad
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class DriverLoadTest
+{
+    @Test
+    public void noLoadData()
+    {
+        double[] weights = DriverLoad.getWeights(new DriverLoad[] {null, null});
+        assertEquals(DriverLoad.DEFAULT_WEIGHT, weights[0], 0.001);
+        assertEquals(DriverLoad.DEFAULT_WEIGHT, weights[1], 0.001);
+    }
+
+    @Test
+    public void idleDrivers()
+    {
+        DriverLoad idle = new DriverLoad(0L, 0, 0.0);
+        double[] weights = DriverLoad.getWeights(new DriverLoad[] {idle, idle, null});
+        assertEquals(DriverLoad.DEFAULT_WEIGHT, weights[0], 0.001);
+        assertEquals(DriverLoad.DEFAULT_WEIGHT, weights[1], 0.001);
+        assertEquals(DriverLoad.DEFAULT_WEIGHT, weights[2], 0.001);
+    }
+
+    @Test
+    public void busyDriversGetLess()
+    {
+        DriverLoad idle = new DriverLoad(0L, 10, 0.2);
+        DriverLoad busyCpu = new DriverLoad(0L, 10, 0.9);
+        DriverLoad lagging = new DriverLoad(500L, 10, 0.2);
+        DriverLoad crowded = new DriverLoad(0L, 100, 0.2);
+        double[] weights = DriverLoad.getWeights(new DriverLoad[] {idle, busyCpu, lagging, crowded});
+        assertTrue("CPU not taken into account: " + weights[1], weights[1] < weights[0] / 2.0);
+        assertTrue("Lag not taken into account: " + weights[2], weights[2] < weights[0] / 2.0);
+        assertTrue("In-flight events not taken into account: " + weights[3], weights[3] < weights[0] / 2.0);
+    }
+
+    @Test
+    public void minimumWeight()
+    {
+        DriverLoad idle = new DriverLoad(0L, 0, 0.0);
+        DriverLoad overloaded = new DriverLoad(60000L, 10000, 1.0);
+        double[] weights = DriverLoad.getWeights(new DriverLoad[] {idle, overloaded});
+        assertEquals(DriverLoad.MIN_WEIGHT, weights[1], 0.001);
+    }
+
+    @Test
+    public void add()
+    {
+        DriverLoad load = new DriverLoad(10L, 5, -1.0).add(new DriverLoad(20L, 7, 0.5)).add(null);
+        assertEquals(20L, load.getDispatchLag());
+        assertEquals(12, load.getInFlight());
+        assertEquals(0.5, load.getCpuLoad(), 0.001);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see EventArrivalScheduler
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class EventArrivalSchedulerTest
+{
+    @Test
+    public void empty()
+    {
+        EventArrivalScheduler scheduler = new EventArrivalScheduler(1000, 10);
+        long before = System.nanoTime();
+        assertNull(scheduler.next(before + TimeUnit.MILLISECONDS.toNanos(20L)));
+        assertTrue("Did not wait for the deadline.", System.nanoTime() - before >= TimeUnit.MILLISECONDS.toNanos(20L));
+        assertEquals(0L, scheduler.getDispatchCount());
+    }
+
+    @Test
+    public void releaseInScheduledOrder()
+    {
+        EventArrivalScheduler scheduler = new EventArrivalScheduler(1000, 10);
+        long now = System.currentTimeMillis();
+        List<Event> events = new ArrayList<Event>(5);
+        for (int i = 4; i >= 0; i--)
+        {
+            events.add(new Event("E-" + i, now + 20L + i * 10L, null));
+        }
+        scheduler.addAll(events);
+        assertEquals(5, scheduler.size());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+        for (int i = 0; i < 5; i++)
+        {
+            Event event = scheduler.next(deadline);
+            assertNotNull(event);
+            assertEquals("E-" + i, event.getName());
+            assertTrue("Event released early: " + event, System.currentTimeMillis() >= event.getScheduledTime());
+        }
+        assertTrue(scheduler.isEmpty());
+        assertEquals(5L, scheduler.getDispatchCount());
+        assertTrue(scheduler.getDispatchLagMax() >= scheduler.getDispatchLagMean());
+    }
+
+    @Test
+    public void notDueBeforeDeadline()
+    {
+        EventArrivalScheduler scheduler = new EventArrivalScheduler(1000, 10);
+        List<Event> events = new ArrayList<Event>(1);
+        events.add(new Event("E", System.currentTimeMillis() + 10000L, null));
+        scheduler.addAll(events);
+        assertNull(scheduler.next(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10L)));
+        assertEquals(1, scheduler.size());
+    }
+
+    @Test
+    public void rateLimit()
+    {
+        // 100 events per second with a burst of 10
+        EventArrivalScheduler scheduler = new EventArrivalScheduler(100, 10);
+        List<Event> events = new ArrayList<Event>(30);
+        for (int i = 0; i < 30; i++)
+        {
+            events.add(new Event("E", 1L, null));
+        }
+        scheduler.addAll(events);
+        long before = System.nanoTime();
+        long deadline = before + TimeUnit.SECONDS.toNanos(5L);
+        for (int i = 0; i < 30; i++)
+        {
+            assertNotNull(scheduler.next(deadline));
+        }
+        // The burst goes immediately and the remaining 20 events are spread over 200ms
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+        assertTrue("Rate limit not applied: " + elapsed + "ms", elapsed >= 190L);
+    }
+
+    @Test
+    public void wakeUp() throws Exception
+    {
+        final EventArrivalScheduler scheduler = new EventArrivalScheduler(1000, 10);
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try { Thread.sleep(50L); } catch (InterruptedException e) {}
+                scheduler.wakeUp();
+            }
+        };
+        thread.start();
+        long before = System.nanoTime();
+        assertNull(scheduler.next(before + TimeUnit.SECONDS.toNanos(10L)));
+        assertTrue("Wait was not interrupted.", System.nanoTime() - before < TimeUnit.SECONDS.toNanos(5L));
+        thread.join();
+    }
+}
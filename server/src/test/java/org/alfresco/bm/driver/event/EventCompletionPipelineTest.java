@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import org.alfresco.bm.common.EventRecord;
+import org.alfresco.bm.common.ResultService;
+import org.alfresco.bm.common.util.log.TestRunLogService;
+import org.alfresco.bm.driver.event.EventCompletionPipeline.CompletedEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @see EventCompletionPipeline
+ *
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class EventCompletionPipelineTest
+{
+    private static final String DRIVER_ID = "testdriver";
+    private static final String TEST_RUN_FQN = "EventCompletionPipelineTest.X";
+
+    private EventService eventService;
+    private ResultService resultService;
+    private TestRunLogService logService;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        eventService = Mockito.mock(EventService.class);
+        resultService = Mockito.mock(ResultService.class);
+        logService = Mockito.mock(TestRunLogService.class);
+        Mockito.when(eventService.deleteEvents(Mockito.anyListOf(Event.class))).thenReturn(1);
+    }
+
+    private CompletedEvent createCompletedEvent(int nextEventCount)
+    {
+        Event event = new Event("A", "DATA");
+        EventRecord result = new EventRecord(DRIVER_ID, true, System.currentTimeMillis(), 10L, null, event);
+        List<Event> nextEvents = new ArrayList<Event>(nextEventCount);
+        for (int i = 0; i < nextEventCount; i++)
+        {
+            nextEvents.add(new Event("B", "DATA" + i));
+        }
+        return new CompletedEvent(event, result, nextEvents);
+    }
+
+    @Test
+    public void writeOnCallingThread() throws Exception
+    {
+        EventCompletionPipeline pipeline = new EventCompletionPipeline(TEST_RUN_FQN, eventService, resultService, logService);
+        pipeline.start();
+        CompletedEvent completedEvent = createCompletedEvent(2);
+        pipeline.submit(completedEvent);
+
+        // Everything must be written before the call returns and in the correct order
+        InOrder inOrder = Mockito.inOrder(resultService, eventService);
+        inOrder.verify(resultService).recordResults(Collections.singletonList(completedEvent.getResult()));
+        inOrder.verify(resultService).flush();
+        inOrder.verify(eventService).putEvents(completedEvent.getNextEvents());
+        inOrder.verify(eventService).deleteEvents(Collections.singletonList(completedEvent.getEvent()));
+        pipeline.stop();
+    }
+
+    @Test
+    public void noNextEvents() throws Exception
+    {
+        EventCompletionPipeline pipeline = new EventCompletionPipeline(TEST_RUN_FQN, eventService, resultService, logService);
+        pipeline.submit(createCompletedEvent(0));
+
+        Mockito.verify(eventService, Mockito.never()).putEvents(Mockito.anyListOf(Event.class));
+        Mockito.verify(eventService).deleteEvents(Mockito.anyListOf(Event.class));
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void writeBehindWithFlushOnStop() throws Exception
+    {
+        EventCompletionPipeline pipeline = new EventCompletionPipeline(TEST_RUN_FQN, eventService, resultService, logService, 2, 50);
+        pipeline.setBatchSize(10);
+        pipeline.start();
+        for (int i = 0; i < 200; i++)
+        {
+            pipeline.submit(createCompletedEvent(3));
+        }
+        pipeline.stop();
+        assertEquals(0, pipeline.getQueueSize());
+
+        // Count everything that was written
+        ArgumentCaptor<List> resultsCaptor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(resultService, Mockito.atLeastOnce()).recordResults(resultsCaptor.capture());
+        int resultCount = 0;
+        for (List results : resultsCaptor.getAllValues())
+        {
+            assertEquals(true, results.size() <= 10);
+            resultCount += results.size();
+        }
+        assertEquals(200, resultCount);
+
+        ArgumentCaptor<List> nextEventsCaptor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(eventService, Mockito.atLeastOnce()).putEvents(nextEventsCaptor.capture());
+        int nextEventCount = 0;
+        for (List nextEvents : nextEventsCaptor.getAllValues())
+        {
+            nextEventCount += nextEvents.size();
+        }
+        assertEquals(600, nextEventCount);
+
+        ArgumentCaptor<List> eventsCaptor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(eventService, Mockito.atLeastOnce()).deleteEvents(eventsCaptor.capture());
+        int eventCount = 0;
+        for (List events : eventsCaptor.getAllValues())
+        {
+            eventCount += events.size();
+        }
+        assertEquals(200, eventCount);
+    }
+}
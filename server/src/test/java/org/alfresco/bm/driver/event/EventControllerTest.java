@@ -0,0 +1,482 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import org.alfresco.bm.common.EventRecord;
+import org.alfresco.bm.common.EventResult;
+import org.alfresco.bm.common.ResultService;
+import org.alfresco.bm.common.session.SessionService;
+import org.alfresco.bm.common.util.log.LogService.LogLevel;
+import org.alfresco.bm.common.util.log.TestRunLogService;
+import org.alfresco.bm.driver.event.producer.EventProducerRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see EventController
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class EventControllerTest
+{
+    private static final String EVENT_NAME = "slow";
+    private static final long PROCESS_TIME = 50L;
+
+    private InMemoryEventService eventService;
+    private ResultService resultService;
+    private TestRunLogService logService;
+    private EventProcessorRegistry eventProcessors;
+    private AtomicInteger inFlight;
+    private AtomicInteger maxInFlight;
+    private AtomicInteger processed;
+
+    /**
+     * Sleeps to simulate waiting on a remote server
+     */
+    private class SlowEventProcessor extends AbstractEventProcessor
+    {
+        @Override
+        protected EventResult processEvent(Event event) throws Exception
+        {
+            int count = inFlight.incrementAndGet();
+            synchronized (maxInFlight)
+            {
+                maxInFlight.set(Math.max(maxInFlight.get(), count));
+            }
+            try
+            {
+                Thread.sleep(PROCESS_TIME);
+            }
+            finally
+            {
+                inFlight.decrementAndGet();
+                processed.incrementAndGet();
+            }
+            return new EventResult(Collections.emptyList());
+        }
+    }
+
+    /**
+     * Completes events on a timer to simulate a non-blocking remote call
+     */
+    private class AsyncSlowEventProcessor extends AbstractAsyncEventProcessor
+    {
+        private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(2);
+
+        @Override
+        public CompletionStage<EventResult> processEventAsync(Event event) throws Exception
+        {
+            int count = inFlight.incrementAndGet();
+            synchronized (maxInFlight)
+            {
+                maxInFlight.set(Math.max(maxInFlight.get(), count));
+            }
+            final CompletableFuture<EventResult> future = new CompletableFuture<EventResult>();
+            timer.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    inFlight.decrementAndGet();
+                    processed.incrementAndGet();
+                    future.complete(new EventResult(Collections.emptyList()));
+                }
+            }, PROCESS_TIME, TimeUnit.MILLISECONDS);
+            return future;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        eventService = new InMemoryEventService();
+        resultService = Mockito.mock(ResultService.class);
+        logService = Mockito.mock(TestRunLogService.class);
+        eventProcessors = new EventProcessorRegistry();
+        SlowEventProcessor processor = new SlowEventProcessor();
+        processor.setBeanName(EVENT_NAME);
+        eventProcessors.register(EVENT_NAME, processor);
+        inFlight = new AtomicInteger();
+        maxInFlight = new AtomicInteger();
+        processed = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        eventService.clear();
+    }
+
+    private EventController createController(int threadCount)
+    {
+        return new EventController(
+                "D01", "EventControllerTest.X",
+                eventService,
+                new EventProducerRegistry(), eventProcessors,
+                resultService,
+                Mockito.mock(SessionService.class),
+                logService,
+                threadCount);
+    }
+
+    private void putEvents(int count)
+    {
+        // The events are all due now
+        long now = System.currentTimeMillis();
+        List<Event> events = new ArrayList<Event>(count);
+        for (int i = 0; i < count; i++)
+        {
+            events.add(new Event(EVENT_NAME, now, null));
+        }
+        eventService.putEvents(events);
+    }
+
+    private void waitForProcessing(int count) throws InterruptedException
+    {
+        long giveUp = System.currentTimeMillis() + 20000L;
+        while (processed.get() < count && System.currentTimeMillis() < giveUp)
+        {
+            Thread.sleep(10L);
+        }
+    }
+
+    @Test
+    public void threadPool() throws Exception
+    {
+        EventController controller = createController(4);
+        controller.setEventsPerSecondPerThread(1000);
+        controller.setThreadMode("Pool");
+        putEvents(40);
+        controller.start();
+        try
+        {
+            waitForProcessing(40);
+        }
+        finally
+        {
+            controller.stop();
+        }
+        assertEquals(40, processed.get());
+        // The controller thread can also run an event when the pool is busy
+        assertTrue("Too many events in flight: " + maxInFlight.get(), maxInFlight.get() <= 5);
+    }
+
+    @Test
+    public void threadPerEvent() throws Exception
+    {
+        // A single pool thread would take 10s to get through the events
+        EventController controller = createController(1);
+        controller.setEventsPerSecondPerThread(1000);
+        controller.setPrefetchSize(100);
+        controller.setThreadMode("Virtual");
+        controller.setInFlightLimit(50);
+        putEvents(200);
+        controller.start();
+        try
+        {
+            waitForProcessing(200);
+        }
+        finally
+        {
+            controller.stop();
+        }
+        assertEquals(200, processed.get());
+        assertTrue("In-flight limit not applied: " + maxInFlight.get(), maxInFlight.get() <= 50);
+        assertTrue("Events were not run concurrently: " + maxInFlight.get(), maxInFlight.get() > 10);
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void asyncProcessor() throws Exception
+    {
+        AsyncSlowEventProcessor processor = new AsyncSlowEventProcessor();
+        processor.setBeanName(EVENT_NAME);
+        eventProcessors.register(EVENT_NAME, processor);
+        // A single pool thread can have many events in flight
+        EventController controller = createController(1);
+        controller.setEventsPerSecondPerThread(1000);
+        controller.setPrefetchSize(100);
+        controller.setInFlightLimit(50);
+        putEvents(200);
+        controller.start();
+        try
+        {
+            waitForProcessing(200);
+        }
+        finally
+        {
+            controller.stop();
+            processor.timer.shutdown();
+        }
+        assertEquals(200, processed.get());
+        assertTrue("In-flight limit not applied: " + maxInFlight.get(), maxInFlight.get() <= 50);
+        assertTrue("Events were not run concurrently: " + maxInFlight.get(), maxInFlight.get() > 10);
+
+        // The time recorded covers the whole of the asynchronous processing
+        ArgumentCaptor<List> resultsCaptor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(resultService, Mockito.atLeastOnce()).recordResults(resultsCaptor.capture());
+        int resultCount = 0;
+        for (List results : resultsCaptor.getAllValues())
+        {
+            for (Object result : results)
+            {
+                EventRecord eventRecord = (EventRecord) result;
+                assertTrue("Result not successful: " + eventRecord, eventRecord.isSuccess());
+                assertTrue("Time not recorded to completion: " + eventRecord, eventRecord.getTime() >= PROCESS_TIME - 1L);
+                resultCount++;
+            }
+        }
+        assertEquals(200, resultCount);
+    }
+
+    @Test
+    public void idleQueue() throws Exception
+    {
+        final AtomicInteger searches = new AtomicInteger();
+        eventService = new InMemoryEventService()
+        {
+            @Override
+            public List<Event> nextEvents(String driverId, long latestScheduledTime, int maxCount)
+            {
+                searches.incrementAndGet();
+                return super.nextEvents(driverId, latestScheduledTime, maxCount);
+            }
+        };
+        // The test has been started, so an empty queue is left alone
+        EventRecord startRecord = new EventRecord("D01", true, 0L, 0L, null, new Event(Event.EVENT_NAME_START, 0L, null));
+        Mockito.when(resultService.getResults(Event.EVENT_NAME_START, 0, 1)).thenReturn(Collections.singletonList(startRecord));
+        EventController controller = createController(4);
+        controller.setEventsPerSecondPerThread(1000);
+        controller.start();
+        try
+        {
+            // Searching every 50ms would be at least 40 searches
+            Thread.sleep(1000L);
+            int idleSearches = searches.get();
+            assertTrue("Idle queue searched too often: " + idleSearches, idleSearches < 30);
+            // New events are picked up straight away
+            long putTime = System.currentTimeMillis();
+            putEvents(1);
+            waitForProcessing(1);
+            assertEquals(1, processed.get());
+            long pickUpTime = System.currentTimeMillis() - putTime;
+            assertTrue("New event not picked up promptly: " + pickUpTime + "ms", pickUpTime < 1000L);
+        }
+        finally
+        {
+            controller.stop();
+        }
+    }
+
+    @Test
+    public void stopReleasesUndispatchedEvents() throws Exception
+    {
+        // The events are claimed well before they are due
+        long scheduledTime = System.currentTimeMillis() + 5000L;
+        List<Event> events = new ArrayList<Event>(10);
+        for (int i = 0; i < 10; i++)
+        {
+            events.add(new Event(EVENT_NAME, scheduledTime, null));
+        }
+        eventService.putEvents(events);
+        EventController controller = createController(4);
+        controller.setPrefetchSize(20);
+        controller.setScheduleLookAhead(10000L);
+        controller.start();
+        try
+        {
+            Thread.sleep(200L);
+            assertEquals("Events were not claimed", 0, eventService.nextEvents(null, Long.MAX_VALUE, 10).size());
+        }
+        finally
+        {
+            controller.stop();
+        }
+        assertEquals(0, processed.get());
+        // Other drivers can claim them straight away
+        assertEquals(10, eventService.nextEvents(null, Long.MAX_VALUE, 10).size());
+    }
+
+    @Test
+    public void generator() throws Exception
+    {
+        EventController controller = createController(4);
+        controller.setEventsPerSecondPerThread(1000);
+        controller.setGeneratorWindow(100L);
+        controller.setGeneratorBatchSize(50);
+        // 200 events over a fifth of a second
+        EventGenerator generator = new EventGenerator(
+                EVENT_NAME, System.currentTimeMillis(), 1.0, EventGenerator.DISTRIBUTION_FIXED, 200L, null);
+        eventService.putEvent(generator.toEvent());
+        // Queued events are still picked up while the generator is running
+        putEvents(10);
+        controller.start();
+        try
+        {
+            // The stream never takes up more than one place in the queue, or two while it is being requeued
+            long giveUp = System.currentTimeMillis() + 20000L;
+            while (processed.get() < 210 && System.currentTimeMillis() < giveUp)
+            {
+                assertTrue("Generated events were queued: " + eventService.count(), eventService.count() <= 12L);
+                Thread.sleep(10L);
+            }
+        }
+        finally
+        {
+            controller.stop();
+        }
+        assertEquals(210, processed.get());
+    }
+    
+    /**
+     * The run is not finished while the last generated events are still being processed and
+     * have yet to publish their next events
+     */
+    @Test
+    public void generatorWithNextEvents() throws Exception
+    {
+        final AtomicInteger followedOn = new AtomicInteger();
+        AbstractEventProcessor leadProcessor = new AbstractEventProcessor()
+        {
+            @Override
+            protected EventResult processEvent(Event event) throws Exception
+            {
+                Thread.sleep(PROCESS_TIME);
+                processed.incrementAndGet();
+                return new EventResult(Collections.singletonList(new Event("followOn", System.currentTimeMillis(), null)));
+            }
+        };
+        leadProcessor.setBeanName("lead");
+        eventProcessors.register("lead", leadProcessor);
+        AbstractEventProcessor followOnProcessor = new AbstractEventProcessor()
+        {
+            @Override
+            protected EventResult processEvent(Event event) throws Exception
+            {
+                Thread.sleep(PROCESS_TIME);
+                followedOn.incrementAndGet();
+                return new EventResult(Collections.emptyList());
+            }
+        };
+        followOnProcessor.setBeanName("followOn");
+        eventProcessors.register("followOn", followOnProcessor);
+        // The test has been started
+        EventRecord startRecord = new EventRecord("D01", true, 0L, 0L, null, new Event(Event.EVENT_NAME_START, 0L, null));
+        Mockito.when(resultService.getResults(Event.EVENT_NAME_START, 0, 1)).thenReturn(Collections.singletonList(startRecord));
+        // Note how much work was done when the run was declared finished
+        final List<Integer> followedOnAtStop = Collections.synchronizedList(new ArrayList<Integer>());
+        ApplicationContext ctx = Mockito.mock(ApplicationContext.class);
+        Mockito.doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                followedOnAtStop.add(followedOn.get());
+                return null;
+            }
+        }).when(ctx).publishEvent(Mockito.any(ApplicationEvent.class));
+
+        EventController controller = createController(4);
+        controller.setApplicationContext(ctx);
+        controller.setEventsPerSecondPerThread(1000);
+        // All the generated events are in flight together
+        controller.setThreadMode("Virtual");
+        controller.setInFlightLimit(100);
+        controller.setGeneratorWindow(100L);
+        controller.setGeneratorBatchSize(50);
+        // 20 events over a fiftieth of a second
+        EventGenerator generator = new EventGenerator(
+                "lead", System.currentTimeMillis(), 1.0, EventGenerator.DISTRIBUTION_FIXED, 20L, null);
+        eventService.putEvent(generator.toEvent());
+        controller.start();
+        try
+        {
+            long giveUp = System.currentTimeMillis() + 20000L;
+            while (followedOnAtStop.isEmpty() && System.currentTimeMillis() < giveUp)
+            {
+                Thread.sleep(10L);
+            }
+        }
+        finally
+        {
+            controller.stop();
+        }
+        assertEquals(20, processed.get());
+        assertEquals(20, followedOn.get());
+        assertTrue("The run was not finished.", followedOnAtStop.size() > 0);
+        assertEquals("The run was finished before the next events were processed.", Integer.valueOf(20), followedOnAtStop.get(0));
+    }
+    
+    @Test
+    public void adaptiveConcurrency() throws Exception
+    {
+        // A single thread cannot keep up, so the pool has to grow
+        EventController controller = createController(1);
+        controller.setEventsPerSecondPerThread(1000);
+        controller.setAdaptiveConcurrency(true);
+        controller.setAdaptiveMaxLimit(20);
+        controller.setAdaptiveInterval(100L);
+        putEvents(200);
+        controller.start();
+        try
+        {
+            waitForProcessing(200);
+        }
+        finally
+        {
+            controller.stop();
+        }
+        assertEquals(200, processed.get());
+        assertTrue("Pool did not grow: " + maxInFlight.get(), maxInFlight.get() > 2);
+        assertTrue("Pool grew too much: " + maxInFlight.get(), maxInFlight.get() <= 21);
+        // The decisions are visible in the test run log
+        Mockito.verify(logService, Mockito.atLeastOnce()).log(
+                Mockito.eq(LogLevel.INFO), Mockito.startsWith("Adaptive concurrency: threads 1 -> 2"));
+    }
+}
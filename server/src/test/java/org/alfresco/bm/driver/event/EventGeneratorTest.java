@@ -0,0 +1,126 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import com.mongodb.BasicDBObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @see EventGenerator
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class EventGeneratorTest
+{
+    @Test
+    public void fixedSchedule()
+    {
+        BasicDBObject data = new BasicDBObject("key", "value");
+        EventGenerator generator = new EventGenerator("e", 1000L, 0.5, EventGenerator.DISTRIBUTION_FIXED, 10L, data);
+        Event generatorEvent = generator.toEvent();
+        assertEquals(EventGenerator.EVENT_NAME_GENERATE, generatorEvent.getName());
+        assertEquals(1000L, generatorEvent.getScheduledTime());
+        
+        // Limited by time
+        List<Event> events = generator.generate(1001L, 100);
+        assertEquals(4, events.size());
+        assertEquals(1000L, events.get(0).getScheduledTime());
+        assertEquals(1000L, events.get(1).getScheduledTime());
+        assertEquals(1001L, events.get(3).getScheduledTime());
+        assertTrue(events.get(0).isGenerated());
+        assertEquals(data, events.get(0).getData());
+        assertNotSame(events.get(0).getData(), events.get(1).getData());
+        
+        // Limited by batch size
+        events = generator.generate(Long.MAX_VALUE, 2);
+        assertEquals(2, events.size());
+        assertEquals(6L, generator.getGenerated());
+        assertFalse(generator.isExhausted());
+        
+        // The state survives being queued
+        generator = EventGenerator.fromEvent(generator.toEvent());
+        assertEquals(1003L, generator.getNextTime());
+        events = generator.generate(Long.MAX_VALUE, 100);
+        assertEquals(4, events.size());
+        assertEquals(1004L, events.get(3).getScheduledTime());
+        assertTrue(generator.isExhausted());
+        assertEquals(0, generator.generate(Long.MAX_VALUE, 100).size());
+    }
+    
+    @Test
+    public void poissonSchedule()
+    {
+        EventGenerator generator = new EventGenerator("e", 0L, 10.0, EventGenerator.DISTRIBUTION_POISSON, 10000L, null);
+        List<Event> events = generator.generate(Long.MAX_VALUE, 10000);
+        assertEquals(10000, events.size());
+        // The mean interval is close to the one given
+        double meanInterval = (double) events.get(9999).getScheduledTime() / 9999;
+        assertTrue("Mean interval is wrong: " + meanInterval, meanInterval > 9.0 && meanInterval < 11.0);
+    }
+    
+    @Test
+    public void invalid()
+    {
+        try
+        {
+            new EventGenerator("e", 0L, 1.0, "sometimes", 10L, null);
+            fail("Unknown distribution not detected.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+        try
+        {
+            new EventGenerator("e", 0L, 1.0, EventGenerator.DISTRIBUTION_FIXED, 10L, new Object());
+            fail("Data that cannot be queued not detected.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+        try
+        {
+            EventGenerator.fromEvent(new Event(EventGenerator.EVENT_NAME_GENERATE, 0L, new BasicDBObject()));
+            fail("Incomplete generator not detected.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @see InMemoryEventService
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class InMemoryEventServiceTest
+{
+    private InMemoryEventService eventService;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        eventService = new InMemoryEventService();
+        eventService.start();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        eventService.stop();
+    }
+
+    @Test
+    public void empty()
+    {
+        assertEquals(0, eventService.count());
+        assertNull(eventService.nextEvent(null, Long.MAX_VALUE));
+        assertNull(eventService.nextEvent("D01", Long.MAX_VALUE));
+        assertEquals(0, eventService.nextEvents(null, Long.MAX_VALUE, 10).size());
+    }
+
+    @Test
+    public void putBadEvents()
+    {
+        try
+        {
+            eventService.putEvent(null);
+            fail("Null should be checked.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void uniqueStartEvent()
+    {
+        eventService.putEvent(new Event(Event.EVENT_NAME_START, 0L, null));
+        try
+        {
+            eventService.putEvent(new Event(Event.EVENT_NAME_START, 0L, null));
+            fail("Event IDs must be unique.");
+        }
+        catch (RuntimeException e)
+        {
+            // Expected
+        }
+        assertEquals(1, eventService.count());
+    }
+
+    @Test
+    public void scheduledOrder()
+    {
+        long now = System.currentTimeMillis();
+        for (int i = 9; i >= 0; i--)
+        {
+            eventService.putEvent(new Event("E-" + i, now + i, null));
+        }
+        // Only the events due are available
+        assertNull(eventService.nextEvent(null, now - 1L));
+        List<Event> events = eventService.nextEvents(null, now + 4L, 100);
+        assertEquals(5, events.size());
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals("E-" + i, events.get(i).getName());
+            assertNotNull(events.get(i).getLockOwner());
+        }
+        Event event = eventService.nextEvent(null, Long.MAX_VALUE);
+        assertEquals("E-5", event.getName());
+        // Locked events are not available again but are still in the queue
+        assertEquals(10, eventService.count());
+        assertNotNull(eventService.getEvent(event.getId()).getLockOwner());
+        // Remove
+        assertTrue(eventService.deleteEvent(event));
+        assertEquals(5, eventService.deleteEvents(events));
+        assertEquals(4, eventService.count());
+        assertEquals(0, eventService.deleteEvents(events));
+    }
+
+    @Test
+    public void driverAssignment()
+    {
+        long now = System.currentTimeMillis();
+        Event eventA = new Event("A", now, null);
+        eventA.setDriver("D01");
+        eventService.putEvent(eventA);
+        Event eventB = new Event("B", now, null);
+        eventB.setDriver("D02");
+        eventService.putEvent(eventB);
+        eventService.putEvent(new Event("C", now, null));
+
+        List<Event> events = eventService.nextEvents("D01", now, 10);
+        assertEquals(2, events.size());
+        assertEquals("D01", events.get(0).getDriver() == null ? events.get(1).getDriver() : events.get(0).getDriver());
+        assertNull(eventService.nextEvent("D01", now));
+        // Any driver can pick up another driver's events
+        Event event = eventService.nextEvent(null, now);
+        assertEquals("B", event.getName());
+    }
+
+    @Test
+    public void dataInMemory()
+    {
+        Object data = new Object();
+        String eventId = eventService.putEvent(new Event("A", System.currentTimeMillis(), data));
+        Event event = eventService.nextEvent(null, Long.MAX_VALUE);
+        assertEquals(eventId, event.getId());
+        assertTrue(event.getDataInMemory());
+        assertTrue(data == event.getData());
+    }
+
+    @Test
+    public void concurrentClaims() throws Exception
+    {
+        final int eventCount = 10000;
+        List<Event> events = new ArrayList<Event>(eventCount);
+        for (int i = 0; i < eventCount; i++)
+        {
+            events.add(new Event("E", i, null));
+        }
+        eventService.putEvents(events);
+
+        // Many threads compete for events; each one must be handed out once only
+        final Set<String> claimedIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++)
+        {
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    List<Event> claimed;
+                    while ((claimed = eventService.nextEvents(null, Long.MAX_VALUE, 7)).size() > 0)
+                    {
+                        for (Event event : claimed)
+                        {
+                            if (!claimedIds.add(event.getId()))
+                            {
+                                duplicates.incrementAndGet();
+                            }
+                        }
+                        eventService.deleteEvents(claimed);
+                    }
+                    done.countDown();
+                }
+            };
+            thread.start();
+        }
+        done.await();
+        assertEquals(0, duplicates.get());
+        assertEquals(eventCount, claimedIds.size());
+        assertEquals(0, eventService.count());
+    }
+
+    @Test
+    public void lanes()
+    {
+        EventLaneRegistry lanes = new EventLaneRegistry();
+        lanes.register("control", EventLaneRegistry.CONTROL_LANE);
+        eventService.setLanes(lanes);
+        // A backlog of workload events ahead of the control events
+        List<Event> events = new ArrayList<Event>(120);
+        for (int i = 0; i < 100; i++)
+        {
+            events.add(new Event("work", i, null));
+        }
+        for (int i = 0; i < 20; i++)
+        {
+            events.add(new Event("control", 1000L + i, null));
+        }
+        eventService.putEvents(events);
+
+        // Lanes only get events that are due
+        List<Event> claimed = eventService.nextEvents(null, 500L, 5);
+        assertEquals(5, claimed.size());
+        assertEquals("work", claimed.get(4).getName());
+        // The control lane comes first but shares the claim with the lower lane
+        assertEquals("control", eventService.nextEvent(null, Long.MAX_VALUE).getName());
+        claimed = eventService.nextEvents(null, Long.MAX_VALUE, 11);
+        assertEquals(11, claimed.size());
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals("control", claimed.get(i).getName());
+        }
+        assertEquals("work", claimed.get(10).getName());
+        // Anything that the control lane cannot use is passed down
+        claimed = eventService.nextEvents(null, Long.MAX_VALUE, 11);
+        assertEquals(11, claimed.size());
+        assertEquals("control", claimed.get(8).getName());
+        assertEquals("work", claimed.get(9).getName());
+        assertEquals("work", claimed.get(10).getName());
+    }
+}
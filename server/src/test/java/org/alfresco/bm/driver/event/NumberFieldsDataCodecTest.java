@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import com.mongodb.BasicDBObject;
+import org.alfresco.bm.common.EventResult;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @see NumberFieldsDataCodec
+ * @see EventDataCodecRegistry
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class NumberFieldsDataCodecTest
+{
+    private static final NumberFieldsDataCodec CODEC = new NumberFieldsDataCodec("test.v1", "a", "b", "c");
+
+    @Test
+    public void roundTrip()
+    {
+        BasicDBObject data = new BasicDBObject()
+                .append("a", Long.valueOf(1234567890123L))
+                .append("b", Integer.valueOf(-5))
+                .append("c", null);
+        assertTrue(CODEC.canEncode(data));
+        byte[] bytes = CODEC.encode(data);
+        assertEquals(9 + 5 + 1, bytes.length);
+        assertEquals(data, CODEC.decode(bytes));
+        assertEquals(Long.class, ((BasicDBObject) CODEC.decode(bytes)).get("a").getClass());
+    }
+
+    @Test
+    public void cannotEncode()
+    {
+        assertFalse(CODEC.canEncode("data"));
+        // Missing field
+        assertFalse(CODEC.canEncode(new BasicDBObject("a", 1).append("b", 2)));
+        // Extra field
+        assertFalse(CODEC.canEncode(new BasicDBObject("a", 1).append("b", 2).append("c", 3).append("d", 4)));
+        // Other types
+        assertFalse(CODEC.canEncode(new BasicDBObject("a", 1).append("b", 2).append("c", "3")));
+        assertFalse(CODEC.canEncode(new BasicDBObject("a", 1).append("b", 2).append("c", 3.0)));
+    }
+
+    @Test
+    public void registry()
+    {
+        EventDataCodecRegistry registry = new EventDataCodecRegistry();
+        assertNull(registry.getCodecForEvent("e1"));
+        assertSame(RaiseEventsEventProcessor.DATA_CODEC, registry.getCodec(RaiseEventsEventProcessor.DATA_CODEC.getName()));
+        assertSame(CreateSessionsEventProcessor.DATA_CODEC, registry.getCodec(CreateSessionsEventProcessor.DATA_CODEC.getName()));
+        
+        registry.register("e1", CODEC);
+        assertSame(CODEC, registry.getCodecForEvent("e1"));
+        assertSame(CODEC, registry.getCodec("test.v1"));
+        try
+        {
+            registry.register("e2", new NumberFieldsDataCodec("test.v1", "x") {});
+            fail("Codec names must be unique.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void processorRegistration()
+    {
+        EventDataCodecRegistry registry = new EventDataCodecRegistry();
+        RaiseEventsEventProcessor processor = new RaiseEventsEventProcessor("out", 10L, 2000);
+        processor.setBeanName("event.raiseEvents");
+        processor.setRegistry(new EventProcessorRegistry());
+        processor.setDataCodecs(registry);
+        processor.register();
+        assertSame(RaiseEventsEventProcessor.DATA_CODEC, registry.getCodecForEvent("raiseEvents"));
+        
+        // The processor's own data is encoded
+        EventResult result = processor.processEvent(new Event("raiseEvents", 0L, null));
+        Event next = result.getNextEvents().get(result.getNextEvents().size() - 1);
+        assertEquals("raiseEvents", next.getName());
+        assertTrue(RaiseEventsEventProcessor.DATA_CODEC.canEncode(next.getData()));
+    }
+}
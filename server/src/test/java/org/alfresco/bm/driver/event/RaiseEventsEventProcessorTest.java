@@ -69,6 +69,25 @@ public class RaiseEventsEventProcessorTest
         Assert.assertEquals(20, result.getNextEvents().size());
     }
     
+    @Test
+    public void testGenerate() throws Exception
+    {
+        Event event = new Event("", null);  // No input
+        processor.setGenerate(true);
+        EventResult result = processor.processEvent(event);
+        Assert.assertTrue(result.isSuccess());
+        Assert.assertEquals(1, result.getNextEvents().size());
+        
+        // All the events are described by a single generator
+        EventGenerator generator = EventGenerator.fromEvent(result.getNextEvents().get(0));
+        List<Event> events = generator.generate(Long.MAX_VALUE, 1000);
+        Assert.assertEquals(20, events.size());
+        Assert.assertTrue(generator.isExhausted());
+        Assert.assertEquals(EVENT_NAME_GO, events.get(0).getName());
+        Assert.assertEquals(100L, events.get(1).getScheduledTime() - events.get(0).getScheduledTime());
+        Assert.assertEquals(new BasicDBObject("sound", "WOOF"), events.get(19).getData());
+    }
+    
     @Test
     public void testSingleBatchOnEdge() throws Exception
     {
@@ -0,0 +1,260 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @see EventRecorder
+ * @see ReplayEventService
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class ReplayEventServiceTest
+{
+    private File file;
+    private EventRecorder recorder;
+    private ReplayEventService eventService;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file = File.createTempFile("ReplayEventServiceTest", ".events");
+        file.delete();
+        recorder = new EventRecorder(file.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        recorder.close();
+        if (eventService != null)
+        {
+            eventService.stop();
+        }
+        file.delete();
+    }
+
+    private ReplayEventService replay()
+    {
+        eventService = new ReplayEventService(file.getAbsolutePath());
+        eventService.start();
+        return eventService;
+    }
+
+    @Test
+    public void disabled()
+    {
+        assertFalse(new EventRecorder(null).isEnabled());
+        assertFalse(new EventRecorder(" ").isEnabled());
+        assertTrue(recorder.isEnabled());
+    }
+
+    @Test
+    public void empty()
+    {
+        recorder.open();
+        recorder.close();
+        replay();
+        assertEquals(0L, eventService.count());
+        assertEquals(Long.MAX_VALUE, eventService.getNextScheduledTime());
+        assertNull(eventService.nextEvent(null, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void roundTrip()
+    {
+        recorder.open();
+        long startTime = recorder.getStartTime();
+        DBObject dbObject = new BasicDBObject("user", "fred").append("count", 3);
+        Event start = new Event(Event.EVENT_NAME_START, 0L, null);
+        Event string = new Event("string", startTime + 10L, "abc");
+        string.setSessionId("session-1");
+        Event integer = new Event("integer", startTime + 20L, Integer.valueOf(42));
+        Event longValue = new Event("long", startTime + 30L, Long.valueOf(Long.MAX_VALUE));
+        Event doubleValue = new Event("double", startTime + 40L, Double.valueOf(1.5));
+        Event object = new Event("object", startTime + 50L, dbObject);
+        Event inMemory = new Event("inMemory", startTime + 60L, "xyz", true);
+        Event unpersistable = new Event("unpersistable", startTime + 70L, new Object());
+        recorder.record(Arrays.asList(start, string, integer));
+        recorder.record(Arrays.asList(longValue, doubleValue, object, inMemory, unpersistable));
+        recorder.close();
+
+        replay();
+        assertEquals(8L, eventService.count());
+        long before = System.currentTimeMillis();
+        List<Event> events = eventService.nextEvents(null, Long.MAX_VALUE, 100);
+        long after = System.currentTimeMillis();
+        assertEquals(8, events.size());
+        assertEquals(8L, eventService.count());
+
+        assertEquals(Event.EVENT_NAME_START, events.get(0).getName());
+        assertEquals(Event.EVENT_ID_START, events.get(0).getId());
+        assertNull(events.get(0).getData());
+        assertEquals("abc", events.get(1).getData());
+        assertEquals("session-1", events.get(1).getSessionId());
+        assertEquals(Integer.valueOf(42), events.get(2).getData());
+        assertEquals(Long.valueOf(Long.MAX_VALUE), events.get(3).getData());
+        assertEquals(Double.valueOf(1.5), events.get(4).getData());
+        assertEquals(dbObject, events.get(5).getData());
+        assertEquals("xyz", events.get(6).getData());
+        assertTrue(events.get(6).getDataInMemory());
+        assertEquals("unpersistable", events.get(7).getName());
+        assertNull(events.get(7).getData());
+        // The relative timing is kept
+        long replayStartTime = events.get(0).getScheduledTime();
+        assertTrue(replayStartTime >= before && replayStartTime <= after);
+        for (int i = 1; i < events.size(); i++)
+        {
+            assertEquals(replayStartTime + 10L * i, events.get(i).getScheduledTime());
+        }
+
+        assertEquals(8, eventService.deleteEvents(events));
+        assertEquals(0L, eventService.count());
+    }
+
+    @Test
+    public void timing()
+    {
+        recorder.open();
+        long startTime = recorder.getStartTime();
+        recorder.record(Arrays.asList(
+                new Event("a", startTime, null),
+                new Event("b", startTime + 60000L, null)));
+        recorder.close();
+
+        replay();
+        assertEquals(2L, eventService.count());
+        long now = System.currentTimeMillis();
+        List<Event> events = eventService.nextEvents(null, now, 10);
+        assertEquals(1, events.size());
+        assertEquals("a", events.get(0).getName());
+        // The next event is not due yet but the queue knows when it will be
+        assertEquals(events.get(0).getScheduledTime() + 60000L, eventService.getNextScheduledTime());
+        assertEquals(0, eventService.nextEvents(null, now, 10).size());
+        assertEquals(2L, eventService.count());
+        events = eventService.nextEvents(null, now + 60000L, 10);
+        assertEquals(1, events.size());
+        assertEquals("b", events.get(0).getName());
+    }
+
+    @Test
+    public void newEventsDiscarded()
+    {
+        recorder.open();
+        recorder.record(Collections.singletonList(new Event("a", recorder.getStartTime(), null)));
+        recorder.close();
+
+        replay();
+        assertTrue(eventService.putEvent(new Event("b", 0L, null)) != null);
+        assertEquals(2, eventService.putEvents(Arrays.asList(new Event("c", 0L, null), new Event("d", 0L, null))).size());
+        assertEquals(1L, eventService.count());
+        List<Event> events = eventService.nextEvents(null, Long.MAX_VALUE, 10);
+        assertEquals(1, events.size());
+        assertEquals("a", events.get(0).getName());
+    }
+
+    @Test
+    public void largeEvents()
+    {
+        StringBuilder sb = new StringBuilder(200000);
+        for (int i = 0; i < 200000; i++)
+        {
+            sb.append((char) ('a' + (i % 26)));
+        }
+        String data = sb.toString();
+        recorder.open();
+        List<Event> recorded = new ArrayList<Event>();
+        for (int i = 0; i < 5; i++)
+        {
+            recorded.add(new Event("large", recorder.getStartTime() + i, data));
+        }
+        recorder.record(recorded);
+        recorder.close();
+
+        replay();
+        List<Event> events = eventService.nextEvents(null, Long.MAX_VALUE, 10);
+        assertEquals(5, events.size());
+        for (Event event : events)
+        {
+            assertEquals(data, event.getData());
+        }
+    }
+
+    @Test
+    public void restartedRecording() throws Exception
+    {
+        recorder.open();
+        long startTime = recorder.getStartTime();
+        recorder.record(Collections.singletonList(new Event("a", startTime + 5L, null)));
+        recorder.close();
+        // A driver dies half-way through writing an event
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.seek(raf.length());
+            raf.writeInt(1000);
+            raf.writeLong(1L);
+        }
+        finally
+        {
+            raf.close();
+        }
+        // Recording continues where it left off
+        Thread.sleep(5L);
+        recorder.open();
+        assertEquals(startTime, recorder.getStartTime());
+        recorder.record(Collections.singletonList(new Event("b", startTime + 10L, null)));
+        recorder.close();
+
+        replay();
+        assertEquals(2L, eventService.count());
+        List<Event> events = eventService.nextEvents(null, Long.MAX_VALUE, 10);
+        assertEquals(2, events.size());
+        assertEquals("a", events.get(0).getName());
+        assertEquals("b", events.get(1).getName());
+        assertEquals(5L, events.get(1).getScheduledTime() - events.get(0).getScheduledTime());
+    }
+}
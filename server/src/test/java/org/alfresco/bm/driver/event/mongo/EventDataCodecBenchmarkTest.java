@@ -0,0 +1,139 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+import org.alfresco.bm.common.mongo.MongoEventService;
+import org.alfresco.bm.driver.event.Event;
+import org.alfresco.bm.driver.event.EventDataCodecRegistry;
+import org.alfresco.bm.driver.event.RaiseEventsEventProcessor;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the size and conversion time of events stored with and without an
+ * {@link org.alfresco.bm.driver.event.EventDataCodec event data codec}.
+ * <p/>
+ * Each conversion covers what happens when an event is put and claimed: the event is converted
+ * for storage, serialized to BSON, deserialized and converted back to the event data.
+ * <p/>
+ * Benchmarks only run when the <b>benchmark</b> system property is <tt>true</tt>.
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class EventDataCodecBenchmarkTest
+{
+    private static Log logger = LogFactory.getLog(EventDataCodecBenchmarkTest.class);
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 100000;
+
+    private final DefaultDBEncoder encoder = new DefaultDBEncoder();
+    private final DefaultDBDecoder decoder = new DefaultDBDecoder();
+
+    @BeforeClass
+    public static void checkEnabled()
+    {
+        Assume.assumeTrue("Benchmarks are run with -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+    }
+
+    private Event createEvent()
+    {
+        DBObject data = new BasicDBObject()
+                .append(RaiseEventsEventProcessor.KEY_LAST_EVENT_TIME, Long.valueOf(System.currentTimeMillis()))
+                .append(RaiseEventsEventProcessor.KEY_OUTPUT_EVENTS_RAISED, Integer.valueOf(12345));
+        Event event = new Event("raiseEvents", System.currentTimeMillis(), data);
+        event.setSessionId("5a1b2c3d4e5f6a7b8c9d0e1f");
+        return event;
+    }
+
+    /**
+     * @return                  the data read back from storage
+     */
+    private Object roundTrip(Event event, EventDataCodecRegistry dataCodecs)
+    {
+        DBObject insertObj = MongoEventService.convertEvent(event, dataCodecs);
+        byte[] bytes = encoder.encode(insertObj);
+        DBObject storedObj = decoder.decode(bytes, (DBCollection) null);
+        return MongoEventService.convertData(storedObj, dataCodecs);
+    }
+
+    /**
+     * @return                  the mean time (ns) for each conversion
+     */
+    private double time(Event event, EventDataCodecRegistry dataCodecs)
+    {
+        for (int i = 0; i < WARMUP; i++)
+        {
+            roundTrip(event, dataCodecs);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            roundTrip(event, dataCodecs);
+        }
+        return (double) (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    @Test
+    public void compareCodecs()
+    {
+        EventDataCodecRegistry noCodecs = new EventDataCodecRegistry();
+        EventDataCodecRegistry codecs = new EventDataCodecRegistry();
+        codecs.register("raiseEvents", RaiseEventsEventProcessor.DATA_CODEC);
+        Event event = createEvent();
+
+        // Both give back the same data
+        assertEquals(event.getData(), roundTrip(event, noCodecs));
+        assertEquals(event.getData(), roundTrip(event, codecs));
+
+        int bytesBefore = encoder.encode(MongoEventService.convertEvent(event, noCodecs)).length;
+        int bytesAfter = encoder.encode(MongoEventService.convertEvent(event, codecs)).length;
+        int dataBytesBefore = encoder.encode((DBObject) event.getData()).length;
+        int dataBytesAfter = RaiseEventsEventProcessor.DATA_CODEC.encode(event.getData()).length;
+        double nsBefore = time(event, noCodecs);
+        double nsAfter = time(event, codecs);
+        logger.info(String.format(
+                "Event data codec benchmark: %d -> %d bytes per event (data %d -> %d bytes); %.0f -> %.0f ns per conversion",
+                bytesBefore, bytesAfter, dataBytesBefore, dataBytesAfter, nsBefore, nsAfter));
+
+        // Timings depend on the machine, so only the size is checked
+        assertTrue("Encoded event is not smaller: " + bytesBefore + " -> " + bytesAfter, bytesAfter < bytesBefore);
+    }
+}
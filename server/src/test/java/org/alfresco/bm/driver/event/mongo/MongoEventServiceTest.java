@@ -31,16 +31,29 @@ import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import org.alfresco.bm.driver.event.Event;
+import org.alfresco.bm.driver.event.EventDataCodecRegistry;
+import org.alfresco.bm.driver.event.EventLaneRegistry;
+import org.alfresco.bm.driver.event.EventService;
+import org.alfresco.bm.driver.event.RaiseEventsEventProcessor;
 import org.alfresco.bm.common.ResultService;
 import org.alfresco.bm.common.util.junit.tools.MongoDBForTestsFactory;
 import org.alfresco.bm.common.mongo.MongoEventService;
+import org.bson.types.ObjectId;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -88,7 +101,7 @@ public class MongoEventServiceTest
         
         // Check indexes (includes implicit '_id_' index)
         List<DBObject> indexes = es.getIndexInfo();
-        assertEquals("Incorrect indexes: " + indexes, 3, indexes.size());
+        assertEquals("Incorrect indexes: " + indexes, 6, indexes.size());
     }
     
     @Test
@@ -164,6 +177,64 @@ public class MongoEventServiceTest
         }
     }
     
+    @Test
+    public void putEventsBulk()
+    {
+        List<Event> events = new ArrayList<Event>(100);
+        for (int i = 0; i < 100; i++)
+        {
+            events.add(createEvent());
+        }
+        List<String> eventIds = eventService.putEvents(events);
+        assertEquals(100, eventIds.size());
+        assertEquals(100, eventService.count());
+        for (int i = 0; i < 100; i++)
+        {
+            Event event = eventService.getEvent(eventIds.get(i));
+            assertNotNull(event);
+            assertEquals(events.get(i).getName(), event.getName());
+        }
+    }
+    
+    @Test
+    public void putEventsPartialFailure()
+    {
+        Event existing = createEvent();
+        existing.setId("12345678901234567890aaaa");
+        eventService.putEvent(existing);
+        
+        // One of the events clashes with the existing event and holds its data in memory
+        Event clash = new Event("clash", System.currentTimeMillis(), this);
+        clash.setId(existing.getId());
+        Event inMem = new Event("inMem", System.currentTimeMillis(), this);
+        List<Event> events = new ArrayList<Event>(3);
+        events.add(createEvent());
+        events.add(clash);
+        events.add(inMem);
+        try
+        {
+            eventService.putEvents(events);
+            fail("Duplicate event ID not detected.");
+        }
+        catch (RuntimeException e)
+        {
+            // Expected
+        }
+        // The other events must have gone in, including the in-memory data
+        assertEquals(3, eventService.count());
+        List<Event> found = eventService.getEvents(0, 3);
+        boolean foundInMem = false;
+        for (Event event : found)
+        {
+            if (event.getName().equals("inMem"))
+            {
+                assertTrue("In-mem data not handled: " + event, this == event.getData());
+                foundInMem = true;
+            }
+        }
+        assertTrue("In-memory event not inserted.", foundInMem);
+    }
+    
     @Test
     public void countEvents()
     {
@@ -171,6 +242,24 @@ public class MongoEventServiceTest
         assertEquals(100, eventService.count());
     }
     
+    @Test
+    public void countEstimate()
+    {
+        eventService.setCountRefreshPeriod(60000L);
+        pumpEvents(10);
+        assertEquals(10L, eventService.countEstimate());
+        // Changes made by this instance are included
+        pumpEvents(5);
+        eventService.deleteEvent(eventService.nextEvent(null, System.currentTimeMillis()));
+        assertEquals(14L, eventService.countEstimate());
+        // Changes made by others are only seen once the collection is counted again
+        MongoEventService otherEventService = new MongoEventService(db, "es");
+        otherEventService.putEvent(createEvent());
+        assertEquals(14L, eventService.countEstimate());
+        assertEquals(15L, eventService.count());
+        assertEquals(15L, eventService.countEstimate());
+    }
+    
     @Test
     public void nextEventAnyDriver()
     {
@@ -196,6 +285,136 @@ public class MongoEventServiceTest
         assertEquals(0, eventService.count());
     }
     
+    @Test
+    public void nextEventsBatch()
+    {
+        pumpEvents(100);
+        long now = System.currentTimeMillis();
+        
+        List<Event> events = eventService.nextEvents(null, now, 40);
+        assertEquals(40, events.size());
+        long lastScheduledTime = 0L;
+        for (Event event : events)
+        {
+            assertNotNull("Lock owner should be supplied. ", event.getLockOwner());
+            assertTrue("Scheduled time must be increasing. ", event.getScheduledTime() >= lastScheduledTime);
+            lastScheduledTime = event.getScheduledTime();
+        }
+        // The leased events cannot be claimed again
+        assertEquals(60, eventService.nextEvents(null, now, 100).size());
+        assertEquals(0, eventService.nextEvents(null, now, 100).size());
+        assertNull(eventService.nextEvent(null, now));
+        assertEquals(100, eventService.count());
+    }
+    
+    @Test
+    public void nextEventsSpecificDriver()
+    {
+        pumpEvents(100);
+        long now = System.currentTimeMillis();
+        
+        List<Event> events = eventService.nextEvents("DRIVER-66", now, 10);
+        assertEquals(1, events.size());
+        assertEquals("DRIVER-66", events.get(0).getDriver());
+        assertEquals(0, eventService.nextEvents("DRIVER-66", now, 10).size());
+    }
+    
+    @Test
+    public synchronized void nextEventsLeaseExpiry() throws Exception
+    {
+        // Another driver leases events and then goes away without renewing them
+        MongoEventService deadEventService = new MongoEventService(db, "es");
+        deadEventService.setLeasePeriod(50L);
+        pumpEvents(10);
+        long now = System.currentTimeMillis();
+        assertEquals(10, deadEventService.nextEvents(null, now, 10).size());
+        assertEquals(0, eventService.nextEvents(null, now, 10).size());
+        
+        // Wait for the leases to expire
+        this.wait(100L);
+        eventService.releaseExpiredLeases();
+        assertEquals(10, eventService.nextEvents(null, now, 10).size());
+    }
+    
+    @Test
+    public void nextEventsRelease()
+    {
+        // Another driver gives back events that it will not process
+        MongoEventService otherEventService = new MongoEventService(db, "es");
+        pumpEvents(10);
+        long now = System.currentTimeMillis();
+        List<Event> events = otherEventService.nextEvents(null, now, 10);
+        assertEquals(10, events.size());
+        // Only the driver holding the events can give them back
+        assertEquals(0, eventService.releaseEvents(events));
+        assertEquals(10, otherEventService.releaseEvents(events));
+        assertEquals(10, eventService.nextEvents(null, now, 10).size());
+        assertEquals(0L, otherEventService.getEventsRequeued());
+    }
+    
+    @Test
+    public synchronized void orphanedEventLockLease() throws Exception
+    {
+        // Another driver locks an event and then goes away
+        MongoEventService deadEventService = new MongoEventService(db, "es");
+        eventService.putEvent(createEvent());
+        long now = System.currentTimeMillis();
+        assertNotNull(deadEventService.nextEvent("DRIVER-DEAD", now));
+        assertNull(eventService.nextEvent(null, now));
+        
+        // The lock has not expired
+        assertEquals(0, eventService.releaseOrphanedEvents(60000L, null, now));
+        // Wait for the lock to expire
+        this.wait(100L);
+        assertEquals(1, eventService.releaseOrphanedEvents(50L, null, now));
+        assertEquals(1L, eventService.getEventsRequeued());
+        assertNotNull(eventService.nextEvent(null, now));
+    }
+    
+    @Test
+    public void orphanedEventDeadDriver()
+    {
+        MongoEventService deadEventService = new MongoEventService(db, "es");
+        eventService.putEvent(createEvent());
+        eventService.putEvent(createEvent());
+        long now = System.currentTimeMillis();
+        assertEquals(2, deadEventService.nextEvents("DRIVER-DEAD", now, 10).size());
+        
+        // The driver is still active
+        Set<String> liveDriverIds = new HashSet<String>(Arrays.asList("DRIVER-LIVE", "DRIVER-DEAD"));
+        assertEquals(0, eventService.releaseOrphanedEvents(60000L, liveDriverIds, System.currentTimeMillis() + 1L));
+        // The driver stops refreshing its registration
+        liveDriverIds.remove("DRIVER-DEAD");
+        assertEquals(2, eventService.releaseOrphanedEvents(60000L, liveDriverIds, System.currentTimeMillis() + 1L));
+        assertEquals(2, eventService.nextEvents("DRIVER-LIVE", now, 10).size());
+    }
+    
+    @Test
+    public void orphanedEventDeadLetter()
+    {
+        eventService.setMaxRecoveries(1);
+        String eventId = eventService.putEvent(createEvent());
+        Set<String> liveDriverIds = Collections.singleton("DRIVER-LIVE");
+        
+        // The first failure puts the event back on the queue
+        long now = System.currentTimeMillis();
+        assertNotNull(eventService.nextEvent("DRIVER-DEAD", now));
+        assertEquals(1, eventService.releaseOrphanedEvents(60000L, liveDriverIds, System.currentTimeMillis() + 1L));
+        assertEquals(1L, eventService.count());
+        // The second failure is one too many
+        now = System.currentTimeMillis();
+        assertNotNull(eventService.nextEvent("DRIVER-DEAD", now));
+        assertEquals(1, eventService.releaseOrphanedEvents(60000L, liveDriverIds, System.currentTimeMillis() + 1L));
+        assertEquals(0L, eventService.count());
+        assertEquals(1L, eventService.countDeadLetters());
+        assertEquals(1L, eventService.getEventsRequeued());
+        assertEquals(1L, eventService.getEventsDeadLettered());
+        
+        DBObject deadObj = db.getCollection("es" + MongoEventService.DEAD_LETTER_SUFFIX).findOne();
+        assertEquals(eventId, deadObj.get(Event.FIELD_ID).toString());
+        assertEquals("driver failed", deadObj.get(MongoEventService.FIELD_DEAD_LETTER_REASON));
+    }
+    
     @Test
     public void nextEventSpecificDriver()
     {
@@ -209,6 +428,227 @@ public class MongoEventServiceTest
         assertNull(event66);
     }
     
+    @Test
+    public void orphanedData() throws Exception
+    {
+        Event event = new Event("t1", 0L, "DATA", true);
+        eventService.putEvent(event);
+        Event orphan = new Event("t2", 0L, "DATA", true);
+        String orphanId = eventService.putEvent(orphan);
+        assertEquals(2, eventService.getLocalData().size());
+        
+        // The event leaves the queue without going through the event service
+        es.remove(new BasicDBObject(Event.FIELD_ID, new ObjectId(orphanId)));
+        Thread.sleep(5L);
+        assertEquals(1, eventService.releaseOrphanedData(0L));
+        assertEquals(1, eventService.getLocalData().size());
+        assertEquals(1L, eventService.getLocalData().getOrphans());
+        assertEquals("DATA", eventService.nextEvent(null, System.currentTimeMillis()).getData());
+    }
+    
+    @Test
+    public void encodedData()
+    {
+        EventDataCodecRegistry dataCodecs = new EventDataCodecRegistry();
+        dataCodecs.register("raiseEvents", RaiseEventsEventProcessor.DATA_CODEC);
+        eventService.setDataCodecs(dataCodecs);
+        DBObject data = new BasicDBObject()
+                .append(RaiseEventsEventProcessor.KEY_LAST_EVENT_TIME, Long.valueOf(12345L))
+                .append(RaiseEventsEventProcessor.KEY_OUTPUT_EVENTS_RAISED, Integer.valueOf(7));
+        String id = eventService.putEvent(new Event("raiseEvents", 0L, data));
+        
+        // Stored in binary form
+        DBObject eventObj = es.findOne(new BasicDBObject(Event.FIELD_ID, new ObjectId(id)));
+        assertTrue(eventObj.get(Event.FIELD_DATA) instanceof byte[]);
+        assertEquals(RaiseEventsEventProcessor.DATA_CODEC.getName(), eventObj.get(Event.FIELD_DATA_CODEC));
+        
+        // Read back as it was put, even by services that only have the built-in codecs
+        assertEquals(data, eventService.getEvent(id).getData());
+        MongoEventService otherEventService = new MongoEventService(db, "es");
+        assertEquals(data, otherEventService.nextEvent(null, System.currentTimeMillis()).getData());
+    }
+    
+    @Test
+    public void lanes()
+    {
+        EventLaneRegistry lanes = new EventLaneRegistry();
+        lanes.register("control", EventLaneRegistry.CONTROL_LANE);
+        eventService.setLanes(lanes);
+        // A backlog of workload events ahead of the control events
+        List<Event> events = new ArrayList<Event>(120);
+        for (int i = 0; i < 100; i++)
+        {
+            events.add(new Event("work", i, null));
+        }
+        for (int i = 0; i < 20; i++)
+        {
+            events.add(new Event("control", 1000L + i, null));
+        }
+        eventService.putEvents(events);
+        assertEquals(20L, es.count(new BasicDBObject(Event.FIELD_LANE, Integer.valueOf(EventLaneRegistry.CONTROL_LANE))));
+        
+        Map<Integer, Long> backlog = eventService.getLaneBacklog(Long.MAX_VALUE);
+        assertEquals(Long.valueOf(20L), backlog.get(Integer.valueOf(EventLaneRegistry.CONTROL_LANE)));
+        assertEquals(Long.valueOf(100L), backlog.get(Integer.valueOf(EventLaneRegistry.DEFAULT_LANE)));
+        
+        // The control lane comes first but shares the claim with the lower lane
+        assertEquals("control", eventService.nextEvent(null, Long.MAX_VALUE).getName());
+        List<Event> claimed = eventService.nextEvents(null, Long.MAX_VALUE, 11);
+        int controlCount = 0;
+        for (Event event : claimed)
+        {
+            controlCount += "control".equals(event.getName()) ? 1 : 0;
+        }
+        assertEquals(11, claimed.size());
+        assertEquals(10, controlCount);
+        backlog = eventService.getLaneBacklog(Long.MAX_VALUE);
+        assertEquals(Long.valueOf(9L), backlog.get(Integer.valueOf(EventLaneRegistry.CONTROL_LANE)));
+        assertEquals(Long.valueOf(99L), backlog.get(Integer.valueOf(EventLaneRegistry.DEFAULT_LANE)));
+    }
+    
+    @Test
+    public void signals() throws Exception
+    {
+        final CountDownLatch signalled = new CountDownLatch(1);
+        MongoEventService otherEventService = new MongoEventService(db, "es");
+        otherEventService.start();
+        try
+        {
+            assertTrue(otherEventService.addQueueListener(new EventService.QueueListener()
+            {
+                @Override
+                public void eventsPut(long earliestScheduledTime)
+                {
+                    if (earliestScheduledTime == 12345L)
+                    {
+                        signalled.countDown();
+                    }
+                }
+            }));
+            assertEquals(Long.MAX_VALUE, otherEventService.getNextScheduledTime());
+            eventService.putEvent(new Event("A", 12345L, null));
+            assertTrue("Put not signalled to the other service.", signalled.await(5L, TimeUnit.SECONDS));
+            assertEquals(12345L, otherEventService.getNextScheduledTime());
+        }
+        finally
+        {
+            otherEventService.stop();
+        }
+    }
+    
+    @Test
+    public void partitioned()
+    {
+        MongoEventService partitionedService = new MongoEventService(db, "esp");
+        partitionedService.setPartitions(4);
+        partitionedService.start();
+        try
+        {
+            DBCollection esp = db.getCollection("esp");
+            assertEquals("Partition index not created.", 7, esp.getIndexInfo().size());
+            
+            long now = System.currentTimeMillis();
+            List<Event> events = new ArrayList<Event>(40);
+            for (int i = 0; i < 40; i++)
+            {
+                Event event = new Event("P", now, "DATA-" + i);
+                event.setSessionId("SESSION-" + i);
+                events.add(event);
+            }
+            Event assigned = new Event("P", now, "DATA-ASSIGNED");
+            assigned.setDriver("DRIVER-A");
+            events.add(assigned);
+            partitionedService.putEvents(events);
+            assertEquals(41L, partitionedService.count());
+            assertEquals(41L, esp.count(new BasicDBObject(Event.FIELD_PARTITION, new BasicDBObject("$exists", Boolean.TRUE))));
+            
+            // Another driver cannot see the assigned event, even when taking events from other partitions
+            List<Event> taken = partitionedService.nextEvents("DRIVER-B", now, 100);
+            Set<String> takenIds = new HashSet<String>();
+            for (Event event : taken)
+            {
+                assertNull("Took another driver's event: " + event, event.getDriver());
+                takenIds.add(event.getId());
+            }
+            while ((taken = partitionedService.nextEvents("DRIVER-B", now, 100)).size() > 0)
+            {
+                for (Event event : taken)
+                {
+                    takenIds.add(event.getId());
+                }
+            }
+            assertEquals("Idle driver did not take events from other partitions.", 40, takenIds.size());
+            
+            // The assigned event is still available to its own driver
+            Event event = partitionedService.nextEvent("DRIVER-A", now);
+            assertNotNull(event);
+            assertEquals("DRIVER-A", event.getDriver());
+            assertNull(partitionedService.nextEvent("DRIVER-A", now));
+        }
+        finally
+        {
+            partitionedService.stop();
+        }
+    }
+    
+    /**
+     * Events in partitions that no driver calls its own are claimed while the drivers' own partitions are busy
+     */
+    @Test
+    public void partitionedMoreThanDrivers()
+    {
+        MongoEventService partitionedService = new MongoEventService(db, "espd");
+        partitionedService.setPartitions(8);
+        partitionedService.start();
+        try
+        {
+            long now = System.currentTimeMillis();
+            List<Event> events = new ArrayList<Event>(16);
+            for (int i = 0; i < 16; i++)
+            {
+                Event event = new Event("P", now - 1000L, "DATA-" + i);
+                event.setSessionId("SESSION-" + i);
+                events.add(event);
+            }
+            partitionedService.putEvents(events);
+            
+            String[] drivers = new String[] {"DRIVER-A", "DRIVER-B"};
+            int sessionEventsTaken = 0;
+            for (int round = 0; round < 40 && sessionEventsTaken < 16; round++)
+            {
+                for (String driver : drivers)
+                {
+                    // Keep the driver's own partition busy with as many events as it claims
+                    for (int i = 0; i < 3; i++)
+                    {
+                        Event assigned = new Event("P", now, "DATA-" + driver);
+                        assigned.setDriver(driver);
+                        partitionedService.putEvent(assigned);
+                    }
+                    List<Event> taken = new ArrayList<Event>(partitionedService.nextEvents(driver, now, 2));
+                    Event single = partitionedService.nextEvent(driver, now);
+                    if (single != null)
+                    {
+                        taken.add(single);
+                    }
+                    for (Event event : taken)
+                    {
+                        if (event.getSessionId() != null)
+                        {
+                            sessionEventsTaken++;
+                        }
+                        partitionedService.deleteEvent(event);
+                    }
+                }
+            }
+            assertEquals("Events in other partitions were left behind.", 16, sessionEventsTaken);
+        }
+        finally
+        {
+            partitionedService.stop();
+        }
+    }
+    
     @Test
     public void nextEventUnassignedEvent()
     {
@@ -31,7 +31,10 @@ import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import org.alfresco.bm.driver.event.Event;
+import org.alfresco.bm.common.EventDetails;
 import org.alfresco.bm.common.EventRecord;
+import org.alfresco.bm.common.EventResultFilter;
+import org.alfresco.bm.common.LatencyStatistics;
 import org.alfresco.bm.common.ResultService;
 import org.alfresco.bm.common.ResultService.ResultHandler;
 import org.alfresco.bm.common.util.junit.tools.MongoDBForTestsFactory;
@@ -43,11 +46,13 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -136,7 +141,7 @@ public class MongoResultServiceTest
                     @Override
                     public boolean processResult(
                             long fromTime, long toTime,
-                            Map<String, DescriptiveStatistics> statsByEventName,
+                            Map<String, LatencyStatistics> statsByEventName,
                             Map<String, Integer> failuresByEventName)
                     {
                         fail("Should not have any results");
@@ -361,6 +366,153 @@ public class MongoResultServiceTest
         assertEquals(100, totalC);
     }
     
+    @Test
+    public void getResultsAfterResult()
+    {
+        pumpRecords(100);
+        Set<String> ids = new HashSet<String>();
+        EventRecord after = null;
+        long lastStartTime = 0L;
+        int limit = 7;
+        while (true)
+        {
+            List<EventRecord> records = resultService.getResultsAfter(0L, Long.MAX_VALUE, false, after, limit);
+            for (EventRecord record : records)
+            {
+                assertTrue("Results out of order", record.getStartTime() >= lastStartTime);
+                assertTrue("Result read twice: " + record, ids.add(record.getId()));
+                lastStartTime = record.getStartTime();
+                after = record;
+            }
+            // Do we keep paging?
+            if (records.size() < limit)
+            {
+                break;
+            }
+        }
+        assertEquals(100, ids.size());
+        // Nothing follows the last result
+        assertEquals(0, resultService.getResultsAfter(0L, Long.MAX_VALUE, false, after, limit).size());
+    }
+    
+    @Test
+    public void getEventDetailsBeforeResult()
+    {
+        pumpRecords(100);
+        Set<String> ids = new HashSet<String>();
+        String beforeId = null;
+        int limit = 7;
+        while (true)
+        {
+            List<EventDetails> details = resultService.getEventDetailsBefore(EventResultFilter.All, null, beforeId, limit);
+            for (EventDetails detail : details)
+            {
+                assertTrue("Event read twice: " + detail, ids.add(detail.getEventId()));
+                beforeId = detail.getEventId();
+            }
+            // Do we keep paging?
+            if (details.size() < limit)
+            {
+                break;
+            }
+        }
+        assertEquals(100, ids.size());
+        // The first page matches the skip-based page
+        List<EventDetails> skipped = resultService.getEventDetails(EventResultFilter.All, null, 0, limit);
+        List<EventDetails> keyed = resultService.getEventDetailsBefore(EventResultFilter.All, null, null, limit);
+        assertEquals(skipped.size(), keyed.size());
+        for (int i = 0; i < skipped.size(); i++)
+        {
+            assertEquals(skipped.get(i).getEventId(), keyed.get(i).getEventId());
+        }
+    }
+    
+    /**
+     * Collects each window reported as text so that windows can be compared
+     */
+    static class WindowCollector implements ResultHandler
+    {
+        final List<String> windows = new ArrayList<String>();
+        
+        @Override
+        public boolean processResult(
+                long fromTime, long toTime,
+                Map<String, LatencyStatistics> statsByEventName,
+                Map<String, Integer> failuresByEventName)
+        {
+            return processResult(fromTime, toTime, statsByEventName, statsByEventName, failuresByEventName);
+        }
+        
+        @Override
+        public boolean processResult(
+                long fromTime, long toTime,
+                Map<String, LatencyStatistics> statsByEventName,
+                Map<String, LatencyStatistics> intendedStatsByEventName,
+                Map<String, Integer> failuresByEventName)
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append(fromTime).append("-").append(toTime);
+            for (String eventName : new TreeMap<String, LatencyStatistics>(statsByEventName).keySet())
+            {
+                LatencyStatistics stats = statsByEventName.get(eventName);
+                LatencyStatistics intendedStats = intendedStatsByEventName.get(eventName);
+                sb.append(String.format(
+                        " %s[n=%d fail=%d mean=%.6f min=%.0f max=%.0f stdDev=%.6f intendedMean=%.6f intendedMax=%.0f intendedStdDev=%.6f]",
+                        eventName, stats.getN(), failuresByEventName.get(eventName),
+                        stats.getMean(), stats.getMin(), stats.getMax(), stats.getStandardDeviation(),
+                        intendedStats.getMean(), intendedStats.getMax(), intendedStats.getStandardDeviation()));
+            }
+            windows.add(sb.toString());
+            return true;
+        }
+    }
+    
+    /**
+     * Statistics worked out by MongoDB must match those worked out from the results
+     */
+    @Test
+    public void getAggregatedResultsUsingHandler()
+    {
+        pumpRecords(500);
+        for (boolean chartOnly : new boolean[] {false, true})
+        {
+            WindowCollector aggregated = new WindowCollector();
+            resultService.setAggregate(true);
+            resultService.getResults(aggregated, 0L, 300L, 100L, chartOnly);
+            
+            WindowCollector processed = new WindowCollector();
+            resultService.setAggregate(false);
+            resultService.getResults(processed, 0L, 300L, 100L, chartOnly);
+            
+            assertTrue(aggregated.windows.size() > 40);
+            assertEquals(processed.windows, aggregated.windows);
+        }
+    }
+    
+    /**
+     * Windows reported across a gap in the results must be the same whether MongoDB works out the statistics or not
+     */
+    @Test
+    public void getAggregatedResultsAcrossGap()
+    {
+        long testStartTime = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++)
+        {
+            // A gap of over a window half way through
+            long eventStartTime = testStartTime + i * 10L + (i < 50 ? 0L : 1250L);
+            resultService.recordResult(createEventRecord(eventStartTime));
+        }
+        WindowCollector aggregated = new WindowCollector();
+        resultService.setAggregate(true);
+        resultService.getResults(aggregated, 0L, 300L, 100L, false);
+        
+        WindowCollector processed = new WindowCollector();
+        resultService.setAggregate(false);
+        resultService.getResults(processed, 0L, 300L, 100L, false);
+        
+        assertEquals(processed.windows, aggregated.windows);
+    }
+    
     /**
      * Create some results but then search for something that does not match
      */
@@ -377,7 +529,7 @@ public class MongoResultServiceTest
                     @Override
                     public boolean processResult(
                             long fromTime, long toTime,
-                            Map<String, DescriptiveStatistics> statsByEventName,
+                            Map<String, LatencyStatistics> statsByEventName,
                             Map<String, Integer> failuresByEventName)
                     {
                         // Check that we have a failure count for each event
@@ -415,7 +567,7 @@ public class MongoResultServiceTest
                     @Override
                     public boolean processResult(
                             long fromTime, long toTime,
-                            Map<String, DescriptiveStatistics> statsByEventName,
+                            Map<String, LatencyStatistics> statsByEventName,
                             Map<String, Integer> failuresByEventName)
                     {
                         if (toTime <= firstEventTime)
@@ -454,7 +606,7 @@ public class MongoResultServiceTest
         pumpRecords(10);
         
         final AtomicInteger count = new AtomicInteger();
-        final Map<String, DescriptiveStatistics> lastStatsByEventName = new HashMap<String, DescriptiveStatistics>(17);
+        final Map<String, LatencyStatistics> lastStatsByEventName = new HashMap<String, LatencyStatistics>(17);
         
         resultService.getResults(
                 new ResultHandler()
@@ -462,7 +614,7 @@ public class MongoResultServiceTest
                     @Override
                     public boolean processResult(
                             long fromTime, long toTime,
-                            Map<String, DescriptiveStatistics> statsByEventName,
+                            Map<String, LatencyStatistics> statsByEventName,
                             Map<String, Integer> failuresByEventName)
                     {
                         // Always keep the last stats
@@ -488,7 +640,7 @@ public class MongoResultServiceTest
             {
                 eventStats.addValue(eventRecord.getTime());
             }
-            DescriptiveStatistics lastEventStats = lastStatsByEventName.get(eventName);
+            LatencyStatistics lastEventStats = lastStatsByEventName.get(eventName);
             assertNotNull("No last report for event '" + eventName  + "'.", lastEventStats);
             // Now check that this matched the last report exactly
             assertEquals(
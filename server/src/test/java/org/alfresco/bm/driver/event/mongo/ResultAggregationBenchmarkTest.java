@@ -0,0 +1,142 @@
+/*
+ * #%L
+ * Alfresco Benchmark Manager
+ * %%
+ * Copyright (C) 2005 - 2018 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.bm.driver.event.mongo;
+
+import com.mongodb.DB;
+import org.alfresco.bm.common.EventRecord;
+import org.alfresco.bm.common.mongo.MongoResultService;
+import org.alfresco.bm.common.util.junit.tools.MongoDBForTestsFactory;
+import org.alfresco.bm.driver.event.Event;
+import org.alfresco.bm.driver.event.mongo.MongoResultServiceTest.WindowCollector;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the time taken to build time series statistics when MongoDB
+ * {@link MongoResultService#setAggregate(boolean) aggregates} the results against reading
+ * every result.
+ * <p/>
+ * The number of results can be raised with the <b>benchmark.results</b> system property.
+ * <p/>
+ * Benchmarks only run when the <b>benchmark</b> system property is <tt>true</tt>.
+ * 
+ * @since 3.0.3
+ */
+@RunWith(JUnit4.class)
+public class ResultAggregationBenchmarkTest
+{
+    private static Log logger = LogFactory.getLog(ResultAggregationBenchmarkTest.class);
+
+    private static final int RESULTS = Integer.getInteger("benchmark.results", 100000);
+    private static final String[] EVENT_NAMES = new String[] {"login", "browse", "search", "upload", "logout"};
+
+    private MongoDBForTestsFactory mongoFactory;
+    private MongoResultService resultService;
+
+    @BeforeClass
+    public static void checkEnabled()
+    {
+        Assume.assumeTrue("Benchmarks are run with -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mongoFactory = new MongoDBForTestsFactory();
+        DB db = mongoFactory.getObject();
+        resultService = new MongoResultService(db, "rs");
+        resultService.start();
+
+        // One result every millisecond
+        Random random = new Random(42L);
+        long startTime = System.currentTimeMillis() - RESULTS;
+        List<EventRecord> results = new ArrayList<EventRecord>(1000);
+        for (int i = 0; i < RESULTS; i++)
+        {
+            Event event = new Event(EVENT_NAMES[random.nextInt(EVENT_NAMES.length)], null);
+            long time = (long) (20.0 * Math.exp(random.nextGaussian()));
+            EventRecord result = new EventRecord("DRIVER", random.nextInt(100) > 0, startTime + i, time, null, event);
+            result.setStartDelay(random.nextInt(10));
+            results.add(result);
+            if (results.size() == 1000)
+            {
+                resultService.recordResults(results);
+                results.clear();
+            }
+        }
+        resultService.recordResults(results);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        resultService.stop();
+        mongoFactory.destroy();
+    }
+
+    /**
+     * @return                  the time (ms) taken to report all windows
+     */
+    private long time(WindowCollector collector, boolean aggregate)
+    {
+        resultService.setAggregate(aggregate);
+        long start = System.nanoTime();
+        resultService.getResults(collector, 0L, 10000L, 1000L, false);
+        return (System.nanoTime() - start) / 1000000L;
+    }
+
+    @Test
+    public void compareTimeSeries()
+    {
+        // Warm up both
+        time(new WindowCollector(), false);
+        time(new WindowCollector(), true);
+
+        WindowCollector processed = new WindowCollector();
+        WindowCollector aggregated = new WindowCollector();
+        long msProcessed = time(processed, false);
+        long msAggregated = time(aggregated, true);
+        logger.info(String.format(
+                "Result aggregation benchmark: %d results in %d windows; %d ms reading results -> %d ms aggregating in MongoDB",
+                RESULTS, aggregated.windows.size(), msProcessed, msAggregated));
+
+        // Timings depend on the machine, so only the results are checked
+        assertEquals(processed.windows, aggregated.windows);
+    }
+}
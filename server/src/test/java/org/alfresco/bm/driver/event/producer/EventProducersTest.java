@@ -26,6 +26,7 @@
 package org.alfresco.bm.driver.event.producer;
 
 import org.alfresco.bm.driver.event.Event;
+import org.alfresco.bm.driver.event.EventWeight;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -34,6 +35,8 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -45,6 +48,7 @@ import static org.junit.Assert.fail;
  * @see EventProducerRegistry
  * @see TerminateEventProducer
  * @see RedirectEventProducer
+ * @see EventProducerRoutes
  * 
  * @author Derek Hulley
  * @since 2.0
@@ -146,4 +150,70 @@ public class EventProducersTest
         assertEquals(50.0, (double) b, 15.0);
         assertEquals(50.0, (double) c, 15.0);
     }
+
+    @Test
+    public void testRoutes()
+    {
+        EventProducerRoutes routes = registry.getRoutes();
+        assertEquals(1, routes.getMaxDepth());
+        // Events without producers are passed through as they are
+        List<Event> events = Collections.singletonList(new Event("b", null));
+        assertTrue(events == routes.expand(events));
+        // Produced events keep their places
+        events = new ArrayList<Event>();
+        events.add(new Event("x", null));
+        events.add(new Event("redirectToC", null));
+        events.add(new Event("terminate", null));
+        events.add(new Event("y", null));
+        List<Event> nextEvents = routes.expand(events);
+        assertEquals(3, nextEvents.size());
+        assertEquals("x", nextEvents.get(0).getName());
+        assertEquals("c", nextEvents.get(1).getName());
+        assertEquals("y", nextEvents.get(2).getName());
+        // Chains are followed and registering recompiles the routes
+        registry.register("redirectToRedirect", new RedirectEventProducer("redirectToB"));
+        routes = registry.getRoutes();
+        assertEquals(2, routes.getMaxDepth());
+        nextEvents = routes.expand(Collections.singletonList(new Event("redirectToRedirect", null)));
+        assertEquals("b", nextEvents.get(0).getName());
+    }
+    
+    @Test
+    public void testRoutesWithCycles()
+    {
+        // Declared cycles are found before any events are produced
+        EventProducerRegistry cyclicRegistry = new EventProducerRegistry();
+        cyclicRegistry.register("x", new RedirectEventProducer("y"));
+        cyclicRegistry.register("y", new RandomRedirectEventProducer(Collections.singletonList(new EventWeight("x", 1.0))));
+        try
+        {
+            cyclicRegistry.start();
+            fail("Cycle not detected.");
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected
+        }
+        // Cycles through producers that do not declare their events are found as they happen
+        EventProducerRegistry undeclaredRegistry = new EventProducerRegistry();
+        undeclaredRegistry.register("x", new RedirectEventProducer("y"));
+        undeclaredRegistry.register("y", new AbstractEventProducer()
+        {
+            @Override
+            public List<Event> getNextEvents(Event event)
+            {
+                return Collections.singletonList(new Event("x", null));
+            }
+        });
+        undeclaredRegistry.start();
+        try
+        {
+            undeclaredRegistry.getRoutes().expand(Collections.singletonList(new Event("x", null)));
+            fail("Cycle not detected.");
+        }
+        catch (IllegalStateException e)
+        {
+            // Expected
+        }
+    }
 }
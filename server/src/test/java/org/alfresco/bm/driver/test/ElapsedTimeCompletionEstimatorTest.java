@@ -77,6 +77,17 @@ public class ElapsedTimeCompletionEstimatorTest
         Mockito.verify(eventService, Mockito.times(1)).count();
     }
     
+    @Test
+    public void testNotStartedWithEvents()
+    {
+        Mockito.when(resultService.getFirstResult()).thenReturn(null);
+        Mockito.when(eventService.countEstimate()).thenReturn(5L);
+        Assert.assertTrue(estimator.getCompletion() <= 0.0);
+        // The queue is obviously not empty, so it is not counted
+        Mockito.verify(eventService, Mockito.times(1)).countEstimate();
+        Mockito.verify(eventService, Mockito.times(0)).count();
+    }
+    
     @Test
     public void testInProgress()
     {
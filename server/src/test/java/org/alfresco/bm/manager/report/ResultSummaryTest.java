@@ -91,4 +91,30 @@ public class ResultSummaryTest
         Assert.assertEquals(2, summary.getStats(false).getN());
         Assert.assertEquals(30.0, summary.getStats(false).getMean(), 0.001);
     }
+
+    @Test
+    public void intendedResults()
+    {
+        ResultSummary summary = new ResultSummary("A");
+        // Without an intended time, the service time is used
+        summary.addSample(true, 20L);
+        // Events that started late are slower when measured from their scheduled time
+        summary.addSample(true, 20L, 100L);
+        summary.addSample(false, 40L, 60L);
+        Assert.assertEquals(2, summary.getIntendedStats(true).getN());
+        Assert.assertEquals(20.0, summary.getStats(true).getMean(), 0.001);
+        Assert.assertEquals(60.0, summary.getIntendedStats(true).getMean(), 0.001);
+        Assert.assertEquals(100.0, summary.getIntendedStats(true).getMax(), 0.001);
+        Assert.assertEquals(1, summary.getIntendedStats(false).getN());
+        Assert.assertEquals(60.0, summary.getIntendedStats(false).getMean(), 0.001);
+        try
+        {
+            summary.addSample(true, 20L, -1L);
+            Assert.fail("Did not detect negative intended time");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
 }